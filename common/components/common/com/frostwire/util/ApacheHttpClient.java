@@ -0,0 +1,585 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.client.protocol.RequestAddCookies;
+import org.apache.http.client.protocol.ResponseProcessCookies;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A HTTP client backed by one shared Apache client, the connections are kept alive
+ * and reused between the instances, with a limit of connections for each host.
+ * The responses are compressed with gzip or deflate if the server supports it.
+ *
+ * It's meant for many small requests, like the searches. The segmented downloads
+ * are done with one connection.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class ApacheHttpClient implements HttpClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApacheHttpClient.class);
+
+    private static final int DEFAULT_TIMEOUT = 10000;
+    private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
+
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    private static final int MAX_TOTAL_CONNECTIONS = 40;
+    private static final long IDLE_CONNECTION_TIMEOUT = 30000;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** Bigger response buffers are not kept by the threads. */
+    private static final int MAX_POOLED_RESPONSE_BUFFER = 1024 * 1024;
+
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    private static final AtomicLong REUSED_CONNECTIONS = new AtomicLong();
+    private static final AtomicLong BYTES_ON_WIRE = new AtomicLong();
+    private static final AtomicLong BYTES_DECODED = new AtomicLong();
+
+    private static final ThreadLocal<byte[]> COPY_BUFFER = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadLocal<ResponseBuffer> RESPONSE_BUFFER = new ThreadLocal<ResponseBuffer>();
+
+    private static final ThreadSafeClientConnManager CONNECTION_MANAGER;
+    private static final DefaultHttpClient CLIENT;
+
+    private static long lastIdleCheck;
+
+    static {
+        CONNECTION_MANAGER = setupConnectionManager();
+        CLIENT = setupHttpClient(CONNECTION_MANAGER);
+    }
+
+    private HttpClientListener listener;
+
+    private volatile boolean canceled;
+    private volatile HttpGet request;
+
+    public String get(String url) {
+        return get(url, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
+    }
+
+    public String get(String url, int timeout) {
+        return get(url, timeout, DEFAULT_USER_AGENT);
+    }
+
+    public String get(String url, int timeout, String userAgent) {
+        return get(url, timeout, userAgent, null);
+    }
+
+    public String get(String url, int timeout, String userAgent, String referrer) {
+        String result = null;
+
+        ResponseBuffer buffer = takeResponseBuffer();
+
+        try {
+            get(url, buffer, timeout, userAgent, referrer, -1);
+
+            result = buffer.toString("UTF-8");
+        } catch (Throwable e) {
+            LOG.warn("Error getting string from http body response: " + e.getMessage());
+        } finally {
+            releaseResponseBuffer(buffer);
+        }
+
+        return result;
+    }
+
+    public byte[] getBytes(String url, int timeout, String userAgent, String referrer) {
+        byte[] result = null;
+
+        ResponseBuffer buffer = takeResponseBuffer();
+
+        try {
+            get(url, buffer, timeout, userAgent, referrer, -1);
+
+            result = buffer.toByteArray();
+        } catch (Throwable e) {
+            LOG.warn("Error getting string from http body response: " + e.getMessage());
+        } finally {
+            releaseResponseBuffer(buffer);
+        }
+
+        return result;
+    }
+
+    public void save(String url, File file, boolean resume) throws IOException {
+        save(url, file, resume, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
+    }
+
+    public void save(String url, File file, boolean resume, int timeout, String userAgent) throws IOException {
+        FileOutputStream fos = null;
+        long rangeStart = -1;
+
+        try {
+            if (resume && file.exists()) {
+                fos = new FileOutputStream(file, true);
+                rangeStart = file.length();
+            } else {
+                fos = new FileOutputStream(file, false);
+            }
+
+            get(url, fos, timeout, userAgent, null, rangeStart);
+        } finally {
+            FWHttpClient.closeQuietly(fos);
+        }
+    }
+
+    public void saveSegmented(String url, File file, boolean resume, int connections) throws IOException {
+        save(url, file, resume);
+    }
+
+    public long getSavedLength(File file) {
+        return file.exists() ? file.length() : 0;
+    }
+
+    /**
+     * The statistics of all the instances.
+     */
+    public static HttpClientStats getStats() {
+        return new HttpClientStats(REQUESTS.get(), REUSED_CONNECTIONS.get(), BYTES_ON_WIRE.get(), BYTES_DECODED.get());
+    }
+
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, long rangeStart) throws IOException {
+        canceled = false;
+        closeIdleConnections();
+
+        HttpGet get;
+        try {
+            get = new HttpGet(url);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid url: " + url);
+        }
+
+        HttpParams params = get.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, timeout);
+        HttpConnectionParams.setSoTimeout(params, timeout);
+        ConnManagerParams.setTimeout(params, timeout); // waiting for a connection to the host
+        HttpProtocolParams.setUserAgent(params, userAgent);
+
+        if (referrer != null) {
+            get.addHeader("Referer", referrer);
+        }
+
+        if (rangeStart > 0) {
+            get.addHeader("Range", FWHttpClient.buildRange(rangeStart, -1));
+        }
+
+        request = get;
+
+        HttpResponse response = CLIENT.execute(get);
+
+        int httpResponseCode = response.getStatusLine().getStatusCode();
+
+        if (httpResponseCode != HttpStatus.SC_OK && httpResponseCode != HttpStatus.SC_PARTIAL_CONTENT) {
+            get.abort();
+            throw new ResponseCodeNotSupportedException(httpResponseCode);
+        }
+
+        onHeaders(response);
+
+        if (rangeStart > 0 && httpResponseCode != HttpStatus.SC_PARTIAL_CONTENT) {
+            get.abort();
+            RangeNotSupportedException rangeNotSupportedException = new RangeNotSupportedException("Server does not support bytes range request");
+            onError(rangeNotSupportedException);
+            throw rangeNotSupportedException;
+        }
+
+        HttpEntity entity = response.getEntity();
+        InputStream in = null;
+
+        try {
+            if (entity != null) {
+                in = entity.getContent();
+
+                byte[] b = COPY_BUFFER.get();
+                int n = 0;
+                while (!canceled && (n = in.read(b, 0, b.length)) != -1) {
+                    if (!canceled) {
+                        out.write(b, 0, n);
+                        BYTES_DECODED.addAndGet(n);
+                        onData(b, 0, n);
+                    }
+                }
+            }
+
+            if (canceled) {
+                get.abort();
+                onCancel();
+            } else {
+                onComplete();
+            }
+        } catch (Exception e) {
+            get.abort();
+            onError(e);
+        } finally {
+            // a fully read response gives back the connection to the pool
+            FWHttpClient.closeQuietly(in);
+            request = null;
+        }
+    }
+
+    private void onHeaders(HttpResponse response) {
+        if (getListener() != null) {
+            try {
+                Map<String, List<String>> fields = new LinkedHashMap<String, List<String>>();
+
+                List<String> status = new ArrayList<String>(1);
+                status.add(response.getStatusLine().toString());
+                fields.put(null, status);
+
+                for (Header header : response.getAllHeaders()) {
+                    List<String> values = fields.get(header.getName());
+                    if (values == null) {
+                        values = new ArrayList<String>(1);
+                        fields.put(header.getName(), values);
+                    }
+                    values.add(header.getValue());
+                }
+
+                getListener().onHeaders(this, fields);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onCancel() {
+        if (getListener() != null) {
+            try {
+                getListener().onCancel(this);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onData(byte[] b, int i, int n) {
+        if (getListener() != null) {
+            try {
+                getListener().onData(this, b, i, n);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void onError(Exception e) {
+        if (getListener() != null) {
+            try {
+                getListener().onError(this, e);
+            } catch (Exception e2) {
+                LOG.warn(e2.getMessage(), e2);
+            }
+        }
+    }
+
+    private void onComplete() {
+        if (getListener() != null) {
+            try {
+                getListener().onComplete(this);
+            } catch (Exception e) {
+                LOG.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void setListener(HttpClientListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public HttpClientListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+        HttpGet get = request;
+        if (get != null) {
+            get.abort();
+        }
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    private static ResponseBuffer takeResponseBuffer() {
+        ResponseBuffer buffer = RESPONSE_BUFFER.get();
+        if (buffer != null) {
+            RESPONSE_BUFFER.set(null); // in case of a listener calling us again
+            buffer.reset();
+        } else {
+            buffer = new ResponseBuffer();
+        }
+        return buffer;
+    }
+
+    private static void releaseResponseBuffer(ResponseBuffer buffer) {
+        if (buffer.capacity() <= MAX_POOLED_RESPONSE_BUFFER) {
+            RESPONSE_BUFFER.set(buffer);
+        }
+    }
+
+    private static void closeIdleConnections() {
+        long now = System.currentTimeMillis();
+        synchronized (CONNECTION_MANAGER) {
+            if (now - lastIdleCheck < IDLE_CONNECTION_TIMEOUT) {
+                return;
+            }
+            lastIdleCheck = now;
+        }
+
+        CONNECTION_MANAGER.closeExpiredConnections();
+        CONNECTION_MANAGER.closeIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadSafeClientConnManager setupConnectionManager() {
+        SSLSocketFactory.getSocketFactory().setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        BasicHttpParams params = new BasicHttpParams();
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+
+        return new ThreadSafeClientConnManager(params, schemeRegistry);
+    }
+
+    private static DefaultHttpClient setupHttpClient(ThreadSafeClientConnManager cm) {
+        BasicHttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpClientParams.setRedirecting(params, true);
+        HttpProtocolParams.setUseExpectContinue(params, false);
+
+        DefaultHttpClient httpClient = new DefaultHttpClient(cm, params);
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+
+        // like URLConnection, the cookies of one search don't go to the next
+        httpClient.removeRequestInterceptorByClass(RequestAddCookies.class);
+        httpClient.removeResponseInterceptorByClass(ResponseProcessCookies.class);
+
+        httpClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            private final ConnectionKeepAliveStrategy strategy = new DefaultConnectionKeepAliveStrategy();
+
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = strategy.getKeepAliveDuration(response, context);
+                return duration > 0 ? Math.min(duration, IDLE_CONNECTION_TIMEOUT) : IDLE_CONNECTION_TIMEOUT;
+            }
+        });
+
+        httpClient.addRequestInterceptor(new HttpRequestInterceptor() {
+            public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+                if (!request.containsHeader("Accept-Encoding")) {
+                    request.addHeader("Accept-Encoding", "gzip, deflate");
+                }
+            }
+        });
+
+        httpClient.addResponseInterceptor(new HttpResponseInterceptor() {
+            public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+                REQUESTS.incrementAndGet();
+
+                HttpConnection conn = (HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+                if (conn != null && conn.getMetrics().getRequestCount() > 1) {
+                    REUSED_CONNECTIONS.incrementAndGet();
+                }
+
+                HttpEntity entity = response.getEntity();
+                if (entity == null) {
+                    return;
+                }
+
+                Header ceheader = entity.getContentEncoding();
+                response.setEntity(new DecodingEntity(entity, ceheader != null ? ceheader.getElements() : null));
+            }
+        });
+
+        return httpClient;
+    }
+
+    /**
+     * Counts the bytes on the wire and decompresses the content while it's read.
+     * The content length is still the one on the wire, the connection reuse
+     * strategy needs it.
+     */
+    private static final class DecodingEntity extends HttpEntityWrapper {
+
+        private final HeaderElement[] codecs;
+
+        public DecodingEntity(HttpEntity entity, HeaderElement[] codecs) {
+            super(entity);
+            this.codecs = codecs;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            InputStream in = new CountingInputStream(wrappedEntity.getContent());
+
+            if (codecs != null) {
+                for (HeaderElement codec : codecs) {
+                    String name = codec.getName();
+                    if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                        return new GZIPInputStream(in, BUFFER_SIZE);
+                    }
+                    if (name.equalsIgnoreCase("deflate")) {
+                        return inflate(in);
+                    }
+                }
+            }
+
+            return in;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return codecs != null ? null : wrappedEntity.getContentEncoding();
+        }
+
+        /**
+         * Some servers send the deflate content without the zlib header.
+         */
+        private static InputStream inflate(InputStream in) throws IOException {
+            PushbackInputStream pin = new PushbackInputStream(in, 2);
+            int b0 = pin.read();
+            int b1 = pin.read();
+            if (b1 != -1) {
+                pin.unread(b1);
+            }
+            if (b0 != -1) {
+                pin.unread(b0);
+            }
+
+            boolean zlib = b0 != -1 && b1 != -1 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+
+            final Inflater inflater = new Inflater(!zlib);
+
+            return new InflaterInputStream(pin, inflater, BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                BYTES_ON_WIRE.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                BYTES_ON_WIRE.addAndGet(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * A reusable response buffer, the string is decoded from the buffer without a copy.
+     */
+    private static final class ResponseBuffer extends ByteArrayOutputStream {
+
+        public ResponseBuffer() {
+            super(BUFFER_SIZE);
+        }
+
+        public int capacity() {
+            return buf.length;
+        }
+    }
+}
@@ -51,7 +51,7 @@ final class FWHttpClient implements HttpClient {
     private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
     private HttpClientListener listener;
 
-    private boolean canceled;
+    private volatile boolean canceled;
 
     public String get(String url) {
         return get(url, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT);
@@ -113,12 +113,12 @@ final class FWHttpClient implements HttpClient {
 
     public void save(String url, File file, boolean resume, int timeout, String userAgent, String referrer) throws IOException {
         FileOutputStream fos = null;
-        int rangeStart = 0;
+        long rangeStart = 0;
 
         try {
             if (resume && file.exists()) {
                 fos = new FileOutputStream(file, true);
-                rangeStart = (int) file.length();
+                rangeStart = file.length();
             } else {
                 fos = new FileOutputStream(file, false);
                 rangeStart = -1;
@@ -130,31 +130,27 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private String buildRange(int rangeStart, int rangeLength) {
+    public void saveSegmented(String url, File file, boolean resume, int connections) throws IOException {
+        canceled = false;
+        new SegmentedHttpDownload(this, url, file, DEFAULT_TIMEOUT, DEFAULT_USER_AGENT, null, connections).run(resume);
+    }
+
+    public long getSavedLength(File file) {
+        return SegmentedHttpDownload.getSavedLength(file);
+    }
+
+    static String buildRange(long rangeStart, long rangeLength) {
         String prefix = "bytes=" + rangeStart + "-";
         return prefix + ((rangeLength > -1) ? (rangeStart + rangeLength) : "");
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, int rangeStart) throws IOException {
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, long rangeStart) throws IOException {
         get(url, out, timeout, userAgent, referrer, rangeStart, -1);
     }
 
-    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, int rangeStart, int rangeLength) throws IOException {
+    private void get(String url, OutputStream out, int timeout, String userAgent, String referrer, long rangeStart, long rangeLength) throws IOException {
         canceled = false;
-        URL u = new URL(url);
-        URLConnection conn = u.openConnection();
-
-        conn.setConnectTimeout(timeout);
-        conn.setReadTimeout(timeout);
-        conn.setRequestProperty("User-Agent", userAgent);
-
-        if (referrer != null) {
-            conn.setRequestProperty("Referer", referrer);
-        }
-
-        if (conn instanceof HttpsURLConnection) {
-            setHostnameVerifier((HttpsURLConnection) conn);
-        }
+        URLConnection conn = openConnection(url, timeout, userAgent, referrer);
 
         if (rangeStart > 0) {
             conn.setRequestProperty("Range", buildRange(rangeStart, rangeLength));
@@ -197,6 +193,25 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
+    URLConnection openConnection(String url, int timeout, String userAgent, String referrer) throws IOException {
+        URL u = new URL(url);
+        URLConnection conn = u.openConnection();
+
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setRequestProperty("User-Agent", userAgent);
+
+        if (referrer != null) {
+            conn.setRequestProperty("Referer", referrer);
+        }
+
+        if (conn instanceof HttpsURLConnection) {
+            setHostnameVerifier((HttpsURLConnection) conn);
+        }
+
+        return conn;
+    }
+
     private void setHostnameVerifier(HttpsURLConnection conn) {
         conn.setHostnameVerifier(new HostnameVerifier() {
             @Override
@@ -214,7 +229,7 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private void checkRangeSupport(int rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
+    private void checkRangeSupport(long rangeStart, URLConnection conn) throws HttpRangeOutOfBoundsException, RangeNotSupportedException {
 
         boolean hasContentRange = conn.getHeaderField("Content-Range") != null;
         boolean hasAcceptRanges = conn.getHeaderField("Accept-Ranges") != null && conn.getHeaderField("Accept-Ranges").equals("bytes");
@@ -226,7 +241,7 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private void onHeaders(Map<String, List<String>> headerFields) {
+    void onHeaders(Map<String, List<String>> headerFields) {
         if (getListener() != null) {
             try {
                 getListener().onHeaders(this, headerFields);
@@ -236,7 +251,7 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private void onCancel() {
+    void onCancel() {
         if (getListener() != null) {
             try {
                 getListener().onCancel(this);
@@ -246,7 +261,7 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private void onData(byte[] b, int i, int n) {
+    void onData(byte[] b, int i, int n) {
         if (getListener() != null) {
             try {
                 getListener().onData(this, b, 0, n);
@@ -276,7 +291,7 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private static void closeQuietly(Closeable closeable) {
+    static void closeQuietly(Closeable closeable) {
         try {
             if (closeable != null) {
                 closeable.close();
@@ -286,7 +301,7 @@ final class FWHttpClient implements HttpClient {
         }
     }
 
-    private void closeQuietly(URLConnection conn) {
+    static void closeQuietly(URLConnection conn) {
         if (conn instanceof HttpURLConnection) {
             try {
                 ((HttpURLConnection) conn).disconnect();
@@ -48,6 +48,19 @@ public interface HttpClient {
 
     public void save(String url, File file, boolean resume, int timeout, String userAgent) throws IOException;
 
+    /**
+     * Saves the url with a number of parallel range requests, if the server
+     * supports them. The listener can get data from several threads, one at a time.
+     * 
+     * @param connections the maximum number of parallel requests
+     */
+    public void saveSegmented(String url, File file, boolean resume, int connections) throws IOException;
+
+    /**
+     * The bytes of a partial download of the file that a resume keeps.
+     */
+    public long getSavedLength(File file);
+
     public void cancel();
 
     public boolean isCanceled();
@@ -86,7 +99,7 @@ public interface HttpClient {
 
         private static final long serialVersionUID = -335661829606230147L;
 
-        public HttpRangeOutOfBoundsException(int rangeStart, long expectedFileSize) {
+        public HttpRangeOutOfBoundsException(long rangeStart, long expectedFileSize) {
             super("HttpRange Out of Bounds error: start=" + rangeStart + " expected file size=" + expectedFileSize);
         }
 
@@ -31,7 +31,7 @@ public class HttpClientFactory {
     public static HttpClient newInstance(HttpClientType type) {
         switch (type) {
         case Apache:
-            throw new UnsupportedOperationException();
+            return new ApacheHttpClient();
         case PureJava:
             return new FWHttpClient();
         default:
@@ -42,4 +42,11 @@ public class HttpClientFactory {
     public static HttpClient newDefaultInstance() {
         return newInstance(HttpClientType.PureJava);
     }
+
+    /**
+     * The statistics of the connections shared by the {@link HttpClientType#Apache} clients.
+     */
+    public static HttpClientStats getStats() {
+        return ApacheHttpClient.getStats();
+    }
 }
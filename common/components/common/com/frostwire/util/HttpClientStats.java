@@ -0,0 +1,70 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+/**
+ * A snapshot of the counters of the pooled http connections.
+ * 
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class HttpClientStats {
+
+    private final long requests;
+    private final long reusedConnections;
+    private final long bytesOnWire;
+    private final long bytesDecoded;
+
+    HttpClientStats(long requests, long reusedConnections, long bytesOnWire, long bytesDecoded) {
+        this.requests = requests;
+        this.reusedConnections = reusedConnections;
+        this.bytesOnWire = bytesOnWire;
+        this.bytesDecoded = bytesDecoded;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * The requests sent through a kept alive connection.
+     */
+    public long getReusedConnections() {
+        return reusedConnections;
+    }
+
+    /**
+     * The bytes of the response bodies as received, compressed or not.
+     */
+    public long getBytesOnWire() {
+        return bytesOnWire;
+    }
+
+    /**
+     * The bytes of the response bodies after the decompression.
+     */
+    public long getBytesDecoded() {
+        return bytesDecoded;
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + requests + ", reused=" + reusedConnections + ", onWire=" + bytesOnWire + ", decoded=" + bytesDecoded;
+    }
+}
@@ -50,6 +50,17 @@ public final class JsonUtils {
         return gson.toJson(obj);
     }
 
+    /**
+     * Same as toJson(Object), but the Json representation is written to the
+     * writer instead of building a String.
+     * 
+     * @param obj the object for which Json representation is to be created
+     * @param writer where the Json representation is written
+     */
+    public static void toJson(Object obj, Appendable writer) {
+        gson.toJson(obj, writer);
+    }
+
     /**
      * This method deserializes the specified Json into an object of the specified class.
      * 
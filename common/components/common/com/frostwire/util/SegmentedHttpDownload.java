@@ -0,0 +1,630 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.frostwire.util.HttpClient.RangeNotSupportedException;
+import com.frostwire.util.HttpClient.ResponseCodeNotSupportedException;
+
+/**
+ * Downloads a file with parallel range requests, each segment written in place
+ * to a preallocated file. When a connection finishes its segment it takes part
+ * of the segment that would finish last, split in proportion to the speeds of
+ * both connections, so a slow connection doesn't hold the end of the download.
+ *
+ * The remaining segments are saved next to the file, a resume continues all of them.
+ * The file is only preallocated once they are saved, otherwise it's downloaded in
+ * order with one connection, as when the server doesn't support ranges.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SegmentedHttpDownload {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedHttpDownload.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The smallest segment a split creates. */
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+
+    /** The time a connection needs to measure its speed. */
+    private static final long MIN_SPEED_INTERVAL = 1000;
+
+    private static final int MAX_RETRIES = 3;
+
+    private static final long SAVE_SEGMENTS_INTERVAL = 1000;
+
+    private static final int SEGMENTS_FILE_VERSION = 1;
+
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final FWHttpClient client;
+    private final String url;
+    private final File file;
+    private final File segmentsFile;
+    private final int timeout;
+    private final String userAgent;
+    private final String referrer;
+    private final int connections;
+
+    private final List<Segment> segments;
+    private final Object dataLock;
+
+    private FileChannel channel;
+    private long length;
+    private boolean rangesSupported;
+    private int running;
+    private Exception error;
+
+    public SegmentedHttpDownload(FWHttpClient client, String url, File file, int timeout, String userAgent, String referrer, int connections) {
+        this.client = client;
+        this.url = url;
+        this.file = file;
+        this.segmentsFile = getSegmentsFile(file);
+        this.timeout = timeout;
+        this.userAgent = userAgent;
+        this.referrer = referrer;
+        this.connections = Math.max(1, connections);
+
+        this.segments = new ArrayList<Segment>();
+        this.dataLock = new Object();
+    }
+
+    /**
+     * Returns the bytes of the file already downloaded, the whole file
+     * if it's not a segmented download.
+     */
+    public static long getSavedLength(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+
+        long length = file.length();
+
+        List<Segment> saved = readSegments(getSegmentsFile(file), length);
+        if (saved != null) {
+            for (Segment s : saved) {
+                length -= s.end - s.pos;
+            }
+        }
+
+        return length;
+    }
+
+    public void run(boolean resume) throws IOException {
+        List<Segment> saved = null;
+        long start = 0;
+
+        if (resume && file.exists()) {
+            saved = readSegments(segmentsFile, file.length());
+            start = saved != null ? saved.get(0).pos : file.length();
+        } else {
+            segmentsFile.delete();
+        }
+
+        HttpURLConnection conn = openRange(start, saved != null ? saved.get(0).end : -1);
+
+        int code = getResponseCode(conn);
+        if (code == HTTP_RANGE_NOT_SATISFIABLE && start == 0) {
+            // no range can be satisfied from the first byte, it's an empty file
+            client.onHeaders(conn.getHeaderFields());
+            FWHttpClient.closeQuietly(conn);
+            saveEmpty();
+            return;
+        }
+        if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+            FWHttpClient.closeQuietly(conn);
+            throw new ResponseCodeNotSupportedException(code);
+        }
+
+        length = code == HttpURLConnection.HTTP_PARTIAL ? getContentRangeLength(conn) : -1;
+
+        if (length == -1 && start > 0) {
+            FWHttpClient.closeQuietly(conn);
+            throw new RangeNotSupportedException("Server does not support bytes range request");
+        }
+
+        if (saved != null && length != file.length()) {
+            // the file changed in the server
+            FWHttpClient.closeQuietly(conn);
+            LOG.info("Remote file changed, restarting download: " + url);
+            run(false);
+            return;
+        }
+
+        client.onHeaders(conn.getHeaderFields());
+
+        rangesSupported = length != -1;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            channel = raf.getChannel();
+
+            boolean segmented = false;
+
+            if (rangesSupported) {
+                if (saved != null) {
+                    segments.addAll(saved);
+                } else {
+                    segments.add(new Segment(start, length));
+                }
+                // a preallocated file without the segments would look complete to a resume
+                segmented = saved != null || saveSegments();
+                if (segmented) {
+                    if (raf.length() != length) {
+                        raf.setLength(length);
+                    }
+                    if (segments.size() == 1) {
+                        splitEvenly(segments.get(0));
+                    }
+                }
+            } else {
+                raf.setLength(0);
+                segments.add(new Segment(0, Long.MAX_VALUE));
+            }
+
+            segments.get(0).owned = true; // the first connection downloads it
+
+            startWorkers(conn, segmented ? connections : 1);
+            waitWorkers();
+        } finally {
+            FWHttpClient.closeQuietly(raf);
+        }
+
+        if (error != null) {
+            saveSegments();
+            client.onError(error);
+        } else if (client.isCanceled()) {
+            saveSegments();
+            client.onCancel();
+        } else {
+            segmentsFile.delete();
+            client.onComplete();
+        }
+    }
+
+    private void saveEmpty() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+        } finally {
+            FWHttpClient.closeQuietly(raf);
+        }
+        segmentsFile.delete();
+        client.onComplete();
+    }
+
+    private void splitEvenly(Segment s) {
+        long size = (s.end - s.pos) / connections;
+        if (size < MIN_SEGMENT_SIZE) {
+            return;
+        }
+
+        long end = s.end;
+        s.end = s.pos + size;
+        for (int i = 1; i < connections; i++) {
+            long pos = s.pos + size * i;
+            segments.add(new Segment(pos, i == connections - 1 ? end : pos + size));
+        }
+    }
+
+    private void startWorkers(HttpURLConnection conn, int n) {
+        synchronized (this) {
+            running = n;
+        }
+
+        for (int i = 0; i < n; i++) {
+            final HttpURLConnection first = i == 0 ? conn : null;
+            Thread t = new Thread("SegmentedHttpDownload-" + i) {
+                public void run() {
+                    try {
+                        work(first);
+                    } finally {
+                        synchronized (SegmentedHttpDownload.this) {
+                            running--;
+                            SegmentedHttpDownload.this.notifyAll();
+                        }
+                    }
+                }
+            };
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Saves the segments periodically until the workers finish, if the download
+     * is canceled it also disconnects them, they could be blocked in a read.
+     */
+    private void waitWorkers() {
+        boolean disconnected = false;
+
+        while (true) {
+            synchronized (this) {
+                if (running == 0) {
+                    return;
+                }
+                try {
+                    wait(SAVE_SEGMENTS_INTERVAL);
+                } catch (InterruptedException e) {
+                    client.cancel();
+                }
+                if (running == 0) {
+                    return;
+                }
+                if (!disconnected && (client.isCanceled() || error != null)) {
+                    for (Segment s : segments) {
+                        FWHttpClient.closeQuietly(s.connection);
+                    }
+                    disconnected = true;
+                }
+            }
+
+            saveSegments();
+        }
+    }
+
+    private void work(HttpURLConnection conn) {
+        Segment s;
+        synchronized (this) {
+            s = conn != null ? segments.get(0) : nextSegment(0);
+        }
+
+        while (s != null && !isStopped()) {
+            try {
+                download(s, conn);
+                s = nextSegment(s.getSpeed(System.currentTimeMillis()));
+            } catch (IOException e) {
+                if (isStopped()) {
+                    return;
+                }
+                if (!rangesSupported || ++s.retries > MAX_RETRIES) {
+                    fail(e);
+                    return;
+                }
+                LOG.info("Retrying segment " + s.pos + "-" + s.end + " of " + url + ": " + e.getMessage());
+            } finally {
+                conn = null;
+            }
+        }
+    }
+
+    private void download(Segment s, HttpURLConnection conn) throws IOException {
+        if (conn == null) {
+            conn = openRange(s.pos, s.end);
+            if (getResponseCode(conn) != HttpURLConnection.HTTP_PARTIAL || getContentRangeStart(conn) != s.pos) {
+                FWHttpClient.closeQuietly(conn);
+                throw new IOException("Invalid range response");
+            }
+        }
+
+        synchronized (this) {
+            s.connection = conn;
+            s.started = System.currentTimeMillis();
+            s.received = 0;
+        }
+
+        InputStream in = null;
+
+        try {
+            in = conn.getInputStream();
+
+            byte[] b = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+
+            while (!isStopped()) {
+                int max;
+                synchronized (this) {
+                    long remaining = s.end - s.pos;
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    max = (int) Math.min(b.length, remaining);
+                }
+
+                int n = in.read(b, 0, max);
+                if (n == -1) {
+                    if (rangesSupported) {
+                        throw new EOFException("Connection closed before the end of the segment");
+                    }
+                    break;
+                }
+
+                // only this thread moves the position of the segment,
+                // a split always leaves the bytes of the current read
+                long position = s.pos;
+                buffer.clear();
+                buffer.limit(n);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+
+                synchronized (this) {
+                    s.pos += n;
+                    s.received += n;
+                }
+
+                synchronized (dataLock) {
+                    client.onData(b, 0, n);
+                }
+            }
+        } finally {
+            FWHttpClient.closeQuietly(in);
+            FWHttpClient.closeQuietly(conn);
+            synchronized (this) {
+                s.connection = null;
+            }
+        }
+    }
+
+    /**
+     * Returns a segment nobody is downloading, or splits the segment that
+     * would finish last at the current speed. The split is proportional to
+     * the speeds of both connections, so they finish at the same time.
+     * 
+     * @param speed the speed of the connection in bytes/ms, 0 if unknown
+     */
+    private synchronized Segment nextSegment(double speed) {
+        if (!rangesSupported || isStopped()) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+
+        Segment slowest = null;
+        double slowestTime = 0;
+        double totalSpeed = 0;
+        int measured = 0;
+
+        for (Segment s : segments) {
+            long remaining = s.end - s.pos;
+            if (!s.owned && remaining > 0) {
+                s.owned = true;
+                return s;
+            }
+
+            if (s.connection != null && now - s.started >= MIN_SPEED_INTERVAL) {
+                totalSpeed += s.getSpeed(now);
+                measured++;
+            }
+
+            if (s.owned && remaining >= MIN_SEGMENT_SIZE + BUFFER_SIZE) {
+                double time = remaining / s.getSpeed(now);
+                if (slowest == null || time > slowestTime) {
+                    slowest = s;
+                    slowestTime = time;
+                }
+            }
+        }
+
+        if (slowest == null) {
+            return null;
+        }
+
+        if (speed <= 0) {
+            speed = measured > 0 ? totalSpeed / measured : 1;
+        }
+
+        long remaining = slowest.end - slowest.pos;
+
+        // a connection without enough history is split in halves
+        double slowestSpeed = now - slowest.started >= MIN_SPEED_INTERVAL ? slowest.getSpeed(now) : speed;
+        long keep = (long) (remaining * (slowestSpeed / (slowestSpeed + speed)));
+        keep = Math.min(Math.max(keep, BUFFER_SIZE), remaining - MIN_SEGMENT_SIZE);
+
+        long middle = slowest.pos + keep;
+        Segment s = new Segment(middle, slowest.end);
+        slowest.end = middle;
+        s.owned = true;
+        segments.add(s);
+
+        return s;
+    }
+
+    private synchronized boolean isStopped() {
+        return error != null || client.isCanceled();
+    }
+
+    private synchronized void fail(Exception e) {
+        if (error == null) {
+            error = e;
+        }
+        notifyAll();
+    }
+
+    private HttpURLConnection openRange(long start, long end) throws IOException {
+        URLConnection conn = client.openConnection(url, timeout, userAgent, referrer);
+        if (!(conn instanceof HttpURLConnection)) {
+            throw new IOException("Not an http url: " + url);
+        }
+
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + (end != -1 ? String.valueOf(end - 1) : ""));
+
+        return (HttpURLConnection) conn;
+    }
+
+    private static int getResponseCode(HttpURLConnection conn) {
+        try {
+            return conn.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Content-Range: bytes start-end/length
+     */
+    private static long getContentRangeStart(URLConnection conn) {
+        try {
+            String range = conn.getHeaderField("Content-Range");
+            return Long.parseLong(range.substring(range.indexOf(' ') + 1, range.indexOf('-')).trim());
+        } catch (Throwable e) {
+            return -1;
+        }
+    }
+
+    private static long getContentRangeLength(URLConnection conn) {
+        try {
+            String range = conn.getHeaderField("Content-Range");
+            return Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+        } catch (Throwable e) {
+            return -1;
+        }
+    }
+
+    private static File getSegmentsFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".segments");
+    }
+
+    /**
+     * @return false if the segments couldn't be saved
+     */
+    private boolean saveSegments() {
+        if (!rangesSupported) {
+            return false;
+        }
+
+        List<Segment> remaining = new ArrayList<Segment>();
+        synchronized (this) {
+            for (Segment s : segments) {
+                if (s.pos < s.end) {
+                    remaining.add(new Segment(s.pos, s.end));
+                }
+            }
+        }
+        Collections.sort(remaining, new Comparator<Segment>() {
+            public int compare(Segment s1, Segment s2) {
+                return s1.pos < s2.pos ? -1 : (s1.pos == s2.pos ? 0 : 1);
+            }
+        });
+
+        File temp = new File(segmentsFile.getParentFile(), segmentsFile.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(temp));
+            out.writeInt(SEGMENTS_FILE_VERSION);
+            out.writeLong(length);
+            out.writeInt(remaining.size());
+            for (Segment s : remaining) {
+                out.writeLong(s.pos);
+                out.writeLong(s.end);
+            }
+            out.close();
+            out = null;
+
+            segmentsFile.delete();
+            if (!temp.renameTo(segmentsFile)) {
+                LOG.warn("Unable to save download segments: " + segmentsFile);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Unable to save download segments: " + segmentsFile, e);
+            return false;
+        } finally {
+            FWHttpClient.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Returns the saved segments, sorted by position, or null if they don't
+     * belong to a file of the given length.
+     */
+    private static List<Segment> readSegments(File segmentsFile, long length) {
+        if (!segmentsFile.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(segmentsFile));
+            if (in.readInt() != SEGMENTS_FILE_VERSION || in.readLong() != length) {
+                return null;
+            }
+
+            int n = in.readInt();
+            List<Segment> list = new ArrayList<Segment>(n);
+            long last = 0;
+            for (int i = 0; i < n; i++) {
+                Segment s = new Segment(in.readLong(), in.readLong());
+                if (s.pos < last || s.pos > s.end || s.end > length) {
+                    return null;
+                }
+                list.add(s);
+                last = s.end;
+            }
+
+            return list.isEmpty() ? null : list;
+        } catch (IOException e) {
+            LOG.warn("Unable to read download segments: " + segmentsFile, e);
+            return null;
+        } finally {
+            FWHttpClient.closeQuietly(in);
+        }
+    }
+
+    private static final class Segment {
+
+        /** The next byte to download. */
+        public long pos;
+
+        /** The end of the segment, exclusive. */
+        public long end;
+
+        public boolean owned;
+        public int retries;
+
+        public HttpURLConnection connection;
+        public long started;
+        public long received;
+
+        public Segment(long pos, long end) {
+            this.pos = pos;
+            this.end = end;
+        }
+
+        /**
+         * The speed of the current connection in bytes/ms.
+         */
+        public double getSpeed(long now) {
+            return (received + 1) / (double) (now - started + 1);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.HttpClientListener;
+import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.HttpClientType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Downloads a random file from a local http server that throttles every
+ * connection, with one connection and with segments. Checks the split when
+ * some connections are slower, a cancel and resume, the resume of a partial
+ * file without segments, a server without ranges and an empty file.
+ *
+ * Usage: SegmentedHttpDownloadTester [size in MB] [KB/s per connection]
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SegmentedHttpDownloadTester {
+
+    private static byte[] data;
+
+    private static volatile int rate; // bytes/s of every connection
+    private static volatile boolean ranges = true;
+    private static volatile int slowEvery; // every nth connection is 10 times slower, 0 for none
+
+    private static final AtomicInteger exchanges = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 16) * 1024 * 1024;
+        rate = (args.length > 1 ? Integer.parseInt(args[1]) : 1024) * 1024;
+
+        data = new byte[size];
+        new Random(0).nextBytes(data);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/file", new ThrottledHandler(false));
+        server.createContext("/empty", new ThrottledHandler(true));
+        server.start();
+
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file";
+        File file = File.createTempFile("segmented", ".bin");
+
+        try {
+            file.delete();
+            long t = System.currentTimeMillis();
+            newClient(null).save(url, file, false);
+            report("single connection", t, file);
+
+            for (int connections : new int[] { 2, 4, 8 }) {
+                file.delete();
+                t = System.currentTimeMillis();
+                newClient(null).saveSegmented(url, file, false, connections);
+                report(connections + " connections", t, file);
+            }
+
+            slowEvery = 4;
+            exchanges.set(0);
+            file.delete();
+            t = System.currentTimeMillis();
+            newClient(null).saveSegmented(url, file, false, 4);
+            report("4 connections, 1 of 4 at 1/10 speed", t, file);
+            slowEvery = 0;
+
+            file.delete();
+            final long[] received = new long[1];
+            HttpClient client = newClient(new Listener() {
+                public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                    received[0] += length;
+                    if (received[0] > data.length / 3) {
+                        client.cancel();
+                    }
+                }
+            });
+            client.saveSegmented(url, file, false, 4);
+            long saved = client.getSavedLength(file);
+            System.out.println("canceled after " + received[0] + " bytes, saved length " + saved + ", file length " + file.length());
+
+            received[0] = 0;
+            t = System.currentTimeMillis();
+            newClient(new Listener() {
+                public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+                    received[0] += length;
+                }
+            }).saveSegmented(url, file, true, 4);
+            check("saved + resumed = size", saved + received[0] == data.length);
+            report("resumed", t, file);
+
+            file.delete();
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(data, 0, data.length / 2);
+            fos.close();
+            t = System.currentTimeMillis();
+            newClient(null).saveSegmented(url, file, true, 4);
+            report("resumed half file without segments", t, file);
+
+            ranges = false;
+            file.delete();
+            t = System.currentTimeMillis();
+            newClient(null).saveSegmented(url, file, false, 4);
+            report("4 connections, server without ranges", t, file);
+            ranges = true;
+
+            file.delete();
+            newClient(null).saveSegmented(url.replace("/file", "/empty"), file, false, 4);
+            check("empty file", file.exists() && file.length() == 0);
+        } finally {
+            file.delete();
+            server.stop(0);
+        }
+
+        System.exit(0);
+    }
+
+    private static HttpClient newClient(HttpClientListener listener) {
+        HttpClient client = HttpClientFactory.newInstance(HttpClientType.PureJava);
+        client.setListener(listener != null ? listener : new Listener());
+        return client;
+    }
+
+    private static void report(String label, long start, File file) throws IOException {
+        long ms = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(label + ": " + ms + " ms, " + (file.length() * 1000 / 1024 / ms) + " KB/s, " + (sameData(file) ? "ok" : "BAD DATA"));
+    }
+
+    private static void check(String label, boolean ok) {
+        System.out.println(label + ": " + (ok ? "ok" : "FAILED"));
+    }
+
+    private static boolean sameData(File file) throws IOException {
+        if (file.length() != data.length) {
+            return false;
+        }
+        byte[] b = new byte[data.length];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(b);
+        } finally {
+            raf.close();
+        }
+        return Arrays.equals(b, data);
+    }
+
+    private static class Listener implements HttpClientListener {
+
+        public void onError(HttpClient client, Exception e) {
+            System.out.println("error: " + e);
+        }
+
+        public void onData(HttpClient client, byte[] buffer, int offset, int length) {
+        }
+
+        public void onComplete(HttpClient client) {
+        }
+
+        public void onCancel(HttpClient client) {
+        }
+
+        public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
+        }
+    }
+
+    /**
+     * Serves the data, or nothing, at the rate of the connection. A single
+     * range is supported when ranges are on.
+     */
+    private static final class ThrottledHandler implements HttpHandler {
+
+        private final boolean empty;
+
+        public ThrottledHandler(boolean empty) {
+            this.empty = empty;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                int length = empty ? 0 : data.length;
+                int n = exchanges.incrementAndGet();
+                int r = slowEvery > 0 && n % slowEvery == 0 ? rate / 10 : rate;
+
+                long first = 0;
+                long last = length - 1;
+
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (ranges && range != null && range.startsWith("bytes=")) {
+                    String[] spec = range.substring(6).split("-", -1);
+                    first = Long.parseLong(spec[0]);
+                    if (spec.length > 1 && spec[1].length() > 0) {
+                        last = Math.min(last, Long.parseLong(spec[1]));
+                    }
+                    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                    if (first >= length) {
+                        exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+                        exchange.sendResponseHeaders(416, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + length);
+                    exchange.sendResponseHeaders(206, last - first + 1);
+                } else {
+                    exchange.sendResponseHeaders(200, length == 0 ? -1 : length);
+                }
+
+                OutputStream os = exchange.getResponseBody();
+                long start = System.nanoTime();
+                long sent = 0;
+                for (long pos = first; pos <= last;) {
+                    int count = (int) Math.min(16 * 1024, last - pos + 1);
+                    os.write(data, (int) pos, count);
+                    pos += count;
+                    sent += count;
+                    long wait = start + sent * 1000000000L / r - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                }
+                os.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // the client canceled or closed a segment
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
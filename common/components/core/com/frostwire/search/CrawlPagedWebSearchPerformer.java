@@ -18,7 +18,13 @@
 
 package com.frostwire.search;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,10 +41,21 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
     private static final int DEFAULT_NUM_CRAWLS = 6;
     private static final int DEFAULT_CRAWL_TIMEOUT = 10000; // 10 seconds
     private static final int DEFAULT_MAGNET_DOWNLOAD_TIMEOUT = 4000; // 4 seconds
+    private static final long FAILED_FETCH_TTL = 2 * 60 * 1000; // 2 minutes
+    private static final int MAX_FAILED_FETCHES = 1000;
 
     private static CrawlCache cache = null;
     private static MagnetDownloader magnetDownloader = null;
 
+    // single-flight of the crawl downloads, one download per url at the same time
+    private static final ConcurrentMap<String, Fetch> fetches = new ConcurrentHashMap<String, Fetch>();
+    // urls of the failed downloads with the time of the failure
+    private static final ConcurrentMap<String, Long> failedFetches = new ConcurrentHashMap<String, Long>();
+
+    private static final AtomicLong numFetches = new AtomicLong();
+    private static final AtomicLong numSharedFetches = new AtomicLong();
+    private static final AtomicLong numFailedFetchHits = new AtomicLong();
+
     private int numCrawls;
 
     public CrawlPagedWebSearchPerformer(long token, String keywords, int timeout, int pages, int numCrawls) {
@@ -66,8 +83,29 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
         CrawlPagedWebSearchPerformer.magnetDownloader = magnetDownloader;
     }
 
+    /**
+     * Number of crawl downloads actually performed.
+     */
+    public static long getNumFetches() {
+        return numFetches.get();
+    }
+
+    /**
+     * Number of crawl downloads avoided by waiting for the same download in progress.
+     */
+    public static long getNumSharedFetches() {
+        return numSharedFetches.get();
+    }
+
+    /**
+     * Number of crawl downloads avoided because the same url failed recently.
+     */
+    public static long getNumFailedFetchHits() {
+        return numFailedFetchHits.get();
+    }
+
     @Override
-    public void crawl(CrawlableSearchResult sr) {
+    public boolean crawl(CrawlableSearchResult sr) {
         if (numCrawls > 0) {
             numCrawls--;
 
@@ -79,20 +117,8 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                 if (url != null) {
                     byte[] data = cacheGet(url);
 
-                    if (data == null) { // not a big deal about synchronization here
-                        LOG.debug("Downloading data for: " + url);
-
-                        if (url.startsWith("magnet")) {
-                            data = fetchMagnet(url);
-                        } else {
-                            data = fetchBytes(url, sr.getDetailsUrl(), DEFAULT_CRAWL_TIMEOUT);
-                        }
-
-                        if (data != null) {
-                            cachePut(url, data);
-                        } else {
-                            LOG.warn("Failed to download data: " + url);
-                        }
+                    if (data == null) {
+                        data = crawlFetch(url, sr.getDetailsUrl());
                     }
 
                     try {
@@ -100,6 +126,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                             List<? extends SearchResult> results = crawlResult(obj, data);
                             if (results != null) {
                                 onResults(this, results);
+                                return true;
                             }
                         }
                     } catch (Throwable e) {
@@ -111,6 +138,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                         List<? extends SearchResult> results = crawlResult(obj, null);
                         if (results != null) {
                             onResults(this, results);
+                            return true;
                         }
                     } catch (Throwable e) {
                         LOG.warn("Error creating crawled results from search result alone: " + obj.getDetailsUrl() + ", e=" + e.getMessage());
@@ -118,6 +146,7 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
                 }
             }
         }
+        return false;
     }
 
     protected abstract String getCrawlUrl(T sr);
@@ -133,11 +162,78 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
         }
     }
 
+    /**
+     * Downloads the crawl data, sharing the download with the concurrent
+     * calls for the same url. Failed urls are not tried again for a while.
+     */
+    private byte[] crawlFetch(String url, String referrer) {
+        Long failedAt = failedFetches.get(url);
+        if (failedAt != null) {
+            if (System.currentTimeMillis() - failedAt < FAILED_FETCH_TTL) {
+                numFailedFetchHits.incrementAndGet();
+                return null;
+            }
+            failedFetches.remove(url, failedAt);
+        }
+
+        Fetch fetch = new Fetch();
+        Fetch inProgress = fetches.putIfAbsent(url, fetch);
+        if (inProgress != null) {
+            numSharedFetches.incrementAndGet();
+            return inProgress.await(DEFAULT_CRAWL_TIMEOUT);
+        }
+
+        byte[] data = null;
+
+        try {
+            // the previous download of this url could have just finished
+            data = cacheGet(url);
+
+            if (data == null) {
+                LOG.debug("Downloading data for: " + url);
+                numFetches.incrementAndGet();
+
+                if (url.startsWith("magnet")) {
+                    data = fetchMagnet(url);
+                } else {
+                    data = fetchBytes(url, referrer, DEFAULT_CRAWL_TIMEOUT);
+                }
+
+                if (data != null) {
+                    cachePut(url, data);
+                } else {
+                    LOG.warn("Failed to download data: " + url);
+                    addFailedFetch(url);
+                }
+            }
+        } finally {
+            fetches.remove(url, fetch);
+            fetch.done(data);
+        }
+
+        return data;
+    }
+
+    private static void addFailedFetch(String url) {
+        long now = System.currentTimeMillis();
+
+        if (failedFetches.size() >= MAX_FAILED_FETCHES) {
+            Iterator<Long> it = failedFetches.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next() >= FAILED_FETCH_TTL) {
+                    it.remove();
+                }
+            }
+        }
+
+        if (failedFetches.size() < MAX_FAILED_FETCHES) {
+            failedFetches.put(url, now);
+        }
+    }
+
     private byte[] cacheGet(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                return cache.get(key);
-            }
+            return cache.get(key);
         } else {
             return null;
         }
@@ -145,17 +241,13 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     private void cachePut(String key, byte[] data) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.put(key, data);
-            }
+            cache.put(key, data);
         }
     }
 
     private void cacheRemove(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.remove(key);
-            }
+            cache.remove(key);
         }
     }
 
@@ -169,4 +261,24 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
         return null;
     }
+
+    private static final class Fetch {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile byte[] data;
+
+        public void done(byte[] data) {
+            this.data = data;
+            latch.countDown();
+        }
+
+        public byte[] await(long timeout) {
+            try {
+                latch.await(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return data;
+        }
+    }
 }
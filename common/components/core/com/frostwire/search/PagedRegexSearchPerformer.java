@@ -30,11 +30,15 @@ public abstract class PagedRegexSearchPerformer<T extends SearchResult> extends
 
     private final int regexMaxResults;
 
-    public PagedRegexSearchPerformer(long token, String keywords, int timeout, int pages, int regexMaxResults) {
-        super(token, keywords, timeout, pages);
+    public PagedRegexSearchPerformer(long token, String keywords, int timeout, int pages, int regexMaxResults, int pageFetchWindow) {
+        super(token, keywords, timeout, pages, pageFetchWindow);
         this.regexMaxResults = regexMaxResults;
     }
 
+    public PagedRegexSearchPerformer(long token, String keywords, int timeout, int pages, int regexMaxResults) {
+        this(token, keywords, timeout, pages, regexMaxResults, 1);
+    }
+
     @Override
     protected final List<? extends SearchResult> searchPage(String page) {
         return PerformersHelper.searchPageHelper(this, page, regexMaxResults);
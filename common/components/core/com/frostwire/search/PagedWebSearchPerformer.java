@@ -19,7 +19,19 @@
 package com.frostwire.search;
 
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,17 +45,78 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
 
     private static final Logger LOG = LoggerFactory.getLogger(PagedWebSearchPerformer.class);
 
+    private static final int PAGE_FETCH_THREADS = 8;
+    private static final long STOP_CHECK_INTERVAL = 100; // milliseconds
+
+    private static final ExecutorService pageExecutor = newPageExecutor();
+
     private final int pages;
+    private final int pageFetchWindow;
 
-    public PagedWebSearchPerformer(long token, String keywords, int timeout, int pages) {
+    /**
+     * @param pageFetchWindow the maximum number of pages fetched at the same time,
+     *                        1 means the pages are fetched one after the other
+     */
+    public PagedWebSearchPerformer(long token, String keywords, int timeout, int pages, int pageFetchWindow) {
         super(token, keywords, timeout);
         this.pages = pages;
+        this.pageFetchWindow = Math.max(1, pageFetchWindow);
+    }
+
+    public PagedWebSearchPerformer(long token, String keywords, int timeout, int pages) {
+        this(token, keywords, timeout, pages, 1);
     }
 
     @Override
     public void perform() {
-        for (int i = 1; !isStopped() && i <= pages; i++) {
-            onResults(this, searchPage(i));
+        if (pageFetchWindow > 1 && pages > 1) {
+            performConcurrently();
+        } else {
+            for (int i = 1; !isStopped() && i <= pages; i++) {
+                onResults(this, searchPage(i));
+            }
+        }
+    }
+
+    /**
+     * Fetches up to pageFetchWindow pages at the same time and reports
+     * the results of each page as soon as it's parsed, in completion order.
+     * The pending fetches are cancelled if the search is stopped.
+     */
+    private void performConcurrently() {
+        CompletionService<List<? extends SearchResult>> cs = new ExecutorCompletionService<List<? extends SearchResult>>(pageExecutor);
+        List<Future<List<? extends SearchResult>>> futures = new LinkedList<Future<List<? extends SearchResult>>>();
+
+        int next = 1;
+        int pending = 0;
+
+        try {
+            while (!isStopped() && (next <= pages || pending > 0)) {
+                while (next <= pages && pending < pageFetchWindow) {
+                    futures.add(cs.submit(new PageFetch(next)));
+                    next++;
+                    pending++;
+                }
+
+                Future<List<? extends SearchResult>> f = cs.poll(STOP_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                if (f != null) {
+                    pending--;
+                    futures.remove(f);
+                    try {
+                        if (!isStopped()) {
+                            onResults(this, f.get());
+                        }
+                    } catch (ExecutionException e) {
+                        LOG.warn("Error fetching page: " + e.getCause().getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<List<? extends SearchResult>> f : futures) {
+                f.cancel(true);
+            }
         }
     }
 
@@ -61,4 +134,34 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
     protected abstract String getUrl(int page, String encodedKeywords);
 
     protected abstract List<? extends SearchResult> searchPage(String page);
+
+    private static ExecutorService newPageExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PAGE_FETCH_THREADS, PAGE_FETCH_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            private final AtomicInteger n = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "PagedWebSearchPerformer-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final class PageFetch implements Callable<List<? extends SearchResult>> {
+
+        private final int page;
+
+        public PageFetch(int page) {
+            this.page = page;
+        }
+
+        @Override
+        public List<? extends SearchResult> call() throws Exception {
+            return isStopped() ? Collections.<SearchResult> emptyList() : searchPage(page);
+        }
+    }
 }
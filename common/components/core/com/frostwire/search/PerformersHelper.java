@@ -17,18 +17,22 @@
 
 package com.frostwire.search;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.gudy.azureus2.core3.torrent.TOTorrent;
-import org.gudy.azureus2.core3.torrent.TOTorrentException;
-import org.gudy.azureus2.core3.torrent.TOTorrentFile;
-import org.gudy.azureus2.core3.util.TorrentUtils;
+import org.gudy.azureus2.core3.util.FileUtil;
+import org.gudy.azureus2.core3.util.LazyBDecoder;
 
 import com.frostwire.search.torrent.TorrentCrawlableSearchResult;
 import com.frostwire.search.torrent.TorrentCrawledSearchResult;
+import com.frostwire.search.torrent.TorrentSearchResult;
 
 /**
  * 
@@ -38,6 +42,13 @@ import com.frostwire.search.torrent.TorrentCrawledSearchResult;
  */
 public final class PerformersHelper {
 
+    private static final Pattern MAGNET_HASH_PATTERN = Pattern.compile("urn:btih:([0-9a-zA-Z]+)");
+    private static final Pattern TORRENT_URL_HASH_PATTERN = Pattern.compile("/([0-9a-fA-F]{40})\\.torrent");
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String BASE32_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
     private PerformersHelper() {
     }
 
@@ -64,20 +75,151 @@ public final class PerformersHelper {
     /**
      * This method is only public allow reuse inside the package search, consider it a private API
      */
-    public static List<? extends SearchResult> crawlTorrent(SearchPerformer performer, TorrentCrawlableSearchResult sr, byte[] data) throws TOTorrentException {
+    public static List<? extends SearchResult> crawlTorrent(SearchPerformer performer, TorrentCrawlableSearchResult sr, byte[] data) throws IOException {
         List<TorrentCrawledSearchResult> list = new LinkedList<TorrentCrawledSearchResult>();
 
-        TOTorrent torrent = TorrentUtils.readFromBEncodedInputStream(new ByteArrayInputStream(data));
+        // only the names and lengths are read from the index, the pieces are never copied
+        LazyBDecoder.DictionaryView torrent = LazyBDecoder.decode(data);
+        LazyBDecoder.DictionaryView info = torrent.getDictionary("info");
+
+        if (info == null) {
+            throw new IOException("Decode fails, 'info' element not found");
+        }
 
-        if (torrent != null) {
-            TOTorrentFile[] files = torrent.getFiles();
+        byte[] encodingBytes = torrent.getBytes("encoding");
+        String encoding = encodingBytes != null ? new String(encodingBytes, UTF_8) : null;
+        Charset charset = getTorrentCharset(encoding);
 
-            for (int i = 0; !performer.isStopped() && i < files.length; i++) {
-                TOTorrentFile file = files[i];
-                list.add(new TorrentCrawledSearchResult(sr, file));
+        Long length = info.getLong("length");
+
+        if (length != null) {
+            byte[] name = info.getBytes("name");
+            if (name != null) {
+                list.add(new TorrentCrawledSearchResult(sr, FileUtil.convertOSSpecificChars(new String(name, charset), false), length));
+            }
+        } else {
+            LazyBDecoder.ListView files = info.getList("files");
+
+            if (files != null) {
+                // same rule as the torrent deserialiser, path.utf-8 only if all the files have it
+                boolean utf8Paths = (encoding == null || encoding.equals(TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS)) && info.containsKey("name.utf-8");
+                for (int i = 0; utf8Paths && i < files.size(); i++) {
+                    LazyBDecoder.DictionaryView file = files.getDictionary(i);
+                    utf8Paths = file != null && file.containsKey("path.utf-8");
+                }
+
+                for (int i = 0; !performer.isStopped() && i < files.size(); i++) {
+                    LazyBDecoder.DictionaryView file = files.getDictionary(i);
+                    if (file == null) {
+                        continue;
+                    }
+
+                    Long fileLength = file.getLong("length");
+                    LazyBDecoder.ListView path = utf8Paths ? file.getList("path.utf-8") : file.getList("path");
+
+                    if (fileLength != null && path != null) {
+                        list.add(new TorrentCrawledSearchResult(sr, getRelativePath(path, utf8Paths ? UTF_8 : charset), fileLength));
+                    }
+                }
             }
         }
 
         return list;
     }
+
+    private static Charset getTorrentCharset(String encoding) {
+        if (encoding != null && !encoding.equals(TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS)) {
+            try {
+                return Charset.forName(encoding);
+            } catch (Throwable e) {
+                // unknown encoding, same as the torrent deserialiser
+            }
+        }
+        return UTF_8;
+    }
+
+    private static String getRelativePath(LazyBDecoder.ListView path, Charset charset) {
+        StringBuilder sb = new StringBuilder();
+
+        int n = path.size();
+        for (int i = 0; i < n; i++) {
+            byte[] comp = path.getBytes(i);
+            if (comp != null) {
+                if (sb.length() > 0) {
+                    sb.append(File.separator);
+                }
+                sb.append(FileUtil.convertOSSpecificChars(new String(comp, charset), i != n - 1));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the info hash of the torrent as 40 lowercase hex characters, taken from
+     * the hash reported by the engine or from the torrent (or magnet) url, the same
+     * for every engine. Returns null if the hash is not known.
+     */
+    public static String getInfoHash(TorrentSearchResult sr) {
+        String hash = normalizeInfoHash(sr.getHash());
+
+        if (hash == null) {
+            String url = sr.getTorrentUrl();
+            if (url != null) {
+                Matcher matcher = MAGNET_HASH_PATTERN.matcher(url);
+                if (matcher.find()) {
+                    hash = normalizeInfoHash(matcher.group(1));
+                } else {
+                    matcher = TORRENT_URL_HASH_PATTERN.matcher(url);
+                    if (matcher.find()) {
+                        hash = normalizeInfoHash(matcher.group(1));
+                    }
+                }
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * Converts a hex or base32 info hash to lowercase hex, or null if it's not an info hash.
+     */
+    static String normalizeInfoHash(String hash) {
+        if (hash == null) {
+            return null;
+        }
+
+        hash = hash.trim();
+
+        if (hash.length() == 40) {
+            for (int i = 0; i < 40; i++) {
+                if (Character.digit(hash.charAt(i), 16) == -1) {
+                    return null;
+                }
+            }
+            return hash.toLowerCase(Locale.US);
+        }
+
+        if (hash.length() == 32) {
+            StringBuilder sb = new StringBuilder(40);
+            int buffer = 0;
+            int bits = 0;
+            for (int i = 0; i < 32; i++) {
+                int value = BASE32_ALPHABET.indexOf(Character.toUpperCase(hash.charAt(i)));
+                if (value == -1) {
+                    return null;
+                }
+                buffer = (buffer << 5) | value;
+                bits += 5;
+                while (bits >= 4) {
+                    bits -= 4;
+                    sb.append(Character.forDigit((buffer >> bits) & 0xF, 16));
+                }
+                buffer &= (1 << bits) - 1;
+            }
+            return sb.toString();
+        }
+
+        return null;
+    }
 }
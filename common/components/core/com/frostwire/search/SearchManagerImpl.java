@@ -18,17 +18,20 @@
 package com.frostwire.search;
 
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.frostwire.search.torrent.TorrentCrawlableSearchResult;
+
 /**
  * 
  * @author gubatron
@@ -40,15 +43,22 @@ public class SearchManagerImpl implements SearchManager {
     private static final Logger LOG = LoggerFactory.getLogger(SearchManagerImpl.class);
 
     private static final int DEFAULT_NTHREADS = 4;
+    private static final int DEFAULT_MAX_ENGINE_THREADS = 2;
+
+    private static final AtomicLong numMergedCrawls = new AtomicLong();
 
-    private final ExecutorService executor;
-    private final List<SearchTask> tasks;
+    private final SearchScheduler executor;
+    private final TaskRegistry tasks;
 
     private SearchManagerListener listener;
 
+    public SearchManagerImpl(int nThreads, int maxEngineThreads) {
+        this.executor = new SearchScheduler(nThreads, maxEngineThreads);
+        this.tasks = new TaskRegistry();
+    }
+
     public SearchManagerImpl(int nThreads) {
-        this.executor = newFixedThreadPool(nThreads);
-        this.tasks = Collections.synchronizedList(new LinkedList<SearchTask>());
+        this(nThreads, Math.min(nThreads, DEFAULT_MAX_ENGINE_THREADS));
     }
 
     public SearchManagerImpl() {
@@ -69,10 +79,8 @@ public class SearchManagerImpl implements SearchManager {
 
             performer.registerListener(new PerformerResultListener(this));
 
-            SearchTask task = new PerformTask(this, performer, getOrder(performer.getToken()));
-
-            tasks.add(task);
-            executor.execute(task);
+            long sequence = tasks.add(performer);
+            executor.execute(new PerformTask(this, performer, sequence));
         } else {
             LOG.warn("Search performer is null, review your logic");
         }
@@ -132,69 +140,68 @@ public class SearchManagerImpl implements SearchManager {
     }
 
     private void stopTasks(long token) {
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (token == -1L || task.getToken() == token) {
-                    task.stop();
-                }
-            }
+        if (token == -1L) {
+            tasks.stopAll();
+        } else {
+            tasks.stop(token);
+        }
+
+        for (SearchScheduler.Task task : executor.purge(token)) {
+            onTaskDone(((SearchTask) task).performer);
         }
     }
 
     private void crawl(SearchPerformer performer, CrawlableSearchResult sr) {
         if (performer != null && !performer.isStopped()) {
+            long sequence = tasks.add(performer);
             try {
-                SearchTask task = new CrawlTask(this, performer, sr, getOrder(performer.getToken()));
-                tasks.add(task);
-                executor.execute(task);
+                executor.execute(new CrawlTask(this, performer, sr, sequence));
             } catch (Throwable e) {
                 LOG.warn("Error scheduling crawling of search result: " + sr);
+                releaseCrawl(performer, sr);
+                onTaskDone(performer);
             }
         } else {
             LOG.warn("Search performer is null or stopped, review your logic");
         }
     }
 
-    private void checkIfFinished(SearchPerformer performer) {
-        SearchTask pendingTask = null;
-
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext() && pendingTask == null) {
-                SearchTask task = it.next();
-                if (task.getToken() == performer.getToken() && !task.isStopped()) {
-                    pendingTask = task;
-                }
-
-                if (task.isStopped()) {
-                    it.remove();
-                }
+    /**
+     * The same torrent comes back from many engines, only the first result
+     * of every info hash is crawled in a search. The claim is released when
+     * that crawl fails, so a later result of the same torrent is crawled.
+     */
+    private boolean shouldCrawl(SearchPerformer performer, CrawlableSearchResult sr) {
+        if (sr instanceof TorrentCrawlableSearchResult) {
+            String hash = PerformersHelper.getInfoHash((TorrentCrawlableSearchResult) sr);
+            if (hash != null && !tasks.claimCrawl(performer, hash)) {
+                numMergedCrawls.incrementAndGet();
+                return false;
             }
         }
-
-        if (pendingTask == null) {
-            onFinished(performer.getToken());
-        }
+        return true;
     }
 
-    private int getOrder(long token) {
-        int order = 0;
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (task.getToken() == token) {
-                    order = order + 1;
-                }
+    private void releaseCrawl(SearchPerformer performer, CrawlableSearchResult sr) {
+        if (sr instanceof TorrentCrawlableSearchResult) {
+            String hash = PerformersHelper.getInfoHash((TorrentCrawlableSearchResult) sr);
+            if (hash != null) {
+                tasks.releaseCrawl(performer, hash);
             }
         }
-        return order;
     }
 
-    private static ExecutorService newFixedThreadPool(int nThreads) {
-        return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+    /**
+     * Number of crawls skipped because the same torrent was already crawled in the search.
+     */
+    public static long getNumMergedCrawls() {
+        return numMergedCrawls.get();
+    }
+
+    private void onTaskDone(SearchPerformer performer) {
+        if (tasks.remove(performer)) {
+            onFinished(performer.getToken());
+        }
     }
 
     private static final class PerformerResultListener implements SearchListener {
@@ -217,7 +224,9 @@ public class SearchManagerImpl implements SearchManager {
                         list.add(sr);
                     }
 
-                    manager.crawl(performer, csr);
+                    if (manager.shouldCrawl(performer, csr)) {
+                        manager.crawl(performer, csr);
+                    }
                 } else {
                     list.add(sr);
                 }
@@ -229,40 +238,47 @@ public class SearchManagerImpl implements SearchManager {
         }
     }
 
-    private static abstract class SearchTask implements Runnable, Comparable<SearchTask> {
+    private static abstract class SearchTask implements SearchScheduler.Task {
 
         protected final SearchManagerImpl manager;
         protected final SearchPerformer performer;
-        private final int order;
+        private final long sequence;
 
-        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
+        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, long sequence) {
             this.manager = manager;
             this.performer = performer;
-            this.order = order;
+            this.sequence = sequence;
         }
 
+        @Override
         public long getToken() {
             return performer.getToken();
         }
 
-        public boolean isStopped() {
-            return performer.isStopped();
+        @Override
+        public long getSequence() {
+            return sequence;
         }
 
-        public void stop() {
-            performer.stop();
+        @Override
+        public Object getEngine() {
+            return performer.getClass();
         }
 
-        @Override
-        public int compareTo(SearchTask o) {
-            return order - o.order;
+        public boolean isStopped() {
+            return performer.isStopped();
         }
     }
 
     private static final class PerformTask extends SearchTask {
 
-        public PerformTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
-            super(manager, performer, order);
+        public PerformTask(SearchManagerImpl manager, SearchPerformer performer, long sequence) {
+            super(manager, performer, sequence);
+        }
+
+        @Override
+        public boolean isCrawl() {
+            return false;
         }
 
         @Override
@@ -274,9 +290,7 @@ public class SearchManagerImpl implements SearchManager {
             } catch (Throwable e) {
                 LOG.warn("Error performing search: " + performer + ", e=" + e.getMessage());
             } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
+                manager.onTaskDone(performer);
             }
         }
     }
@@ -285,24 +299,191 @@ public class SearchManagerImpl implements SearchManager {
 
         private final CrawlableSearchResult sr;
 
-        public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, int order) {
-            super(manager, performer, order);
+        public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, long sequence) {
+            super(manager, performer, sequence);
             this.sr = sr;
         }
 
+        @Override
+        public boolean isCrawl() {
+            return true;
+        }
+
         @Override
         public void run() {
+            boolean crawled = false;
             try {
                 if (!isStopped()) {
-                    performer.crawl(sr);
+                    crawled = performer.crawl(sr);
                 }
             } catch (Throwable e) {
                 LOG.warn("Error performing crawling of: " + sr + ", e=" + e.getMessage());
             } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
+                if (!crawled) {
+                    manager.releaseCrawl(performer, sr);
+                }
+                manager.onTaskDone(performer);
+            }
+        }
+    }
+
+    /**
+     * Keeps track of the pending tasks of every search, keyed by token.
+     * 
+     * Each token has its own atomic counter, scheduling and completion are
+     * O(1) and don't share any global lock. When the counter of a token
+     * drops to zero the entry is retired (the counter is set to -1) and
+     * removed, so a late scheduling for the same token starts a fresh entry.
+     * The fresh entry keeps the sequence of the search, which is only
+     * forgotten when the search is stopped, so late crawls of an old search
+     * don't jump ahead of the newer ones.
+     */
+    private static final class TaskRegistry {
+
+        private final ConcurrentMap<Long, TokenTasks> tokens;
+        private final ConcurrentMap<Long, Long> sequences;
+        private final AtomicLong sequence;
+
+        public TaskRegistry() {
+            this.tokens = new ConcurrentHashMap<Long, TokenTasks>();
+            this.sequences = new ConcurrentHashMap<Long, Long>();
+            this.sequence = new AtomicLong();
+        }
+
+        /**
+         * Registers a new pending task for the performer's token.
+         * 
+         * @return the sequence of the token, newer searches have higher sequences
+         */
+        public long add(SearchPerformer performer) {
+            Long token = performer.getToken();
+
+            while (true) {
+                TokenTasks t = tokens.get(token);
+                if (t == null) {
+                    t = new TokenTasks(sequence(token));
+                    TokenTasks prev = tokens.putIfAbsent(token, t);
+                    if (prev != null) {
+                        t = prev;
+                    }
+                }
+
+                if (t.acquire()) {
+                    t.performers.add(performer);
+                    return t.sequence;
+                }
+
+                // retired entry, make sure it's gone and try again
+                tokens.remove(token, t);
+            }
+        }
+
+        /**
+         * Marks one task of the performer's token as done.
+         * 
+         * @return true if it was the last pending task of the token
+         */
+        public boolean remove(SearchPerformer performer) {
+            Long token = performer.getToken();
+            TokenTasks t = tokens.get(token);
+
+            if (t != null && t.release()) {
+                tokens.remove(token, t);
+                return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Claims the crawl of the key for the performer's search.
+         * 
+         * @return false if the key was already claimed in the search
+         */
+        public boolean claimCrawl(SearchPerformer performer, String key) {
+            TokenTasks t = tokens.get(performer.getToken());
+            return t == null || t.crawled.add(key);
+        }
+
+        public void releaseCrawl(SearchPerformer performer, String key) {
+            TokenTasks t = tokens.get(performer.getToken());
+            if (t != null) {
+                t.crawled.remove(key);
+            }
+        }
+
+        public void stop(long token) {
+            sequences.remove(token);
+            TokenTasks t = tokens.get(token);
+            if (t != null) {
+                t.stop();
+            }
+        }
+
+        public void stopAll() {
+            sequences.clear();
+            for (TokenTasks t : tokens.values()) {
+                t.stop();
+            }
+        }
+
+        private long sequence(Long token) {
+            Long s = sequences.get(token);
+            if (s == null) {
+                Long n = sequence.incrementAndGet();
+                s = sequences.putIfAbsent(token, n);
+                if (s == null) {
+                    s = n;
+                }
+            }
+            return s;
+        }
+
+        public boolean isEmpty() {
+            return tokens.isEmpty();
+        }
+    }
+
+    private static final class TokenTasks {
+
+        private final long sequence;
+        private final AtomicInteger pending;
+        private final Set<SearchPerformer> performers;
+        private final Set<String> crawled;
+
+        public TokenTasks(long sequence) {
+            this.sequence = sequence;
+            this.pending = new AtomicInteger();
+            this.performers = Collections.newSetFromMap(new ConcurrentHashMap<SearchPerformer, Boolean>());
+            this.crawled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        }
+
+        /**
+         * @return false if the entry is retired
+         */
+        public boolean acquire() {
+            while (true) {
+                int n = pending.get();
+                if (n < 0) {
+                    return false;
+                }
+                if (pending.compareAndSet(n, n + 1)) {
+                    return true;
                 }
             }
         }
+
+        /**
+         * @return true if this was the last pending task, the entry is retired
+         */
+        public boolean release() {
+            return pending.decrementAndGet() == 0 && pending.compareAndSet(0, -1);
+        }
+
+        public void stop() {
+            for (SearchPerformer performer : performers) {
+                performer.stop();
+            }
+        }
     }
 }
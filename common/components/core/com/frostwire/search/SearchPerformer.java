@@ -31,7 +31,10 @@ public interface SearchPerformer {
 
     public void perform();
 
-    public void crawl(CrawlableSearchResult sr);
+    /**
+     * @return false if the crawl didn't produce any results
+     */
+    public boolean crawl(CrawlableSearchResult sr);
 
     public void stop();
 
@@ -0,0 +1,378 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fixed size pool of worker threads for the search tasks.
+ *
+ * First page fetches and crawls are queued in separate lanes, first page
+ * fetches are always picked first and crawls can't take all the threads,
+ * so a new search never waits for the crawls of an older one. Inside a lane
+ * the newest search goes first and its engines take turns. The number of
+ * tasks of the same engine running at the same time is capped in each lane,
+ * a slow engine can't block the others and the crawls of an engine never
+ * hold the slots of its first page fetches.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SearchScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SearchScheduler.class);
+
+    private final int nThreads;
+    private final int maxCrawlThreads;
+
+    private final Object lock;
+    private final Lane performs;
+    private final Lane crawls;
+    private final List<Thread> workers;
+
+    private int runningCrawls;
+    private int liveWorkers;
+    private boolean shutdown;
+    private boolean shutdownNow;
+
+    public SearchScheduler(int nThreads, int maxEngineThreads) {
+        if (nThreads < 1 || maxEngineThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be > 0");
+        }
+
+        this.nThreads = nThreads;
+        this.maxCrawlThreads = Math.max(1, nThreads - 1);
+
+        this.lock = new Object();
+        this.performs = new Lane(maxEngineThreads);
+        this.crawls = new Lane(maxEngineThreads);
+        this.workers = new LinkedList<Thread>();
+    }
+
+    public void execute(Task task) {
+        synchronized (lock) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shutdown");
+            }
+
+            (task.isCrawl() ? crawls : performs).add(task);
+
+            if (workers.size() < nThreads) {
+                startWorker();
+            }
+
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Removes from the queues all the tasks of the given token, -1 for all
+     * the tokens. The removed tasks are never run.
+     */
+    public List<Task> purge(long token) {
+        List<Task> list = new LinkedList<Task>();
+
+        synchronized (lock) {
+            performs.purge(token, list);
+            crawls.purge(token, list);
+        }
+
+        return list;
+    }
+
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+
+    public List<Task> shutdownNow() {
+        List<Task> list;
+
+        synchronized (lock) {
+            shutdown = true;
+            shutdownNow = true;
+            list = purge(-1L);
+            for (Thread t : workers) {
+                t.interrupt();
+            }
+            lock.notifyAll();
+        }
+
+        return list;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+
+        synchronized (lock) {
+            while (!isTerminated()) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                lock.wait(wait);
+            }
+        }
+
+        return true;
+    }
+
+    public boolean isTerminated() {
+        synchronized (lock) {
+            return shutdown && liveWorkers == 0;
+        }
+    }
+
+    private void startWorker() {
+        Thread t = new Thread(new Worker(), "SearchScheduler-" + workers.size());
+        t.setDaemon(true);
+        workers.add(t);
+        liveWorkers++;
+        t.start();
+    }
+
+    private Task take() {
+        synchronized (lock) {
+            while (true) {
+                if (shutdownNow) {
+                    return null;
+                }
+
+                Task task = performs.poll();
+                if (task == null && runningCrawls < maxCrawlThreads) {
+                    task = crawls.poll();
+                }
+
+                if (task != null) {
+                    if (task.isCrawl()) {
+                        runningCrawls++;
+                    }
+                    return task;
+                }
+
+                if (shutdown && performs.isEmpty() && crawls.isEmpty()) {
+                    return null;
+                }
+
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    // check the state again
+                }
+            }
+        }
+    }
+
+    private void done(Task task) {
+        synchronized (lock) {
+            if (task.isCrawl()) {
+                crawls.release(task);
+                runningCrawls--;
+            } else {
+                performs.release(task);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    public interface Task extends Runnable {
+
+        public long getToken();
+
+        /**
+         * Higher sequences are newer searches and run first.
+         */
+        public long getSequence();
+
+        /**
+         * The key used to cap the concurrency of an engine.
+         */
+        public Object getEngine();
+
+        public boolean isCrawl();
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                Task task;
+                while ((task = take()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        LOG.warn("Error running search task: " + task + ", e=" + e.getMessage());
+                    } finally {
+                        done(task);
+                    }
+                }
+            } finally {
+                synchronized (lock) {
+                    liveWorkers--;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Tasks grouped by search and then by engine, newest search first, the
+     * engines of a search take turns and each engine is FIFO. Polling only
+     * looks at the head task of every engine, not at the whole queue.
+     * Not thread safe, always used under the scheduler lock.
+     */
+    private static final class Lane {
+
+        private final int maxEngineThreads;
+        private final TreeMap<Long, Search> searches;
+        private final Map<Object, Integer> running;
+
+        public Lane(int maxEngineThreads) {
+            this.maxEngineThreads = maxEngineThreads;
+            this.searches = new TreeMap<Long, Search>();
+            this.running = new HashMap<Object, Integer>();
+        }
+
+        public void add(Task task) {
+            Search search = searches.get(task.getSequence());
+            if (search == null) {
+                search = new Search(task.getToken());
+                searches.put(task.getSequence(), search);
+            }
+            search.add(task);
+        }
+
+        public Task poll() {
+            Iterator<Search> it = searches.descendingMap().values().iterator();
+            while (it.hasNext()) {
+                Search search = it.next();
+                Task task = search.poll(this);
+                if (task != null) {
+                    if (search.isEmpty()) {
+                        it.remove();
+                    }
+                    Object engine = task.getEngine();
+                    running.put(engine, running(engine) + 1);
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        public void release(Task task) {
+            Object engine = task.getEngine();
+            int n = running(engine) - 1;
+            if (n > 0) {
+                running.put(engine, n);
+            } else {
+                running.remove(engine);
+            }
+        }
+
+        public void purge(long token, List<Task> removed) {
+            Iterator<Search> it = searches.values().iterator();
+            while (it.hasNext()) {
+                Search search = it.next();
+                if (token == -1L || search.token == token) {
+                    search.drainTo(removed);
+                    it.remove();
+                }
+            }
+        }
+
+        public boolean isEmpty() {
+            return searches.isEmpty();
+        }
+
+        private boolean canRun(Object engine) {
+            return running(engine) < maxEngineThreads;
+        }
+
+        private int running(Object engine) {
+            Integer n = running.get(engine);
+            return n != null ? n : 0;
+        }
+    }
+
+    private static final class Search {
+
+        private final long token;
+        private final LinkedHashMap<Object, LinkedList<Task>> engines;
+
+        public Search(long token) {
+            this.token = token;
+            this.engines = new LinkedHashMap<Object, LinkedList<Task>>();
+        }
+
+        public void add(Task task) {
+            LinkedList<Task> queue = engines.get(task.getEngine());
+            if (queue == null) {
+                queue = new LinkedList<Task>();
+                engines.put(task.getEngine(), queue);
+            }
+            queue.add(task);
+        }
+
+        /**
+         * Takes the head task of the first engine under its cap and moves
+         * that engine to the back, so the engines of a search take turns.
+         */
+        public Task poll(Lane lane) {
+            Iterator<Map.Entry<Object, LinkedList<Task>>> it = engines.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Object, LinkedList<Task>> e = it.next();
+                if (lane.canRun(e.getKey())) {
+                    LinkedList<Task> queue = e.getValue();
+                    Task task = queue.removeFirst();
+                    it.remove();
+                    if (!queue.isEmpty()) {
+                        engines.put(e.getKey(), queue);
+                    }
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        public void drainTo(List<Task> removed) {
+            for (LinkedList<Task> queue : engines.values()) {
+                removed.addAll(queue);
+            }
+            engines.clear();
+        }
+
+        public boolean isEmpty() {
+            return engines.isEmpty();
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import com.frostwire.util.HttpClient;
 import com.frostwire.util.HttpClientFactory;
+import com.frostwire.util.HttpClientType;
 import com.frostwire.util.URLUtils;
 import com.frostwire.util.UserAgentGenerator;
 
@@ -47,7 +48,7 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         this.keywords = keywords;
         this.encodedKeywords = URLUtils.encode(keywords);
         this.timeout = timeout;
-        this.client = HttpClientFactory.newDefaultInstance();
+        this.client = HttpClientFactory.newInstance(HttpClientType.Apache);
     }
 
     public final String getKeywords() {
@@ -59,8 +60,9 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
     }
 
     @Override
-    public void crawl(CrawlableSearchResult sr) {
+    public boolean crawl(CrawlableSearchResult sr) {
         LOG.warn("Review your logic, calling deep search without implementation for: " + sr);
+        return false;
     }
 
     protected final String fetch(String url) {
@@ -34,6 +34,7 @@ import com.frostwire.util.JsonUtils;
 public class SoundcloudSearchPerformer extends PagedRegexSearchPerformer<SoundcloudSearchResult> {
 
     private static final int MAX_RESULTS = 16;
+    private static final int PAGES = MAX_RESULTS / 4;
 
     private static final String DATE_FORMAT = "MMMM, dd yyyy HH:mm:ss Z";
 
@@ -41,7 +42,7 @@ public class SoundcloudSearchPerformer extends PagedRegexSearchPerformer<Soundcl
     private static final Pattern PATTERN = Pattern.compile(REGEX);
 
     public SoundcloudSearchPerformer(long token, String keywords, int timeout) {
-        super(token, keywords, timeout, MAX_RESULTS / 4, MAX_RESULTS);
+        super(token, keywords, timeout, PAGES, MAX_RESULTS, PAGES);
     }
 
     @Override
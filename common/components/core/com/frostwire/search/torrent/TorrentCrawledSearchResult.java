@@ -19,7 +19,6 @@
 package com.frostwire.search.torrent;
 
 import org.apache.commons.io.FilenameUtils;
-import org.gudy.azureus2.core3.torrent.TOTorrentFile;
 
 import com.frostwire.search.AbstractCrawledSearchResult;
 
@@ -31,16 +30,16 @@ import com.frostwire.search.AbstractCrawledSearchResult;
 public class TorrentCrawledSearchResult extends AbstractCrawledSearchResult implements TorrentSearchResult {
 
     private final TorrentCrawlableSearchResult sr;
-    private final TOTorrentFile file;
     private final String relativePath;
+    private final long size;
     private final String displayName;
     private final String filename;
 
-    public TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, TOTorrentFile file) {
+    public TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, String relativePath, long size) {
         super(sr);
         this.sr = sr;
-        this.file = file;
-        this.relativePath = file.getRelativePath();
+        this.relativePath = relativePath;
+        this.size = size;
         this.filename = FilenameUtils.getName(this.relativePath);
         this.displayName = FilenameUtils.getBaseName(this.filename);
     }
@@ -61,7 +60,7 @@ public class TorrentCrawledSearchResult extends AbstractCrawledSearchResult impl
 
     @Override
     public long getSize() {
-        return file.getLength();
+        return size;
     }
 
     @Override
@@ -5,16 +5,29 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.h2.fulltext.FullTextLucene2;
 
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
 
+/**
+ * The writes go through one connection, one at a time, and the reads through
+ * a small pool of connections, so a long write doesn't stop the reads. The
+ * database is opened in MVCC mode, the readers see the last committed data
+ * without waiting for the locks of the writer.
+ * 
+ * Each connection keeps its prepared statements in a LRU cache.
+ */
 public class LibraryDatabase {
 
     public static final int OBJECT_NOT_SAVED_ID = -1;
@@ -23,13 +36,20 @@ public class LibraryDatabase {
 
     public static final int LIBRARY_VERSION_PLAYLIST_SORT_INDEXES = 4; // indicates db version when playlist sort indexes were added
     public static final int LIBRARY_DATABASE_VERSION = 4;
-    
+
+    private static final int READ_CONNECTIONS = 3;
+    private static final int MAX_CACHED_STATEMENTS = 32;
+
+    private static final String[] FULL_TEXT_TABLES = { "PLAYLISTITEMS", "INTERNETRADIOSTATIONS" };
+
     private final File _databaseFile;
     private final String _name;
-    
-    private Connection _connection;
 
-    private boolean _closed;
+    private final PooledConnection _writer;
+    private final List<PooledConnection> _readerConnections; // all the readers, in the pool or in use
+    private final BlockingQueue<PooledConnection> _readers;
+
+    private volatile boolean _closed;
 
     static {
         try {
@@ -45,7 +65,32 @@ public class LibraryDatabase {
         File path = databaseFile;
         _name = databaseFile.getName();
 
-        _connection = openOrCreateDatabase(path, _name);
+        Connection connection = openConnection(path, _name, false);
+        boolean created = connection == null;
+        if (created) {
+            connection = createDatabase(path, _name);
+        }
+
+        _writer = new PooledConnection(connection);
+        _readerConnections = new ArrayList<PooledConnection>(READ_CONNECTIONS);
+        for (int i = 0; i < READ_CONNECTIONS; i++) {
+            Connection reader = openConnection(path, _name, false);
+            if (reader != null) {
+                _readerConnections.add(new PooledConnection(reader));
+            }
+        }
+        _readers = new ArrayBlockingQueue<PooledConnection>(READ_CONNECTIONS);
+        _readers.addAll(_readerConnections);
+        if (_readers.isEmpty()) { // the writer is used for reading too
+            _readers.add(_writer);
+        }
+
+        if (!created) {
+            int version = getDatabaseVersion(connection);
+            if (version < LIBRARY_DATABASE_VERSION) {
+                onUpdateDatabase(connection, version, LIBRARY_DATABASE_VERSION);
+            }
+        }
     }
 
     public File getDatabaseFile() {
@@ -60,35 +105,62 @@ public class LibraryDatabase {
         return _closed;
     }
 
-    public synchronized List<List<Object>> query(String statementSql, Object... arguments) {
+    public List<List<Object>> query(String statementSql, Object... arguments) {
+        return query(LIST_MAPPER, statementSql, arguments);
+    }
+
+    /**
+     * Runs the query in one of the read connections, mapping each row
+     * of the result set. The reader is locked while in use, the close
+     * waits for the running query before closing it.
+     */
+    public <T> List<T> query(RowMapper<T> mapper, String statementSql, Object... arguments) {
         if (isClosed()) {
-            return new ArrayList<List<Object>>();
+            return new ArrayList<T>();
         }
 
-        return query(_connection, statementSql, arguments);
+        PooledConnection reader = null;
+        try {
+            reader = _readers.take();
+            synchronized (reader) {
+                if (isClosed()) {
+                    return new ArrayList<T>();
+                }
+                return query(reader, mapper, statementSql, arguments);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<T>();
+        } finally {
+            if (reader != null) {
+                _readers.add(reader);
+            }
+        }
     }
 
     /**
-     * This method is synchronized due to possible concurrent issues, specially
-     * during recently generated id retrieval.
+     * The writes are serialized in the write connection, that also makes safe
+     * the retrieval of the recently generated ids.
      * @param expression
      * @return
      */
-    public synchronized int update(String statementSql, Object... arguments) {
+    public int update(String statementSql, Object... arguments) {
         if (isClosed()) {
             return -1;
         }
 
-        return update(_connection, statementSql, arguments);
+        synchronized (_writer) {
+            return update(_writer, statementSql, arguments);
+        }
     }
 
     /**
-     * This method is synchronized due to possible concurrent issues, specially
-     * during recently generated id retrieval.
+     * The writes are serialized in the write connection, that also makes safe
+     * the retrieval of the recently generated ids.
      * @param expression
      * @return
      */
-    public synchronized int insert(String statementSql, Object... arguments) {
+    public int insert(String statementSql, Object... arguments) {
         if (isClosed()) {
             return OBJECT_INVALID_ID;
         }
@@ -97,30 +169,87 @@ public class LibraryDatabase {
             return OBJECT_INVALID_ID;
         }
 
-        if (update(statementSql, arguments) != -1) {
-            return getIdentity();
+        synchronized (_writer) {
+            if (update(_writer, statementSql, arguments) != -1) {
+                return getIdentity();
+            }
         }
 
         return OBJECT_INVALID_ID;
     }
 
-    public synchronized void close() {
+    /**
+     * Inserts all the rows with one batch statement in a single transaction.
+     * 
+     * @return the generated ids of the rows, or null if the transaction failed
+     */
+    public int[] insertBatch(String statementSql, List<Object[]> rows) {
+        if (isClosed() || !statementSql.toUpperCase().startsWith("INSERT")) {
+            return null;
+        }
+
+        synchronized (_writer) {
+            if (batch(_writer, statementSql, rows) == null) {
+                return null;
+            }
+
+            // the identities of a batch are consecutive, nobody else is writing
+            int last = getIdentity();
+            if (last == OBJECT_INVALID_ID) {
+                return null;
+            }
+            int[] ids = new int[rows.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = last - ids.length + 1 + i;
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Runs the statement for all the rows with one batch statement in a single transaction.
+     * 
+     * @return the update counts, or null if the transaction failed
+     */
+    public int[] updateBatch(String statementSql, List<Object[]> rows) {
         if (isClosed()) {
-            return;
+            return null;
         }
 
-        _closed = true;
+        synchronized (_writer) {
+            return batch(_writer, statementSql, rows);
+        }
+    }
 
-        try {
-            Statement statement = _connection.createStatement();
-            statement.execute("SHUTDOWN");
-            _connection.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+    public void close() {
+        synchronized (_writer) {
+            if (isClosed()) {
+                return;
+            }
+
+            _closed = true;
+
+            for (PooledConnection reader : _readerConnections) {
+                synchronized (reader) {
+                    try {
+                        reader.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+
+            try {
+                Statement statement = _writer.connection.createStatement();
+                statement.execute("SHUTDOWN");
+                _writer.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
     }
 
-    public synchronized void dump() {
+    public void dump() {
         if (isClosed()) {
             return;
         }
@@ -156,6 +285,8 @@ public class LibraryDatabase {
             sb.append("jdbc:h2:");
             sb.append(new File(path, name).getAbsolutePath());
 
+            sb.append(";MVCC=TRUE");
+
             if (!createIfNotExists) {
                 sb.append(";ifexists=true");
             }
@@ -193,122 +324,165 @@ public class LibraryDatabase {
         return connection;
     }
 
-    private Connection openOrCreateDatabase(File path, String name) {
-        Connection connection = openConnection(path, name, false);
-        if (connection == null) {
-            connection = createDatabase(path, name);
-        } else {
-            int version = getDatabaseVersion(connection);
-            if (version < LIBRARY_DATABASE_VERSION) {
-                onUpdateDatabase(connection, version, LIBRARY_DATABASE_VERSION);
-            }
-        }
-        
-        return connection;
-    }
-
-    private List<List<Object>> convertResultSetToList(ResultSet resultSet) throws SQLException {
-        ResultSetMetaData meta = resultSet.getMetaData();
-        int numColums = meta.getColumnCount();
-        int i;
-
-        List<List<Object>> result = new LinkedList<List<Object>>();
-
-        while (resultSet.next()) {
-            List<Object> row = new ArrayList<Object>(numColums);
-            for (i = 1; i <= numColums; i++) {
-                row.add(resultSet.getObject(i));
-            }
-            result.add(row);
-        }
-        return result;
-    }
-
+    /**
+     * Only called holding the lock of the writer.
+     */
     private int getIdentity() {
         if (isClosed()) {
             return OBJECT_INVALID_ID;
         }
 
-        Statement statement = null;
         ResultSet resultSet = null;
 
         try {
-            statement = _connection.createStatement();
-            resultSet = statement.executeQuery("CALL IDENTITY()");
+            resultSet = _writer.prepare("CALL IDENTITY()").executeQuery();
 
             resultSet.next();
 
             return resultSet.getInt(1);
         } catch (Exception e) {
             e.printStackTrace();
+            _writer.discard("CALL IDENTITY()");
         } finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e) {
-                }
-            }
+            close(resultSet);
         }
 
         return OBJECT_INVALID_ID;
     }
 
-    private List<List<Object>> query(Connection connection, String statementSql, Object... arguments) {
-        PreparedStatement statement = null;
+    private <T> List<T> query(PooledConnection connection, RowMapper<T> mapper, String statementSql, Object... arguments) {
         ResultSet resultSet = null;
 
         try {
-            statement = connection.prepareStatement(statementSql);
+            PreparedStatement statement = connection.prepare(statementSql);
 
-            if (arguments != null) {
-                for (int i = 0; i < arguments.length; i++) {
-                    statement.setObject(i + 1, arguments[i]);
-                }
-            }
+            setArguments(statement, arguments);
 
             resultSet = statement.executeQuery();
 
-            return convertResultSetToList(resultSet);
+            List<T> result = new ArrayList<T>();
+            while (resultSet.next()) {
+                result.add(mapper.map(resultSet));
+            }
+            return result;
         } catch (Exception e) {
             e.printStackTrace();
+            connection.discard(statementSql);
         } finally {
-            if (statement != null) {
-                try {
-                    statement.close();
-                } catch (SQLException e) {
-                }
-            }
+            close(resultSet);
         }
 
-        return new ArrayList<List<Object>>();
+        return new ArrayList<T>();
     }
 
-    private int update(Connection connection, String statementSql, Object... arguments) {
-
-        PreparedStatement statement = null;
-
+    private int update(PooledConnection connection, String statementSql, Object... arguments) {
         try {
-            statement = connection.prepareStatement(statementSql);
+            PreparedStatement statement = connection.prepare(statementSql);
 
-            if (arguments != null) {
-                for (int i = 0; i < arguments.length; i++) {
-                    statement.setObject(i + 1, arguments[i]);
-                }
-            }
+            setArguments(statement, arguments);
 
             return statement.executeUpdate();
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
-            if (statement != null) {
+            connection.discard(statementSql);
+        }
+
+        return -1;
+    }
+
+    private int[] batch(PooledConnection connection, String statementSql, List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return new int[0];
+        }
+
+        Connection c = connection.connection;
+
+        try {
+            c.setAutoCommit(false);
+            try {
+                PreparedStatement statement = connection.prepare(statementSql);
+
+                int last = rows.size() - 1;
+                int[] counts = new int[rows.size()];
+
+                // the full text trigger commits the lucene index after each row,
+                // only the last row of the batch does it
+                enableFullTextIndexing(false);
                 try {
-                    statement.close();
-                } catch (SQLException e) {
+                    for (int i = 0; i < last; i++) {
+                        setArguments(statement, rows.get(i));
+                        statement.addBatch();
+                    }
+                    if (last > 0) {
+                        System.arraycopy(statement.executeBatch(), 0, counts, 0, last);
+                    }
+                } finally {
+                    enableFullTextIndexing(true);
                 }
+
+                setArguments(statement, rows.get(last));
+                counts[last] = statement.executeUpdate();
+
+                c.commit();
+                return counts;
+            } catch (Exception e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
             }
+        } catch (Exception e) {
+            e.printStackTrace();
+            connection.discard(statementSql);
         }
 
-        return -1;
+        return null;
+    }
+
+    private static void enableFullTextIndexing(boolean enable) {
+        for (String table : FULL_TEXT_TABLES) {
+            FullTextLucene2.enableIndexing(table, enable);
+        }
+    }
+
+    private static void setArguments(PreparedStatement statement, Object[] arguments) throws SQLException {
+        statement.clearParameters();
+        if (arguments != null) {
+            for (int i = 0; i < arguments.length; i++) {
+                statement.setObject(i + 1, arguments[i]);
+            }
+        }
+    }
+
+    private static void close(ResultSet resultSet) {
+        if (resultSet != null) {
+            try {
+                resultSet.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * Used by the creation and upgrade of the database, before the connections
+     * are pooled.
+     */
+    private List<List<Object>> query(Connection connection, String statementSql, Object... arguments) {
+        PooledConnection pc = new PooledConnection(connection);
+        try {
+            return query(pc, LIST_MAPPER, statementSql, arguments);
+        } finally {
+            pc.closeStatements();
+        }
+    }
+
+    private int update(Connection connection, String statementSql, Object... arguments) {
+        PooledConnection pc = new PooledConnection(connection);
+        try {
+            return update(pc, statementSql, arguments);
+        } finally {
+            pc.closeStatements();
+        }
     }
 
     private int getDatabaseVersion(Connection connection) {
@@ -353,4 +527,79 @@ public class LibraryDatabase {
             }
         }
     }
+
+    /**
+     * Maps the current row of a result set.
+     */
+    public interface RowMapper<T> {
+        public T map(ResultSet resultSet) throws SQLException;
+    }
+
+    private static final RowMapper<List<Object>> LIST_MAPPER = new RowMapper<List<Object>>() {
+        public List<Object> map(ResultSet resultSet) throws SQLException {
+            int numColums = resultSet.getMetaData().getColumnCount();
+            List<Object> row = new ArrayList<Object>(numColums);
+            for (int i = 1; i <= numColums; i++) {
+                row.add(resultSet.getObject(i));
+            }
+            return row;
+        }
+    };
+
+    /**
+     * A connection with its cache of prepared statements, used by one
+     * thread at a time.
+     */
+    private static final class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+
+        public PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(MAX_CACHED_STATEMENTS, 0.75f, true);
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+                if (statements.size() > MAX_CACHED_STATEMENTS) {
+                    Iterator<PreparedStatement> it = statements.values().iterator();
+                    close(it.next());
+                    it.remove();
+                }
+            }
+            return statement;
+        }
+
+        /**
+         * Drops the statement after an error, it's prepared again the next time.
+         */
+        public void discard(String sql) {
+            close(statements.remove(sql));
+        }
+
+        public void closeStatements() {
+            for (PreparedStatement statement : statements.values()) {
+                close(statement);
+            }
+            statements.clear();
+        }
+
+        public void close() throws SQLException {
+            closeStatements();
+            connection.close();
+        }
+
+        private static void close(PreparedStatement statement) {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+    }
 }
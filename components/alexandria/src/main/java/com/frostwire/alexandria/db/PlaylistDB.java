@@ -49,8 +49,9 @@ public class PlaylistDB {
 
         for (PlaylistItem item : items) {
             item.setId(LibraryDatabase.OBJECT_NOT_SAVED_ID);
-            item.save();
         }
+
+        PlaylistItemDB.save(db, items);
     }
 
     public static void delete(LibraryDatabase db, Playlist obj) {
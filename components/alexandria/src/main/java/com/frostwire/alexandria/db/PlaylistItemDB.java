@@ -1,7 +1,11 @@
 package com.frostwire.alexandria.db;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import com.frostwire.alexandria.Playlist;
 import com.frostwire.alexandria.PlaylistItem;
@@ -78,6 +82,58 @@ public class PlaylistItemDB {
         }
     }
 
+    /**
+     * Saves all the items of a playlist with batch statements, the starred
+     * paths are looked up with one query instead of one per item.
+     */
+    public static void save(LibraryDatabase db, List<PlaylistItem> items) {
+        List<PlaylistItem> inserts = new ArrayList<PlaylistItem>();
+        List<Object[]> insertValues = new ArrayList<Object[]>();
+        List<Object[]> updateValues = new ArrayList<Object[]>();
+        List<Object[]> starredValues = new ArrayList<Object[]>();
+
+        Set<String> starredPaths = null;
+
+        for (PlaylistItem item : items) {
+            if (item.getId() == LibraryDatabase.OBJECT_INVALID_ID || item.getPlaylist() == null) {
+                continue;
+            }
+
+            if (item.getId() == LibraryDatabase.OBJECT_NOT_SAVED_ID) {
+                if (starredPaths == null) {
+                    starredPaths = getStarredPaths(db);
+                }
+                item.setStarred(starredPaths.contains(item.getFilePath()) || item.isStarred());
+                inserts.add(item);
+                insertValues.add((Object[]) createPlaylistItemInsert(item)[1]);
+                // the other items of the path are already not starred
+                if (item.isStarred()) {
+                    starredPaths.add(item.getFilePath());
+                    starredValues.add((Object[]) updateStarred(item)[1]);
+                }
+            } else {
+                updateValues.add((Object[]) createPlaylistItemUpdate(item)[1]);
+                starredValues.add((Object[]) updateStarred(item)[1]);
+            }
+        }
+
+        if (!inserts.isEmpty()) {
+            String sql = (String) createPlaylistItemInsert(inserts.get(0))[0];
+            int[] ids = db.insertBatch(sql, insertValues);
+            for (int i = 0; i < inserts.size(); i++) {
+                inserts.get(i).setId(ids != null ? ids[i] : LibraryDatabase.OBJECT_INVALID_ID);
+            }
+        }
+
+        if (!updateValues.isEmpty()) {
+            db.updateBatch(UPDATE_PLAYLIST_ITEM_SQL, updateValues);
+        }
+
+        if (!starredValues.isEmpty()) {
+            db.updateBatch(UPDATE_STARRED_SQL, starredValues);
+        }
+    }
+
     public static void delete(LibraryDatabase db, PlaylistItem obj) {
         db.update("DELETE FROM PlaylistItems WHERE playlistItemId = ?", obj.getId());
     }
@@ -86,17 +142,7 @@ public class PlaylistItemDB {
         String query = "SELECT playlistItemId, filePath, fileName, fileSize, fileExtension, trackTitle, trackDurationInSecs, trackArtist, trackAlbum, coverArtPath, trackBitrate, trackComment, trackGenre, trackNumber, trackYear, starred, sortIndex "
                 + "FROM PlaylistItems WHERE playlistId = ? ORDER BY sortIndex ASC";
 
-        List<List<Object>> result = db.query(query, playlist.getId());
-
-        List<PlaylistItem> items = new ArrayList<PlaylistItem>(result.size());
-
-        for (List<Object> row : result) {
-            PlaylistItem item = new PlaylistItem(playlist);
-            PlaylistItemDB.fill(row, item);
-            items.add(item);
-        }
-
-        return items;
+        return db.query(new PlaylistItemMapper(playlist), query, playlist.getId());
     }
     
     private static Object[] createPlaylistItemInsert(PlaylistItem item) {
@@ -110,8 +156,12 @@ public class PlaylistItemDB {
         return new Object[] { sql, values };
     }
 
+    private static final String UPDATE_PLAYLIST_ITEM_SQL = "UPDATE PlaylistItems SET filePath = LEFT(?, 10000), fileName = LEFT(?, 500), fileSize = ?, fileExtension = LEFT(?, 10), trackTitle = LEFT(?, 500), trackDurationInSecs = ?, trackArtist = LEFT(?, 500), trackAlbum = LEFT(?, 500), coverArtPath = LEFT(?, 10000), trackBitrate = LEFT(?, 10), trackComment = LEFT(?, 500), trackGenre = LEFT(?, 20), trackNumber = LEFT(?, 6), trackYear = LEFT(?, 6), starred = ?, sortIndex = ? WHERE playlistItemId = ?";
+
+    private static final String UPDATE_STARRED_SQL = "UPDATE PlaylistItems SET starred = ? WHERE filePath = LEFT(?, 10000)";
+
     private static Object[] createPlaylistItemUpdate(PlaylistItem item) {
-        String sql = "UPDATE PlaylistItems SET filePath = LEFT(?, 10000), fileName = LEFT(?, 500), fileSize = ?, fileExtension = LEFT(?, 10), trackTitle = LEFT(?, 500), trackDurationInSecs = ?, trackArtist = LEFT(?, 500), trackAlbum = LEFT(?, 500), coverArtPath = LEFT(?, 10000), trackBitrate = LEFT(?, 10), trackComment = LEFT(?, 500), trackGenre = LEFT(?, 20), trackNumber = LEFT(?, 6), trackYear = LEFT(?, 6), starred = ?, sortIndex = ? WHERE playlistItemId = ?";
+        String sql = UPDATE_PLAYLIST_ITEM_SQL;
 
         Object[] values = new Object[] { item.getFilePath(), item.getFileName(), item.getFileSize(), item.getFileExtension(), item.getTrackTitle(),
                 item.getTrackDurationInSecs(), item.getTrackArtist(), item.getTrackAlbum(), item.getCoverArtPath(), item.getTrackBitrate(), item.getTrackComment(),
@@ -121,7 +171,7 @@ public class PlaylistItemDB {
     }
 
     private static Object[] updateStarred(PlaylistItem item) {
-        String sql = "UPDATE PlaylistItems SET starred = ? WHERE filePath = LEFT(?, 10000)";
+        String sql = UPDATE_STARRED_SQL;
 
         Object[] values = new Object[] { item.isStarred(), item.getFilePath() };
 
@@ -137,4 +187,48 @@ public class PlaylistItemDB {
         
         return false;
     }
+
+    private static Set<String> getStarredPaths(LibraryDatabase db) {
+        return new HashSet<String>(db.query(new LibraryDatabase.RowMapper<String>() {
+            public String map(ResultSet resultSet) throws SQLException {
+                return resultSet.getString(1);
+            }
+        }, "SELECT DISTINCT filePath FROM PlaylistItems WHERE starred = ?", true));
+    }
+
+    /**
+     * Reads the rows directly into the items, without the intermediate lists.
+     */
+    private static final class PlaylistItemMapper implements LibraryDatabase.RowMapper<PlaylistItem> {
+
+        private final Playlist playlist;
+
+        public PlaylistItemMapper(Playlist playlist) {
+            this.playlist = playlist;
+        }
+
+        public PlaylistItem map(ResultSet rs) throws SQLException {
+            PlaylistItem item = new PlaylistItem(playlist);
+
+            item.setId(rs.getInt(1));
+            item.setFilePath(rs.getString(2));
+            item.setFileName(rs.getString(3));
+            item.setFileSize(rs.getLong(4));
+            item.setFileExtension(rs.getString(5));
+            item.setTrackTitle(rs.getString(6));
+            item.setTrackDurationInSecs(rs.getFloat(7));
+            item.setTrackArtist(rs.getString(8));
+            item.setTrackAlbum(rs.getString(9));
+            item.setCoverArtPath(rs.getString(10));
+            item.setTrackBitrate(rs.getString(11));
+            item.setTrackComment(rs.getString(12));
+            item.setTrackGenre(rs.getString(13));
+            item.setTrackNumber(rs.getString(14));
+            item.setTrackYear(rs.getString(15));
+            item.setStarred(rs.getBoolean(16));
+            item.setSortIndex(rs.getInt(17)); // null is 0
+
+            return item;
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package com.frostwire.alexandria;
+
+import java.io.File;
+import java.util.List;
+
+import com.frostwire.alexandria.db.LibraryDatabase;
+
+/**
+ * Imports a playlist of fake tracks the way the library does it, each item
+ * saved as it is added, and then the whole playlist saved again.
+ * 
+ * Usage: PlaylistImportBenchmark [items] [database dir]
+ */
+public class PlaylistImportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        File dir = args.length > 1 ? new File(args[1]) : new File(System.getProperty("java.io.tmpdir"), "alexandria-bench-" + System.currentTimeMillis());
+
+        dir.mkdirs();
+
+        Library library = new Library(dir);
+        LibraryDatabase db = library.getLibraryDatabase();
+
+        Playlist playlist = library.newPlaylist("bench", "bench");
+        playlist.save();
+
+        long start = System.currentTimeMillis();
+
+        List<PlaylistItem> items = playlist.getItems();
+        for (int i = 0; i < n; i++) {
+            PlaylistItem item = playlist.newItem("/music/artist" + (i % 100) + "/track" + i + ".mp3", "track" + i + ".mp3", 4000000 + i, "mp3", "Track " + i, 180 + i % 60, "Artist " + (i % 100), "Album " + (i % 500), "", "320", "", "Rock", String.valueOf(i % 20), "2012", i % 50 == 0);
+            items.add(item);
+            item.setSortIndex(items.size());
+            item.save();
+        }
+
+        long itemsTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        playlist.save();
+        long playlistTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        playlist.refresh();
+        long refreshTime = System.currentTimeMillis() - start;
+
+        // the full text index has to see the items saved in batch
+        int found = db.query("SELECT T.playlistItemId FROM FTL_SEARCH_DATA(?, 0, 0) FT, PLAYLISTITEMS T WHERE FT.TABLE='PLAYLISTITEMS' AND T.playlistItemId = FT.KEYS[0] AND T.playlistId = ?", LibraryUtils.wildcardLuceneQuery("Track " + (n - 1)), playlist.getId()).size();
+
+        System.out.println(n + " items: item saves " + itemsTime + " ms, playlist save " + playlistTime + " ms, refresh " + refreshTime + " ms (" + playlist.getItems().size() + " items, " + found + " found by the full text search)");
+
+        db.close();
+    }
+}
@@ -139,22 +139,24 @@ public class NetworkManager {
   private final List<ReadController> 	read_controllers;
   
   {
-	 int	num_read = COConfigurationManager.getIntParameter( "network.control.read.processor.count" );
+		// a count of 0 or less means one processor per core
+	 
+	 int	num_read = getProcessorCount( "network.control.read.processor.count" );
 	 
 	 read_controllers = new ArrayList<ReadController>(num_read);
 	 
 	 for (int i=0;i<num_read;i++){
 		 
-		 read_controllers.add( new ReadController());
+		 read_controllers.add( new ReadController( i ));
 	 }
 	 
-	 int	num_write = COConfigurationManager.getIntParameter( "network.control.write.processor.count" );
+	 int	num_write = getProcessorCount( "network.control.write.processor.count" );
 	 
 	 write_controllers = new ArrayList<WriteController>(num_write);
 	 
 	 for (int i=0;i<num_write;i++){
 		 
-		 write_controllers.add( new WriteController());
+		 write_controllers.add( new WriteController( i ));
 	 }
   }
   
@@ -175,7 +177,7 @@ public class NetworkManager {
 				return max_upload_rate_bps;  
 			}
 		},
-		write_controllers.size() > 1 );
+		write_controllers.size() );
   
   private final TransferProcessor download_processor = 
 	  new TransferProcessor( 
@@ -193,7 +195,7 @@ public class NetworkManager {
 				return max_download_rate_bps;  
 			}
 		},
-		read_controllers.size() > 1 );
+		read_controllers.size() );
   
   
   private final TransferProcessor lan_upload_processor = 
@@ -212,7 +214,7 @@ public class NetworkManager {
 				return max_lan_upload_rate_bps;  
 			}
 		},
-		write_controllers.size() > 1 );
+		write_controllers.size() );
   
   private final TransferProcessor lan_download_processor = 
 	  new TransferProcessor( 
@@ -230,8 +232,22 @@ public class NetworkManager {
 				return max_lan_download_rate_bps;  
 			}
 		},
-		read_controllers.size() > 1 );
+		read_controllers.size() );
      
+  private static int
+  getProcessorCount(
+	String	param )
+  {
+	  int	count = COConfigurationManager.getIntParameter( param );
+	  
+	  if ( count <= 0 ){
+		  
+		  count = Runtime.getRuntime().availableProcessors();
+	  }
+	  
+	  return( count );
+  }
+  
   public static boolean
   isLANRateEnabled()
   {
@@ -88,7 +88,11 @@ ByteBucketMT
 		  return;
 		}
 		  
-	    avail_bytes -= bytes_used;
+	    	// several processor threads use the same bucket, don't lose any update
+	    
+	    synchronized( this ){
+	    	avail_bytes -= bytes_used;
+	    }
 	    //if( avail_bytes < 0 ) Debug.out( "avail_bytes < 0: " + avail_bytes);
 	  }
 	  
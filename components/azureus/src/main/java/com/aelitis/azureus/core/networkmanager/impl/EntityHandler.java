@@ -36,12 +36,16 @@ import com.aelitis.azureus.core.networkmanager.*;
  * connections by default.  Connections can also be "upgraded"
  * to a higher connection control level, i.e. each connection
  * has its own specialized entity for performance purposes.
+ * 
+ * The global pool is split in one shard per processor thread, each
+ * connection always belongs to the same shard.  All the shards share
+ * the global rate handler.
  */
 public class EntityHandler {
   private final HashMap upgraded_connections = new HashMap();
   private final AEMonitor lock = new AEMonitor( "EntityHandler" );
-  private final MultiPeerUploader global_uploader;
-  private final MultiPeerDownloader2 global_downloader;
+  private final MultiPeerUploader[] global_uploaders;
+  private final MultiPeerDownloader2[] global_downloaders;
   private boolean global_registered = false;
   private final int handler_type;
   
@@ -50,19 +54,40 @@ public class EntityHandler {
    * Create a new entity handler using the given rate handler.
    * @param type read or write type handler
    * @param rate_handler global max rate handler
+   * @param num_shards number of processor threads to split the global pool across
    */
-  public EntityHandler( int type, RateHandler rate_handler ) {
+  public EntityHandler( int type, RateHandler rate_handler, int num_shards ) {
     this.handler_type = type;
     if( handler_type == TransferProcessor.TYPE_UPLOAD ) {
-      global_uploader = new MultiPeerUploader( rate_handler );
-      global_downloader = null;
+      global_uploaders = new MultiPeerUploader[ Math.max( 1, num_shards ) ];
+      for( int i=0; i < global_uploaders.length; i++ ) {
+        global_uploaders[i] = new MultiPeerUploader( rate_handler );
+      }
+      global_downloaders = null;
     }
     else {  //download type
-      global_downloader = new MultiPeerDownloader2( rate_handler );
-      global_uploader = null;
+      global_downloaders = new MultiPeerDownloader2[ Math.max( 1, num_shards ) ];
+      for( int i=0; i < global_downloaders.length; i++ ) {
+        global_downloaders[i] = new MultiPeerDownloader2( rate_handler );
+      }
+      global_uploaders = null;
     }
   }
   
+  
+  private int shard( NetworkConnectionBase connection ) {
+    int num_shards = handler_type == TransferProcessor.TYPE_UPLOAD ? global_uploaders.length : global_downloaders.length;
+    return (System.identityHashCode( connection ) & 0x7FFFFFFF) % num_shards;
+  }
+  
+  private MultiPeerUploader globalUploader( NetworkConnectionBase connection ) {
+    return global_uploaders[ shard( connection ) ];
+  }
+  
+  private MultiPeerDownloader2 globalDownloader( NetworkConnectionBase connection ) {
+    return global_downloaders[ shard( connection ) ];
+  }
+  
 
   
   /**
@@ -72,11 +97,16 @@ public class EntityHandler {
   public void registerPeerConnection( NetworkConnectionBase connection ) {
     try {  lock.enter();
       if( !global_registered ) {
+        //shard 0 goes to the default processor, shard i to the processor of partition i-1
         if( handler_type == TransferProcessor.TYPE_UPLOAD ) {
-          NetworkManager.getSingleton().addWriteEntity( global_uploader, -1 );  //register global upload entity
+          for( int i=0; i < global_uploaders.length; i++ ) {
+            NetworkManager.getSingleton().addWriteEntity( global_uploaders[i], i - 1 );  //register global upload entity
+          }
         }
         else {
-          NetworkManager.getSingleton().addReadEntity( global_downloader, -1 );  //register global download entity
+          for( int i=0; i < global_downloaders.length; i++ ) {
+            NetworkManager.getSingleton().addReadEntity( global_downloaders[i], i - 1 );  //register global download entity
+          }
         }
         
         global_registered = true;
@@ -85,10 +115,10 @@ public class EntityHandler {
     finally {  lock.exit();  }
     
     if( handler_type == TransferProcessor.TYPE_UPLOAD ) {
-      global_uploader.addPeerConnection( connection );
+      globalUploader( connection ).addPeerConnection( connection );
     }
     else {
-      global_downloader.addPeerConnection( connection );
+      globalDownloader( connection ).addPeerConnection( connection );
     }
   }
   
@@ -99,7 +129,7 @@ public class EntityHandler {
    */
   public void cancelPeerConnection( NetworkConnectionBase connection ) {
     if( handler_type == TransferProcessor.TYPE_UPLOAD ) {
-      if( !global_uploader.removePeerConnection( connection ) ) {  //if not found in the pool entity
+      if( !globalUploader( connection ).removePeerConnection( connection ) ) {  //if not found in the pool entity
         SinglePeerUploader upload_entity = (SinglePeerUploader)upgraded_connections.remove( connection );  //check for it in the upgraded list
         if( upload_entity != null ) {
           NetworkManager.getSingleton().removeWriteEntity( upload_entity );  //cancel from write processing
@@ -107,7 +137,7 @@ public class EntityHandler {
       }
     }
     else {
-      if( !global_downloader.removePeerConnection( connection ) ) {  //if not found in the pool entity
+      if( !globalDownloader( connection ).removePeerConnection( connection ) ) {  //if not found in the pool entity
         SinglePeerDownloader download_entity = (SinglePeerDownloader)upgraded_connections.remove( connection );  //check for it in the upgraded list
         if( download_entity != null ) {
           NetworkManager.getSingleton().removeReadEntity( download_entity );  //cancel from read processing
@@ -127,7 +157,7 @@ public class EntityHandler {
     try {  lock.enter();
       if( handler_type == TransferProcessor.TYPE_UPLOAD ) {
         SinglePeerUploader upload_entity = new SinglePeerUploader( connection, handler );
-        if( !global_uploader.removePeerConnection( connection ) ) {  //remove it from the general upload pool
+        if( !globalUploader( connection ).removePeerConnection( connection ) ) {  //remove it from the general upload pool
           Debug.out( "upgradePeerConnection:: upload entity not found/removed !" );
         }
         NetworkManager.getSingleton().addWriteEntity( upload_entity, partition_id );  //register it for write processing
@@ -135,7 +165,7 @@ public class EntityHandler {
       }
       else {
         SinglePeerDownloader download_entity = new SinglePeerDownloader( connection, handler );
-        if( !global_downloader.removePeerConnection( connection ) ) {  //remove it from the general upload pool
+        if( !globalDownloader( connection ).removePeerConnection( connection ) ) {  //remove it from the general upload pool
           Debug.out( "upgradePeerConnection:: download entity not found/removed !" );
         }
         NetworkManager.getSingleton().addReadEntity( download_entity, partition_id );  //register it for read processing
@@ -160,7 +190,7 @@ public class EntityHandler {
         else {
           Debug.out( "upload_entity == null" );
         }
-        global_uploader.addPeerConnection( connection );  //move back to the general pool
+        globalUploader( connection ).addPeerConnection( connection );  //move back to the general pool
       }
       else {
         SinglePeerDownloader download_entity = (SinglePeerDownloader)upgraded_connections.remove( connection );  //remove from the upgraded list  
@@ -170,7 +200,7 @@ public class EntityHandler {
         else {
           Debug.out( "download_entity == null" );
         }
-        global_downloader.addPeerConnection( connection );  //move back to the general pool
+        globalDownloader( connection ).addPeerConnection( connection );  //move back to the general pool
       } 
     }
     finally {  lock.exit();  }
@@ -192,7 +222,7 @@ public class EntityHandler {
 				  return( upload_entity.getRateHandler());
 			  }else{
 				  
-				  return( global_uploader.getRateHandler());
+				  return( globalUploader( connection ).getRateHandler());
 			  }
 		  }else{
 			  
@@ -203,7 +233,7 @@ public class EntityHandler {
 				  return( download_entity.getRateHandler());
 			  }else{
 				  
-				  return( global_downloader.getRateHandler());
+				  return( globalDownloader( connection ).getRateHandler());
 			  } 
 		  }
 
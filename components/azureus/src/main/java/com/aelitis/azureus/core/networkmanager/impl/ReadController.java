@@ -23,6 +23,7 @@
 package com.aelitis.azureus.core.networkmanager.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -39,6 +40,8 @@ import com.aelitis.azureus.core.stats.AzureusCoreStatsProvider;
 
 /**
  * Processes reads of read-entities and handles the read selector.
+ * There can be several controllers, each one with its own processor
+ * thread and its share of the entities.
  */
 public class ReadController implements AzureusCoreStatsProvider{
 	
@@ -81,10 +84,22 @@ public class ReadController implements AzureusCoreStatsProvider{
 
   private int			entity_count;
   
-  public ReadController() {
+  private final int		index;
+  private final Map		shard_stats = new HashMap();	// stat -> stat of this controller
+  
+  public ReadController( int _index ) {
+    
+    index	= _index;
+    
+    for ( String type: AzureusCoreStats.ST_NET_READ_CONTROL_SHARD_STATS ){
+    	
+    	shard_stats.put( type, AzureusCoreStats.getShardStat( type, index ));
+    }
+    
+    AzureusCoreStats.addShardStatsDefinitions( AzureusCoreStats.ST_NET_READ_CONTROL_SHARD_STATS, index );
      
     //start read handler processing
-    Thread read_processor_thread = new AEThread( "ReadController:ReadProcessor" ) {
+    Thread read_processor_thread = new AEThread( "ReadController:ReadProcessor" + (index == 0 ? "" : ":" + index )) {
       public void runSupport() {
         readProcessorLoop();
       }
@@ -103,6 +118,10 @@ public class ReadController implements AzureusCoreStatsProvider{
     types.add( AzureusCoreStats.ST_NET_READ_CONTROL_CON_COUNT );
     types.add( AzureusCoreStats.ST_NET_READ_CONTROL_READY_CON_COUNT );
     
+    	// the same stats for this controller only
+    
+    types.addAll( shard_stats.values());
+    
     AzureusCoreStats.registerProvider(
     	types,
     	this );
@@ -114,7 +133,7 @@ public class ReadController implements AzureusCoreStatsProvider{
     		generate(
     			IndentWriter writer ) 
     		{
-				writer.println( "Read Controller" );
+				writer.println( "Read Controller " + index );
 					
 				try{
 					writer.indent();
@@ -153,33 +172,16 @@ public class ReadController implements AzureusCoreStatsProvider{
 		  Set		types,
 		  Map		values )
   {
-	  if ( types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_LOOP_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_READ_CONTROL_LOOP_COUNT, new Long( loop_count  ));
-	  }
-	  
-	  if ( types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_NP_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_READ_CONTROL_NP_COUNT, new Long( non_progress_count  ));
-	  }
-	  
-	  if ( types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_P_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_READ_CONTROL_P_COUNT, new Long( progress_count  ));
-	  }
-	  
-	  if ( types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_WAIT_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_READ_CONTROL_WAIT_COUNT, new Long( wait_count  ));
-	  }
-	  
-	  if ( types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_ENTITY_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_READ_CONTROL_ENTITY_COUNT, new Long( high_priority_entities.size() + normal_priority_entities.size()));
-	  }
+	  updateStat( types, values, AzureusCoreStats.ST_NET_READ_CONTROL_LOOP_COUNT, loop_count );
+	  updateStat( types, values, AzureusCoreStats.ST_NET_READ_CONTROL_NP_COUNT, non_progress_count );
+	  updateStat( types, values, AzureusCoreStats.ST_NET_READ_CONTROL_P_COUNT, progress_count );
+	  updateStat( types, values, AzureusCoreStats.ST_NET_READ_CONTROL_WAIT_COUNT, wait_count );
+	  updateStat( types, values, AzureusCoreStats.ST_NET_READ_CONTROL_ENTITY_COUNT, high_priority_entities.size() + normal_priority_entities.size());
 	 
 	  if ( 	types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_CON_COUNT ) ||
-			types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_READY_CON_COUNT )){
+			types.contains( AzureusCoreStats.ST_NET_READ_CONTROL_READY_CON_COUNT ) ||
+			types.contains( shard_stats.get( AzureusCoreStats.ST_NET_READ_CONTROL_CON_COUNT )) ||
+			types.contains( shard_stats.get( AzureusCoreStats.ST_NET_READ_CONTROL_READY_CON_COUNT ))){
 		   		    
 		  int	ready_connections	= 0;
 		  int	connections			= 0;
@@ -200,8 +202,33 @@ public class ReadController implements AzureusCoreStatsProvider{
 			  }
 		  }
 		  
-		  values.put( AzureusCoreStats.ST_NET_READ_CONTROL_CON_COUNT, new Long( connections ));
-		  values.put( AzureusCoreStats.ST_NET_READ_CONTROL_READY_CON_COUNT, new Long( ready_connections ));
+		  updateStat( types, values, AzureusCoreStats.ST_NET_READ_CONTROL_CON_COUNT, connections );
+		  updateStat( types, values, AzureusCoreStats.ST_NET_READ_CONTROL_READY_CON_COUNT, ready_connections );
+	  }
+  }
+
+  	/**
+  	 * Puts the value under the total stat, summed over all the controllers,
+  	 * and under the stat of this controller.
+  	 */
+  
+  private void
+  updateStat(
+		  Set		types,
+		  Map		values,
+		  String	type,
+		  long		value )
+  {
+	  if ( types.contains( type )){
+
+		  values.put( type, new Long( value ));
+	  }
+	  
+	  String	shard_type = (String)shard_stats.get( type );
+	  
+	  if ( types.contains( shard_type )){
+
+		  values.put( shard_type, new Long( value ));
 	  }
   }
 
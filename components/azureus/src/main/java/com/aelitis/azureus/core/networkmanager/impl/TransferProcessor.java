@@ -68,10 +68,11 @@ public class TransferProcessor {
    * Create new transfer processor for the given read/write type, limited to the given max rate.
    * @param processor_type read or write processor
    * @param max_rate_limit to use
+   * @param num_processors number of processor threads the transfers are spread across
    */
-  public TransferProcessor( int processor_type, LimitedRateGroup max_rate_limit, boolean multi_threaded ) {
+  public TransferProcessor( int processor_type, LimitedRateGroup max_rate_limit, int num_processors ) {
     this.max_rate 		= max_rate_limit;
-    this.multi_threaded	= multi_threaded;
+    this.multi_threaded	= num_processors > 1;
     
     connections_mon = new AEMonitor( "TransferProcessor:" +processor_type );
 
@@ -91,7 +92,7 @@ public class TransferProcessor {
         }
       };
       
-    main_controller = new EntityHandler( processor_type, main_rate_handler );
+    main_controller = new EntityHandler( processor_type, main_rate_handler, num_processors );
   }
   
 
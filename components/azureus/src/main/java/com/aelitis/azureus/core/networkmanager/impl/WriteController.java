@@ -36,6 +36,8 @@ import com.aelitis.azureus.core.stats.AzureusCoreStatsProvider;
 
 /**
  * Processes writes of write-entities and handles the write selector.
+ * There can be several controllers, each one with its own processor
+ * thread and its share of the entities.
  */
 public class WriteController implements AzureusCoreStatsProvider{
   
@@ -92,13 +94,26 @@ public class WriteController implements AzureusCoreStatsProvider{
   
   private int	entity_count = 0;
   
+  private final int		index;
+  private final Map		shard_stats = new HashMap();	// stat -> stat of this controller
+  
   /**
    * Create a new write controller.
+   * @param _index of the controller, 0 for the default one
    */
-  public WriteController() {
+  public WriteController( int _index ) {
+    
+    index	= _index;
+    
+    for ( String type: AzureusCoreStats.ST_NET_WRITE_CONTROL_SHARD_STATS ){
+    	
+    	shard_stats.put( type, AzureusCoreStats.getShardStat( type, index ));
+    }
+    
+    AzureusCoreStats.addShardStatsDefinitions( AzureusCoreStats.ST_NET_WRITE_CONTROL_SHARD_STATS, index );
     
     //start write handler processing
-    Thread write_processor_thread = new AEThread( "WriteController:WriteProcessor" ) {
+    Thread write_processor_thread = new AEThread( "WriteController:WriteProcessor" + (index == 0 ? "" : ":" + index )) {
       public void runSupport() {
         writeProcessorLoop();
       }
@@ -116,6 +131,10 @@ public class WriteController implements AzureusCoreStatsProvider{
     types.add( AzureusCoreStats.ST_NET_WRITE_CONTROL_CON_COUNT );
     types.add( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_CON_COUNT );
     types.add( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_BYTE_COUNT );
+    
+    	// the same stats for this controller only
+    
+    types.addAll( shard_stats.values());
        
     AzureusCoreStats.registerProvider(
     	types,
@@ -128,7 +147,7 @@ public class WriteController implements AzureusCoreStatsProvider{
     		generate(
     			IndentWriter writer ) 
     		{
-				writer.println( "Write Controller" );
+				writer.println( "Write Controller " + index );
 					
 				try{
 					writer.indent();
@@ -178,29 +197,17 @@ public class WriteController implements AzureusCoreStatsProvider{
 		  Set		types,
 		  Map		values )
   {
-	  if ( types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_WAIT_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_WRITE_CONTROL_WAIT_COUNT, new Long( wait_count ));
-	  }
-	  
-	  if ( types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_NP_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_WRITE_CONTROL_NP_COUNT, new Long( non_progress_count ));
-	  }
-	  
-	  if ( types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_P_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_WRITE_CONTROL_P_COUNT, new Long( progress_count ));
-	  }
-
-	  if ( types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_ENTITY_COUNT )){
-
-		  values.put( AzureusCoreStats.ST_NET_WRITE_CONTROL_ENTITY_COUNT, new Long( high_priority_entities.size() + boosted_priority_entities.size() + normal_priority_entities.size()));
-	  }
+	  updateStat( types, values, AzureusCoreStats.ST_NET_WRITE_CONTROL_WAIT_COUNT, wait_count );
+	  updateStat( types, values, AzureusCoreStats.ST_NET_WRITE_CONTROL_NP_COUNT, non_progress_count );
+	  updateStat( types, values, AzureusCoreStats.ST_NET_WRITE_CONTROL_P_COUNT, progress_count );
+	  updateStat( types, values, AzureusCoreStats.ST_NET_WRITE_CONTROL_ENTITY_COUNT, high_priority_entities.size() + boosted_priority_entities.size() + normal_priority_entities.size());
 	  
 	  if ( 	types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_CON_COUNT ) ||
 			types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_CON_COUNT ) ||
-			types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_BYTE_COUNT )){
+			types.contains( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_BYTE_COUNT ) ||
+			types.contains( shard_stats.get( AzureusCoreStats.ST_NET_WRITE_CONTROL_CON_COUNT )) ||
+			types.contains( shard_stats.get( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_CON_COUNT )) ||
+			types.contains( shard_stats.get( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_BYTE_COUNT ))){
 			   
 		  long	ready_bytes			= 0;
 		  int	ready_connections	= 0;
@@ -224,9 +231,34 @@ public class WriteController implements AzureusCoreStatsProvider{
 			  }
 		  }
 		  
-		  values.put( AzureusCoreStats.ST_NET_WRITE_CONTROL_CON_COUNT, new Long( connections ));
-		  values.put( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_CON_COUNT, new Long( ready_connections ));
-		  values.put( AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_BYTE_COUNT, new Long( ready_bytes ));
+		  updateStat( types, values, AzureusCoreStats.ST_NET_WRITE_CONTROL_CON_COUNT, connections );
+		  updateStat( types, values, AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_CON_COUNT, ready_connections );
+		  updateStat( types, values, AzureusCoreStats.ST_NET_WRITE_CONTROL_READY_BYTE_COUNT, ready_bytes );
+	  }
+  }
+  
+  	/**
+  	 * Puts the value under the total stat, summed over all the controllers,
+  	 * and under the stat of this controller.
+  	 */
+  
+  private void
+  updateStat(
+		  Set		types,
+		  Map		values,
+		  String	type,
+		  long		value )
+  {
+	  if ( types.contains( type )){
+
+		  values.put( type, new Long( value ));
+	  }
+	  
+	  String	shard_type = (String)shard_stats.get( type );
+	  
+	  if ( types.contains( shard_type )){
+
+		  values.put( shard_type, new Long( value ));
 	  }
   }
   
@@ -0,0 +1,344 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package com.aelitis.azureus.core.networkmanager.impl.test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import com.aelitis.azureus.core.networkmanager.EventWaiter;
+import com.aelitis.azureus.core.networkmanager.NetworkManager;
+import com.aelitis.azureus.core.networkmanager.RateHandler;
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucket;
+import com.aelitis.azureus.core.networkmanager.impl.ByteBucketMT;
+import com.aelitis.azureus.core.networkmanager.impl.RateControlledEntity;
+import com.aelitis.azureus.core.networkmanager.impl.ReadController;
+import com.aelitis.azureus.core.stats.AzureusCoreStats;
+
+/**
+ * Loopback benchmark of the read controllers, many connections are read by
+ * a number of controllers sharing a global rate limit.
+ *
+ * Usage: ReadControllerTester [controllers] [connections] [seconds] [rate KB/s, 0 unlimited]
+ */
+public class
+ReadControllerTester
+{
+	private static final int	CHUNK	= 16*1024;
+
+	private final AtomicLong	bytes_read	= new AtomicLong();
+
+	private volatile boolean	stopped;
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	num_controllers	= args.length > 0 ? Integer.parseInt( args[0] ) : Runtime.getRuntime().availableProcessors();
+		int	num_connections	= args.length > 1 ? Integer.parseInt( args[1] ) : 500;
+		int	seconds			= args.length > 2 ? Integer.parseInt( args[2] ) : 10;
+		int	rate			= args.length > 3 ? Integer.parseInt( args[3] ) * 1024 : 0;
+
+		new ReadControllerTester().run( num_controllers, num_connections, seconds, rate );
+
+		System.exit( 0 );
+	}
+
+	protected void
+	run(
+		int		num_controllers,
+		int		num_connections,
+		int		seconds,
+		int		rate )
+
+		throws Exception
+	{
+		final ByteBucket bucket = new ByteBucketMT( rate <= 0 ? NetworkManager.UNLIMITED_RATE : rate );
+
+		RateHandler	global_rate =
+			new RateHandler()
+			{
+				public int
+				getCurrentNumBytesAllowed()
+				{
+					return( bucket.getAvailableByteCount());
+				}
+
+				public void
+				bytesProcessed(
+					int num_bytes_processed )
+				{
+					bucket.setBytesUsed( num_bytes_processed );
+				}
+			};
+
+		ReadController[]	controllers = new ReadController[num_controllers];
+
+		for (int i=0;i<num_controllers;i++){
+
+			controllers[i] = new ReadController( i );
+		}
+
+		ServerSocketChannel	server = ServerSocketChannel.open();
+
+		server.socket().bind( new InetSocketAddress( "127.0.0.1", 0 ));
+
+		final List<SocketChannel>	senders = new ArrayList<SocketChannel>();
+
+		for (int i=0;i<num_connections;i++){
+
+			SocketChannel	sender = SocketChannel.open( server.socket().getLocalSocketAddress());
+			SocketChannel	receiver = server.accept();
+
+			sender.configureBlocking( false );
+			receiver.configureBlocking( false );
+
+			senders.add( sender );
+
+			controllers[ i % num_controllers ].addReadEntity( new Reader( receiver, global_rate ));
+		}
+
+		int	num_pumps = Math.max( 1, Runtime.getRuntime().availableProcessors() / 2 );
+
+		for (int i=0;i<num_pumps;i++){
+
+			final List<SocketChannel>	channels = new ArrayList<SocketChannel>();
+
+			for (int j=i;j<senders.size();j+=num_pumps){
+
+				channels.add( senders.get(j));
+			}
+
+			Thread pump =
+				new Thread( "ReadControllerTester:Pump" + i )
+				{
+					public void
+					run()
+					{
+						pump( channels );
+					}
+				};
+
+			pump.setDaemon( true );
+			pump.start();
+		}
+
+		long	start = System.currentTimeMillis();
+		long	last	= 0;
+
+		for (int i=0;i<seconds;i++){
+
+			Thread.sleep( 1000 );
+
+			long	now = bytes_read.get();
+
+			System.out.println( (i+1) + "s: " + ((now-last)/1024) + " KB/s" );
+
+			last = now;
+		}
+
+		stopped = true;
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		System.out.println(
+				num_controllers + " controllers, " + num_connections + " connections: " +
+				(bytes_read.get()*1000/elapsed/1024) + " KB/s" + ( rate > 0 ? " (limit " + rate/1024 + " KB/s)" : "" ));
+
+		Set	types = new HashSet();
+
+		types.add( "net.read.control.*" );
+
+		Map	stats = new TreeMap( AzureusCoreStats.getStats( types ));
+
+		Iterator	it = stats.entrySet().iterator();
+
+		while( it.hasNext()){
+
+			Map.Entry	entry = (Map.Entry)it.next();
+
+			System.out.println( "    " + entry.getKey() + " -> " + entry.getValue());
+		}
+	}
+
+	protected void
+	pump(
+		List<SocketChannel>	channels )
+	{
+		ByteBuffer	data = ByteBuffer.allocateDirect( CHUNK );
+
+		while( !stopped ){
+
+			boolean	written = false;
+
+			for ( SocketChannel channel: channels ){
+
+				data.clear();
+
+				try{
+					if ( channel.write( data ) > 0 ){
+
+						written = true;
+					}
+				}catch( Throwable e ){
+
+					e.printStackTrace();
+
+					return;
+				}
+			}
+
+			if ( !written ){
+
+				try{
+					Thread.sleep( 1 );
+
+				}catch( Throwable e ){
+				}
+			}
+		}
+	}
+
+		/**
+		 * Reads a connection and checksums the data, standing for the message decoding
+		 */
+
+	protected class
+	Reader
+		implements RateControlledEntity
+	{
+		private final SocketChannel	channel;
+		private final RateHandler	rate_handler;
+		private final ByteBuffer	buffer	= ByteBuffer.allocate( CHUNK );
+		private final CRC32			crc		= new CRC32();
+
+		protected
+		Reader(
+			SocketChannel	_channel,
+			RateHandler		_rate_handler )
+		{
+			channel			= _channel;
+			rate_handler	= _rate_handler;
+		}
+
+		public boolean
+		canProcess(
+			EventWaiter waiter )
+		{
+			return( rate_handler.getCurrentNumBytesAllowed() > 0 );
+		}
+
+		public int
+		doProcessing(
+			EventWaiter waiter,
+			int 		max_bytes_permitted )
+		{
+			int	allowed = rate_handler.getCurrentNumBytesAllowed();
+
+			if ( max_bytes_permitted > 0 ){
+
+				allowed = Math.min( allowed, max_bytes_permitted );
+			}
+
+			if ( allowed <= 0 ){
+
+				return( 0 );
+			}
+
+			buffer.clear();
+			buffer.limit( Math.min( allowed, buffer.capacity()));
+
+			try{
+				int	read = channel.read( buffer );
+
+				if ( read <= 0 ){
+
+					return( 0 );
+				}
+
+				crc.update( buffer.array(), 0, read );
+
+				rate_handler.bytesProcessed( read );
+
+				bytes_read.addAndGet( read );
+
+				return( read );
+
+			}catch( Throwable e ){
+
+				return( 0 );
+			}
+		}
+
+		public int
+		getPriority()
+		{
+			return( PRIORITY_NORMAL );
+		}
+
+		public boolean
+		getPriorityBoost()
+		{
+			return( false );
+		}
+
+		public long
+		getBytesReadyToWrite()
+		{
+			return( 0 );
+		}
+
+		public int
+		getConnectionCount()
+		{
+			return( 1 );
+		}
+
+		public int
+		getReadyConnectionCount(
+			EventWaiter	waiter )
+		{
+			return( 1 );
+		}
+
+		public RateHandler
+		getRateHandler()
+		{
+			return( rate_handler );
+		}
+
+		public String
+		getString()
+		{
+			return( "reader: " + channel );
+		}
+	}
+}
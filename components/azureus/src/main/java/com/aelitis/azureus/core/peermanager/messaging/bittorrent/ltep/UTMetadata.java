@@ -27,6 +27,7 @@ import org.gudy.azureus2.core3.logging.Logger;
 import org.gudy.azureus2.core3.util.BEncoder;
 import org.gudy.azureus2.core3.util.DirectByteBuffer;
 import org.gudy.azureus2.core3.util.DirectByteBufferPool;
+import org.gudy.azureus2.core3.util.LazyBDecoder;
 
 import com.aelitis.azureus.core.peermanager.messaging.Message;
 import com.aelitis.azureus.core.peermanager.messaging.MessageException;
@@ -159,19 +160,28 @@ public class UTMetadata implements LTMessage {
     @Override
     public Message deserialize(DirectByteBuffer data, byte version) throws MessageException {
         try {
-            int pos = data.position(DirectByteBuffer.SS_MSG);
+            if (data == null || data.remaining(DirectByteBuffer.SS_MSG) < 2) {
+                throw new MessageException("[" + getID() + "] decode error: payload too short");
+            }
             byte[] raw = new byte[data.remaining(DirectByteBuffer.SS_MSG)];
             data.get(DirectByteBuffer.SS_MSG, raw);
-            data.position(DirectByteBuffer.SS_MSG, pos);
-            Map<?, ?> map = MessagingUtil.convertBencodedByteStreamToPayload(data, 2, getID());
 
-            int msg_type = ((Long) map.get("msg_type")).intValue();
-            int piece = ((Long) map.get("piece")).intValue();
+            // the metadata piece follows the dictionary, the index gives where the dictionary ends
+            LazyBDecoder.DictionaryView dict;
+            try {
+                dict = LazyBDecoder.decode(raw);
+            } catch (Throwable t) {
+                throw new MessageException("[" + getID() + "] payload stream b-decode error: " + t.getMessage());
+            }
+            data.returnToPool();
+
+            int msg_type = dict.getLong("msg_type").intValue();
+            int piece = dict.getLong("piece").intValue();
             if (msg_type == REQUEST_MESSAGE_TYPE_ID) {
                 return new UTMetadata(msg_type, piece, 0, null, (byte) 1);
             } else if (msg_type == DATA_MESSAGE_TYPE_ID) {
-                int total_size = ((Long) map.get("total_size")).intValue();
-                int offset = BEncoder.encode(map).length;
+                int total_size = dict.getLong("total_size").intValue();
+                int offset = dict.getEnd();
                 byte[] metadata = new byte[raw.length - offset];
                 System.arraycopy(raw, offset, metadata, 0, metadata.length);
                 return new UTMetadata(msg_type, piece, total_size, metadata, (byte) 1);
@@ -87,6 +87,28 @@ AzureusCoreStats
 	public static final String ST_NET_READ_CONTROL_ENTITY_COUNT			= "net.read.control.entity.count";	
 	public static final String ST_NET_READ_CONTROL_CON_COUNT			= "net.read.control.con.count";	
 	public static final String ST_NET_READ_CONTROL_READY_CON_COUNT		= "net.read.control.ready.con.count";	
+
+		// the same stats of a single read or write controller, see getShardStat
+	
+	public static final String[] ST_NET_READ_CONTROL_SHARD_STATS = {
+		ST_NET_READ_CONTROL_LOOP_COUNT,
+		ST_NET_READ_CONTROL_NP_COUNT,
+		ST_NET_READ_CONTROL_P_COUNT,
+		ST_NET_READ_CONTROL_WAIT_COUNT,
+		ST_NET_READ_CONTROL_ENTITY_COUNT,
+		ST_NET_READ_CONTROL_CON_COUNT,
+		ST_NET_READ_CONTROL_READY_CON_COUNT,
+	};
+	
+	public static final String[] ST_NET_WRITE_CONTROL_SHARD_STATS = {
+		ST_NET_WRITE_CONTROL_WAIT_COUNT,
+		ST_NET_WRITE_CONTROL_NP_COUNT,
+		ST_NET_WRITE_CONTROL_P_COUNT,
+		ST_NET_WRITE_CONTROL_ENTITY_COUNT,
+		ST_NET_WRITE_CONTROL_CON_COUNT,
+		ST_NET_WRITE_CONTROL_READY_CON_COUNT,
+		ST_NET_WRITE_CONTROL_READY_BYTE_COUNT,
+	};
 	
 		// TCP
 	
@@ -131,6 +153,14 @@ AzureusCoreStats
 	public static final String ST_TRACKER_SCRAPE_COUNT		= "tracker.scrape.count";
 	public static final String ST_TRACKER_SCRAPE_TIME		= "tracker.scrape.time";
 
+		// MEMORY
+	
+	public static final String ST_MEMORY							= "memory.*";
+	public static final String ST_MEMORY_DBB_CACHE_HIT_COUNT		= "memory.dbb.cache.hit.count";
+	public static final String ST_MEMORY_DBB_DEPOT_HIT_COUNT		= "memory.dbb.depot.hit.count";
+	public static final String ST_MEMORY_DBB_POOL_GET_COUNT			= "memory.dbb.pool.get.count";
+	public static final String ST_MEMORY_DBB_POOL_CONTENDED_COUNT	= "memory.dbb.pool.contended.count";
+	
 		// xfer (persistent)
 	
 	public static final String ST_XFER_UPLOADED_PROTOCOL_BYTES		= "xfer.upload.protocol.bytes.total";
@@ -217,6 +247,11 @@ AzureusCoreStats
 		{ ST_TRACKER_SCRAPE_COUNT,					CUMULATIVE },
 		{ ST_TRACKER_SCRAPE_TIME,					CUMULATIVE },
 
+		{ ST_MEMORY_DBB_CACHE_HIT_COUNT,			CUMULATIVE },
+		{ ST_MEMORY_DBB_DEPOT_HIT_COUNT,			CUMULATIVE },
+		{ ST_MEMORY_DBB_POOL_GET_COUNT,				CUMULATIVE },
+		{ ST_MEMORY_DBB_POOL_CONTENDED_COUNT,		CUMULATIVE },
+
 		{ ST_XFER_UPLOADED_PROTOCOL_BYTES,			CUMULATIVE },
 		{ ST_XFER_UPLOADED_DATA_BYTES,				CUMULATIVE },
 		{ ST_XFER_DOWNLOADED_PROTOCOL_BYTES,		CUMULATIVE },
@@ -299,6 +334,40 @@ AzureusCoreStats
 	private static CopyOnWriteList provider_listeners = new CopyOnWriteList();
 	private static CopyOnWriteList derived_generators = new CopyOnWriteList();
 	
+		/**
+		 * Name of a stat of a single read or write controller, for example
+		 * net.read.control.loop.count of controller 2 is net.read.control.shard.2.loop.count
+		 */
+	
+	public static String
+	getShardStat(
+		String		type,
+		int			index )
+	{
+		int	pos = type.indexOf( ".control." ) + 9;
+		
+		return( type.substring( 0, pos ) + "shard." + index + "." + type.substring( pos ));
+	}
+	
+		/**
+		 * Defines the stats of a single controller with the same kind as the given stats.
+		 */
+	
+	public static void
+	addShardStatsDefinitions(
+		String[]	types,
+		int			index )
+	{
+		String[][]	stats = new String[types.length][];
+		
+		for (int i=0;i<types.length;i++){
+			
+			stats[i] = new String[]{ getShardStat( types[i], index ), (String)stats_types.get( types[i] )};
+		}
+		
+		addStatsDefinitions( stats );
+	}
+	
 	public static void
 	addStatsDefinitions(
 		String[][]		stats )
@@ -242,7 +242,20 @@ DownloadManagerStateImpl
 	
 		throws TOTorrentException
 	{
-		boolean	discard_pieces = state_map.size() > 32;
+			// downloads are loaded in parallel at start of day, the shared maps are
+			// only touched under class_mon so that the file reads can overlap
+		
+		boolean	discard_pieces;
+		
+		try{
+			class_mon.enter();
+			
+			discard_pieces = state_map.size() > 32;
+			
+		}finally{
+			
+			class_mon.exit();
+		}
 		
 		// System.out.println( "getDownloadState: hash = " + (torrent_hash==null?"null":ByteFormatter.encodeString(torrent_hash) + ", file = " + torrent_file ));
 
@@ -258,13 +271,33 @@ DownloadManagerStateImpl
 			if ( saved_file.exists()){
 				
 				try{
-					Map	cached_state = (Map)global_state_cache.remove( new HashWrapper( torrent_hash ));
+					LazyBDecoder.DictionaryView	cached_entry;
 					
-					if ( cached_state != null ){
+					try{
+						class_mon.enter();
+						
+						cached_entry = (LazyBDecoder.DictionaryView)global_state_cache.remove( new HashWrapper( torrent_hash ));
+						
+					}finally{
+						
+						class_mon.exit();
+					}
+					
+					if ( cached_entry != null ){
+						
+						Map	cached_state = cached_entry.toMap();
 						
 						CachedStateWrapper wrapper = new CachedStateWrapper( download_manager, torrent_file, torrent_hash, cached_state, inactive );
 						
-						global_state_cache_wrappers.add( wrapper );
+						try{
+							class_mon.enter();
+							
+							global_state_cache_wrappers.add( wrapper );
+							
+						}finally{
+							
+							class_mon.exit();
+						}
 						
 						saved_state	= wrapper;
 						
@@ -349,21 +382,28 @@ DownloadManagerStateImpl
 		
 		try{
 			
-			BufferedInputStream is = new BufferedInputStream( new GZIPInputStream( new FileInputStream( file )));
+			InputStream is = new GZIPInputStream( new FileInputStream( file ));
 			
 			try{
+					// the entries are only indexed here, each one is turned into a map
+					// when its download asks for it
 				
-				Map	map = BDecoder.decode( is );
+				LazyBDecoder.DictionaryView	map = LazyBDecoder.decode( FileUtil.readInputStreamAsByteArray( is ));
 				
-				List	cache = (List)map.get( "state" );
+				LazyBDecoder.ListView	cache = map.getList( "state" );
 				
 				if ( cache != null ){
 					
 					for (int i=0;i<cache.size();i++){
 						
-						Map	entry = (Map)cache.get(i);
+						LazyBDecoder.DictionaryView	entry = cache.getDictionary(i);
 						
-						byte[]	hash = (byte[])entry.get( "hash" );
+						if ( entry == null ){
+							
+							continue;
+						}
+						
+						byte[]	hash = entry.getBytes( "hash" );
 						
 						if ( hash != null ){
 							
@@ -460,13 +500,21 @@ DownloadManagerStateImpl
 	{
 		getGlobalStateFile().delete();
 		
-		for ( int i=0;i<global_state_cache_wrappers.size();i++){
+		try{
+			class_mon.enter();
 			
-			((CachedStateWrapper)global_state_cache_wrappers.get(i)).clearCache();
+			for ( int i=0;i<global_state_cache_wrappers.size();i++){
+				
+				((CachedStateWrapper)global_state_cache_wrappers.get(i)).clearCache();
+			}
+			
+			global_state_cache_wrappers.clear();
+			global_state_cache_wrappers.trimToSize();
+			
+		}finally{
+			
+			class_mon.exit();
 		}
-		
-		global_state_cache_wrappers.clear();
-		global_state_cache_wrappers.trimToSize();
 	}
 
 	protected
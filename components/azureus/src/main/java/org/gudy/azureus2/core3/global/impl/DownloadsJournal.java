@@ -0,0 +1,569 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.global.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.gudy.azureus2.core3.util.AEMonitor;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.Debug;
+import org.gudy.azureus2.core3.util.FileUtil;
+import org.gudy.azureus2.core3.util.HashWrapper;
+import org.gudy.azureus2.core3.util.LazyBDecoder;
+import org.gudy.azureus2.core3.util.SystemProperties;
+
+/**
+ * Persists the download list as a snapshot, downloads.config, plus an append only
+ * journal of the downloads that changed since. A save only writes the records of the
+ * downloads whose map differs from the one last written, the snapshot is rewritten
+ * when the journal grows past it.
+ *
+ * Each record holds the whole map of one download (or its removal), so replaying
+ * is idempotent. Records carry their length and a CRC, a torn last record is dropped.
+ * The snapshot and the journal share a generation number, a journal left behind by a
+ * compaction interrupted after the snapshot was written is ignored.
+ *
+ * downloads.config keeps its format, older versions read it as before.
+ */
+
+public class
+DownloadsJournal
+{
+	public static final String		CONFIG_FILE		= "downloads.config";
+	public static final String		JOURNAL_FILE	= "downloads.journal";
+
+	private static final int		MAGIC			= 0x464a4e4c;
+	private static final int		VERSION			= 1;
+	private static final int		HEADER_SIZE		= 16;
+
+	private static final long		MIN_COMPACT_SIZE	= 1024*1024;
+
+	private static final String		KEY_GENERATION	= "journal_generation";
+
+	private final AEMonitor	this_mon	= new AEMonitor( "DownloadsJournal" );
+
+	private final File		journal_file;
+
+		// last map written of each download, in the order of the list
+
+	private Map<HashWrapper,Map>	saved			= new LinkedHashMap<HashWrapper,Map>();
+	private List					saved_pause_data;
+
+	private long				generation;
+	private long				last_sequence	= -1;
+
+	private RandomAccessFile	journal;
+	private long				snapshot_size;
+
+	private long				bytes_written;
+	private long				records_written;
+
+	public
+	DownloadsJournal()
+	{
+		journal_file = new File( SystemProperties.getUserPath(), JOURNAL_FILE );
+	}
+
+		/**
+		 * Returns the snapshot with the journal replayed on it, in the same form
+		 * downloads.config always had: the downloads list sorted by position and the
+		 * pause data.
+		 */
+
+	public Map
+	load()
+	{
+		try{
+			this_mon.enter();
+
+			Map	map = FileUtil.readResilientConfigFile( CONFIG_FILE );
+
+			snapshot_size = new File( SystemProperties.getUserPath(), CONFIG_FILE ).length();
+
+			List	downloads = (List)map.get( "downloads" );
+
+			if ( downloads == null ){
+
+					// nothing saved yet or the pre 2.0.3.0 format, the first save writes a snapshot
+
+				return( map );
+			}
+
+			Long	l_generation = (Long)map.get( KEY_GENERATION );
+
+			generation = l_generation == null ? 0 : l_generation.longValue();
+
+			for (int i=0;i<downloads.size();i++){
+
+				Map	download = (Map)downloads.get(i);
+
+				saved.put( getKey( download ), download );
+			}
+
+			saved_pause_data = (List)map.get( "pause_data" );
+
+			int	replayed = replay();
+
+			if ( replayed > 0 ){
+
+				List	list = new ArrayList( saved.values());
+
+				sortByPosition( list );
+
+				map.put( "downloads", list );
+
+				if ( saved_pause_data == null ){
+
+					map.remove( "pause_data" );
+
+				}else{
+
+					map.put( "pause_data", saved_pause_data );
+				}
+			}
+
+			return( map );
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * Reads the records of the journal on the saved maps and leaves it open for
+		 * appending after the last good one. Returns the number of records replayed.
+		 */
+
+	private int
+	replay()
+	{
+		if ( !journal_file.exists()){
+
+			return( 0 );
+		}
+
+		int	replayed = 0;
+
+		try{
+			byte[]	data = FileUtil.readFileAsByteArray( journal_file );
+
+			if ( 	data.length < HEADER_SIZE ||
+					readInt( data, 0 ) != MAGIC ||
+					readInt( data, 4 ) != VERSION ||
+					readLong( data, 8 ) != generation ){
+
+					// older than the snapshot, or not ours
+
+				return( 0 );
+			}
+
+			int	pos = HEADER_SIZE;
+
+			CRC32	crc = new CRC32();
+
+			while( pos + 8 <= data.length ){
+
+				int	length	= readInt( data, pos );
+				int	sum		= readInt( data, pos + 4 );
+
+				if ( length <= 0 || length > data.length - pos - 8 ){
+
+					break;
+				}
+
+				crc.reset();
+				crc.update( data, pos + 8, length );
+
+				if ((int)crc.getValue() != sum ){
+
+					break;
+				}
+
+				apply( LazyBDecoder.decode( data, pos + 8, length ).toMap());
+
+				pos += 8 + length;
+
+				replayed++;
+			}
+
+			if ( pos < data.length ){
+
+				Debug.out( "Dropping " + ( data.length - pos ) + " bytes of an incomplete record at the end of " + journal_file );
+			}
+
+			journal = new RandomAccessFile( journal_file, "rw" );
+
+			journal.setLength( pos );
+
+			journal.seek( pos );
+
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to replay " + journal_file, e );
+
+			closeJournal();
+		}
+
+		return( replayed );
+	}
+
+	private void
+	apply(
+		Map		record )
+	{
+		if ( record.containsKey( "p" )){
+
+			List	pause_data = (List)record.get( "p" );
+
+			saved_pause_data = pause_data.isEmpty() ? null : pause_data;
+		}
+
+		byte[]	key = (byte[])record.get( "k" );
+
+		if ( key != null ){
+
+			Map	download = (Map)record.get( "d" );
+
+			if ( download == null ){
+
+				saved.remove( new HashWrapper( key ));
+
+			}else{
+
+				saved.put( new HashWrapper( key ), download );
+			}
+		}
+	}
+
+		/**
+		 * Writes the changes of the downloads since the last save. The sequence orders
+		 * saves built concurrently, an older one arriving late is dropped.
+		 */
+
+	public void
+	save(
+		long	sequence,
+		List	downloads,
+		List	pause_data,
+		boolean	compact )
+	{
+		try{
+			this_mon.enter();
+
+			if ( sequence <= last_sequence ){
+
+				return;
+			}
+
+			last_sequence = sequence;
+
+			if ( compact || journal == null || journal.length() > Math.max( MIN_COMPACT_SIZE, snapshot_size )){
+
+				compact( downloads, pause_data );
+
+				return;
+			}
+
+			ByteArrayOutputStream	baos	= new ByteArrayOutputStream();
+			DataOutputStream		dos		= new DataOutputStream( baos );
+
+			int	num_records = 0;
+
+			Map<HashWrapper,Map>	new_saved = new LinkedHashMap<HashWrapper,Map>();
+
+			for (int i=0;i<downloads.size();i++){
+
+				Map	download = (Map)downloads.get(i);
+
+				HashWrapper	key = getKey( download );
+
+				new_saved.put( key, download );
+
+				if ( !BEncoder.mapsAreIdentical( saved.remove( key ), download )){
+
+					Map	record = new HashMap();
+
+					record.put( "k", key.getBytes());
+					record.put( "d", download );
+
+					writeRecord( dos, record );
+
+					num_records++;
+				}
+			}
+
+			for ( HashWrapper key: saved.keySet()){
+
+				Map	record = new HashMap();
+
+				record.put( "k", key.getBytes());
+
+				writeRecord( dos, record );
+
+				num_records++;
+			}
+
+			if ( !BEncoder.listsAreIdentical( saved_pause_data, pause_data )){
+
+				Map	record = new HashMap();
+
+				record.put( "p", pause_data == null ? new ArrayList() : pause_data );
+
+				writeRecord( dos, record );
+
+				num_records++;
+			}
+
+			if ( num_records > 0 ){
+
+				journal.write( baos.toByteArray());
+
+				journal.getFD().sync();
+
+				bytes_written	+= baos.size();
+				records_written	+= num_records;
+			}
+
+			saved				= new_saved;
+			saved_pause_data	= pause_data;
+
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to write " + journal_file + ", writing " + CONFIG_FILE + " next time", e );
+
+			closeJournal();
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+		/**
+		 * Writes the whole snapshot with the next generation and starts an empty journal
+		 * for it. If the snapshot can't be written the current journal is kept.
+		 */
+
+	private void
+	compact(
+		List	downloads,
+		List	pause_data )
+	{
+		Map	map = new HashMap();
+
+		map.put( "downloads", downloads );
+
+		if ( pause_data != null ){
+
+			map.put( "pause_data", pause_data );
+		}
+
+		map.put( KEY_GENERATION, new Long( generation + 1 ));
+
+		if ( !FileUtil.writeResilientConfigFileWithResult( CONFIG_FILE, map )){
+
+			return;
+		}
+
+		generation++;
+
+		snapshot_size = new File( SystemProperties.getUserPath(), CONFIG_FILE ).length();
+
+		bytes_written += snapshot_size;
+
+		saved = new LinkedHashMap<HashWrapper,Map>();
+
+		for (int i=0;i<downloads.size();i++){
+
+			Map	download = (Map)downloads.get(i);
+
+			saved.put( getKey( download ), download );
+		}
+
+		saved_pause_data = pause_data;
+
+		closeJournal();
+
+		try{
+			journal = new RandomAccessFile( journal_file, "rw" );
+
+			journal.setLength( 0 );
+
+			journal.writeInt( MAGIC );
+			journal.writeInt( VERSION );
+			journal.writeLong( generation );
+
+			journal.getFD().sync();
+
+		}catch( Throwable e ){
+
+			Debug.out( "Failed to create " + journal_file, e );
+
+			closeJournal();
+		}
+	}
+
+	public void
+	close()
+	{
+		try{
+			this_mon.enter();
+
+			closeJournal();
+
+		}finally{
+
+			this_mon.exit();
+		}
+	}
+
+	public long
+	getBytesWritten()
+	{
+		return( bytes_written );
+	}
+
+	public long
+	getRecordsWritten()
+	{
+		return( records_written );
+	}
+
+	private void
+	closeJournal()
+	{
+		if ( journal != null ){
+
+			try{
+				journal.close();
+
+			}catch( Throwable e ){
+			}
+
+			journal = null;
+		}
+	}
+
+	private static void
+	writeRecord(
+		DataOutputStream	dos,
+		Map					record )
+
+		throws IOException
+	{
+		byte[]	data = BEncoder.encode( record );
+
+		CRC32	crc = new CRC32();
+
+		crc.update( data );
+
+		dos.writeInt( data.length );
+		dos.writeInt((int)crc.getValue());
+		dos.write( data );
+	}
+
+		/**
+		 * Downloads are keyed by their torrent hash, or by the torrent file if the
+		 * torrent couldn't be read
+		 */
+
+	private static HashWrapper
+	getKey(
+		Map		download )
+	{
+		byte[]	hash = (byte[])download.get( "torrent_hash" );
+
+		if ( hash != null ){
+
+			return( new HashWrapper( hash ));
+		}
+
+		Object	torrent = download.get( "torrent" );
+
+		try{
+			return( new HashWrapper( torrent instanceof String ? ((String)torrent).getBytes( "UTF-8" ) : (byte[])torrent ));
+
+		}catch( Throwable e ){
+
+			return( new HashWrapper( new byte[0] ));
+		}
+	}
+
+	private static void
+	sortByPosition(
+		List	downloads )
+	{
+		Collections.sort(
+			downloads,
+			new Comparator()
+			{
+				public int
+				compare(
+					Object	o1,
+					Object	o2 )
+				{
+					long	p1 = getPosition((Map)o1);
+					long	p2 = getPosition((Map)o2);
+
+					return( p1 < p2 ? -1 : ( p1 == p2 ? 0 : 1 ));
+				}
+			});
+	}
+
+	private static long
+	getPosition(
+		Map		download )
+	{
+		Long	position = (Long)download.get( "position" );
+
+		return( position == null ? Long.MAX_VALUE : position.longValue());
+	}
+
+	private static int
+	readInt(
+		byte[]	data,
+		int		pos )
+	{
+		return(	(( data[pos]   & 0xff ) << 24 ) |
+				(( data[pos+1] & 0xff ) << 16 ) |
+				(( data[pos+2] & 0xff ) << 8 ) |
+				(  data[pos+3] & 0xff ));
+	}
+
+	private static long
+	readLong(
+		byte[]	data,
+		int		pos )
+	{
+		return(((long)readInt( data, pos ) << 32 ) | ( readInt( data, pos + 4 ) & 0xffffffffL ));
+	}
+}
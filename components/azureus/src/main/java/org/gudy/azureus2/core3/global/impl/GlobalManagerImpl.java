@@ -75,6 +75,11 @@ public class GlobalManagerImpl
 {
 	private static final LogIDs LOGID = LogIDs.CORE;
 	
+		// threads reading the torrent and state files of the saved downloads at start of day
+	
+	public static final int LOAD_THREADS = 
+		Math.max( 1, Integer.getInteger( "azureus.loaddownloads.threads", Math.min( 4, Runtime.getRuntime().availableProcessors())).intValue());
+	
 		// GlobalManagerListener support
 		// Must be an async listener to support the non-synchronised invocation of
 		// listeners when a new listener is added and existing downloads need to be
@@ -172,6 +177,9 @@ public class GlobalManagerImpl
   
 	private Map							saved_download_manager_state	= new HashMap();
 	
+	private final DownloadsJournal		downloads_journal				= new DownloadsJournal();
+	private long						downloads_save_sequence;
+	
 	private int							next_seed_piece_recheck_index;
 	
 	private TorrentFolderWatcher torrent_folder_watcher;
@@ -1299,14 +1307,16 @@ public class GlobalManagerImpl
 	  
 	  stopAllDownloads( true );
 	  
-	  saveDownloads( true );
+	  saveDownloads( true, true );
 
   }else{
   
-	  saveDownloads( true );
+	  saveDownloads( true, true );
   
 	  stopAllDownloads( true );
   }
+  
+  downloads_journal.close();
  
   if ( stats_writer != null ){
   	
@@ -1700,7 +1710,7 @@ public class GlobalManagerImpl
 				  progress_listener.reportCurrentTask(MessageText.getString("splash.loadingTorrents"));
 			  }
 			  
-			  Map map = FileUtil.readResilientConfigFile("downloads.config");
+			  Map map = downloads_journal.load();
 	
 			  boolean debug = Boolean.getBoolean("debug");
 	
@@ -1718,9 +1728,15 @@ public class GlobalManagerImpl
 				  iter = downloads.iterator();
 				  nbDownloads = downloads.size();
 			  }
-			  int currentDownload = 0;
+			  	// the entries are parsed here while the download managers, which read the
+			  	// torrent and its state, are built on a bounded pool. They are taken back in
+			  	// saved order so that registration and the added listener batches don't change
+
+			  ThreadPool load_pool = new ThreadPool( "GlobalManager:load", LOAD_THREADS, true );
+
+			  List loaders = new ArrayList( nbDownloads );
+
 			  while (iter.hasNext()) {
-				  currentDownload++;        
 				  Map mDownload = (Map) iter.next();
 				  try {
 					  byte[]	torrent_hash = (byte[])mDownload.get( "torrent_hash" );
@@ -1732,24 +1748,6 @@ public class GlobalManagerImpl
 	
 					  String fileName = new String((byte[]) mDownload.get("torrent"), Constants.DEFAULT_ENCODING);
 	
-					  if(progress_listener != null &&  SystemTime.getCurrentTime() - lastListenerUpdate > 100) {
-						  lastListenerUpdate = SystemTime.getCurrentTime();
-	
-						  String shortFileName = fileName;
-						  try {
-							  File f = new File(fileName);
-							  shortFileName = f.getName();
-						  } catch (Exception e) {
-							// TODO: handle exception
-						}
-						  
-						  progress_listener.reportPercent(100 * currentDownload / nbDownloads);
-						  progress_listener.reportCurrentTask(MessageText.getString("splash.loadingTorrent") 
-								  + " " + currentDownload + " "
-								  + MessageText.getString("splash.of") + " " + nbDownloads
-								  + " : " + shortFileName );
-					  }
-	
 					  //migration from using a single savePath to a separate dir and file entry
 					  String	torrent_save_dir;
 					  String	torrent_save_file;
@@ -1820,20 +1818,14 @@ public class GlobalManagerImpl
 	
 						  List file_priorities = (List) mDownload.get("file_priorities");
 	
-						  final DownloadManager dm = 
-							  DownloadManagerFactory.create(
-									  this, torrent_hash, fileName, torrent_save_dir, torrent_save_file, 
-									  state, true, true, has_ever_been_started, file_priorities );
-	
-						  if (addDownloadManager(dm, false, false) == dm) {
-							  downloadsAdded.add(dm);
-	
-							  if (downloadsAdded.size() >= triggerOnCount) {
-								  triggerOnCount *= 2;
-								  triggerAddListener(downloadsAdded);
-								  downloadsAdded.clear();
-							  }
-						  }
+						  DownloadLoader loader = 
+							  new DownloadLoader(
+									  torrent_hash, fileName, torrent_save_dir, torrent_save_file, 
+									  state, has_ever_been_started, file_priorities );
+
+						  loaders.add( loader );
+
+						  load_pool.run( loader );
 					  }
 				  }
 				  catch (UnsupportedEncodingException e1) {
@@ -1845,6 +1837,50 @@ public class GlobalManagerImpl
 							  "One download may not have been added to the list.", e));
 				  }
 			  }
+
+			  nbDownloads = loaders.size();
+
+			  for (int currentDownload = 1; currentDownload <= nbDownloads; currentDownload++) {
+				  DownloadLoader loader = (DownloadLoader) loaders.get(currentDownload - 1);
+				  try {
+					  String fileName = loader.getFileName();
+
+					  if(progress_listener != null &&  SystemTime.getCurrentTime() - lastListenerUpdate > 100) {
+						  lastListenerUpdate = SystemTime.getCurrentTime();
+	
+						  String shortFileName = fileName;
+						  try {
+							  File f = new File(fileName);
+							  shortFileName = f.getName();
+						  } catch (Exception e) {
+							// TODO: handle exception
+						}
+						  
+						  progress_listener.reportPercent(100 * currentDownload / nbDownloads);
+						  progress_listener.reportCurrentTask(MessageText.getString("splash.loadingTorrent") 
+								  + " " + currentDownload + " "
+								  + MessageText.getString("splash.of") + " " + nbDownloads
+								  + " : " + shortFileName );
+					  }
+
+					  final DownloadManager dm = loader.getDownloadManager();
+	
+					  if (addDownloadManager(dm, false, false) == dm) {
+						  downloadsAdded.add(dm);
+	
+						  if (downloadsAdded.size() >= triggerOnCount) {
+							  triggerOnCount *= 2;
+							  triggerAddListener(downloadsAdded);
+							  downloadsAdded.clear();
+						  }
+					  }
+				  }
+				  catch (Throwable e) {
+					  Logger.log(new LogEvent(LOGID,
+							  "Error while loading downloads.  " +
+							  "One download may not have been added to the list.", e));
+				  }
+			  }
 	
 			  // This is set to true by default, but once the downloads have been loaded, we have no reason to ever
 			  // to do this check again - we only want to do it once to upgrade the state of existing downloads
@@ -1921,9 +1957,105 @@ public class GlobalManagerImpl
   }
 
 
+	/**
+	 * Builds the download manager of one saved entry on the load pool, the loading
+	 * thread waits for it in saved order.
+	 */
+	
+  protected class
+  DownloadLoader
+  	extends AERunnable
+  {
+	  private final byte[]		torrent_hash;
+	  private final String		file_name;
+	  private final String		save_dir;
+	  private final String		save_file;
+	  private final int			state;
+	  private final boolean		has_ever_been_started;
+	  private final List		file_priorities;
+	  
+	  private final AESemaphore	done_sem = new AESemaphore( "GM:load" );
+	  
+	  private DownloadManager	download_manager;
+	  private Throwable			error;
+	  
+	  protected
+	  DownloadLoader(
+		byte[]		_torrent_hash,
+		String		_file_name,
+		String		_save_dir,
+		String		_save_file,
+		int			_state,
+		boolean		_has_ever_been_started,
+		List		_file_priorities )
+	  {
+		  torrent_hash			= _torrent_hash;
+		  file_name				= _file_name;
+		  save_dir				= _save_dir;
+		  save_file				= _save_file;
+		  state					= _state;
+		  has_ever_been_started	= _has_ever_been_started;
+		  file_priorities		= _file_priorities;
+	  }
+	  
+	  public void
+	  runSupport()
+	  {
+		  try{
+			  download_manager = 
+				  DownloadManagerFactory.create(
+						  GlobalManagerImpl.this, torrent_hash, file_name, save_dir, save_file, 
+						  state, true, true, has_ever_been_started, file_priorities );
+			  
+		  }catch( Throwable e ){
+			  
+			  error	= e;
+			  
+		  }finally{
+			  
+			  done_sem.release();
+		  }
+	  }
+	  
+	  protected String
+	  getFileName()
+	  {
+		  return( file_name );
+	  }
+	  
+	  protected DownloadManager
+	  getDownloadManager()
+	  
+	  	throws Throwable
+	  {
+		  done_sem.reserve();
+		  
+		  if ( error != null ){
+			  
+			  throw( error );
+		  }
+		  
+		  return( download_manager );
+	  }
+  }
+
   protected void 
   saveDownloads(
   	boolean	immediate ) 
+  {
+	  saveDownloads( immediate, false );
+  }
+  
+  	/**
+  	 * The maps are built under managers_mon, the journal only writes the downloads
+  	 * that changed and does it after the lock is released. With compact the whole
+  	 * downloads.config is written, as on shutdown.
+  	 */
+  
+  protected void 
+  saveDownloads(
+  	boolean	immediate,
+  	boolean	compact ) 
   {
 	  if ( !immediate ){
 		  
@@ -1944,9 +2076,15 @@ public class GlobalManagerImpl
 		  return;
 	  }
 	  
+	long	sequence;
+	List	list;
+	ArrayList pause_data = null;
+	
   	try{
   		managers_mon.enter();
   		
+  		sequence = ++downloads_save_sequence;
+  		
 	    Collections.sort(managers_cow, new Comparator () {
         public final int compare (Object a, Object b) {
         	return ((DownloadManager) a).getPosition()
@@ -1957,8 +2095,7 @@ public class GlobalManagerImpl
       if (Logger.isEnabled())
 				Logger.log(new LogEvent(LOGID, "Saving Download List ("
 						+ managers_cow.size() + " items)"));
-	    Map map = new HashMap();
-	    List list = new ArrayList(managers_cow.size());
+	    list = new ArrayList(managers_cow.size());
 	    for (int i = 0; i < managers_cow.size(); i++) {
 	      DownloadManager dm = (DownloadManager) managers_cow.get(i);
 	      
@@ -2034,12 +2171,10 @@ public class GlobalManagerImpl
 		      list.add(dmMap);
 	      }
 	   
-	    map.put("downloads", list);
-      
       //save pause/resume state
       try {  paused_list_mon.enter();
 	      if( !paused_list.isEmpty() ) {
-	        ArrayList pause_data = new ArrayList();
+	        pause_data = new ArrayList();
 	        for( int i=0; i < paused_list.size(); i++ ) {
 	        	Object[] data = (Object[])paused_list.get(i);
 	        	
@@ -2053,17 +2188,16 @@ public class GlobalManagerImpl
 	        	
 	        	pause_data.add( m );
 	        }
-	        map.put( "pause_data", pause_data );
 	      }
       }
       finally {  paused_list_mon.exit();  }
       
-        
-	    FileUtil.writeResilientConfigFile("downloads.config", map );
   	}finally{
   		
   		managers_mon.exit();
   	}
+  	
+  	downloads_journal.save( sequence, list, pause_data, compact );
   }
 
   /**
@@ -0,0 +1,235 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.global.impl.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.global.impl.DownloadsJournal;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.FileUtil;
+import org.gudy.azureus2.core3.util.SystemProperties;
+
+/**
+ * Compares the save of the whole downloads.config with the journal, on generated
+ * download maps of which a number change between saves, then checks the replay.
+ *
+ * Usage: DownloadsJournalTester [downloads] [changed per save] [saves]
+ */
+public class
+DownloadsJournalTester
+{
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	num_downloads	= args.length > 0 ? Integer.parseInt( args[0] ) : 5000;
+		int	num_changed		= args.length > 1 ? Integer.parseInt( args[1] ) : 10;
+		int	num_saves		= args.length > 2 ? Integer.parseInt( args[2] ) : 50;
+
+		File	dir = new File( System.getProperty( "java.io.tmpdir" ), "journal-test-" + System.currentTimeMillis());
+
+		dir.mkdirs();
+
+		System.setProperty( SystemProperties.SYS_PROP_CONFIG_OVERRIDE, dir.getAbsolutePath());
+
+		Random	random = new Random( 0 );
+
+		List	downloads = new ArrayList();
+
+		for (int i=0;i<num_downloads;i++){
+
+			downloads.add( createDownload( random, i ));
+		}
+
+			// current approach, the whole file on every save
+
+		long	full_time	= 0;
+		long	full_bytes	= 0;
+
+		for (int i=0;i<num_saves;i++){
+
+			downloads = change( random, downloads, num_changed );
+
+			Map	map = new HashMap();
+
+			map.put( "downloads", downloads );
+
+			long	start = System.nanoTime();
+
+			FileUtil.writeResilientConfigFile( "downloads-full.config", map );
+
+			full_time += System.nanoTime() - start;
+
+			full_bytes += new File( dir, "downloads-full.config" ).length();
+		}
+
+			// journal, the first save writes the snapshot
+
+		DownloadsJournal	journal = new DownloadsJournal();
+
+		journal.load();
+
+		journal.save( 0, downloads, null, false );
+
+		long	snapshot_bytes = journal.getBytesWritten();
+
+		long	journal_time	= 0;
+
+		for (int i=0;i<num_saves;i++){
+
+			downloads = change( random, downloads, num_changed );
+
+			long	start = System.nanoTime();
+
+			journal.save( i + 1, downloads, null, false );
+
+			journal_time += System.nanoTime() - start;
+		}
+
+		long	journal_bytes = journal.getBytesWritten() - snapshot_bytes;
+
+		journal.close();
+
+		System.out.println( num_downloads + " downloads, " + num_changed + " changed per save, " + num_saves + " saves" );
+		System.out.println( "    downloads.config: " + ( full_time / num_saves / 1000 ) + " us/save, " + ( full_bytes / num_saves ) + " bytes/save" );
+		System.out.println( "    journal:          " + ( journal_time / num_saves / 1000 ) + " us/save, " + ( journal_bytes / num_saves ) + " bytes/save" +
+							" (" + journal.getRecordsWritten() + " records, snapshot " + snapshot_bytes + " bytes)" );
+
+			// replay, then again with a torn record at the end
+
+		check( "replay", downloads );
+
+		FileOutputStream	fos = new FileOutputStream( new File( dir, DownloadsJournal.JOURNAL_FILE ), true );
+
+		fos.write( new byte[]{ 0, 0, 1, 0, 1, 2, 3, 4, 'd', '1' });
+
+		fos.close();
+
+		check( "torn record", downloads );
+
+		FileUtil.recursiveDeleteNoCheck( dir );
+	}
+
+	protected static void
+	check(
+		String		name,
+		List		downloads )
+
+		throws Exception
+	{
+		long	start = System.nanoTime();
+
+		DownloadsJournal	journal = new DownloadsJournal();
+
+		List	loaded = (List)journal.load().get( "downloads" );
+
+		long	elapsed = System.nanoTime() - start;
+
+		journal.close();
+
+		if ( !BEncoder.listsAreIdentical( downloads, loaded )){
+
+			throw( new Exception( name + ": loaded downloads differ" ));
+		}
+
+		System.out.println( "    " + name + ": " + loaded.size() + " downloads loaded in " + ( elapsed / 1000000 ) + " ms" );
+	}
+
+	protected static Map
+	createDownload(
+		Random	random,
+		int		position )
+
+		throws Exception
+	{
+		byte[]	hash = new byte[20];
+
+		random.nextBytes( hash );
+
+		Map	map = new HashMap();
+
+		map.put( "torrent_hash", hash );
+		map.put( "persistent", new Long( 1 ));
+		map.put( "torrent", "/home/user/.frostwire5/torrents/Some Torrent Name " + position + ".torrent" );
+		map.put( "save_dir", "/home/user/FrostWire/Torrent Data" );
+		map.put( "save_file", "Some Torrent Name " + position );
+		map.put( "maxdl", new Long( 0 ));
+		map.put( "maxul", new Long( 0 ));
+		map.put( "state", new Long( 70 ));
+		map.put( "position", new Long( position + 1 ));
+		map.put( "downloaded", new Long( random.nextInt( Integer.MAX_VALUE )));
+		map.put( "uploaded", new Long( random.nextInt( Integer.MAX_VALUE )));
+		map.put( "completed", new Long( 1000 ));
+		map.put( "discarded", new Long( 0 ));
+		map.put( "hashfailbytes", new Long( 0 ));
+		map.put( "forceStart", new Long( 0 ));
+		map.put( "secondsDownloading", new Long( random.nextInt( 100000 )));
+		map.put( "secondsOnlySeeding", new Long( random.nextInt( 100000 )));
+		map.put( "uploads", new Long( 4 ));
+		map.put( "creationTime", new Long( System.currentTimeMillis()));
+		map.put( "allocated", new Long( 1 ));
+
+		List	file_priorities = new ArrayList();
+
+		for (int i=0;i<10;i++){
+
+			file_priorities.add( new Long( 0 ));
+		}
+
+		map.put( "file_priorities", file_priorities );
+
+		return( map );
+	}
+
+		/**
+		 * New maps each time, as GlobalManagerImpl builds them on every save
+		 */
+
+	protected static List
+	change(
+		Random	random,
+		List	downloads,
+		int		num_changed )
+	{
+		List	res = new ArrayList( downloads.size());
+
+		for (int i=0;i<downloads.size();i++){
+
+			res.add( new HashMap((Map)downloads.get(i)));
+		}
+
+		for (int i=0;i<num_changed;i++){
+
+			Map	map = (Map)res.get( random.nextInt( res.size()));
+
+			map.put( "uploaded", new Long(((Long)map.get( "uploaded" )).longValue() + 16384 ));
+			map.put( "secondsOnlySeeding", new Long(((Long)map.get( "secondsOnlySeeding" )).longValue() + 10 ));
+		}
+
+		return( res );
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.global.impl.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.global.GlobalManager;
+import org.gudy.azureus2.core3.global.GlobalManagerFactory;
+import org.gudy.azureus2.core3.global.GlobalMangerProgressListener;
+import org.gudy.azureus2.core3.global.impl.DownloadsJournal;
+import org.gudy.azureus2.core3.global.impl.GlobalManagerImpl;
+import org.gudy.azureus2.core3.internat.MessageText;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.FileUtil;
+import org.gudy.azureus2.core3.util.SystemProperties;
+
+/**
+ * Times the load of the saved downloads by the global manager on generated torrents.
+ * The first run in a directory creates the torrents and the download states, the
+ * following runs load them as a restart does. The number of load threads is set
+ * with -Dazureus.loaddownloads.threads.
+ *
+ * Usage: LoadDownloadsTester [torrents] [directory]
+ */
+public class
+LoadDownloadsTester
+{
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int		num_torrents	= args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+		File	dir				= args.length > 1 ? new File( args[1] ) : new File( System.getProperty( "java.io.tmpdir" ), "load-test-" + num_torrents );
+
+		dir.mkdirs();
+
+		System.setProperty( SystemProperties.SYS_PROP_CONFIG_OVERRIDE, dir.getAbsolutePath());
+
+		if ( !new File( dir, DownloadsJournal.CONFIG_FILE ).exists()){
+
+			createDownloads( dir, num_torrents );
+		}
+
+		boolean	warm = new File( new File( dir, "active" ), "cache.dat" ).exists();
+
+			// the load runs between these two tasks of the constructor
+
+		final String	load_task	= MessageText.getString( "splash.loadingTorrents" );
+		final String	done_task	= MessageText.getString( "splash.initializeGM" );
+
+		final long[]	times = new long[2];
+
+		GlobalManager	gm = GlobalManagerFactory.create(
+			null,
+			new GlobalMangerProgressListener()
+			{
+				public void
+				reportCurrentTask(
+					String	task )
+				{
+					if ( task.equals( load_task )){
+
+						times[0] = System.nanoTime();
+
+					}else if ( task.equals( done_task )){
+
+						times[1] = System.nanoTime();
+					}
+				}
+
+				public void
+				reportPercent(
+					int		percent )
+				{
+				}
+			},
+			0 );
+
+		long	elapsed = times[1] - times[0];
+
+		System.out.println(
+			gm.getDownloadManagers().size() + " of " + num_torrents + " downloads loaded in " + ( elapsed / 1000000 ) + " ms" +
+			" (" + GlobalManagerImpl.LOAD_THREADS + " threads, " + ( warm?"state cache":"state files" ) + ")" );
+
+		gm.stopGlobalManager();
+
+		System.exit( 0 );
+	}
+
+	protected static void
+	createDownloads(
+		File		dir,
+		int			num_torrents )
+
+		throws Exception
+	{
+		Random	random = new Random( 0 );
+
+		File	torrent_dir	= new File( dir, "torrents" );
+		File	data_dir	= new File( dir, "data" );
+
+		torrent_dir.mkdirs();
+		data_dir.mkdirs();
+
+		List	downloads = new ArrayList();
+
+		for (int i=0;i<num_torrents;i++){
+
+			String	name = "Some Album " + i;
+
+			List	files = new ArrayList();
+
+			for (int j=0;j<20;j++){
+
+				Map	file = new HashMap();
+
+				List	path = new ArrayList();
+
+				path.add( "Track " + j + " - Some Artist - Some Title.mp3" );
+
+				file.put( "length", new Long( 1000000 + random.nextInt( 10000000 )));
+				file.put( "path", path );
+
+				files.add( file );
+			}
+
+			byte[]	pieces = new byte[ 1000 * 20 ];
+
+			random.nextBytes( pieces );
+
+			Map	info = new HashMap();
+
+			info.put( "name", name );
+			info.put( "piece length", new Long( 256*1024 ));
+			info.put( "pieces", pieces );
+			info.put( "files", files );
+
+			Map	torrent = new HashMap();
+
+			torrent.put( "announce", "http://tracker.example.com/announce" );
+			torrent.put( "creation date", new Long( System.currentTimeMillis() / 1000 ));
+			torrent.put( "info", info );
+
+			File	torrent_file = new File( torrent_dir, name + ".torrent" );
+
+			FileUtil.writeBytesAsFile( torrent_file.getAbsolutePath(), BEncoder.encode( torrent ));
+
+			Map	download = new HashMap();
+
+			download.put( "persistent", new Long( 1 ));
+			download.put( "torrent", torrent_file.getAbsolutePath());
+			download.put( "save_dir", data_dir.getAbsolutePath());
+			download.put( "state", new Long( 70 ));
+			download.put( "position", new Long( i + 1 ));
+
+			downloads.add( download );
+		}
+
+		Map	map = new HashMap();
+
+		map.put( "downloads", downloads );
+
+		FileUtil.writeResilientConfigFile( DownloadsJournal.CONFIG_FILE, map );
+	}
+}
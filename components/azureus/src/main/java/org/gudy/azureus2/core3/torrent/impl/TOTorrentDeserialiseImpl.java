@@ -207,7 +207,9 @@ TOTorrentDeserialiseImpl
 		throws TOTorrentException
 	{
 		try{
-			Map meta_data = BDecoder.decode(bytes);
+				// indexed in one pass over the array instead of BDecoder's byte by byte stream
+			
+			Map meta_data = LazyBDecoder.decode(bytes).toMap();
 	
 			// print( "", "", meta_data );
 			
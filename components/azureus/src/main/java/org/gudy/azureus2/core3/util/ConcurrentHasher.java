@@ -27,28 +27,50 @@ package org.gudy.azureus2.core3.util;
  *
  */
 
-import java.util.*;
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.config.ParameterListener;
 
+	/**
+	 * Hashes the requests in one worker per core, each worker with its own digest.
+	 * 
+	 * The requests are spread over the worker queues, a worker takes the oldest
+	 * request of its own queue and, when it is empty, steals the newest request
+	 * of another one. The buffers are hashed in place.
+	 * 
+	 * With friendly hashing the low priority requests are throttled when they
+	 * are added, by a disk read rate budget and by a share of the cpu time, so
+	 * the workers never sleep and other requests are not delayed.
+	 */
+
 public class 
 ConcurrentHasher 
 {
+	private static final int	FRIENDLY_IO_RATE		= 32*1024*1024;	// low priority bytes per second
+	private static final int	FRIENDLY_CPU_PERCENT	= 25;			// of all the cores
 	
 	protected static ConcurrentHasher		singleton	= new ConcurrentHasher();
 	
 	protected int			processor_num;
 	
-	protected List<ConcurrentHasherRequest>				requests		= new LinkedList<ConcurrentHasherRequest>();
-	
-	protected List<SHA1Hasher>	hashers			= new ArrayList<SHA1Hasher>();
+	private final Worker[]		workers;
+	private final AtomicInteger	next_worker		= new AtomicInteger();
 	
-	protected AESemaphore		request_sem		= new AESemaphore("ConcHashReqQ");
+	private final Semaphore		request_sem		= new Semaphore( 0 );	// one permit per queued request
 	protected AESemaphore		scheduler_sem	= new AESemaphore("ConcHashSched");
-		
-	protected AEMonitor			requests_mon	= new AEMonitor( "ConcurrentHasher:R" );
+	
+	private final Budget		io_budget		= new Budget();
+	private final Budget		cpu_budget		= new Budget();
+	
+	private final AtomicLong	bytes_hashed	= new AtomicLong();
+	private final AtomicLong	hash_time		= new AtomicLong();
+	private final AtomicLong	steal_count		= new AtomicLong();
 
 	private static boolean friendly_hashing;
 
@@ -91,105 +113,33 @@ ConcurrentHasher
 			processor_num	= 1;
 		}
 			
-			// one more that proc num seems to improve performance ;)
+			// two requests per worker, so a worker has one queued while hashing the other
 		
-		for (int i=0;i<processor_num + 1;i++){
+		for (int i=0;i<processor_num * 2;i++){
 			
 			scheduler_sem.release();
 		}
 	
-		final ThreadPool pool	= new ThreadPool( "ConcurrentHasher", 64 );
+		workers = new Worker[processor_num];
 		
-		new AEThread2("ConcurrentHasher:scheduler", true )
-		{
-			public void
-			run()
+		for (int i=0;i<workers.length;i++){
+			
+			workers[i] = new Worker( i );
+		}
+		
+		for (int i=0;i<workers.length;i++){
+			
+			final Worker	worker = workers[i];
+			
+			new AEThread2("ConcurrentHasher:worker" + i, true )
 			{
-				while(true){
-					
-						// get a request to run
-					
-					request_sem.reserve();
-					
-						// now extract the request
-					
-					final ConcurrentHasherRequest	req;
-					final SHA1Hasher				hasher;
-					
-					try{
-						requests_mon.enter();
-						
-						req	= requests.remove(0);
-						
-						if ( hashers.size() == 0 ){
-							
-							hasher = new SHA1Hasher();
-							
-						}else{
-							
-							hasher	= hashers.remove( hashers.size()-1 );
-						}
-					}finally{
-						
-						requests_mon.exit();
-					}
-					
-					pool.run( 
-							new AERunnable()
-							{
-								public void
-								runSupport()
-								{
-									try{											
-										req.run( hasher );
-										
-									}finally{
-										try{
-											requests_mon.enter();
-
-											hashers.add( hasher );
-										
-										}finally{
-											
-											requests_mon.exit();
-										}
-
-										if ( friendly_hashing && req.isLowPriority()){
-				
-											try{  
-												int	size = req.getSize();
-												
-													// pieces can be several MB so delay based on size
-												
-												final int max = 250;
-												final int min = 50;
-												
-												size = size/1024;	// in K
-												
-												size = size/8;
-												
-													// 4MB -> 500
-													// 1MB -> 125
-												
-												size = Math.min( size, max );
-												size = Math.max( size, min );
-												
-												Thread.sleep( size );
-					
-											}catch( Throwable e ){ 
-					
-												Debug.printStackTrace( e ); 
-											}
-										}
-									       		
-										scheduler_sem.release();
-									}
-								}
-							});
-												
+				public void
+				run()
+				{
+					worker.run();
 				}
-			}
-		}.start();
+			}.start();
+		}
 	}
 	
 		/**
@@ -221,69 +171,240 @@ ConcurrentHasher
 	{
 		final ConcurrentHasherRequest	req = new ConcurrentHasherRequest( this, buffer, listener, low_priorty );
 			
-			// get permission to run a request
+		if ( friendly_hashing && low_priorty ){
+			
+				// wait for the disk read and cpu budgets, the caller is the one
+				// reading the pieces so this slows down the reads too
+			
+			long	io_delay 	= io_budget.reserve( req.getSize() * 1000000000L / FRIENDLY_IO_RATE );
+			long	cpu_delay	= cpu_budget.reserve( 0 );
+			
+			long	delay = Math.max( io_delay, cpu_delay ) / 1000000;
+			
+			if ( delay > 0 ){
+				
+				try{
+					Thread.sleep( delay );
+					
+				}catch( Throwable e ){
+					
+					Debug.printStackTrace( e ); 
+				}
+			}
+		}
 		
-
-		// test code to force synchronous checking
-		//SHA1Hasher	hasher = new SHA1Hasher();
-		//req.run( hasher );
+			// get permission to run a request
 		
 		scheduler_sem.reserve();
 		
-		try{
-			requests_mon.enter();
-			
-			requests.add( req );
+		int	index = (next_worker.getAndIncrement() & 0x7FFFFFFF) % workers.length;
 		
-		}finally{
-			
-			requests_mon.exit();
-		}
+		workers[index].queue.addLast( req );
 		
 		request_sem.release();
 		
 		return( req );
 	}
 	
-	public static void
-	main(
-		String[]	args )
+	public long
+	getBytesHashed()
 	{
-		/*
-		final ConcurrentHasher	hasher = ConcurrentHasher.getSingleton();
+		return( bytes_hashed.get());
+	}
+	
+		/**
+		 * @return total time spent hashing by all the workers, in nanoseconds
+		 */
+	
+	public long
+	getHashTime()
+	{
+		return( hash_time.get());
+	}
+	
+	public long
+	getStealCount()
+	{
+		return( steal_count.get());
+	}
+	
+	protected class
+	Worker
+	{
+		private final int											index;
+		private final ConcurrentLinkedDeque<ConcurrentHasherRequest>	queue = new ConcurrentLinkedDeque<ConcurrentHasherRequest>();
 		
-		int		threads			= 1;
+		private final MessageDigest	digest;
 		
-		final long	buffer_size		= 128*1024;
-		final long	loop			= 1024;
+		protected
+		Worker(
+			int		_index )
+		{
+			index	= _index;
+			
+			try{
+				digest = MessageDigest.getInstance( "SHA-1" );
+				
+			}catch( Throwable e ){
+				
+					// every java platform has SHA-1
+				
+				throw( new RuntimeException( e ));
+			}
+		}
 		
-		for (int i=0;i<threads;i++){
-						
-			new Thread()
-			{
-				public void
-				run()
-				{
-					// SHA1Hasher sha1_hasher = new SHA1Hasher();
+		protected void
+		run()
+		{
+			while( true ){
+				
+				request_sem.acquireUninterruptibly();
+				
+					// there is a request for us, in some queue
+				
+				ConcurrentHasherRequest	req = next();
+				
+				long	start = System.nanoTime();
+				
+				try{
+					req.run( digest );
+					
+				}catch( Throwable e ){
+					
+					Debug.printStackTrace( e );
+					
+				}finally{
 					
-					long	start = System.currentTimeMillis();
-					//ByteBuffer	buffer = ByteBuffer.allocate((int)buffer_size);
+					long	elapsed = System.nanoTime() - start;
 					
-					for (int j=0;j<loop;j++){
+					bytes_hashed.addAndGet( req.getSize());
+					hash_time.addAndGet( elapsed );
+					
+					if ( friendly_hashing && req.isLowPriority()){
 						
-												
-						//sha1_hasher.calculateHash( buffer );
-						//ConcurrentHasherRequest req = hasher.addRequest( buffer );
+						cpu_budget.reserve( elapsed * 100 / FRIENDLY_CPU_PERCENT / processor_num );
 					}
 					
-					long	elapsed = System.currentTimeMillis() - start;
+					scheduler_sem.release();
+				}
+			}
+		}
+		
+		private ConcurrentHasherRequest
+		next()
+		{
+			while( true ){
+				
+				ConcurrentHasherRequest	req = queue.pollFirst();
+				
+				if ( req != null ){
 					
-					System.out.println( 
-							"elapsed = " + elapsed + ", " + 
-							((loop*buffer_size*1000)/elapsed) + " B/sec" );
+					return( req );
 				}
-			}.start();
+				
+				for (int i=1;i<workers.length;i++){
+					
+					req = workers[(index+i)%workers.length].queue.pollLast();
+					
+					if ( req != null ){
+						
+						steal_count.incrementAndGet();
+						
+						return( req );
+					}
+				}
+				
+					// the request is being added to a queue
+				
+				Thread.yield();
+			}
 		}
-		*/
+	}
+	
+		/**
+		 * Timeline of a throttled resource, each use reserves some time
+		 * after the previous ones.
+		 */
+	
+	private static class
+	Budget
+	{
+		private long	next_time;
+		
+			/**
+			 * @return nanoseconds to wait before using the resource
+			 */
+		
+		protected synchronized long
+		reserve(
+			long	nanos )
+		{
+			long	now = System.nanoTime();
+			
+			if ( next_time < now ){
+				
+				next_time = now;
+			}
+			
+			long	delay = next_time - now;
+			
+			next_time += nanos;
+			
+			return( delay );
+		}
+	}
+	
+		/**
+		 * Recheck benchmark, hashes piece sized direct buffers in all the workers.
+		 * 
+		 * Usage: ConcurrentHasher [MB] [piece KB]
+		 */
+	
+	public static void
+	main(
+		String[]	args )
+	{
+		final long	total			= ( args.length > 0 ? Integer.parseInt( args[0] ) : 2048 ) * 1024L * 1024;
+		final int	piece_size		= ( args.length > 1 ? Integer.parseInt( args[1] ) : 1024 ) * 1024;
+		
+		ConcurrentHasher	hasher = ConcurrentHasher.getSingleton();
+		
+		ByteBuffer	piece = ByteBuffer.allocateDirect( piece_size );
+		
+		final int	num_pieces = (int)( total / piece_size );
+		
+		final AESemaphore	done = new AESemaphore( "ConcurrentHasher:bench" );
+		
+		ConcurrentHasherRequestListener	listener =
+			new ConcurrentHasherRequestListener()
+			{
+				public void
+				complete(
+					ConcurrentHasherRequest	request )
+				{
+					done.release();
+				}
+			};
+			
+		long	start = System.nanoTime();
+		
+		for (int i=0;i<num_pieces;i++){
+			
+			hasher.addRequest( piece.duplicate(), listener, true );
+		}
+		
+		for (int i=0;i<num_pieces;i++){
+			
+			done.reserve();
+		}
+		
+		long	elapsed = System.nanoTime() - start;
+		
+		long	mb_per_sec = (long)num_pieces * piece_size * 1000000000L / elapsed / ( 1024*1024 );
+		
+		System.out.println( 
+				num_pieces + " pieces of " + piece_size/1024 + " KB in " + elapsed/1000000 + " ms, " +
+				mb_per_sec + " MB/s, " + mb_per_sec / hasher.processor_num + " MB/s per core (" + 
+				hasher.processor_num + " cores, " + hasher.getStealCount() + " steals, friendly " + friendly_hashing + ")" );
 	}
 }
@@ -23,6 +23,7 @@
 package org.gudy.azureus2.core3.util;
 
 import java.nio.ByteBuffer;
+import java.security.MessageDigest;
 
 /**
  * @author parg
@@ -128,7 +129,7 @@ ConcurrentHasherRequest
 	
 	protected void
 	run(
-		SHA1Hasher	hasher )
+		MessageDigest	digest )
 	{
 		if ( !cancelled ){
 			
@@ -138,7 +139,17 @@ ConcurrentHasherRequest
 				
 			}else{
 				
-				result = hasher.calculateHash( buffer );
+					// hashed in place, leaving the buffer unchanged
+				
+				int	position = buffer.position();
+				
+				digest.reset();
+				
+				digest.update( buffer );
+				
+				result = digest.digest();
+				
+				buffer.position( position );
 			}
 			
 			sem.releaseForever();
@@ -21,19 +21,25 @@
 
 package org.gudy.azureus2.core3.util;
 
+import java.lang.ref.WeakReference;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.gudy.azureus2.core3.config.COConfigurationManager;
 import org.gudy.azureus2.core3.disk.DiskManager;
@@ -43,6 +49,8 @@ import org.gudy.azureus2.core3.logging.Logger;
 import com.aelitis.azureus.core.diskmanager.cache.CacheFileManager;
 import com.aelitis.azureus.core.diskmanager.cache.CacheFileManagerFactory;
 import com.aelitis.azureus.core.diskmanager.cache.CacheFileManagerStats;
+import com.aelitis.azureus.core.stats.AzureusCoreStats;
+import com.aelitis.azureus.core.stats.AzureusCoreStatsProvider;
 
 public class 
 DirectByteBufferPoolReal 
@@ -89,9 +97,6 @@ DirectByteBufferPoolReal
   
 	public static final int MAX_SIZE = BigInteger.valueOf(2).pow(END_POWER).intValue();
   
-	private static final DirectByteBufferPoolReal pool = new DirectByteBufferPoolReal();
-  
-
 	private final Map buffersMap = new LinkedHashMap(END_POWER - START_POWER + 1);
   
 	private final Object poolsLock = new Object();
@@ -132,6 +137,49 @@ DirectByteBufferPoolReal
 	
 	private static final long[]			slice_use_count 	= new long[SLICE_ENTRY_SIZES.length];
   
+		// after the slice tables, the pool uses them
+	
+	private static final DirectByteBufferPoolReal pool = new DirectByteBufferPoolReal();
+  
+	static{
+		
+		Set	types = new HashSet();
+		
+		types.add( AzureusCoreStats.ST_MEMORY_DBB_CACHE_HIT_COUNT );
+		types.add( AzureusCoreStats.ST_MEMORY_DBB_DEPOT_HIT_COUNT );
+		types.add( AzureusCoreStats.ST_MEMORY_DBB_POOL_GET_COUNT );
+		types.add( AzureusCoreStats.ST_MEMORY_DBB_POOL_CONTENDED_COUNT );
+		
+		AzureusCoreStats.registerProvider( 
+			types,
+			new AzureusCoreStatsProvider()
+			{
+				public void
+				updateStats(
+					Set		types,
+					Map		values )
+				{
+					if ( types.contains( AzureusCoreStats.ST_MEMORY_DBB_CACHE_HIT_COUNT )){
+						
+						values.put( AzureusCoreStats.ST_MEMORY_DBB_CACHE_HIT_COUNT, new Long( pool.cache_hits.get()));
+					}
+					if ( types.contains( AzureusCoreStats.ST_MEMORY_DBB_DEPOT_HIT_COUNT )){
+						
+						values.put( AzureusCoreStats.ST_MEMORY_DBB_DEPOT_HIT_COUNT, new Long( pool.depot_hits.get()));
+					}
+					if ( types.contains( AzureusCoreStats.ST_MEMORY_DBB_POOL_GET_COUNT )){
+						
+						values.put( AzureusCoreStats.ST_MEMORY_DBB_POOL_GET_COUNT, new Long( pool.pool_gets.get()));
+					}
+					if ( types.contains( AzureusCoreStats.ST_MEMORY_DBB_POOL_CONTENDED_COUNT )){
+						
+						values.put( AzureusCoreStats.ST_MEMORY_DBB_POOL_CONTENDED_COUNT, new Long( pool.pool_contended.get()));
+					}
+				}
+			});
+	}
+	
+
 	private final Map handed_out	= new IdentityHashMap();	// for debugging (ByteBuffer has .equals defined on contents, hence IdentityHashMap)
 	
 	private final Map	size_counts	= new TreeMap();
@@ -143,6 +191,51 @@ DirectByteBufferPoolReal
 	private long bytesIn = 0;
 	private long bytesOut = 0;
   
+		// each thread keeps a few free buffers of every small size in magazines, a full
+		// magazine goes to the size's depot and an empty one is refilled from it, so
+		// the locked pools are only used when the depot is empty too. compaction drains
+		// the depots back into the pools and flushes the magazines of every thread,
+		// caches of threads that have died are dropped then
+	
+	private static final int	MAGAZINE_MAX_BUFFER		= 64*1024;	// bigger buffers always come from the pools
+	private static final int	MAGAZINE_MAX_BYTES		= 128*1024;
+	private static final int	MAGAZINE_MAX_COUNT		= 32;
+	private static final int	MAGAZINE_SLICE_SHARE	= 256;		// slice space is limited, a magazine holds at most 1/256 of it
+	
+	private static final int	HIT_COUNT_FLUSH			= 1024;
+	
+	private final int[]			pool_sizes;			// free buffer pools, by ascending size
+	private final ArrayList[]	pools;
+	
+	private final int[]			magazine_capacities;	// slice sizes followed by pool sizes, 0 when not cached
+	private final Depot[]		depots;
+	
+	private final List<ThreadCacheRef>	thread_caches	= new ArrayList<ThreadCacheRef>();
+	
+	private final ThreadLocal<ThreadCache>	thread_cache =
+		new ThreadLocal<ThreadCache>()
+		{
+			protected ThreadCache
+			initialValue()
+			{
+				ThreadCache	cache = new ThreadCache();
+				
+				synchronized( thread_caches ){
+					
+					thread_caches.add( new ThreadCacheRef( Thread.currentThread(), cache ));
+				}
+				
+				return( cache );
+			}
+		};
+	
+	private final AtomicLong	cache_hits		= new AtomicLong();
+	private final AtomicLong	depot_hits		= new AtomicLong();
+	private final AtomicLong	pool_gets		= new AtomicLong();
+	private final AtomicLong	pool_contended	= new AtomicLong();
+	
+	private final AtomicIntegerArray	lock_users	= new AtomicIntegerArray( SLICE_ENTRY_SIZES.length + 1 );	// slice lists then poolsLock
+	
   
 	protected 
 	DirectByteBufferPoolReal() 
@@ -165,11 +258,42 @@ DirectByteBufferPoolReal
 	    list.toArray( sizes );
 	    Arrays.sort( sizes);
 	    
+	    pool_sizes	= new int[sizes.length];
+	    pools		= new ArrayList[sizes.length];
+	    
 	    for (int i=0;i<sizes.length;i++){
 	    	
 	    	ArrayList bufferPool = new ArrayList();
 	    	
 	    	buffersMap.put(sizes[i], bufferPool);
+	    	
+	    	pool_sizes[i]	= sizes[i].intValue();
+	    	pools[i]		= bufferPool;
+	    }
+	    
+	    magazine_capacities	= new int[ SLICE_ENTRY_SIZES.length + pool_sizes.length ];
+	    depots				= new Depot[ magazine_capacities.length ];
+	    
+	    for (int i=0;i<magazine_capacities.length;i++){
+	    	
+	    	int	capacity;
+	    	
+	    	if ( i < SLICE_ENTRY_SIZES.length ){
+	    		
+	    		capacity = SLICE_ALLOC_MAXS[i] * SLICE_ENTRY_ALLOC_SIZES[i] / MAGAZINE_SLICE_SHARE;
+	    		
+	    	}else{
+	    		
+	    		int	size = pool_sizes[i-SLICE_ENTRY_SIZES.length];
+	    		
+	    		capacity = size <= MAGAZINE_MAX_BUFFER?MAGAZINE_MAX_BYTES / size:0;
+	    	}
+	    	
+	    		// a magazine of one is no better than the locked list
+	    	
+	    	magazine_capacities[i] = capacity < 2?0:Math.min( MAGAZINE_MAX_COUNT, capacity );
+	    	
+	    	depots[i] = new Depot();
 	    }
 	    
 	    //initiate periodic timer to check free memory usage
@@ -276,61 +400,22 @@ DirectByteBufferPoolReal
 				
 			ByteBuffer	buff = null;
 			
-			Integer reqVal = new Integer(_length);
-	    
-				//loop through the buffer pools to find a buffer big enough
-	    
-			Iterator it = buffersMap.keySet().iterator();
-	    
-			while (it.hasNext()) {
-	    	
-				Integer keyVal = (Integer)it.next();
-	
-					//	check if the buffers in this pool are big enough
-	      
-				if ( reqVal.compareTo(keyVal) <= 0 ){
-	      	
-					ArrayList bufferPool = (ArrayList)buffersMap.get(keyVal);
-	        
-					while( true ){
-						
-						synchronized ( poolsLock ) { 
-		        
-							// make sure we don't remove a buffer when running compaction
-							// if there are no free buffers in the pool, create a new one.
-							// otherwise use one from the pool
-		        	
-							if ( bufferPool.isEmpty()){
-		          	
-								buff = allocateNewBuffer(keyVal.intValue());
-		            
-								if ( buff == null ){
-									
-									Debug.out( "allocateNewBuffer for " + _length + " returned null" );
-								}
-								
-								break;
-								
-							}else{
-		          	
-								synchronized ( bufferPool ) {
-		            	
-									buff = (ByteBuffer)bufferPool.remove(bufferPool.size() - 1);
-								}
-								
-								if ( buff == null ){
-									
-									Debug.out( "buffer pool for " + _length + " contained null entry" ); 
-									
-								}else{
-									
-									break;
-								}
-							}
-						}
-					}
+				//find the smallest pool with buffers big enough
+			
+			int	pool_index = getPoolIndex( _length );
+			
+			if ( pool_index != -1 ){
+				
+				int	magazine_index = SLICE_ENTRY_SIZES.length + pool_index;
+				
+				if ( magazine_capacities[magazine_index] > 0 ){
 					
-					break;
+					buff = (ByteBuffer)thread_cache.get().get( magazine_index );
+				}
+				
+				if ( buff == null ){
+					
+					buff = getPoolBuffer( pool_index, _length );
 				}
 			}
 		
@@ -403,6 +488,85 @@ DirectByteBufferPoolReal
     }
   
   
+	private int
+	getPoolIndex(
+		int		_length )
+	{
+		for (int i=0;i<pool_sizes.length;i++){
+			
+			if ( _length <= pool_sizes[i] ){
+				
+				return( i );
+			}
+		}
+		
+		return( -1 );
+	}
+	
+	private ByteBuffer
+	getPoolBuffer(
+		int		pool_index,
+		int		_length )
+	{
+		ArrayList	bufferPool = pools[pool_index];
+		
+		ByteBuffer	buff = null;
+		
+		pool_gets.incrementAndGet();
+		
+		int	lock_index = SLICE_ENTRY_SIZES.length;
+		
+		if ( lock_users.incrementAndGet( lock_index ) > 1 ){
+			
+			pool_contended.incrementAndGet();
+		}
+		
+		try{
+			while( true ){
+				
+				synchronized ( poolsLock ) { 
+	        
+					// make sure we don't remove a buffer when running compaction
+					// if there are no free buffers in the pool, create a new one.
+					// otherwise use one from the pool
+	        	
+					if ( bufferPool.isEmpty()){
+	          	
+						buff = allocateNewBuffer( pool_sizes[pool_index] );
+	            
+						if ( buff == null ){
+							
+							Debug.out( "allocateNewBuffer for " + _length + " returned null" );
+						}
+						
+						break;
+						
+					}else{
+	          	
+						synchronized ( bufferPool ) {
+	            	
+							buff = (ByteBuffer)bufferPool.remove(bufferPool.size() - 1);
+						}
+						
+						if ( buff == null ){
+							
+							Debug.out( "buffer pool for " + _length + " contained null entry" ); 
+							
+						}else{
+							
+							break;
+						}
+					}
+				}
+			}
+		}finally{
+			
+			lock_users.decrementAndGet( lock_index );
+		}
+		
+		return( buff );
+	}
+	
 	  /**
 	   * Return the given buffer to the appropriate pool.
 	   */
@@ -444,18 +608,27 @@ DirectByteBufferPoolReal
 			freeSliceBuffer( ddb );
 			
 		}else{
-		    Integer buffSize = new Integer(capacity);
-		    
-		    ArrayList bufferPool = (ArrayList)buffersMap.get(buffSize);
+		    int pool_index = getPoolIndex( capacity );
 		    
-		    if (bufferPool != null) {
-				
-				//no need to sync around 'poolsLock', as adding during compaction is ok
-				
-		      synchronized ( bufferPool ){
-				  
-		        bufferPool.add(buff);
-		      }
+		    if ( pool_index != -1 && pool_sizes[pool_index] == capacity ){
+		    	
+		    	int	magazine_index = SLICE_ENTRY_SIZES.length + pool_index;
+		    	
+		    	if ( magazine_capacities[magazine_index] > 0 ){
+		    		
+		    		thread_cache.get().put( magazine_index, buff );
+		    		
+		    	}else{
+		    		
+		    		ArrayList bufferPool = pools[pool_index];
+		    		
+		    		//no need to sync around 'poolsLock', as adding during compaction is ok
+		    		
+		    		synchronized ( bufferPool ){
+		    			
+		    			bufferPool.add(buff);
+		    		}
+		    	}
 		    }else{
 				
 		      Debug.out("Invalid buffer given; could not find proper buffer pool");
@@ -469,6 +642,8 @@ DirectByteBufferPoolReal
    * unused buffers can be garbage collected.
    */
   private void clearBufferPools() {
+    flushThreadCaches();
+    drainDepots();
     Iterator it = buffersMap.values().iterator();
     while (it.hasNext()) {
         ArrayList bufferPool = (ArrayList)it.next();
@@ -497,6 +672,13 @@ DirectByteBufferPoolReal
    */
   private void compactBuffers() {
 	  
+	  // the magazines of all threads and the depots go back to the pools first so that
+	  // the limits below see every free buffer
+	  
+	  flushThreadCaches();
+	  
+	  drainDepots();
+	  
 	  nonsliecd: synchronized (poolsLock)
 		{
 			long freeSize = bytesFree();
@@ -795,84 +977,106 @@ DirectByteBufferPoolReal
 	{
 		int	slice_index = getSliceIndex( _length );
 		
+		if ( magazine_capacities[slice_index] > 0 ){
+			
+			sliceBuffer	cached = (sliceBuffer)thread_cache.get().get( slice_index );
+			
+			if ( cached != null ){
+				
+				return( new sliceDBB( _allocator, cached ));
+			}
+		}
+		
 		List		my_slice_entries 	= slice_entries[slice_index];
 
-		synchronized( my_slice_entries ){
+		pool_gets.incrementAndGet();
+		
+		if ( lock_users.incrementAndGet( slice_index ) > 1 ){
+			
+			pool_contended.incrementAndGet();
+		}
+		
+		try{
+			synchronized( my_slice_entries ){
 	
-			boolean[]	my_allocs			= slice_allocs[slice_index];
+				boolean[]	my_allocs			= slice_allocs[slice_index];
 			
-			sliceBuffer	sb = null;
+				sliceBuffer	sb = null;
 			
-			if ( my_slice_entries.size() > 0 ){
+				if ( my_slice_entries.size() > 0 ){
 				
-				sb = (sliceBuffer)my_slice_entries.remove(0);
+					sb = (sliceBuffer)my_slice_entries.remove(0);
 				
-				slice_use_count[slice_index]++;
+					slice_use_count[slice_index]++;
 				
-			}else{
+				}else{
 				
-					// find a free slot
+						// find a free slot
 				
-				short	slot = -1;
+					short	slot = -1;
 				
-				for (short i=0;i<my_allocs.length;i++){
+					for (short i=0;i<my_allocs.length;i++){
 					
-					if( !my_allocs[i]){
+						if( !my_allocs[i]){
 						
-						slot	= i;
+							slot	= i;
 			
-						break;
+							break;
+						}
 					}
-				}
 				
-				if ( slot != -1 ){
+					if ( slot != -1 ){
 					
-					short	slice_entry_size 	= SLICE_ENTRY_SIZES[slice_index];
-					short	slice_entry_count	= SLICE_ENTRY_ALLOC_SIZES[slice_index];
+						short	slice_entry_size 	= SLICE_ENTRY_SIZES[slice_index];
+						short	slice_entry_count	= SLICE_ENTRY_ALLOC_SIZES[slice_index];
 					
-					ByteBuffer	chunk = ByteBuffer.allocateDirect(  slice_entry_size*slice_entry_count  );
+						ByteBuffer	chunk = ByteBuffer.allocateDirect(  slice_entry_size*slice_entry_count  );
 					
-					my_allocs[slot] = true;
+						my_allocs[slot] = true;
 					
-					for (short i=0;i<slice_entry_count;i++){
+						for (short i=0;i<slice_entry_count;i++){
 						
-						chunk.limit((i+1)*slice_entry_size);
-						chunk.position(i*slice_entry_size);
+							chunk.limit((i+1)*slice_entry_size);
+							chunk.position(i*slice_entry_size);
 						
-						ByteBuffer	slice = chunk.slice();
+							ByteBuffer	slice = chunk.slice();
 						
-						sliceBuffer new_buffer = new sliceBuffer( slice, slot, i );
+							sliceBuffer new_buffer = new sliceBuffer( slice, slot, i );
 						
-						if ( i == 0 ){
+							if ( i == 0 ){
 							
-							sb = new_buffer;
+								sb = new_buffer;
 							
-							slice_use_count[slice_index]++;
+								slice_use_count[slice_index]++;
 							
-						}else{
+							}else{
 							
-							my_slice_entries.add( new_buffer );
+								my_slice_entries.add( new_buffer );
+							}
 						}
-					}
-				}else{
+					}else{
 					
-					if ( !slice_alloc_fails[slice_index] ){
+						if ( !slice_alloc_fails[slice_index] ){
 						
-						slice_alloc_fails[slice_index]	= true;
+							slice_alloc_fails[slice_index]	= true;
 						
-						Debug.out( "Run out of slice space for '" + SLICE_ENTRY_SIZES[slice_index] + ", reverting to normal allocation" );
-					}
+							Debug.out( "Run out of slice space for '" + SLICE_ENTRY_SIZES[slice_index] + ", reverting to normal allocation" );
+						}
 					
-					ByteBuffer buff = ByteBuffer.allocate( _length );
+						ByteBuffer buff = ByteBuffer.allocate( _length );
 					
-				    return( new DirectByteBuffer( _allocator, buff, this ));
+					    return( new DirectByteBuffer( _allocator, buff, this ));
 
+					}
 				}
-			}
 			
-			sliceDBB dbb = new sliceDBB( _allocator, sb );
+				sliceDBB dbb = new sliceDBB( _allocator, sb );
 
-			return( dbb );
+				return( dbb );
+			}
+		}finally{
+			
+			lock_users.decrementAndGet( slice_index );
 		}
 	}
 	
@@ -884,11 +1088,282 @@ DirectByteBufferPoolReal
 			
 			int	slice_index = getSliceIndex( ddb.getBufferInternal().capacity());
 
-			List		my_slice_entries 	= slice_entries[slice_index];
+			sliceBuffer	sb = ((sliceDBB)ddb).getSliceBuffer();
+			
+			if ( magazine_capacities[slice_index] > 0 ){
+				
+				thread_cache.get().put( slice_index, sb );
+				
+			}else{
+				
+				List		my_slice_entries 	= slice_entries[slice_index];
 
+				synchronized( my_slice_entries ){
+				
+					my_slice_entries.add( 0, sb );
+				}
+			}
+		}
+	}
+	
+		/**
+		 * Puts buffers or slices back into the free pool or slice list of their size
+		 */
+	
+	private void
+	returnToPool(
+		int			magazine_index,
+		Object[]	entries,
+		int			count )
+	{
+		if ( magazine_index < SLICE_ENTRY_SIZES.length ){
+			
+			List	my_slice_entries = slice_entries[magazine_index];
+			
 			synchronized( my_slice_entries ){
+				
+				for (int i=0;i<count;i++){
+					
+					my_slice_entries.add( 0, entries[i] );
+				}
+			}
+		}else{
+			
+			ArrayList	bufferPool = pools[ magazine_index - SLICE_ENTRY_SIZES.length ];
+			
+			synchronized( bufferPool ){
+				
+				for (int i=0;i<count;i++){
+					
+					bufferPool.add( entries[i] );
+				}
+			}
+		}
+	}
+	
+	private void
+	drainDepots()
+	{
+		for (int i=0;i<depots.length;i++){
+			
+			while( true ){
+				
+				Object[]	magazine = depots[i].pop();
+				
+				if ( magazine == null ){
+					
+					break;
+				}
+				
+				returnToPool( i, magazine, magazine.length );
+			}
+		}
+	}
+	
+		/**
+		 * Lock-free stack of full magazines
+		 */
+	
+	private static class
+	Depot
+	{
+		private final AtomicReference<DepotEntry>	top = new AtomicReference<DepotEntry>();
+		
+		protected void
+		push(
+			Object[]	magazine )
+		{
+				// a new entry each time so a popped entry is never pushed back (no ABA)
+			
+			DepotEntry	entry = new DepotEntry( magazine );
 			
-				my_slice_entries.add( 0, ((sliceDBB)ddb).getSliceBuffer());
+			while( true ){
+				
+				DepotEntry	current = top.get();
+				
+				entry.next = current;
+				
+				if ( top.compareAndSet( current, entry )){
+					
+					return;
+				}
+			}
+		}
+		
+		protected Object[]
+		pop()
+		{
+			while( true ){
+				
+				DepotEntry	current = top.get();
+				
+				if ( current == null ){
+					
+					return( null );
+				}
+				
+				if ( top.compareAndSet( current, current.next )){
+					
+					return( current.magazine );
+				}
+			}
+		}
+	}
+	
+	private static class
+	DepotEntry
+	{
+		private final Object[]	magazine;
+		private DepotEntry		next;
+		
+		protected
+		DepotEntry(
+			Object[]	_magazine )
+		{
+			magazine	= _magazine;
+		}
+	}
+	
+  	private void
+	flushThreadCaches()
+	{
+		ThreadCacheRef[]	refs;
+		
+		synchronized( thread_caches ){
+			
+			refs = thread_caches.toArray( new ThreadCacheRef[ thread_caches.size()]);
+		}
+		
+		List<ThreadCacheRef>	dead = new ArrayList<ThreadCacheRef>();
+		
+		for ( ThreadCacheRef ref: refs ){
+			
+			Thread	thread = ref.get();
+			
+			if ( thread == null || !thread.isAlive()){
+				
+				dead.add( ref );
+			}
+			
+			ref.cache.flush();
+		}
+		
+		if ( dead.size() > 0 ){
+			
+			synchronized( thread_caches ){
+				
+				thread_caches.removeAll( dead );
+			}
+		}
+	}
+	
+	private static class
+	ThreadCacheRef
+		extends WeakReference<Thread>
+	{
+		private final ThreadCache	cache;
+		
+		protected
+		ThreadCacheRef(
+			Thread		thread,
+			ThreadCache	_cache )
+		{
+			super( thread );
+			
+			cache	= _cache;
+		}
+	}
+	
+		/**
+		 * Free buffers of one thread. Only its thread gets and puts, the lock is there
+		 * for compaction flushing it from another thread
+		 */
+	
+	private class
+	ThreadCache
+	{
+		private final Object[][]	magazines	= new Object[magazine_capacities.length][];
+		private final int[]			counts		= new int[magazine_capacities.length];
+		
+		private int		hits;
+		
+		protected synchronized Object
+		get(
+			int		index )
+		{
+			int	count = counts[index];
+			
+			if ( count == 0 ){
+				
+				Object[]	full = depots[index].pop();
+				
+				if ( full == null ){
+					
+					return( null );
+				}
+				
+				depot_hits.incrementAndGet();
+				
+				magazines[index]	= full;
+				count				= full.length;
+				
+			}else if ( ++hits == HIT_COUNT_FLUSH ){
+				
+				cache_hits.addAndGet( hits );
+				
+				hits = 0;
+			}
+			
+			Object[]	magazine = magazines[index];
+			
+			Object	res = magazine[--count];
+			
+			magazine[count]	= null;
+			counts[index]	= count;
+			
+			return( res );
+		}
+		
+		protected synchronized void
+		put(
+			int		index,
+			Object	entry )
+		{
+			Object[]	magazine 	= magazines[index];
+			int			count		= counts[index];
+			
+			if ( magazine == null ){
+				
+				magazine = magazines[index] = new Object[ magazine_capacities[index]];
+				
+			}else if ( count == magazine.length ){
+				
+				depots[index].push( magazine );
+				
+				magazine = magazines[index] = new Object[ magazine.length ];
+				
+				count = 0;
+			}
+			
+			magazine[count++]	= entry;
+			counts[index]		= count;
+		}
+		
+		protected synchronized void
+		flush()
+		{
+			for (int i=0;i<magazines.length;i++){
+				
+				int	count = counts[i];
+				
+				if ( count > 0 ){
+					
+					returnToPool( i, magazines[i], count );
+					
+					Arrays.fill( magazines[i], 0, count, null );
+					
+					counts[i] = 0;
+				}
 			}
 		}
 	}
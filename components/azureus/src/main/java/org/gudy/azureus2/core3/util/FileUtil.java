@@ -417,6 +417,28 @@ public class FileUtil {
 
 	  writeResilientFile( parent_dir, file_name, data, use_backups );
   }
+
+  public static boolean
+  writeResilientConfigFileWithResult(
+  	String		file_name,
+	Map			data )
+  {
+	  File parent_dir = new File(SystemProperties.getUserPath());
+
+	  boolean use_backups = COConfigurationManager.getBooleanParameter("Use Config File Backups" );
+
+	  if ( use_backups ){
+
+		  File	originator = new File( parent_dir, file_name );
+
+		  if ( originator.exists()){
+
+			  backupFile( originator, true );
+		  }
+	  }
+
+	  return( writeResilientFile( parent_dir, file_name, data ));
+  }
   
   public static void
   writeResilientFile(
@@ -0,0 +1,1059 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bencode reader working on a byte array in a single pass. The data is tokenized
+ * into an index of offsets and values are only created for the keys a caller
+ * touches, so the pieces of a torrent or the entries of a state file nobody looks
+ * at are never copied.
+ *
+ * The views share the decoded array, it must not be modified while they are in use.
+ * {@link DictionaryView#toMap()} gives the same maps, lists, Longs and byte[] as
+ * {@link BDecoder}, including its tolerance of a missing final 'e' and of keys
+ * without value.
+ *
+ * A {@link Visitor} can be fed directly with the tokens, without building the index.
+ */
+public class
+LazyBDecoder
+{
+	private static final int MAX_MAP_KEY_SIZE		= 64*1024;
+	private static final int MAX_NUMBER_LENGTH		= 32;
+
+	private static final int T_STRING		= 0;
+	private static final int T_INTEGER		= 1;
+	private static final int T_DICTIONARY	= 2;
+	private static final int T_LIST			= 3;
+
+		// token layout in the index: type, start, end, next token, number of children
+		// strings and integers point to their data, containers to their whole encoding
+
+	private static final int F_TYPE		= 0;
+	private static final int F_START	= 1;
+	private static final int F_END		= 2;
+	private static final int F_NEXT		= 3;
+	private static final int F_COUNT	= 4;
+	private static final int TOKEN_SIZE	= 5;
+
+	public static DictionaryView
+	decode(
+		byte[]	data )
+
+		throws IOException
+	{
+		return( decode( data, 0, data.length ));
+	}
+
+	public static DictionaryView
+	decode(
+		byte[]	data,
+		int		offset,
+		int		length )
+
+		throws IOException
+	{
+		Index	index = new Index( data, length );
+
+		tokenize( data, offset, length, index );
+
+		if ( index.tokens[F_TYPE] != T_DICTIONARY ){
+
+			throw( new BEncodingException( "BDecoder: top level isn't a Map" ));
+		}
+
+		return( new DictionaryView( index, 0 ));
+	}
+
+		/**
+		 * Decodes from the position of the buffer and leaves it after the root dictionary.
+		 * Direct buffers are copied once.
+		 */
+
+	public static DictionaryView
+	decode(
+		ByteBuffer	buffer )
+
+		throws IOException
+	{
+		byte[]	data;
+		int		offset;
+		int		length = buffer.remaining();
+
+		if ( buffer.hasArray()){
+
+			data	= buffer.array();
+			offset	= buffer.arrayOffset() + buffer.position();
+
+		}else{
+
+			data	= new byte[length];
+			offset	= 0;
+
+			buffer.duplicate().get( data );
+		}
+
+		DictionaryView	result = decode( data, offset, length );
+
+		buffer.position( buffer.position() + result.getEnd() - offset );
+
+		return( result );
+	}
+
+		/**
+		 * Streams the tokens of the first value found at the offset to the visitor.
+		 * Returns the offset after that value, anything following it is not read.
+		 */
+
+	public static int
+	visit(
+		byte[]		data,
+		int			offset,
+		int			length,
+		Visitor		visitor )
+
+		throws IOException
+	{
+		return( tokenize( data, offset, length, visitor ));
+	}
+
+	private static int
+	tokenize(
+		byte[]		data,
+		int			offset,
+		int			length,
+		Visitor		visitor )
+
+		throws IOException
+	{
+		int	pos = offset;
+		int	end = offset + length;
+
+		if ( length <= 0 || data[pos] == 'e' ){
+
+			throw( new BEncodingException( "BDecoder: zero length file" ));
+		}
+
+			// per open container: is it a dictionary and how many tokens it has so far
+
+		boolean[]	dicts	= new boolean[16];
+		int[]		counts	= new int[16];
+		int			depth	= 0;
+
+		while( true ){
+
+			if ( pos >= end ){
+
+				if ( depth == 1 ){
+
+						// like BDecoder, accept a root container cut before its 'e'
+
+					if ( dicts[0] ){
+
+						visitor.endDictionary( end );
+
+					}else{
+
+						visitor.endList( end );
+					}
+
+					return( end );
+				}
+
+				throw( new BEncodingException(
+						"BDecoder: invalid input data, 'e' missing from end of " + ( dicts[depth-1]?"dictionary":"list" )));
+			}
+
+			byte	b = data[pos];
+
+			if ( b == 'e' ){
+
+				if ( depth == 0 ){
+
+					throw( new BEncodingException( "BDecoder: unexpected 'e' at " + pos ));
+				}
+
+				depth--;
+				pos++;
+
+				if ( dicts[depth] ){
+
+					visitor.endDictionary( pos );
+
+				}else{
+
+					visitor.endList( pos );
+				}
+
+				if ( depth == 0 ){
+
+					return( pos );
+				}
+
+				continue;
+			}
+
+			boolean	is_key = depth > 0 && dicts[depth-1] && ( counts[depth-1] & 1 ) == 0;
+
+			if ( depth > 0 ){
+
+				counts[depth-1]++;
+			}
+
+			switch( b ){
+
+				case 'd':
+				case 'l':{
+
+					if ( is_key ){
+
+						throw( new BEncodingException( "BDecoder: invalid dictionary key at " + pos ));
+					}
+
+					if ( depth == dicts.length ){
+
+						boolean[]	new_dicts	= new boolean[depth*2];
+						int[]		new_counts	= new int[depth*2];
+
+						System.arraycopy( dicts, 0, new_dicts, 0, depth );
+						System.arraycopy( counts, 0, new_counts, 0, depth );
+
+						dicts	= new_dicts;
+						counts	= new_counts;
+					}
+
+					dicts[depth]	= b == 'd';
+					counts[depth]	= 0;
+
+					depth++;
+
+					if ( b == 'd' ){
+
+						visitor.startDictionary( pos );
+
+					}else{
+
+						visitor.startList( pos );
+					}
+
+					pos++;
+
+					break;
+				}
+				case 'i':{
+
+					if ( is_key ){
+
+						throw( new BEncodingException( "BDecoder: invalid dictionary key at " + pos ));
+					}
+
+					int	start	= pos + 1;
+					int	e		= start;
+
+					while( e < end && data[e] != 'e' ){
+
+						if ( e - start == MAX_NUMBER_LENGTH ){
+
+							throw( new NumberFormatException( "Number too large: " + new String( data, start, MAX_NUMBER_LENGTH, Constants.BYTE_CHARSET ) + "..." ));
+						}
+
+						e++;
+					}
+
+					if ( e == end ){
+
+						throw( new BEncodingException( "BDecoder: invalid input data, 'e' missing from end of number" ));
+					}
+
+					visitor.integer( data, start, e - start );
+
+					pos = e + 1;
+
+					break;
+				}
+				default:{
+
+					if ( b < '0' || b > '9' ){
+
+						int	rem_len = Math.min( 256, end - pos );
+
+						throw( new BEncodingException(
+								"BDecoder: unknown command '" + b + ", remainder = " + new String( data, pos, rem_len, Constants.BYTE_CHARSET )));
+					}
+
+					long	len = 0;
+
+					while( pos < end && data[pos] != ':' ){
+
+						int	digit = data[pos] - '0';
+
+						if ( digit < 0 || digit > 9 || len > Integer.MAX_VALUE ){
+
+							throw( new BEncodingException( "BDecoder: invalid string length at " + pos ));
+						}
+
+						len = len*10 + digit;
+
+						pos++;
+					}
+
+					pos++;
+
+					if ( pos > end || len > end - pos ){
+
+						throw( new BEncodingException( "BDecoder: string of " + len + " bytes exceeds the data" ));
+					}
+
+					if ( is_key ){
+
+						if ( len > MAX_MAP_KEY_SIZE ){
+
+							throw( new IOException( "dictionary key is too large, max=" + MAX_MAP_KEY_SIZE + ": value=" + len ));
+						}
+
+						visitor.key( data, pos, (int)len );
+
+					}else{
+
+						visitor.string( data, pos, (int)len );
+					}
+
+					pos += (int)len;
+				}
+			}
+
+			if ( depth == 0 ){
+
+				return( pos );
+			}
+		}
+	}
+
+		/**
+		 * Same as {@link BDecoder#parseLong}, for the digits of a bencoded integer.
+		 * An empty integer is 0 and a decimal one is truncated, as BDecoder does.
+		 */
+
+	public static long
+	parseLong(
+		byte[]	data,
+		int		offset,
+		int		length )
+	{
+		if ( length == 0 ){
+
+			return( 0 );
+		}
+
+			// plain positive numbers without leading zero can't overflow under 19 digits
+
+		if ( length < 19 && data[offset] != '0' ){
+
+			long	result	= 0;
+			int		i		= 0;
+
+			while( i < length ){
+
+				int	digit = data[offset+i] - '0';
+
+				if ( digit < 0 || digit > 9 ){
+
+					break;
+				}
+
+				result = result*10 + digit;
+
+				i++;
+			}
+
+			if ( i == length ){
+
+				return( result );
+			}
+		}
+
+		char[]	chars = new char[length];
+
+		for (int i=0;i<length;i++){
+
+			chars[i] = (char)( data[offset+i] & 0xff );
+		}
+
+		try{
+			return( BDecoder.parseLong( chars, 0, length ));
+
+		}catch( NumberFormatException e ){
+
+			String	temp = new String( chars );
+
+			try{
+				long	l = (long)Double.parseDouble( temp );
+
+				Debug.out( "Invalid number '" + temp + "' - decoding as " + l + " and attempting recovery" );
+
+				return( l );
+
+			}catch( Throwable f ){
+			}
+
+			throw( e );
+		}
+	}
+
+		/**
+		 * Receives the tokens in the order they are encoded. Strings and integers are
+		 * given as ranges of the data. On broken encodings a key can be directly
+		 * followed by the end of its dictionary.
+		 */
+
+	public interface
+	Visitor
+	{
+		public void
+		startDictionary(
+			int		offset );
+
+		public void
+		key(
+			byte[]	data,
+			int		offset,
+			int		length );
+
+		public void
+		endDictionary(
+			int		offset );
+
+		public void
+		startList(
+			int		offset );
+
+		public void
+		endList(
+			int		offset );
+
+		public void
+		string(
+			byte[]	data,
+			int		offset,
+			int		length );
+
+		public void
+		integer(
+			byte[]	data,
+			int		offset,
+			int		length );
+	}
+
+	private static class
+	Index
+		implements Visitor
+	{
+		private final byte[]	data;
+
+		private int[]	tokens;
+		private int		num_tokens;
+
+		private int[]	open	= new int[16];
+		private int		depth;
+
+			// the same few keys repeat in every entry, reuse their strings
+
+		private final String[]	key_cache	= new String[64];
+
+		private
+		Index(
+			byte[]	_data,
+			int		length )
+		{
+			data	= _data;
+
+				// a file entry of a torrent is around 50 bytes for 8 tokens, but most
+				// torrents are mainly pieces, start small and grow
+
+			tokens	= new int[ TOKEN_SIZE * Math.max( 16, length / 32 )];
+		}
+
+		private int
+		add(
+			int		type,
+			int		start,
+			int		end )
+		{
+			int	token = num_tokens++;
+
+			int	i = token * TOKEN_SIZE;
+
+			if ( i + TOKEN_SIZE > tokens.length ){
+
+				int[]	new_tokens = new int[ tokens.length * 2 ];
+
+				System.arraycopy( tokens, 0, new_tokens, 0, i );
+
+				tokens = new_tokens;
+			}
+
+			tokens[i+F_TYPE]	= type;
+			tokens[i+F_START]	= start;
+			tokens[i+F_END]		= end;
+			tokens[i+F_NEXT]	= token + 1;
+			tokens[i+F_COUNT]	= 0;
+
+			if ( depth > 0 ){
+
+				tokens[ open[depth-1]*TOKEN_SIZE + F_COUNT ]++;
+			}
+
+			return( token );
+		}
+
+		private void
+		push(
+			int		token )
+		{
+			if ( depth == open.length ){
+
+				int[]	new_open = new int[ depth * 2 ];
+
+				System.arraycopy( open, 0, new_open, 0, depth );
+
+				open = new_open;
+			}
+
+			open[depth++] = token;
+		}
+
+		private void
+		pop(
+			int		offset )
+		{
+			int	i = open[--depth] * TOKEN_SIZE;
+
+			if ( tokens[i+F_TYPE] == T_DICTIONARY && ( tokens[i+F_COUNT] & 1 ) == 1 ){
+
+					// key without value, e.g. 18:azureus_propertiesd0:e - drop it like BDecoder
+
+				num_tokens--;
+
+				System.err.println( "Invalid encoding - value not serialsied for '" + getKey( num_tokens ) + "' - ignoring" );
+
+				tokens[i+F_COUNT]--;
+			}
+
+			tokens[i+F_END]		= offset;
+			tokens[i+F_NEXT]	= num_tokens;
+		}
+
+		public void
+		startDictionary(
+			int		offset )
+		{
+			push( add( T_DICTIONARY, offset, -1 ));
+		}
+
+		public void
+		key(
+			byte[]	data,
+			int		offset,
+			int		length )
+		{
+			add( T_STRING, offset, offset + length );
+		}
+
+		public void
+		endDictionary(
+			int		offset )
+		{
+			pop( offset );
+		}
+
+		public void
+		startList(
+			int		offset )
+		{
+			push( add( T_LIST, offset, -1 ));
+		}
+
+		public void
+		endList(
+			int		offset )
+		{
+			pop( offset );
+		}
+
+		public void
+		string(
+			byte[]	data,
+			int		offset,
+			int		length )
+		{
+			add( T_STRING, offset, offset + length );
+		}
+
+		public void
+		integer(
+			byte[]	data,
+			int		offset,
+			int		length )
+		{
+			add( T_INTEGER, offset, offset + length );
+		}
+
+		private int
+		field(
+			int		token,
+			int		field )
+		{
+			return( tokens[ token*TOKEN_SIZE + field ]);
+		}
+
+		private Long
+		getLong(
+			int		token )
+		{
+			if ( token < 0 || field( token, F_TYPE ) != T_INTEGER ){
+
+				return( null );
+			}
+
+			int	start = field( token, F_START );
+
+			return( Long.valueOf( parseLong( data, start, field( token, F_END ) - start )));
+		}
+
+		private byte[]
+		getBytes(
+			int		token )
+		{
+			if ( token < 0 || field( token, F_TYPE ) != T_STRING ){
+
+				return( null );
+			}
+
+			int	start	= field( token, F_START );
+
+			byte[]	res = new byte[ field( token, F_END ) - start ];
+
+			System.arraycopy( data, start, res, 0, res.length );
+
+			return( res );
+		}
+
+		private DictionaryView
+		getDictionary(
+			int		token )
+		{
+			if ( token < 0 || field( token, F_TYPE ) != T_DICTIONARY ){
+
+				return( null );
+			}
+
+			return( new DictionaryView( this, token ));
+		}
+
+		private ListView
+		getList(
+			int		token )
+		{
+			if ( token < 0 || field( token, F_TYPE ) != T_LIST ){
+
+				return( null );
+			}
+
+			return( new ListView( this, token ));
+		}
+
+		private String
+		getKey(
+			int		token )
+		{
+			int	start	= field( token, F_START );
+			int	len		= field( token, F_END ) - start;
+
+			int	hash = len;
+
+			for (int i=0;i<len;i++){
+
+				hash = 31*hash + data[start+i];
+			}
+
+				// views of one index can be materialised on several threads, a slot
+				// overwritten under our feet only costs a miss as the key is compared
+
+			int	slot = hash & ( key_cache.length - 1 );
+
+			String	key = key_cache[slot];
+
+			if ( key != null && keyEquals( token, key )){
+
+				return( key );
+			}
+
+			char[]	chars = new char[len];
+
+			for (int i=0;i<len;i++){
+
+				chars[i] = (char)( data[start+i] & 0xff );
+			}
+
+			key = StringInterner.intern( new String( chars ));
+
+			key_cache[slot] = key;
+
+			return( key );
+		}
+
+		private boolean
+		keyEquals(
+			int		token,
+			String	key )
+		{
+			int	start	= field( token, F_START );
+			int	len		= field( token, F_END ) - start;
+
+			if ( len != key.length()){
+
+				return( false );
+			}
+
+			for (int i=0;i<len;i++){
+
+				if ( key.charAt(i) != ( data[start+i] & 0xff )){
+
+					return( false );
+				}
+			}
+
+			return( true );
+		}
+
+		private Object
+		materialize(
+			int		token )
+		{
+			switch( field( token, F_TYPE )){
+
+				case T_STRING:{
+
+					return( getBytes( token ));
+				}
+				case T_INTEGER:{
+
+					return( getLong( token ));
+				}
+				case T_DICTIONARY:{
+
+					LightHashMap	map = new LightHashMap();
+
+					int	entries = field( token, F_COUNT ) / 2;
+					int	t		= token + 1;
+
+					for (int i=0;i<entries;i++){
+
+						String	key = getKey( t );
+
+						if ( map.put( key, materialize( t+1 )) != null ){
+
+							Debug.out( "BDecoder: key '" + key + "' already exists!" );
+						}
+
+						t = field( t+1, F_NEXT );
+					}
+
+					map.compactify( -0.9f );
+
+					return( map );
+				}
+				default:{
+
+					int	size	= field( token, F_COUNT );
+					int	t		= token + 1;
+
+					ArrayList	list = new ArrayList( size );
+
+					for (int i=0;i<size;i++){
+
+						list.add( materialize( t ));
+
+						t = field( t, F_NEXT );
+					}
+
+					return( list );
+				}
+			}
+		}
+	}
+
+	public static class
+	DictionaryView
+	{
+		private final Index		index;
+		private final int		token;
+
+		private
+		DictionaryView(
+			Index	_index,
+			int		_token )
+		{
+			index	= _index;
+			token	= _token;
+		}
+
+		public int
+		size()
+		{
+			return( index.field( token, F_COUNT ) / 2 );
+		}
+
+			/**
+			 * Offset of the 'd' of this dictionary in the data
+			 */
+
+		public int
+		getStart()
+		{
+			return( index.field( token, F_START ));
+		}
+
+			/**
+			 * Offset after the 'e' of this dictionary in the data
+			 */
+
+		public int
+		getEnd()
+		{
+			return( index.field( token, F_END ));
+		}
+
+		public byte[]
+		getEncoded()
+		{
+			int	start = getStart();
+
+			byte[]	res = new byte[ getEnd() - start ];
+
+			System.arraycopy( index.data, start, res, 0, res.length );
+
+			return( res );
+		}
+
+		public List<String>
+		getKeys()
+		{
+			int	entries = size();
+
+			List<String>	keys = new ArrayList<String>( entries );
+
+			int	t = token + 1;
+
+			for (int i=0;i<entries;i++){
+
+				keys.add( index.getKey( t ));
+
+				t = index.field( t+1, F_NEXT );
+			}
+
+			return( keys );
+		}
+
+			/**
+			 * Returns the value token of the key, the last one if the key is repeated
+			 * as the map of BDecoder keeps it, -1 if missing
+			 */
+
+		private int
+		find(
+			String	key )
+		{
+			int	entries = size();
+
+			int	t		= token + 1;
+			int	found	= -1;
+
+			for (int i=0;i<entries;i++){
+
+				if ( index.keyEquals( t, key )){
+
+					found = t + 1;
+				}
+
+				t = index.field( t+1, F_NEXT );
+			}
+
+			return( found );
+		}
+
+		public boolean
+		containsKey(
+			String	key )
+		{
+			return( find( key ) != -1 );
+		}
+
+		public Long
+		getLong(
+			String	key )
+		{
+			return( index.getLong( find( key )));
+		}
+
+		public byte[]
+		getBytes(
+			String	key )
+		{
+			return( index.getBytes( find( key )));
+		}
+
+		public DictionaryView
+		getDictionary(
+			String	key )
+		{
+			return( index.getDictionary( find( key )));
+		}
+
+		public ListView
+		getList(
+			String	key )
+		{
+			return( index.getList( find( key )));
+		}
+
+			/**
+			 * Returns the value as BDecoder would have decoded it, null if missing
+			 */
+
+		public Object
+		get(
+			String	key )
+		{
+			int	t = find( key );
+
+			return( t == -1 ? null : index.materialize( t ));
+		}
+
+		public Map
+		toMap()
+		{
+			return((Map)index.materialize( token ));
+		}
+	}
+
+		/**
+		 * The elements are reached from the previous one, walking the list in order
+		 * is linear. Not thread safe.
+		 */
+
+	public static class
+	ListView
+	{
+		private final Index		index;
+		private final int		token;
+
+		private int	cursor_pos		= 0;
+		private int	cursor_token;
+
+		private
+		ListView(
+			Index	_index,
+			int		_token )
+		{
+			index	= _index;
+			token	= _token;
+
+			cursor_token = token + 1;
+		}
+
+		public int
+		size()
+		{
+			return( index.field( token, F_COUNT ));
+		}
+
+		private int
+		find(
+			int		i )
+		{
+			if ( i < 0 || i >= size()){
+
+				throw( new IndexOutOfBoundsException( "Index: " + i + ", Size: " + size()));
+			}
+
+			if ( i < cursor_pos ){
+
+				cursor_pos		= 0;
+				cursor_token	= token + 1;
+			}
+
+			while( cursor_pos < i ){
+
+				cursor_token = index.field( cursor_token, F_NEXT );
+
+				cursor_pos++;
+			}
+
+			return( cursor_token );
+		}
+
+		public Long
+		getLong(
+			int		i )
+		{
+			return( index.getLong( find( i )));
+		}
+
+		public byte[]
+		getBytes(
+			int		i )
+		{
+			return( index.getBytes( find( i )));
+		}
+
+		public DictionaryView
+		getDictionary(
+			int		i )
+		{
+			return( index.getDictionary( find( i )));
+		}
+
+		public ListView
+		getList(
+			int		i )
+		{
+			return( index.getList( find( i )));
+		}
+
+		public Object
+		get(
+			int		i )
+		{
+			return( index.materialize( find( i )));
+		}
+
+		public List
+		toList()
+		{
+			return((List)index.materialize( token ));
+		}
+	}
+}
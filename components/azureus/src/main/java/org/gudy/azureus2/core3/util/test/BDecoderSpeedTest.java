@@ -0,0 +1,229 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.util.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.gudy.azureus2.core3.util.BDecoder;
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.LazyBDecoder;
+
+/**
+ * Compares BDecoder with LazyBDecoder on generated multi-file torrents, decoding
+ * the whole map and reading only the file list as the search crawl does.
+ *
+ * Usage: BDecoderSpeedTest [files] [pieces] [seconds per test]
+ */
+public class
+BDecoderSpeedTest
+{
+	private static long	sink;
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	num_files	= args.length > 0 ? Integer.parseInt( args[0] ) : 5000;
+		int	num_pieces	= args.length > 1 ? Integer.parseInt( args[1] ) : 50000;
+		int	seconds		= args.length > 2 ? Integer.parseInt( args[2] ) : 5;
+
+		final byte[]	torrent = createTorrent( num_files, num_pieces );
+
+		System.out.println( num_files + " files, " + num_pieces + " pieces, " + torrent.length/1024 + " KB" );
+
+		if ( !Arrays.equals( BEncoder.encode( BDecoder.decode( torrent )), BEncoder.encode( LazyBDecoder.decode( torrent ).toMap()))){
+
+			throw( new Exception( "decoded maps differ" ));
+		}
+
+		run( "BDecoder map",
+			seconds,
+			new Test()
+			{
+				public void
+				run()
+
+					throws Exception
+				{
+					sink += BDecoder.decode( torrent ).size();
+				}
+			});
+
+		run( "LazyBDecoder map",
+			seconds,
+			new Test()
+			{
+				public void
+				run()
+
+					throws Exception
+				{
+					sink += LazyBDecoder.decode( torrent ).toMap().size();
+				}
+			});
+
+		run( "BDecoder files",
+			seconds,
+			new Test()
+			{
+				public void
+				run()
+
+					throws Exception
+				{
+					Map		info	= (Map)BDecoder.decode( torrent ).get( "info" );
+					List	files	= (List)info.get( "files" );
+
+					for (int i=0;i<files.size();i++){
+
+						Map	file = (Map)files.get(i);
+
+						sink += ((Long)file.get( "length" )).longValue();
+						sink += ((List)file.get( "path" )).size();
+					}
+				}
+			});
+
+		run( "LazyBDecoder files",
+			seconds,
+			new Test()
+			{
+				public void
+				run()
+
+					throws Exception
+				{
+					LazyBDecoder.DictionaryView	info	= LazyBDecoder.decode( torrent ).getDictionary( "info" );
+					LazyBDecoder.ListView		files	= info.getList( "files" );
+
+					for (int i=0;i<files.size();i++){
+
+						LazyBDecoder.DictionaryView	file = files.getDictionary(i);
+
+						sink += file.getLong( "length" ).longValue();
+
+						LazyBDecoder.ListView	path = file.getList( "path" );
+
+						for (int j=0;j<path.size();j++){
+
+							sink += path.getBytes(j).length;
+						}
+					}
+				}
+			});
+
+		System.out.println( "(" + sink + ")" );
+	}
+
+	protected static void
+	run(
+		String		name,
+		int			seconds,
+		Test		test )
+
+		throws Exception
+	{
+			// warm up for a second, then measure
+
+		long	end = System.currentTimeMillis() + 1000;
+
+		while( System.currentTimeMillis() < end ){
+
+			test.run();
+		}
+
+		long	start	= System.nanoTime();
+		int		ops		= 0;
+
+		end = System.currentTimeMillis() + seconds*1000L;
+
+		while( System.currentTimeMillis() < end ){
+
+			test.run();
+
+			ops++;
+		}
+
+		long	elapsed = System.nanoTime() - start;
+
+		System.out.println( name + ": " + ( elapsed / ops / 1000 ) + " us/op (" + ops + " ops)" );
+	}
+
+	protected static byte[]
+	createTorrent(
+		int		num_files,
+		int		num_pieces )
+
+		throws Exception
+	{
+		Random	random = new Random( 0 );
+
+		List	files = new ArrayList();
+
+		for (int i=0;i<num_files;i++){
+
+			Map	file = new HashMap();
+
+			List	path = new ArrayList();
+
+			path.add(( "Folder " + ( i / 100 )).getBytes( "UTF-8" ));
+			path.add(( "Track " + i + " - Some Artist - Some Title.mp3" ).getBytes( "UTF-8" ));
+
+			file.put( "length", new Long( 1000000 + random.nextInt( 10000000 )));
+			file.put( "path", path );
+
+			files.add( file );
+		}
+
+		byte[]	pieces = new byte[ num_pieces * 20 ];
+
+		random.nextBytes( pieces );
+
+		Map	info = new HashMap();
+
+		info.put( "name", "Some Album".getBytes( "UTF-8" ));
+		info.put( "piece length", new Long( 256*1024 ));
+		info.put( "pieces", pieces );
+		info.put( "files", files );
+
+		Map	torrent = new HashMap();
+
+		torrent.put( "announce", "http://tracker.example.com/announce".getBytes( "UTF-8" ));
+		torrent.put( "creation date", new Long( System.currentTimeMillis() / 1000 ));
+		torrent.put( "info", info );
+
+		return( BEncoder.encode( torrent ));
+	}
+
+	protected interface
+	Test
+	{
+		public void
+		run()
+
+			throws Exception;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ *
+ */
+
+package org.gudy.azureus2.core3.util.test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gudy.azureus2.core3.disk.DiskManager;
+import org.gudy.azureus2.core3.util.DirectByteBuffer;
+import org.gudy.azureus2.core3.util.DirectByteBufferPool;
+
+import com.aelitis.azureus.core.stats.AzureusCoreStats;
+
+/**
+ * Allocates and frees buffers of the sizes used by peer messages, block writes
+ * and hash requests from many threads, each thread keeping a few buffers in flight.
+ *
+ * Usage: DirectByteBufferPoolTester [threads] [seconds]
+ */
+public class
+DirectByteBufferPoolTester
+{
+	private static final int[]	SIZES		= { 9, 13, 17, 68, 1024, 2048, DiskManager.BLOCK_SIZE, DiskManager.BLOCK_SIZE + 13, 64*1024 };
+	private static final int	IN_FLIGHT	= 8;
+
+	private final AtomicLong	ops	= new AtomicLong();
+
+	private volatile boolean	stopped;
+
+	public static void
+	main(
+		String[]	args )
+
+		throws Exception
+	{
+		int	num_threads	= args.length > 0 ? Integer.parseInt( args[0] ) : 16;
+		int	seconds		= args.length > 1 ? Integer.parseInt( args[1] ) : 10;
+
+		new DirectByteBufferPoolTester().run( num_threads, seconds );
+
+		System.exit( 0 );
+	}
+
+	protected void
+	run(
+		int		num_threads,
+		int		seconds )
+
+		throws Exception
+	{
+		for (int i=0;i<num_threads;i++){
+
+			final int	seed = i;
+
+			Thread t =
+				new Thread( "DirectByteBufferPoolTester:" + i )
+				{
+					public void
+					run()
+					{
+						exercise( new Random( seed ));
+					}
+				};
+
+			t.setDaemon( true );
+			t.start();
+		}
+
+		long	start	= System.currentTimeMillis();
+		long	last	= 0;
+
+		for (int i=0;i<seconds;i++){
+
+			Thread.sleep( 1000 );
+
+			long	now = ops.get();
+
+			System.out.println( (i+1) + "s: " + (now-last) + " get/free per sec" );
+
+			last = now;
+		}
+
+		stopped = true;
+
+		long	elapsed = System.currentTimeMillis() - start;
+
+		System.out.println( num_threads + " threads: " + (ops.get()*1000/elapsed) + " get/free per sec" );
+
+		Set	types = new HashSet();
+
+		types.add( AzureusCoreStats.ST_MEMORY );
+
+		Map	stats = new TreeMap( AzureusCoreStats.getStats( types ));
+
+		Iterator	it = stats.entrySet().iterator();
+
+		while( it.hasNext()){
+
+			Map.Entry	entry = (Map.Entry)it.next();
+
+			System.out.println( "    " + entry.getKey() + " -> " + entry.getValue());
+		}
+	}
+
+	protected void
+	exercise(
+		Random		random )
+	{
+		DirectByteBuffer[]	in_flight = new DirectByteBuffer[IN_FLIGHT];
+
+		long	count = 0;
+
+		while( !stopped ){
+
+			int	slot = random.nextInt( IN_FLIGHT );
+
+			if ( in_flight[slot] != null ){
+
+				in_flight[slot].returnToPool();
+			}
+
+			in_flight[slot] = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_NET_CRYPT, SIZES[ random.nextInt( SIZES.length )]);
+
+			if ( ++count == 1024 ){
+
+				ops.addAndGet( count );
+
+				count = 0;
+			}
+		}
+	}
+}
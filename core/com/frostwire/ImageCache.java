@@ -20,21 +20,45 @@ package com.frostwire;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.OSUtils;
 
 import com.limegroup.gnutella.settings.SharingSettings;
 import com.limegroup.gnutella.util.FrostWireUtils;
 
 /**
+ * Two levels cache of images. The decoded images are kept in memory in a LRU
+ * bounded by the size of the pixels, and the downloaded bytes are kept verbatim
+ * on disk, with the least recently used files evicted when the directory grows
+ * too big.
+ * 
+ * The downloads run in a small pool, and the concurrent requests of the same
+ * image wait for the same download.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -43,6 +67,12 @@ public class ImageCache {
 
     private static final Log LOG = LogFactory.getLog(ImageCache.class);
 
+    private static final int LOADER_THREADS = 4;
+
+    private static final long MAX_MEMORY_WEIGHT = Math.min(32 * 1024 * 1024, Runtime.getRuntime().maxMemory() / 16);
+
+    private static final long MAX_DISK_SIZE = 64 * 1024 * 1024;
+
     private static ImageCache instance;
 
     public synchronized static ImageCache instance() {
@@ -52,10 +82,49 @@ public class ImageCache {
         return instance;
     }
 
+    private final ExecutorService loader;
+
+    private final LinkedHashMap<String, BufferedImage> memory;
+    private long memoryWeight;
+
+    /**
+     * The listeners of the images being downloaded.
+     */
+    private final Map<String, List<OnLoadedListener>> pending;
+
+    private long diskSize;
+
+    private final AtomicLong memoryHits;
+    private final AtomicLong diskHits;
+    private final AtomicLong misses;
+    private final AtomicLong coalesced;
+    private final AtomicLong decodes;
+    private final AtomicLong decodeTime;
+
     private ImageCache() {
+        this.loader = ExecutorsHelper.newFixedSizeThreadPool(LOADER_THREADS, "ImageCache-Loader");
+        this.memory = new LinkedHashMap<String, BufferedImage>(64, 0.75f, true);
+        this.pending = new HashMap<String, List<OnLoadedListener>>();
+        this.diskSize = -1;
+
+        this.memoryHits = new AtomicLong();
+        this.diskHits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.coalesced = new AtomicLong();
+        this.decodes = new AtomicLong();
+        this.decodeTime = new AtomicLong();
     }
 
     public BufferedImage getImage(URL url, OnLoadedListener listener) {
+        BufferedImage image = getFromMemory(url);
+        if (image != null) {
+            memoryHits.incrementAndGet();
+            if (listener != null) {
+                listener.onLoaded(url, image, true, false);
+            }
+            return image;
+        }
+
         if (isCached(url)) {
             return loadFromCache(url, listener);
         } else if (!url.getProtocol().equals("http")) {
@@ -66,6 +135,36 @@ public class ImageCache {
         }
     }
 
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of requests that waited for the download of another request.
+     */
+    public long getCoalescedRequests() {
+        return coalesced.get();
+    }
+
+    public long getDecodes() {
+        return decodes.get();
+    }
+
+    /**
+     * Total time decoding images, in nanoseconds.
+     */
+    public long getDecodeTime() {
+        return decodeTime.get();
+    }
+
     private File getCacheFile(URL url) {
         String host = url.getHost();
         String path = url.getPath();
@@ -102,7 +201,10 @@ public class ImageCache {
     private BufferedImage loadFromCache(URL url, OnLoadedListener listener) {
         try {
             File file = getCacheFile(url);
-            BufferedImage image = ImageIO.read(file);
+            BufferedImage image = decode(file);
+            diskHits.incrementAndGet();
+            file.setLastModified(System.currentTimeMillis()); // last access, for the eviction
+            putInMemory(url, image);
             listener.onLoaded(url, image, true, false);
             return image;
         } catch (Throwable e) {
@@ -117,8 +219,11 @@ public class ImageCache {
 
     private BufferedImage loadFromResource(URL url, OnLoadedListener listener) {
         try {
-            BufferedImage image = ImageIO.read(url);
-            saveToCache(url, image, 0);
+            misses.incrementAndGet();
+            byte[] data = readResource(url);
+            BufferedImage image = decode(data);
+            saveToCache(url, data);
+            putInMemory(url, image);
             listener.onLoaded(url, image, false, false);
             return image;
         } catch (Throwable e) {
@@ -129,12 +234,26 @@ public class ImageCache {
     }
 
     private void loadFromUrl(final URL url, final OnLoadedListener listener) {
-        // TODO: may be I must use BackgroundExecutorService
-        new Thread(new Runnable() {
+        final String key = url.toString();
+
+        synchronized (pending) {
+            List<OnLoadedListener> listeners = pending.get(key);
+            if (listeners != null) {
+                coalesced.incrementAndGet();
+                listeners.add(listener);
+                return;
+            }
+            listeners = new ArrayList<OnLoadedListener>(2);
+            listeners.add(listener);
+            pending.put(key, listeners);
+        }
+
+        misses.incrementAndGet();
+
+        loader.execute(new Runnable() {
             public void run() {
+                BufferedImage image = null;
                 try {
-                    BufferedImage image = null;
-
                     String userAgent = "FrostWire/" + OSUtils.getOS() + "/" + FrostWireUtils.getFrostWireVersion();
                     HttpFetcher fetcher = new HttpFetcher(url.toURI(), userAgent);
                     Object[] result = fetcher.fetch(false);
@@ -144,44 +263,204 @@ public class ImageCache {
                     }
 
                     byte[] data = (byte[]) result[0];
-                    long date = (Long) result[1];
                     if (data != null) {
-                        image = ImageIO.read(new ByteArrayInputStream(data));
-                        saveToCache(url, image, date);
-                    }
-                    if (listener != null && image != null) {
-                        listener.onLoaded(url, image, false, false);
+                        image = decode(data);
+                        if (image != null) {
+                            saveToCache(url, data);
+                            putInMemory(url, image);
+                        }
                     }
                 } catch (Throwable e) {
                     LOG.error("Failed to load image from: " + url, e);
-                    listener.onLoaded(url, null, false, true);
+                }
+
+                List<OnLoadedListener> listeners;
+                synchronized (pending) {
+                    listeners = pending.remove(key);
+                }
+                for (OnLoadedListener l : listeners) {
+                    if (l == null) {
+                        continue;
+                    }
+                    try {
+                        if (image != null) {
+                            l.onLoaded(url, image, false, false);
+                        } else {
+                            l.onLoaded(url, null, false, true);
+                        }
+                    } catch (Throwable e) {
+                        LOG.error("Error notifying image loaded: " + url, e);
+                    }
                 }
             }
-        }).start();
+        });
     }
 
-    private void saveToCache(URL url, BufferedImage image, long date) {
+    private BufferedImage decode(byte[] data) throws IOException {
+        long start = System.nanoTime();
         try {
-            File file = getCacheFile(url);
+            return ImageIO.read(new ByteArrayInputStream(data));
+        } finally {
+            decoded(start);
+        }
+    }
+
+    private BufferedImage decode(File file) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return ImageIO.read(file);
+        } finally {
+            decoded(start);
+        }
+    }
 
-            if (file.exists()) {
-                file.delete();
+    private void decoded(long start) {
+        decodes.incrementAndGet();
+        decodeTime.addAndGet(System.nanoTime() - start);
+    }
+
+    private static byte[] readResource(URL url) throws IOException {
+        InputStream is = url.openStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+            byte[] buffer = new byte[8 * 1024];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                bytes.write(buffer, 0, n);
             }
+            return bytes.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
 
-            String filename = file.getName();
-            int dotIndex = filename.lastIndexOf('.');
-            String ext = filename.substring(dotIndex + 1);
+    private BufferedImage getFromMemory(URL url) {
+        synchronized (memory) {
+            return memory.get(url.toString());
+        }
+    }
 
-            String formatName = ImageIO.getImageReadersBySuffix(ext).next().getFormatName();
+    private void putInMemory(URL url, BufferedImage image) {
+        if (image == null) {
+            return;
+        }
+
+        long weight = weight(image);
+        if (weight > MAX_MEMORY_WEIGHT / 4) { // too big to keep
+            return;
+        }
+
+        synchronized (memory) {
+            BufferedImage old = memory.put(url.toString(), image);
+            if (old != null) {
+                memoryWeight -= weight(old);
+            }
+            memoryWeight += weight;
+
+            Iterator<BufferedImage> it = memory.values().iterator();
+            while (memoryWeight > MAX_MEMORY_WEIGHT && it.hasNext()) {
+                memoryWeight -= weight(it.next());
+                it.remove();
+            }
+        }
+    }
+
+    private static long weight(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    /**
+     * The bytes are saved as downloaded, no need to encode the image again.
+     * They are written to a temporary file first, a reader never sees a
+     * partial image under the final name.
+     */
+    private void saveToCache(URL url, byte[] data) {
+        File tmp = null;
+        try {
+            File file = getCacheFile(url);
 
             if (!file.getParentFile().exists()) {
-                file.mkdirs();
+                file.getParentFile().mkdirs();
+            }
+
+            tmp = File.createTempFile("image", ".tmp", file.getParentFile());
+
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                fos.write(data);
+            } finally {
+                fos.close();
             }
-            ImageIO.write(image, formatName, file);
-            file.setLastModified(date);
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+
+            evictFromDisk(data.length);
         } catch (Throwable e) {
             LOG.error("Failed to save image to cache: " + url, e);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the directory is under
+     * three quarters of the max size.
+     */
+    private synchronized void evictFromDisk(long added) {
+        if (diskSize == -1) {
+            diskSize = 0;
+            for (File f : listFiles(SharingSettings.getImageCacheDirectory(), new ArrayList<File>())) {
+                diskSize += f.length();
+            }
+        } else {
+            diskSize += added;
+        }
+
+        if (diskSize <= MAX_DISK_SIZE) {
+            return;
+        }
+
+        List<File> files = listFiles(SharingSettings.getImageCacheDirectory(), new ArrayList<File>());
+        File[] sorted = files.toArray(new File[files.size()]);
+
+        // the last modified time is read once, the files can be touched while sorting
+        final Map<File, Long> times = new HashMap<File, Long>();
+        diskSize = 0;
+        for (File f : sorted) {
+            times.put(f, f.lastModified());
+            diskSize += f.length();
+        }
+        Arrays.sort(sorted, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long x = times.get(a);
+                long y = times.get(b);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < sorted.length && diskSize > MAX_DISK_SIZE * 3 / 4; i++) {
+            long length = sorted[i].length();
+            if (sorted[i].delete()) {
+                diskSize -= length;
+            }
+        }
+    }
+
+    private static List<File> listFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    listFiles(child, files);
+                } else {
+                    files.add(child);
+                }
+            }
         }
+        return files;
     }
 
     public interface OnLoadedListener {
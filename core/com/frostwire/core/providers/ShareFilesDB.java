@@ -18,6 +18,9 @@
 
 package com.frostwire.core.providers;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import com.frostwire.content.ContentValues;
@@ -25,6 +28,7 @@ import com.frostwire.content.Context;
 import com.frostwire.core.Constants;
 import com.frostwire.database.Cursor;
 import com.frostwire.database.sqlite.SQLiteDatabase;
+import com.frostwire.database.sqlite.SQLiteException;
 import com.frostwire.database.sqlite.SQLiteOpenHelper;
 import com.frostwire.database.sqlite.SQLiteQueryBuilder;
 import com.frostwire.text.TextUtils;
@@ -44,10 +48,18 @@ public final class ShareFilesDB {
 
     private static final String TABLE_NAME = "ShareFiles";
 
+    private static final int MAX_PATHS_PER_STATEMENT = 500;
+
     public static final String DEFAULT_SORT_ORDER = Columns.DATE_ADDED + " DESC";
 
     private final DatabaseHelper databaseHelper;
 
+    /**
+     * Incremented after every change of the table, readers can cache what
+     * they get from a query while the version is the same.
+     */
+    private final AtomicLong version;
+
     private static ShareFilesDB instance = new ShareFilesDB();
 
     public static ShareFilesDB intance() {
@@ -56,6 +68,11 @@ public final class ShareFilesDB {
 
     private ShareFilesDB() {
         databaseHelper = new DatabaseHelper(new Context());
+        version = new AtomicLong();
+    }
+
+    public long getVersion() {
+        return version.get();
     }
 
     public Cursor query(String[] projection, String selection, String[] selectionArgs, String sortOrder) {
@@ -89,8 +106,138 @@ public final class ShareFilesDB {
             values = new ContentValues();
         }
 
+        fillDefaults(values, Long.valueOf(System.currentTimeMillis() / 1000));
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        long id = db.insert(TABLE_NAME, "", values);
+
+        version.incrementAndGet();
+
+        return id;
+    }
+
+    /**
+     * Inserts all the rows in a single transaction, with one batch statement.
+     * The existing rows of the same file paths are replaced.
+     * 
+     * The values are completed in place with the defaults of the missing columns.
+     * 
+     * @return the number of rows inserted
+     */
+    public int bulkInsert(ContentValues[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+
         Long now = Long.valueOf(System.currentTimeMillis() / 1000);
 
+        String[] filePaths = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            fillDefaults(values[i], now);
+            filePaths[i] = values[i].getAsString(Columns.FILE_PATH);
+        }
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int count;
+
+        db.beginTransaction();
+        try {
+            deleteFilePaths(db, filePaths);
+            count = db.insertBatch(TABLE_NAME, values);
+            if (count == -1) {
+                throw new SQLiteException("Error inserting " + values.length + " rows");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            version.incrementAndGet();
+        }
+
+        return count;
+    }
+
+    /**
+     * Deletes the rows of all the file paths in a single transaction.
+     * 
+     * @return the number of rows deleted
+     */
+    public int bulkDelete(String[] filePaths) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int count;
+
+        db.beginTransaction();
+        try {
+            count = deleteFilePaths(db, filePaths);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            version.incrementAndGet();
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the size, modification date and shared state stored for the file paths.
+     * 
+     * @return map of file path to {size, date modified, shared (1 or 0)}, only the
+     *         file paths with a row are in the map
+     */
+    public Map<String, long[]> getFileStates(String[] filePaths) {
+        Map<String, long[]> states = new HashMap<String, long[]>();
+
+        String[] columns = new String[] { Columns.FILE_PATH, Columns.FILE_SIZE, Columns.DATE_MODIFIED, Columns.SHARED };
+
+        for (int offset = 0; offset < filePaths.length; offset += MAX_PATHS_PER_STATEMENT) {
+            String[] args = chunk(filePaths, offset);
+
+            Cursor c = query(columns, inFilePaths(args.length), args, Columns.ID);
+            if (c == null) {
+                continue;
+            }
+
+            try {
+                while (c.moveToNext()) {
+                    long shared = c.getBoolean(4) ? 1 : 0;
+                    states.put(c.getString(1), new long[] { c.getLong(2), c.getLong(3), shared });
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        return states;
+    }
+
+    public int delete(String where, String[] whereArgs) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int count = db.delete(TABLE_NAME, where, whereArgs);
+
+        if (count != 0) {
+            version.incrementAndGet();
+        }
+
+        return count;
+    }
+
+    public int update(ContentValues values, String where, String[] whereArgs) {
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int count = db.update(TABLE_NAME, values, where, whereArgs);
+
+        if (count != 0) {
+            version.incrementAndGet();
+        }
+
+        return count;
+    }
+
+    private static void fillDefaults(ContentValues values, Long now) {
         if (values.containsKey(Columns.FILE_TYPE) == false) {
             values.put(Columns.FILE_TYPE, Constants.FILE_TYPE_DOCUMENTS);
         }
@@ -134,27 +281,38 @@ public final class ShareFilesDB {
         if (values.containsKey(Columns.YEAR) == false) {
             values.put(Columns.YEAR, "");
         }
-
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-        return db.insert(TABLE_NAME, "", values);
     }
 
-    public int delete(String where, String[] whereArgs) {
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    private static int deleteFilePaths(SQLiteDatabase db, String[] filePaths) {
+        int count = 0;
 
-        int count = db.delete(TABLE_NAME, where, whereArgs);
+        for (int offset = 0; offset < filePaths.length; offset += MAX_PATHS_PER_STATEMENT) {
+            String[] args = chunk(filePaths, offset);
+
+            int n = db.delete(TABLE_NAME, inFilePaths(args.length), args);
+            if (n == -1) {
+                throw new SQLiteException("Error deleting " + args.length + " rows");
+            }
+            count += n;
+        }
 
         return count;
     }
 
-    public int update(ContentValues values, String where, String[] whereArgs) {
-
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-        int count = db.update(TABLE_NAME, values, where, whereArgs);
+    private static String[] chunk(String[] filePaths, int offset) {
+        String[] args = new String[Math.min(MAX_PATHS_PER_STATEMENT, filePaths.length - offset)];
+        System.arraycopy(filePaths, offset, args, 0, args.length);
+        return args;
+    }
 
-        return count;
+    private static String inFilePaths(int n) {
+        StringBuilder sb = new StringBuilder(Columns.FILE_PATH.length() + 6 + n * 2);
+        sb.append(Columns.FILE_PATH).append(" IN (");
+        for (int i = 0; i < n; i++) {
+            sb.append(i > 0 ? ",?" : "?");
+        }
+        sb.append(')');
+        return sb.toString();
     }
 
     public static final class Columns {
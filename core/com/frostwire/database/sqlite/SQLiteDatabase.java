@@ -19,10 +19,13 @@
 package com.frostwire.database.sqlite;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,10 +44,17 @@ public class SQLiteDatabase {
     private static final Logger LOG = Logger.getLogger(SQLiteDatabase.class.getName());
 
     private String path;
-    private Connection connection;
+    private volatile Connection connection;
 
     private final AtomicBoolean open = new AtomicBoolean(false);
 
+    private final ReentrantLock transactionLock = new ReentrantLock();
+    private boolean transactionSuccessful;
+
+    // queries share it, compaction and close take it exclusively to replace the
+    // connection, always taken after the transaction lock
+    private final ReentrantReadWriteLock connectionLock = new ReentrantReadWriteLock();
+
     static {
         try {
             Class.forName("org.h2.Driver");
@@ -89,6 +99,7 @@ public class SQLiteDatabase {
         PreparedStatement statement = null;
         ResultSet resultSet = null;
 
+        connectionLock.readLock().lock();
         try {
             synchronized (connection) {
                 statement = prepareStatement(connection, sql, (Object[]) selectionArgs);
@@ -99,6 +110,8 @@ public class SQLiteDatabase {
             }
         } catch (Throwable e) {
             LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
+        } finally {
+            connectionLock.readLock().unlock();
         }
 
         return cursor;
@@ -225,6 +238,77 @@ public class SQLiteDatabase {
         return executeSql(sql.toString(), bindArgs);
     }
 
+    /**
+     * Inserts all the rows with a single prepared statement executed as a
+     * batch. The columns are the keys of the first row, the other rows
+     * must have values for the same columns.
+     * <p>
+     * Use it inside a transaction to commit all the rows at once.
+     * </p>
+     *
+     * @param table the table to insert the rows into
+     * @param values the column values of the rows
+     * @return the number of rows inserted, or -1 if an error occurred
+     */
+    public int insertBatch(String table, ContentValues[] values) {
+        verifyDbIsOpen();
+
+        if (values == null || values.length == 0) {
+            return 0;
+        }
+
+        String[] columns = values[0].keySet().toArray(new String[0]);
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("Empty values");
+        }
+
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO ");
+        sql.append(table);
+        sql.append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? "," : "");
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append((i > 0) ? ",?" : "?");
+        }
+        sql.append(')');
+
+        PreparedStatement statement = null;
+        transactionLock.lock();
+        try {
+            synchronized (connection) {
+                statement = connection.prepareStatement(sql.toString());
+
+                for (ContentValues v : values) {
+                    for (int i = 0; i < columns.length; i++) {
+                        statement.setObject(i + 1, v.get(columns[i]));
+                    }
+                    statement.addBatch();
+                }
+
+                int count = 0;
+                for (int n : statement.executeBatch()) {
+                    count += n > 0 ? n : (n == Statement.SUCCESS_NO_INFO ? 1 : 0);
+                }
+                return count;
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error performing SQL batch statement: " + sql, e);
+            return -1;
+        } finally {
+            transactionLock.unlock();
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (Throwable e) {
+                }
+            }
+        }
+    }
+
     /**
      * Convenience method for deleting rows in the database.
      *
@@ -288,6 +372,75 @@ public class SQLiteDatabase {
         return executeSql(sql.toString(), bindArgs);
     }
 
+    /**
+     * Begins a transaction. Transactions can't be nested, and the
+     * statements executed by other threads that modify the database
+     * wait until the transaction ends.
+     * <p>
+     * Here is the standard idiom for transactions:
+     *
+     * <pre>
+     *   db.beginTransaction();
+     *   try {
+     *     ...
+     *     db.setTransactionSuccessful();
+     *   } finally {
+     *     db.endTransaction();
+     *   }
+     * </pre>
+     */
+    public void beginTransaction() {
+        verifyDbIsOpen();
+
+        transactionLock.lock();
+        try {
+            synchronized (connection) {
+                connection.setAutoCommit(false);
+            }
+            transactionSuccessful = false;
+        } catch (Throwable e) {
+            transactionLock.unlock();
+            throw new SQLiteException("Error starting transaction: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Marks the current transaction as successful, the changes are
+     * committed by {@link #endTransaction()}.
+     */
+    public void setTransactionSuccessful() {
+        if (!transactionLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("No transaction pending");
+        }
+        transactionSuccessful = true;
+    }
+
+    /**
+     * End a transaction, committing the changes if it was marked as
+     * successful or rolling them back otherwise.
+     */
+    public void endTransaction() {
+        if (!transactionLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("No transaction pending");
+        }
+
+        try {
+            synchronized (connection) {
+                if (transactionSuccessful) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+                connection.setAutoCommit(true);
+            }
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error ending transaction", e);
+        } finally {
+            transactionSuccessful = false;
+            transactionLock.unlock();
+        }
+    }
+
     /**
      * @return true if the DB is currently open (has not been closed)
      */
@@ -297,18 +450,52 @@ public class SQLiteDatabase {
 
     public void close() {
         if (open.compareAndSet(true, false)) {
+            connectionLock.writeLock().lock();
             try {
                 Statement statement = connection.createStatement();
                 statement.execute("SHUTDOWN");
                 connection.close();
             } catch (Throwable e) {
                 LOG.log(Level.WARNING, "Error closing the smart search database", e);
+            } finally {
+                connectionLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Closes the database compacting the file and opens it again with the
+     * given url. Queries and statements of other threads wait for the
+     * operation to finish, cursors opened before are invalid.
+     */
+    void compact(String url) {
+        verifyDbIsOpen();
+
+        transactionLock.lock();
+        connectionLock.writeLock().lock();
+        try {
+            synchronized (connection) {
+                try {
+                    Statement statement = connection.createStatement();
+                    statement.execute("SHUTDOWN COMPACT");
+                    connection.close();
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error compacting the database " + path, e);
+                }
+
+                connection = DriverManager.getConnection(url, "SA", "");
             }
+        } catch (Throwable e) {
+            LOG.log(Level.SEVERE, "Error opening the database after compaction " + path, e);
+        } finally {
+            connectionLock.writeLock().unlock();
+            transactionLock.unlock();
         }
     }
 
     private int executeSql(String sql, Object[] bindArgs) throws SQLException {
         PreparedStatement statement = null;
+        transactionLock.lock();
         try {
             synchronized (connection) {
                 statement = prepareStatement(connection, sql.toString(), bindArgs);
@@ -319,6 +506,7 @@ public class SQLiteDatabase {
             LOG.log(Level.WARNING, "Error performing SQL statement: " + sql, e);
             return -1;
         } finally {
+            transactionLock.unlock();
             if (statement != null) {
                 try {
                     statement.close();
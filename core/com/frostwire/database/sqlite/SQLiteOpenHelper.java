@@ -39,6 +39,8 @@ public abstract class SQLiteOpenHelper {
     private final String dbpath;
     private final SQLiteDatabase db;
 
+    private String url;
+
     public SQLiteOpenHelper(Context context, String name, CursorFactory factory, int version) {
         this(context, name, factory, version, null);
     }
@@ -56,6 +58,13 @@ public abstract class SQLiteOpenHelper {
         return db;
     }
 
+    /**
+     * Compacts the database file, see {@link SQLiteDatabase#compact(String)}.
+     */
+    public synchronized void compact() {
+        db.compact(url);
+    }
+
     /**
      * Called when the database is created for the first time. This is where the
      * creation of tables and the initial population of the tables should happen.
@@ -121,7 +130,8 @@ public abstract class SQLiteOpenHelper {
 
             boolean create = !(new File(folderpath).exists());
 
-            Connection connection = DriverManager.getConnection(sb.toString(), "SA", "");
+            url = sb.toString();
+            Connection connection = DriverManager.getConnection(url, "SA", "");
             SQLiteDatabase db = new SQLiteDatabase(fullpath, connection);
 
             if (create) {
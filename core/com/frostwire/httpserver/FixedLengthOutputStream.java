@@ -28,6 +28,7 @@ package com.frostwire.httpserver;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * a class which allows the caller to write up to a defined
@@ -77,6 +78,29 @@ public class FixedLengthOutputStream extends FilterOutputStream {
         remaining -= len;
     }
 
+    /**
+     * Writes count bytes of the file from position, without copies
+     * if the underlying stream is the socket.
+     */
+    public void transferFrom(FileChannel src, long position, long count) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        eof = (remaining == 0);
+        if (eof) {
+            throw new StreamClosedException();
+        }
+        if (count > remaining) {
+            throw new IOException("too many bytes to write to stream");
+        }
+        if (out instanceof Request.WriteStream) {
+            ((Request.WriteStream) out).transferFrom(src, position, count);
+        } else {
+            HttpExchange.copy(src, position, count, out);
+        }
+        remaining -= count;
+    }
+
     public void close() throws IOException {
         if (closed) {
             return;
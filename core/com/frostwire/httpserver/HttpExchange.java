@@ -33,6 +33,8 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -184,6 +186,35 @@ public class HttpExchange {
         return uos;
     }
 
+    /**
+     * Writes count bytes of the file from position to the response body.
+     * For a fixed length response the bytes go from the file to the socket
+     * without copies in the java heap.
+     */
+    public void transferResponseBody(FileChannel src, long position, long count) throws IOException {
+        OutputStream os = getResponseBody();
+        if (os == uos_orig && uos_orig.wrapped instanceof FixedLengthOutputStream) {
+            ((FixedLengthOutputStream) uos_orig.wrapped).transferFrom(src, position, count);
+        } else {
+            copy(src, position, count, os);
+        }
+    }
+
+    static void copy(FileChannel src, long position, long count, OutputStream os) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(count, 64 * 1024));
+        long n = 0;
+        while (n < count) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), count - n));
+            int r = src.read(buf, position + n);
+            if (r < 0) {
+                throw new IOException("file shorter than expected");
+            }
+            os.write(buf.array(), 0, r);
+            n += r;
+        }
+    }
+
     /* returns the place holder stream, which is the stream
      * returned from the 1st call to getResponseBody()
      * The "real" ouputstream is then placed inside this
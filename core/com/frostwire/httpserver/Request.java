@@ -25,12 +25,14 @@
 
 package com.frostwire.httpserver;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
@@ -417,6 +419,29 @@ public class Request {
             }
         }
 
+        /**
+         * Sends count bytes of the file from position straight to the socket,
+         * with FileChannel.transferTo the kernel copies the bytes without
+         * going through the java heap.
+         */
+        public synchronized long transferFrom(FileChannel src, long position, long count) throws IOException {
+            if (closed)
+                throw new IOException("stream is closed");
+
+            long sent = 0;
+            while (sent < count) {
+                long n = src.transferTo(position + sent, count - sent, channel);
+                if (n > 0) {
+                    sent += n;
+                } else {
+                    if (position + sent >= src.size())
+                        throw new EOFException("file shorter than expected");
+                    block();
+                }
+            }
+            return sent;
+        }
+
         void block() throws IOException {
             long currtime = server.getTime();
             long maxtime = currtime + writeTimeout;
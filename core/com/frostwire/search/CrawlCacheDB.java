@@ -18,6 +18,7 @@
 
 package com.frostwire.search;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.commons.io.FileUtils;
@@ -52,7 +53,7 @@ public final class CrawlCacheDB {
 
     private static final String DATABASE_NAME = "crawldb";
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     private static final String TABLE_NAME = "CacheData";
 
@@ -112,6 +113,112 @@ public final class CrawlCacheDB {
         return db.insert(TABLE_NAME, "", values);
     }
 
+    /**
+     * Inserts all the rows in a single transaction.
+     * 
+     * @return the number of rows inserted
+     */
+    public int bulkInsert(ContentValues[] values) {
+        Long now = Long.valueOf(System.currentTimeMillis() / 1000);
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int count = 0;
+
+        db.beginTransaction();
+        try {
+            for (ContentValues v : values) {
+                if (v.containsKey(Columns.DATE_ADDED) == false) {
+                    v.put(Columns.DATE_ADDED, now);
+                }
+                if (db.insert(TABLE_NAME, "", v) > 0) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the number of rows and the sum of the data sizes
+     */
+    public long[] getTotals() {
+        long[] totals = new long[] { 0, 0 };
+
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+
+        String sql = "SELECT COUNT(" + Columns.ID + "), SUM(" + Columns.SIZE + ") FROM " + TABLE_NAME;
+        Cursor c = db.rawQueryWithFactory(null, sql, null, TABLE_NAME);
+
+        if (c != null) {
+            try {
+                if (c.moveToNext()) {
+                    totals[0] = c.getLong(1);
+                    totals[1] = c.getLong(2);
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        return totals;
+    }
+
+    /**
+     * Deletes up to limit rows, the oldest first, of the rows added before the given date.
+     * 
+     * @param dateAdded in seconds
+     * @return the number of rows and the sum of the data sizes deleted
+     */
+    public long[] deleteOldest(long dateAdded, int limit) {
+        long[] deleted = new long[] { 0, 0 };
+        long maxId = -1;
+
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        String sql = "SELECT " + Columns.ID + ", " + Columns.SIZE + " FROM " + TABLE_NAME + " WHERE " + Columns.DATE_ADDED + " < ? ORDER BY " + Columns.ID + " LIMIT " + limit;
+        Cursor c = db.rawQueryWithFactory(null, sql, new String[] { String.valueOf(dateAdded) }, TABLE_NAME);
+
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    maxId = c.getLong(1);
+                    deleted[0]++;
+                    deleted[1] += c.getLong(2);
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        if (maxId != -1) {
+            // ids grow with the date, this deletes exactly the selected rows
+            String where = Columns.ID + " <= ? AND " + Columns.DATE_ADDED + " < ?";
+            db.delete(TABLE_NAME, where, new String[] { String.valueOf(maxId), String.valueOf(dateAdded) });
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Size of the database file.
+     */
+    public long getFileSize() {
+        return new File(databaseHelper.getReadableDatabase().getPath() + ".h2.db").length();
+    }
+
+    /**
+     * Compacts the database file, the space of the deleted rows is not
+     * given back to the file system otherwise.
+     */
+    public void compact() {
+        databaseHelper.compact();
+    }
+
     public int delete(String where, String[] whereArgs) {
         SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
@@ -137,6 +244,7 @@ public final class CrawlCacheDB {
         public static final String ID = "id";
         public static final String KEY = "key";
         public static final String DATA = "data";
+        public static final String SIZE = "size";
         public static final String DATE_ADDED = "dateAdded";
     }
 
@@ -160,12 +268,15 @@ public final class CrawlCacheDB {
                 }
             }
 
+            deleteOldVersions(db);
+
             db.execSQL("SET IGNORECASE TRUE");
 
-            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.DATE_ADDED + " BIGINT" + ");");
+            db.execSQL("CREATE TABLE " + TABLE_NAME + " (" + Columns.ID + " INTEGER IDENTITY," + Columns.KEY + " VARCHAR," + Columns.DATA + " BINARY," + Columns.SIZE + " INTEGER," + Columns.DATE_ADDED + " BIGINT" + ");");
 
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.ID + " ON " + TABLE_NAME + " (" + Columns.ID + ")");
             db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.KEY + " ON " + TABLE_NAME + " (" + Columns.KEY + ")");
+            db.execSQL("CREATE INDEX idx_" + TABLE_NAME + "_" + Columns.DATE_ADDED + " ON " + TABLE_NAME + " (" + Columns.DATE_ADDED + ")");
         }
 
         @Override
@@ -174,5 +285,22 @@ public final class CrawlCacheDB {
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
             onCreate(db);
         }
+
+        /**
+         * Every version lives in its own folder, the old ones are never opened again.
+         */
+        private void deleteOldVersions(SQLiteDatabase db) {
+            File parent = new File(db.getPath()).getParentFile().getParentFile();
+            for (int version = 1; version < DATABASE_VERSION; version++) {
+                File folder = new File(parent, DATABASE_NAME + "." + version);
+                if (folder.exists()) {
+                    try {
+                        FileUtils.deleteDirectory(folder);
+                    } catch (IOException e) {
+                        LOG.warn("Unable to delete old crawl cache database: " + folder);
+                    }
+                }
+            }
+        }
     }
 }
@@ -17,14 +17,35 @@
 
 package com.frostwire.search;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.frostwire.content.ContentValues;
 import com.frostwire.database.Cursor;
 import com.frostwire.search.CrawlCacheDB.Columns;
+import com.limegroup.gnutella.settings.SearchSettings;
 
 /**
+ * Crawl cache stored in the crawl database.
+ * 
+ * The number of items and bytes are kept in memory. A background sweeper
+ * deletes in batches the expired items and the oldest ones over the
+ * maximum size, and compacts the database file when too much space is
+ * wasted.
  * 
  * @author gubatron
  * @author aldenml
@@ -34,10 +55,40 @@ public class DatabaseCrawlCache implements CrawlCache {
 
     private static final Logger LOG = LoggerFactory.getLogger(DatabaseCrawlCache.class);
 
+    private static final long SWEEP_INITIAL_DELAY = 60; // seconds
+    private static final long SWEEP_INTERVAL = 10 * 60; // seconds
+    private static final int SWEEP_BATCH_SIZE = 500;
+    private static final long SWEEP_BATCH_PAUSE = 100; // milliseconds
+    private static final long MIN_COMPACT_WASTE = 64 * 1024 * 1024;
+    private static final int QUERY_BATCH_SIZE = 500; // under the sqlite limit of arguments
+
     private CrawlCacheDB db;
 
+    private final AtomicLong count;
+    private final AtomicLong bytes;
+
     public DatabaseCrawlCache() {
         db = CrawlCacheDB.intance();
+
+        long[] totals = db.getTotals();
+        count = new AtomicLong(totals[0]);
+        bytes = new AtomicLong(totals[1]);
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DatabaseCrawlCache-Sweeper");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, SWEEP_INITIAL_DELAY, SWEEP_INTERVAL, TimeUnit.SECONDS);
     }
 
     @Override
@@ -68,6 +119,26 @@ public class DatabaseCrawlCache implements CrawlCache {
         return data;
     }
 
+    /**
+     * Returns which of the keys are stored, without reading the data. The
+     * keys are looked up in batches, one query each.
+     */
+    public Set<String> getStoredKeys(Collection<String> keys) {
+        Set<String> stored = new HashSet<String>();
+
+        List<String> batch = new ArrayList<String>(QUERY_BATCH_SIZE);
+        Iterator<String> it = keys.iterator();
+        while (it.hasNext()) {
+            batch.add(it.next());
+            if (batch.size() == QUERY_BATCH_SIZE || !it.hasNext()) {
+                queryStoredKeys(batch, stored);
+                batch.clear();
+            }
+        }
+
+        return stored;
+    }
+
     @Override
     public void put(String key, byte[] data) {
         try {
@@ -75,22 +146,76 @@ public class DatabaseCrawlCache implements CrawlCache {
 
             values.put(Columns.KEY, key);
             values.put(Columns.DATA, data);
+            values.put(Columns.SIZE, data.length);
 
-            db.insert(values);
+            if (db.insert(values) > 0) {
+                count.incrementAndGet();
+                bytes.addAndGet(data.length);
+            }
         } catch (Throwable e) {
             LOG.warn("Error putting value to crawl cache: " + e.getMessage());
         }
     }
 
+    /**
+     * Puts all the entries in a single database transaction.
+     */
+    public void putAll(Map<String, byte[]> entries) {
+        try {
+            ContentValues[] values = new ContentValues[entries.size()];
+            long size = 0;
+
+            int i = 0;
+            for (Entry<String, byte[]> e : entries.entrySet()) {
+                ContentValues v = new ContentValues();
+
+                v.put(Columns.KEY, e.getKey());
+                v.put(Columns.DATA, e.getValue());
+                v.put(Columns.SIZE, e.getValue().length);
+
+                values[i++] = v;
+                size += e.getValue().length;
+            }
+
+            if (db.bulkInsert(values) == values.length) {
+                count.addAndGet(values.length);
+                bytes.addAndGet(size);
+            } else {
+                resetTotals();
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error putting values to crawl cache: " + e.getMessage());
+        }
+    }
+
     @Override
     public void remove(String key) {
+        Cursor c = null;
+
         try {
+            String[] columns = new String[] { Columns.SIZE };
             String where = Columns.KEY + " = ?";
             String[] whereArgs = new String[] { key };
 
-            db.delete(where, whereArgs);
+            long size = 0;
+            c = db.query(columns, where, whereArgs, null);
+            while (c.moveToNext()) {
+                size += c.getLong(c.getColumnIndex(Columns.SIZE));
+            }
+            c.close();
+            c = null;
+
+            int n = db.delete(where, whereArgs);
+            if (n > 0) {
+                count.addAndGet(-n);
+                bytes.addAndGet(-size);
+            }
         } catch (Throwable e) {
             LOG.warn("Error deleting value from crawl cache: " + e.getMessage());
+        } finally {
+            if (c != null) {
+                c.close();
+            }
         }
     }
 
@@ -100,33 +225,98 @@ public class DatabaseCrawlCache implements CrawlCache {
             db.delete("", new String[] {});
         } catch (Throwable e) {
             LOG.warn("Error deleting crawl cache: " + e.getMessage());
+        } finally {
+            resetTotals();
         }
     }
 
     @Override
     public long size() {
-        long size = 0;
+        return count.get();
+    }
+
+    /**
+     * The sum of the sizes of the stored data.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
 
+    private void queryStoredKeys(List<String> keys, Set<String> stored) {
         Cursor c = null;
 
         try {
+            StringBuilder where = new StringBuilder(Columns.KEY).append(" IN (");
+            for (int i = 0; i < keys.size(); i++) {
+                where.append(i == 0 ? "?" : ", ?");
+            }
+            where.append(")");
 
-            String[] columns = new String[] { Columns.ID };
-            String where = "";
-            String[] whereArgs = new String[] {};
-
-            c = db.query(columns, where, whereArgs, null);
+            String[] columns = new String[] { Columns.KEY };
+            String[] whereArgs = keys.toArray(new String[keys.size()]);
 
-            size = c.getCount();
+            c = db.query(columns, where.toString(), whereArgs, null);
 
-        } catch (Exception e) {
-            LOG.warn("Failed to get num of shared files", e);
+            int index = c.getColumnIndex(Columns.KEY);
+            while (c.moveToNext()) {
+                stored.add(c.getString(index));
+            }
+        } catch (Throwable e) {
+            LOG.warn("General failure checking cache keys: " + e.getMessage());
         } finally {
             if (c != null) {
                 c.close();
             }
         }
+    }
+
+    private void resetTotals() {
+        try {
+            long[] totals = db.getTotals();
+            count.set(totals[0]);
+            bytes.set(totals[1]);
+        } catch (Throwable e) {
+            LOG.warn("Error reading crawl cache totals: " + e.getMessage());
+        }
+    }
+
+    private void sweep() {
+        try {
+            long now = System.currentTimeMillis() / 1000;
+            long expired = now - SearchSettings.CRAWL_CACHE_TTL.getValue();
+            long maxSize = SearchSettings.CRAWL_CACHE_MAX_SIZE.getValue();
+
+            while (deleteOldest(expired, SWEEP_BATCH_SIZE) == SWEEP_BATCH_SIZE) {
+                Thread.sleep(SWEEP_BATCH_PAUSE);
+            }
+
+            long excess;
+            while ((excess = bytes.get() - maxSize) > 0 && count.get() > 0) {
+                // don't go too far below the maximum size with a full batch
+                long avg = Math.max(1, bytes.get() / count.get());
+                int limit = (int) Math.min(SWEEP_BATCH_SIZE, excess / avg + 1);
+                if (deleteOldest(Long.MAX_VALUE, limit) == 0) {
+                    break;
+                }
+                Thread.sleep(SWEEP_BATCH_PAUSE);
+            }
+
+            long waste = db.getFileSize() - bytes.get();
+            if (waste > Math.max(MIN_COMPACT_WASTE, bytes.get())) {
+                LOG.info("Compacting crawl cache database, wasted bytes: " + waste);
+                db.compact();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            LOG.warn("Error sweeping crawl cache: " + e.getMessage());
+        }
+    }
 
-        return size;
+    private long deleteOldest(long dateAdded, int limit) {
+        long[] deleted = db.deleteOldest(dateAdded, limit);
+        count.addAndGet(-deleted[0]);
+        bytes.addAndGet(-deleted[1]);
+        return deleted[0];
     }
 }
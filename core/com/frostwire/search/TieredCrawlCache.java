@@ -0,0 +1,368 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Crawl cache with a memory tier in front of the database.
+ *
+ * The memory tier is a byte budgeted LRU split in independently locked
+ * segments. Writes to the database are queued and done by a background
+ * thread, in batches of one transaction each, so the crawl threads never
+ * wait for the database on a put.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TieredCrawlCache implements CrawlCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TieredCrawlCache.class);
+
+    private static final int NUM_SEGMENTS = 16;
+    private static final int MAX_BATCH_SIZE = 64;
+
+    // marks a queued removal in the pending writes
+    private static final byte[] REMOVED = new byte[0];
+
+    private final DatabaseCrawlCache db;
+    private final Segment[] segments;
+
+    private final ConcurrentMap<String, byte[]> pending;
+    private final BlockingQueue<String> writeQueue;
+
+    // keys with a queued removal, a put after the removal replaces the marker
+    // in the pending writes but the stored row must be deleted still
+    private final Set<String> removals;
+
+    // bumped by every removal, a get that loads from the database while it
+    // changes doesn't keep what it loaded in memory
+    private final AtomicLong removeCount;
+
+    // a batch is flushed and the cache is cleared under this lock, a batch
+    // taken before a clear finds its pending data gone and writes nothing
+    private final Object writeLock;
+
+    private final AtomicLong hits;
+    private final AtomicLong dbHits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public TieredCrawlCache(DatabaseCrawlCache db, long maxMemoryBytes) {
+        this.db = db;
+        this.segments = new Segment[NUM_SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(maxMemoryBytes / NUM_SEGMENTS);
+        }
+
+        this.pending = new ConcurrentHashMap<String, byte[]>();
+        this.writeQueue = new LinkedBlockingQueue<String>();
+        this.removals = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.removeCount = new AtomicLong();
+        this.writeLock = new Object();
+
+        this.hits = new AtomicLong();
+        this.dbHits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+
+        Thread t = new Thread(new Writer(), "TieredCrawlCache-Writer");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        byte[] data = segment(key).get(key);
+        if (data != null) {
+            hits.incrementAndGet();
+            return data;
+        }
+
+        data = pending.get(key);
+        if (data != null) {
+            if (data == REMOVED) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return data;
+        }
+
+        long removes = removeCount.get();
+        data = db.get(key);
+        if (data != null) {
+            dbHits.incrementAndGet();
+            cache(key, data);
+            if (removeCount.get() != removes) {
+                segment(key).remove(key, data);
+            }
+        } else {
+            misses.incrementAndGet();
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        cache(key, data);
+        queue(key, data);
+    }
+
+    /**
+     * The memory tier is updated last, after a get that loaded the key from
+     * the database has seen the removal or cached what it loaded.
+     */
+    @Override
+    public void remove(String key) {
+        removals.add(key);
+        queue(key, REMOVED);
+        removeCount.incrementAndGet();
+        segment(key).remove(key);
+    }
+
+    /**
+     * The write queue is left as it is, a put can be between its pending
+     * write and its queuing. The keys already queued find nothing to write.
+     */
+    @Override
+    public void clear() {
+        synchronized (writeLock) {
+            pending.clear();
+            removals.clear();
+            removeCount.incrementAndGet();
+            for (Segment s : segments) {
+                s.clear();
+            }
+            db.clear();
+        }
+    }
+
+    /**
+     * The stored entries plus the pending writes of new keys, minus the
+     * pending removals of stored keys.
+     */
+    @Override
+    public long size() {
+        synchronized (writeLock) {
+            long size = db.size();
+            Set<String> storedKeys = db.getStoredKeys(pending.keySet());
+            for (Entry<String, byte[]> e : pending.entrySet()) {
+                boolean stored = storedKeys.contains(e.getKey());
+                if (e.getValue() == REMOVED) {
+                    if (stored) {
+                        size--;
+                    }
+                } else if (!stored) {
+                    size++;
+                }
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Gets served from the memory tier or from a pending write.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets served from the database.
+     */
+    public long getDatabaseHits() {
+        return dbHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * The approximate number of bytes used by the memory tier.
+     */
+    public long getMemorySize() {
+        long size = 0;
+        for (Segment s : segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    private Segment segment(String key) {
+        return segments[(key.hashCode() & 0x7FFFFFFF) % NUM_SEGMENTS];
+    }
+
+    private void cache(String key, byte[] data) {
+        int n = segment(key).put(key, data);
+        if (n > 0) {
+            evictions.addAndGet(n);
+        }
+    }
+
+    private void queue(String key, byte[] data) {
+        if (pending.put(key, data) == null) {
+            writeQueue.add(key);
+        }
+    }
+
+    private void write(List<String> keys) {
+        synchronized (writeLock) {
+            Map<String, byte[]> batch = new HashMap<String, byte[]>();
+
+            for (String key : keys) {
+                boolean removed = removals.remove(key);
+                byte[] data = pending.remove(key);
+                if (removed || data == REMOVED) {
+                    batch.remove(key);
+                    db.remove(key);
+                }
+                if (data != null && data != REMOVED) {
+                    batch.put(key, data);
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                db.putAll(batch);
+            }
+        }
+    }
+
+    private final class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            List<String> keys = new LinkedList<String>();
+
+            while (true) {
+                try {
+                    keys.add(writeQueue.take());
+                    writeQueue.drainTo(keys, MAX_BATCH_SIZE - 1);
+
+                    write(keys);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable e) {
+                    LOG.warn("Error writing crawl cache data to database: " + e.getMessage());
+                } finally {
+                    keys.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * LRU map with a limit in bytes, guarded by its own monitor.
+     */
+    private static final class Segment {
+
+        private final long maxBytes;
+        private final LinkedHashMap<String, byte[]> map;
+
+        private long bytes;
+
+        public Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+            this.map = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+        }
+
+        public synchronized byte[] get(String key) {
+            return map.get(key);
+        }
+
+        /**
+         * @return the number of evicted entries
+         */
+        public synchronized int put(String key, byte[] data) {
+            long weight = weight(key, data);
+            if (weight > maxBytes) {
+                remove(key);
+                return 0;
+            }
+
+            byte[] old = map.put(key, data);
+            if (old != null) {
+                bytes -= weight(key, old);
+            }
+            bytes += weight;
+
+            int n = 0;
+            Iterator<Entry<String, byte[]>> it = map.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Entry<String, byte[]> e = it.next();
+                bytes -= weight(e.getKey(), e.getValue());
+                it.remove();
+                n++;
+            }
+
+            return n;
+        }
+
+        public synchronized void remove(String key) {
+            byte[] old = map.remove(key);
+            if (old != null) {
+                bytes -= weight(key, old);
+            }
+        }
+
+        /**
+         * Removes the key only if it still maps to the data.
+         */
+        public synchronized void remove(String key, byte[] data) {
+            if (map.get(key) == data) {
+                remove(key);
+            }
+        }
+
+        public synchronized void clear() {
+            map.clear();
+            bytes = 0;
+        }
+
+        public synchronized long size() {
+            return bytes;
+        }
+
+        private static long weight(String key, byte[] data) {
+            return data.length + 2 * key.length();
+        }
+    }
+}
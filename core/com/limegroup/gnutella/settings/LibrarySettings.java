@@ -23,6 +23,7 @@ import java.io.File;
 import org.limewire.setting.BooleanSetting;
 import org.limewire.setting.FileSetSetting;
 import org.limewire.setting.FileSetting;
+import org.limewire.setting.IntSetting;
 import org.limewire.util.CommonUtils;
 
 import com.frostwire.AzureusStarter;
@@ -59,6 +60,11 @@ public class LibrarySettings extends LimeProps {
 
     public static final BooleanSetting LIBRARY_WIFI_SHARING_ENABLED = FACTORY.createBooleanSetting("LIBRARY_WIFI_SHARING_ENABLED", true);
 
+    /**
+     * The upload speed of each wifi sharing transfer in KB/s, 0 for no limit.
+     */
+    public static final IntSetting LIBRARY_WIFI_SHARING_MAX_UPLOAD_SPEED = FACTORY.createIntSetting("LIBRARY_WIFI_SHARING_MAX_UPLOAD_SPEED", 0);
+
     
     public static void setupInitialLibraryFolders() {
         LibrarySettings.DIRECTORIES_TO_INCLUDE.add(SharingSettings.TORRENT_DATA_DIR_SETTING.getValue());
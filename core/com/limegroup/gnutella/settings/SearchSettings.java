@@ -21,6 +21,7 @@ import org.limewire.setting.BooleanSetting;
 import org.limewire.setting.CharArraySetting;
 import org.limewire.setting.FileSetting;
 import org.limewire.setting.IntSetting;
+import org.limewire.setting.LongSetting;
 import org.limewire.setting.StringSetting;
 import org.limewire.util.CommonUtils;
 
@@ -334,5 +335,21 @@ public final class SearchSettings extends LimeProps {
 	
 	public static final IntSetting SMART_SEARCH_FULLTEXT_SEARCH_RESULTS_LIMIT = FACTORY.createIntSetting("SMART_SEARCH_FULLTEXT_SEARCH_RESULTS_LIMIT", 256);
 
+    /**
+     * Size in bytes of the in-memory tier of the crawl cache.
+     */
+    public static final LongSetting CRAWL_CACHE_MEMORY_SIZE = FACTORY.createLongSetting("CRAWL_CACHE_MEMORY_SIZE", 16 * 1024 * 1024);
+
+    /**
+     * Time in seconds a crawled item stays in the crawl cache database.
+     */
+    public static final LongSetting CRAWL_CACHE_TTL = FACTORY.createLongSetting("CRAWL_CACHE_TTL", 30L * 24 * 60 * 60);
+
+    /**
+     * Maximum size in bytes of the data stored in the crawl cache database,
+     * the oldest items are deleted first.
+     */
+    public static final LongSetting CRAWL_CACHE_MAX_SIZE = FACTORY.createLongSetting("CRAWL_CACHE_MAX_SIZE", 256L * 1024 * 1024);
+
     public static final BooleanSetting SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START = FACTORY.createBooleanSetting("SHOW_DETAIL_PAGE_AFTER_DOWNLOAD_START", false);
 }
@@ -257,44 +257,72 @@ public final class Librarian {
     }
 
     private void scan(File file, Set<File> ignorableFiles) {
+        List<String> filePaths = new ArrayList<String>();
+
+        collectFiles(file, ignorableFiles, filePaths);
+
+        new UniversalScanner().scan(filePaths);
+    }
+
+    private void collectFiles(File file, Set<File> ignorableFiles, List<String> filePaths) {
         if (ignorableFiles.contains(file)) {
             return;
         }
 
         if (file.isDirectory()) {
-            for (File child : file.listFiles()) {
-                if (child.isDirectory() || child.isFile()) {
-                    scan(child);
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectFiles(child, ignorableFiles, filePaths);
                 }
             }
         } else if (file.isFile()) {
-            new UniversalScanner().scan(file.getAbsolutePath());
+            filePaths.add(file.getAbsolutePath());
         }
     }
 
     public void shareFile(final String filePath, final boolean share) {
         shareFile(filePath, share, true);
     }
-    
+
     public void shareFile(final String filePath, final boolean share, final boolean refreshPing) {
-        if (pathSharingSet.contains(filePath)) {
-            return;
+        shareFiles(Collections.singletonList(filePath), share, refreshPing);
+    }
+
+    /**
+     * Shares or unshares all the files in a single background task, the
+     * files being shared already are ignored.
+     */
+    public void shareFiles(List<String> filePaths, final boolean share, final boolean refreshPing) {
+        final List<String> paths = new ArrayList<String>(filePaths.size());
+
+        synchronized (pathSharingSet) {
+            for (String filePath : filePaths) {
+                if (pathSharingSet.add(filePath)) {
+                    paths.add(filePath);
+                }
+            }
         }
 
-        pathSharingSet.add(filePath);
+        if (paths.isEmpty()) {
+            return;
+        }
 
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                deleteFromShareTable(filePath);
-
-                if (share) {
-                    new UniversalScanner().scan(filePath);
-                    //pathSharedSet.add(filePath);
+                try {
+                    if (share) {
+                        new UniversalScanner().scan(paths);
+                    } else {
+                        ShareFilesDB.intance().bulkDelete(paths.toArray(new String[paths.size()]));
+                    }
+                } catch (Throwable e) {
+                    LOG.log(Level.WARNING, "Error sharing " + paths.size() + " files", e);
+                } finally {
+                    pathSharingSet.removeAll(paths);
                 }
 
-                pathSharingSet.remove(filePath);
-
                 if (refreshPing) {
                     UPnPManager.instance().refreshPing();
                 }
@@ -19,9 +19,17 @@
 package com.frostwire.gui;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.limewire.concurrent.ExecutorsHelper;
 import org.limewire.util.FilenameUtils;
 import org.limewire.util.StringUtils;
 
@@ -47,32 +55,140 @@ public class UniversalScanner {
 
     private static final Logger LOG = Logger.getLogger(UniversalScanner.class.getName());
 
+    private static final int BATCH_SIZE = 500;
+
+    private static final ExecutorService READER = ExecutorsHelper.newFixedSizeThreadPool(Math.min(4, Runtime.getRuntime().availableProcessors()), "UniversalScanner-Reader");
+
     public UniversalScanner() {
     }
 
     public void scan(String filePath) {
+        ShareFilesDB db = ShareFilesDB.intance();
+
+        db.insert(read(filePath));
+    }
+
+    /**
+     * Scans all the files in batches, the metadata is read in parallel and
+     * each batch is written in a single transaction. The files already shared
+     * with the same size and modification date are skipped.
+     * 
+     * @return the number of files scanned, not counting the skipped ones
+     */
+    public int scan(List<String> filePaths) {
+        long start = System.currentTimeMillis();
+
+        ShareFilesDB db = ShareFilesDB.intance();
+
+        int numScanned = 0;
+        int numSkipped = 0;
+
+        // the batch being read while the previous one is written
+        List<Future<ContentValues>> pending = null;
+
+        try {
+            for (int offset = 0; offset < filePaths.size(); offset += BATCH_SIZE) {
+                List<String> batch = filePaths.subList(offset, Math.min(offset + BATCH_SIZE, filePaths.size()));
+
+                Map<String, long[]> states = db.getFileStates(batch.toArray(new String[batch.size()]));
+
+                List<Future<ContentValues>> futures = new ArrayList<Future<ContentValues>>(batch.size());
+                for (final String filePath : batch) {
+                    if (isUnchanged(filePath, states.get(filePath))) {
+                        numSkipped++;
+                        continue;
+                    }
+
+                    futures.add(READER.submit(new Callable<ContentValues>() {
+                        public ContentValues call() {
+                            return read(filePath);
+                        }
+                    }));
+                }
+
+                if (pending != null) {
+                    numScanned += write(db, pending);
+                }
+                pending = futures;
+            }
+
+            if (pending != null) {
+                numScanned += write(db, pending);
+                pending = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.log(Level.WARNING, "Scan of " + filePaths.size() + " files interrupted");
+        } finally {
+            if (pending != null) {
+                for (Future<ContentValues> f : pending) {
+                    f.cancel(true);
+                }
+            }
+        }
+
+        long time = System.currentTimeMillis() - start;
+        LOG.log(Level.INFO, String.format("Scanned %d files, skipped %d unchanged, in %d ms (%.1f files/s)", numScanned, numSkipped, time, (numScanned + numSkipped) * 1000.0 / Math.max(1, time)));
+
+        return numScanned;
+    }
+
+    private static boolean isUnchanged(String filePath, long[] state) {
+        if (state == null || state[2] == 0) {
+            return false;
+        }
+
+        File file = new File(filePath);
+
+        return state[0] == file.length() && state[1] == file.lastModified();
+    }
+
+    private static int write(ShareFilesDB db, List<Future<ContentValues>> futures) throws InterruptedException {
+        if (futures.isEmpty()) {
+            return 0;
+        }
+
+        ContentValues[] values = new ContentValues[futures.size()];
+        for (int i = 0; i < values.length; i++) {
+            try {
+                values[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                // read never throws, only an unexpected error gets here
+                throw new RuntimeException(e.getCause());
+            }
+        }
+
+        try {
+            return db.bulkInsert(values);
+        } catch (Throwable e) {
+            LOG.log(Level.WARNING, "Error writing " + values.length + " scanned files", e);
+            return 0;
+        }
+    }
+
+    private ContentValues read(String filePath) {
         try {
             MediaType mt = MediaType.getMediaTypeForExtension(FilenameUtils.getExtension(filePath));
 
             if (mt == null) {
-                scanDocument(filePath, true);
+                return scanDocument(filePath, true);
             } else if (mt.equals(MediaType.getAudioMediaType())) {
-                scanAudio(filePath, true);
+                return scanAudio(filePath, true);
             } else if (mt.equals(MediaType.getImageMediaType())) {
-                scanPictures(filePath, true);
+                return scanPictures(filePath, true);
             } else if (mt.equals(MediaType.getVideoMediaType())) {
-                scanVideo(filePath, true); // until we integrate mplayer for video and research metadata extraction
+                return scanVideo(filePath, true); // until we integrate mplayer for video and research metadata extraction
             } else {
-                scanDocument(filePath, true);
+                return scanDocument(filePath, true);
             }
 
         } catch (Throwable e) {
-            scanDocument(filePath, true);
             LOG.log(Level.WARNING, "Error scanning file, scanned as document: " + filePath, e);
+            return scanDocument(filePath, true);
         }
     }
 
-    private void scanPictures(String filePath, boolean shared) {
+    private ContentValues scanPictures(String filePath, boolean shared) {
         File file = new File(filePath);
 
         ContentValues values = new ContentValues();
@@ -118,9 +234,7 @@ public class UniversalScanner {
             values.put(Columns.YEAR, "");
         }
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
     private void fillCommonValues(ContentValues values, byte fileType, String filePath, File file, String mime, boolean shared) {
@@ -133,7 +247,7 @@ public class UniversalScanner {
         values.put(Columns.SHARED, shared);
     }
 
-    private void scanAudio(String filePath, boolean shared) {
+    private ContentValues scanAudio(String filePath, boolean shared) {
         File file = new File(filePath);
 
         ContentValues values = new ContentValues();
@@ -157,21 +271,19 @@ public class UniversalScanner {
             values.put(Columns.YEAR, "");
         }
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
-    private void scanVideo(String filePath, boolean shared) {
+    private ContentValues scanVideo(String filePath, boolean shared) {
         String mime = "video/" + FilenameUtils.getExtension(filePath);
-        scanBasic(Constants.FILE_TYPE_VIDEOS, filePath, mime, shared);
+        return scanBasic(Constants.FILE_TYPE_VIDEOS, filePath, mime, shared);
     }
 
-    private void scanDocument(String filePath, boolean shared) {
-        scanBasic(Constants.FILE_TYPE_DOCUMENTS, filePath, getMimeType(filePath), shared);
+    private ContentValues scanDocument(String filePath, boolean shared) {
+        return scanBasic(Constants.FILE_TYPE_DOCUMENTS, filePath, getMimeType(filePath), shared);
     }
 
-    private void scanBasic(byte fileType, String filePath, String mime, boolean shared) {
+    private ContentValues scanBasic(byte fileType, String filePath, String mime, boolean shared) {
         File file = new File(filePath);
 
         String displayName = FilenameUtils.getBaseName(file.getName());
@@ -185,9 +297,7 @@ public class UniversalScanner {
         values.put(Columns.ALBUM, "");
         values.put(Columns.YEAR, "");
 
-        ShareFilesDB db = ShareFilesDB.intance();
-
-        db.insert(values);
+        return values;
     }
 
     private static String getMimeType(String filePath) {
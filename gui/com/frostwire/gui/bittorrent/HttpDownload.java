@@ -64,6 +64,9 @@ public class HttpDownload implements BTDownload {
 
     private static final int SPEED_AVERAGE_CALCULATION_INTERVAL_MILLISECONDS = 1000;
 
+    /** Parallel range requests of each download. */
+    private static final int CONNECTIONS = 4;
+
     private final String url;
     private final String title;
     private final String saveAs;
@@ -315,12 +318,12 @@ public class HttpDownload implements BTDownload {
                     }
 
                     if (resume) {
-                        if (incompleteFile.exists()) {
-                            bytesReceived = incompleteFile.length();
-                        }
+                        bytesReceived = httpClient.getSavedLength(incompleteFile);
+                    } else {
+                        bytesReceived = 0;
                     }
 
-                    httpClient.save(url, incompleteFile, resume);
+                    httpClient.saveSegmented(url, incompleteFile, resume, CONNECTIONS);
                 } catch (IOException e) {
                     e.printStackTrace();
                     httpClientListener.onError(httpClient, e);
@@ -487,7 +490,15 @@ public class HttpDownload implements BTDownload {
                             size = Long.valueOf(headerFields.get("Content-Length").get(0));
                         } catch (Exception e) {}
                     }
-                } 
+                } else if (responseCodeStr.contains(String.valueOf(HttpURLConnection.HTTP_PARTIAL))) {
+                    // Content-Range: bytes start-end/size
+                    if (headerFields.containsKey("Content-Range")) {
+                        try {
+                            String range = headerFields.get("Content-Range").get(0);
+                            size = Long.valueOf(range.substring(range.indexOf('/') + 1).trim());
+                        } catch (Exception e) {}
+                    }
+                }
             } 
         }
     }
@@ -0,0 +1,290 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.bittorrent;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.gudy.azureus2.core3.disk.DiskManager;
+import org.gudy.azureus2.core3.disk.DiskManagerFileInfo;
+import org.gudy.azureus2.core3.disk.DiskManagerListener;
+import org.gudy.azureus2.core3.disk.DiskManagerPiece;
+import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceList;
+import org.gudy.azureus2.core3.download.DownloadManager;
+import org.gudy.azureus2.core3.download.DownloadManagerDiskListener;
+import org.gudy.azureus2.core3.download.impl.DownloadManagerAdapter;
+import org.gudy.azureus2.core3.global.GlobalManagerAdapter;
+
+import com.frostwire.AzureusStarter;
+
+/**
+ * Live index of the torrent files that are incomplete or skipped, the files
+ * the library has to ignore. It is fed by the global manager, download manager
+ * and disk manager listeners, so the library doesn't have to walk every file
+ * of every torrent.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class IgnorableFilesIndex {
+
+    private static final Log LOG = LogFactory.getLog(IgnorableFilesIndex.class);
+
+    private static IgnorableFilesIndex instance;
+
+    /**
+     * Ignorable files to the number of downloads that contain them.
+     */
+    private final Map<File, Integer> files;
+
+    /**
+     * Ignorable files of each download.
+     */
+    private final Map<DownloadManager, Set<File>> downloads;
+
+    private final DownloadListener downloadListener;
+    private final PiecesListener piecesListener;
+
+    private volatile Set<File> snapshot;
+
+    private IgnorableFilesIndex() {
+        this.files = new ConcurrentHashMap<File, Integer>();
+        this.downloads = new HashMap<DownloadManager, Set<File>>();
+        this.downloadListener = new DownloadListener();
+        this.piecesListener = new PiecesListener();
+    }
+
+    /**
+     * Returns the index, attached to the global manager the first time.
+     * Returns null if the azureus core is not started yet.
+     */
+    public static synchronized IgnorableFilesIndex instance() {
+        if (instance == null) {
+            if (!AzureusStarter.isAzureusCoreStarted()) {
+                return null;
+            }
+            instance = new IgnorableFilesIndex();
+            AzureusStarter.getAzureusCore().getGlobalManager().addListener(instance.new GlobalListener(), true);
+        }
+        return instance;
+    }
+
+    public boolean contains(File file) {
+        return files.containsKey(file);
+    }
+
+    /**
+     * Returns an immutable copy of the ignorable files, only copied again
+     * after the index changes.
+     */
+    public Set<File> snapshot() {
+        Set<File> s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                s = snapshot;
+                if (s == null) {
+                    s = Collections.unmodifiableSet(new HashSet<File>(files.keySet()));
+                    snapshot = s;
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * The listeners are added and removed outside the lock of the index,
+     * the events are fired while holding the locks of the download.
+     */
+    private void add(DownloadManager dm) {
+        synchronized (this) {
+            if (downloads.containsKey(dm)) {
+                return;
+            }
+            downloads.put(dm, new HashSet<File>());
+        }
+        dm.addListener(downloadListener);
+        dm.addDiskListener(downloadListener);
+        update(dm);
+    }
+
+    private void remove(DownloadManager dm) {
+        dm.removeListener(downloadListener);
+        dm.removeDiskListener(downloadListener);
+        synchronized (this) {
+            Set<File> set = downloads.remove(dm);
+            if (set != null) {
+                for (File f : set) {
+                    decrement(f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks all the files of the download.
+     */
+    private synchronized void update(DownloadManager dm) {
+        Set<File> set = downloads.get(dm);
+        if (set == null) {
+            return;
+        }
+
+        Set<File> ignorable = new HashSet<File>();
+        for (DiskManagerFileInfo fileInfo : dm.getDiskManagerFileInfoSet().getFiles()) {
+            try {
+                if (isIgnorable(fileInfo)) {
+                    ignorable.add(fileInfo.getFile(false));
+                }
+            } catch (Throwable e) {
+                LOG.error("Error getting file information", e);
+            }
+        }
+
+        for (File f : set) {
+            if (!ignorable.contains(f)) {
+                decrement(f);
+            }
+        }
+        for (File f : ignorable) {
+            if (!set.contains(f)) {
+                increment(f);
+            }
+        }
+        downloads.put(dm, ignorable);
+    }
+
+    /**
+     * Checks only one file of the download.
+     */
+    private synchronized void update(DownloadManager dm, DiskManagerFileInfo fileInfo) {
+        Set<File> set = downloads.get(dm);
+        if (set == null) {
+            return;
+        }
+
+        try {
+            File f = fileInfo.getFile(false);
+            if (isIgnorable(fileInfo)) {
+                if (set.add(f)) {
+                    increment(f);
+                }
+            } else {
+                if (set.remove(f)) {
+                    decrement(f);
+                }
+            }
+        } catch (Throwable e) {
+            LOG.error("Error getting file information", e);
+        }
+    }
+
+    private void increment(File f) {
+        Integer n = files.get(f);
+        files.put(f, n == null ? 1 : n + 1);
+        snapshot = null;
+    }
+
+    private void decrement(File f) {
+        Integer n = files.get(f);
+        if (n == null || n <= 1) {
+            files.remove(f);
+        } else {
+            files.put(f, n - 1);
+        }
+        snapshot = null;
+    }
+
+    private static boolean isIgnorable(DiskManagerFileInfo fileInfo) {
+        return fileInfo.isSkipped() || TorrentUtil.getDownloadPercent(fileInfo) < 100;
+    }
+
+    private final class GlobalListener extends GlobalManagerAdapter {
+
+        @Override
+        public void downloadManagerAdded(DownloadManager dm) {
+            add(dm);
+        }
+
+        @Override
+        public void downloadManagerRemoved(DownloadManager dm) {
+            remove(dm);
+        }
+    }
+
+    /**
+     * The state and completion changes can move or complete any file, the whole download
+     * is checked. The skip changes are reported as priority changes of only one file.
+     */
+    private final class DownloadListener extends DownloadManagerAdapter implements DownloadManagerDiskListener {
+
+        @Override
+        public void stateChanged(DownloadManager manager, int state) {
+            update(manager);
+        }
+
+        @Override
+        public void completionChanged(DownloadManager manager, boolean bCompleted) {
+            update(manager);
+        }
+
+        @Override
+        public void filePriorityChanged(DownloadManager download, DiskManagerFileInfo file) {
+            update(download, file);
+        }
+
+        public void diskManagerAdded(DiskManager dm) {
+            dm.addListener(piecesListener);
+        }
+
+        public void diskManagerRemoved(DiskManager dm) {
+            dm.removeListener(piecesListener);
+        }
+    }
+
+    /**
+     * While a download is running a file completes with its last piece.
+     */
+    private final class PiecesListener implements DiskManagerListener {
+
+        public void stateChanged(int oldState, int newState) {
+        }
+
+        public void filePriorityChanged(DiskManagerFileInfo file) {
+        }
+
+        public void pieceDoneChanged(DiskManagerPiece piece) {
+            DMPieceList list = piece.getManager().getPieceList(piece.getPieceNumber());
+            for (int i = 0; i < list.size(); i++) {
+                DiskManagerFileInfo fileInfo = list.get(i).getFile();
+                update(fileInfo.getDownloadManager(), fileInfo);
+            }
+        }
+
+        public void fileAccessModeChanged(DiskManagerFileInfo file, int old_mode, int new_mode) {
+        }
+    }
+}
@@ -46,6 +46,7 @@ package com.frostwire.gui.bittorrent;
 import java.io.File;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -665,9 +666,12 @@ public final class TorrentUtil {
         return hex;
     }
 
+    /**
+     * Returns the incomplete and skipped files of all the torrents, the set
+     * is immutable and shared between calls while no file changes.
+     */
     public static Set<File> getIgnorableFiles() {
-        Set<File> set = TorrentUtil.getIncompleteFiles();
-        set.addAll(TorrentUtil.getSkipedFiles());
-        return set;
+        IgnorableFilesIndex index = IgnorableFilesIndex.instance();
+        return index != null ? index.snapshot() : Collections.<File> emptySet();
     }
 }
@@ -18,21 +18,33 @@
 
 package com.frostwire.gui.httpserver;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPOutputStream;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 
 import com.frostwire.core.FileDescriptor;
+import com.frostwire.core.providers.ShareFilesDB;
 import com.frostwire.gui.Librarian;
 import com.frostwire.httpserver.Code;
 import com.frostwire.httpserver.HttpExchange;
 import com.frostwire.util.JsonUtils;
 
 /**
+ * The gzipped response of each file type is cached, and only built again
+ * after the share table changes. The clients polling with the ETag of the
+ * response get a 304 while nothing changed.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -41,11 +53,19 @@ class BrowseHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(BrowseHandler.class.getName());
 
+    /**
+     * The cached responses are built again after this time even if the table
+     * didn't change, to drop the files removed from disk.
+     */
+    private static final long MAX_AGE_MILLISECONDS = 60 * 1000;
+
+    private final Map<Byte, CachedResponse> cache = new HashMap<Byte, CachedResponse>();
+
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         assertUPnPActive();
 
-        GZIPOutputStream os = null;
+        OutputStream os = null;
 
         byte type = -1;
 
@@ -64,16 +84,23 @@ class BrowseHandler extends AbstractHandler {
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            CachedResponse response = getResponse(type);
+
+            exchange.getResponseHeaders().set("ETag", response.etag);
+
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(response.etag) || ifNoneMatch.trim().equals("*"))) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
 
             exchange.getResponseHeaders().set("Content-Encoding", "gzip");
             exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
-            exchange.sendResponseHeaders(Code.HTTP_OK, 0);
+            exchange.sendResponseHeaders(Code.HTTP_OK, response.data.length);
 
-            os = new GZIPOutputStream(exchange.getResponseBody());
+            os = exchange.getResponseBody();
 
-            os.write(response.getBytes("UTF-8"));
-            os.finish();
+            os.write(response.data);
 
         } catch (IOException e) {
             LOG.warning("Error browsing files type=" + type);
@@ -86,16 +113,59 @@ class BrowseHandler extends AbstractHandler {
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
+    private synchronized CachedResponse getResponse(byte fileType) throws IOException {
+        long version = ShareFilesDB.intance().getVersion();
+        long now = System.currentTimeMillis();
+
+        CachedResponse response = cache.get(fileType);
+        if (response == null || response.version != version || now - response.timestamp > MAX_AGE_MILLISECONDS) {
+            response = buildResponse(fileType, version, now);
+            cache.put(fileType, response);
+        }
+
+        return response;
+    }
+
+    /**
+     * The json is written straight into the gzip stream, no String of the
+     * whole list is built.
+     */
+    private CachedResponse buildResponse(byte fileType, long version, long timestamp) throws IOException {
         List<FileDescriptor> fileDescriptors = Librarian.instance().getSharedFiles(fileType);
 
         FileDescriptorList list = new FileDescriptorList();
         list.files = fileDescriptors;
 
-        return JsonUtils.toJson(list);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), "UTF-8");
+        JsonUtils.toJson(list, writer);
+        writer.close();
+
+        byte[] data = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(data.length) + "\"";
+
+        return new CachedResponse(version, timestamp, data, etag);
     }
 
     static final class FileDescriptorList {
         public List<FileDescriptor> files;
     }
+
+    private static final class CachedResponse {
+
+        public final long version;
+        public final long timestamp;
+        public final byte[] data;
+        public final String etag;
+
+        public CachedResponse(long version, long timestamp, byte[] data, String etag) {
+            this.version = version;
+            this.timestamp = timestamp;
+            this.data = data;
+            this.etag = etag;
+        }
+    }
 }
@@ -20,15 +20,25 @@ package com.frostwire.gui.httpserver;
 
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
+import org.limewire.concurrent.ExecutorsHelper;
 
 import com.frostwire.core.FileDescriptor;
 import com.frostwire.gui.Librarian;
@@ -38,6 +48,10 @@ import com.frostwire.httpserver.Code;
 import com.frostwire.httpserver.HttpExchange;
 
 /**
+ * Serves the shared files, with support for single and multiple byte ranges
+ * so an interrupted transfer can resume. The file is sent from the file channel
+ * to the socket without copies, in chunks sized by the upload speed.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -46,9 +60,17 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class.getName());
 
+    private static final int MAX_CONCURRENT_UPLOADS = 8;
+    private static final int MAX_RANGES = 16;
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final String MULTIPART_BOUNDARY = "FROSTWIRE_BYTERANGES";
+
+    private static final ExecutorService EXECUTOR = ExecutorsHelper.newFixedSizeThreadPool(MAX_CONCURRENT_UPLOADS, "DownloadHandler");
+
     @Override
     public void handle(final HttpExchange exchange) throws IOException {
-        new Thread(new Runnable() {
+        EXECUTOR.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -57,14 +79,14 @@ class DownloadHandler extends AbstractHandler {
                     LOG.log(Level.WARNING, "DownloadHandler async handle error", e);
                 }
             }
-        }).start();
+        });
     }
-    
+
     public void internalHandler(HttpExchange exchange) throws IOException {
         assertUPnPActive();
 
         OutputStream os = null;
-        FileInputStream fis = null;
+        RandomAccessFile raf = null;
 
         byte type = -1;
         int id = -1;
@@ -99,40 +121,66 @@ class DownloadHandler extends AbstractHandler {
                 throw new IOException("There is no such file shared");
             }
 
+            File file = new File(fd.filePath);
+
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+
+            long length = channel.size();
+            String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(file.lastModified()) + "\"";
+            String lastModified = formatDate(file.lastModified());
+
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.getResponseHeaders().add("Last-Modified", lastModified);
+
+            List<long[]> ranges = null;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && isIfRangeValid(exchange.getRequestHeaders().getFirst("If-Range"), etag, file.lastModified())) {
+                ranges = parseRanges(range, length);
+                if (ranges != null && ranges.isEmpty()) {
+                    exchange.getResponseHeaders().add("Content-Range", "bytes */" + length);
+                    exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                    return;
+                }
+            }
+
             //upload = TransferManager.instance().upload(fd);
             upload = BTDownloadMediator.instance().upload(fd);
 
-            exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            
-            File file = new File(fd.filePath);
-            
-            exchange.sendResponseHeaders(Code.HTTP_OK, file.length());
-
-            os = exchange.getResponseBody();
-
-            fis = new FileInputStream(file);
-
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
-
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
-                os.write(buffer, 0, n);
-                upload.addBytesSent(n);
-                
-                if (upload.isCanceled()) {
-                    try {
-                        throw new IOException("Upload cancelled");
-                    } finally {
-                        os.close();
-                    }
+            if (ranges == null) {
+                upload.setBytesToSend(length);
+                exchange.getResponseHeaders().add("Content-Type", fd.mime);
+                exchange.sendResponseHeaders(Code.HTTP_OK, length);
+                os = exchange.getResponseBody();
+                transfer(exchange, upload, channel, 0, length);
+            } else if (ranges.size() == 1) {
+                long[] r = ranges.get(0);
+                upload.setBytesToSend(r[1] - r[0] + 1);
+                exchange.getResponseHeaders().add("Content-Type", fd.mime);
+                exchange.getResponseHeaders().add("Content-Range", contentRange(r, length));
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, r[1] - r[0] + 1);
+                os = exchange.getResponseBody();
+                transfer(exchange, upload, channel, r[0], r[1] - r[0] + 1);
+            } else {
+                long bytesToSend = 0;
+                long contentLength = 0;
+                for (long[] r : ranges) {
+                    bytesToSend += r[1] - r[0] + 1;
+                    contentLength += partHeader(fd.mime, r, length).length + r[1] - r[0] + 1;
                 }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
+                upload.setBytesToSend(bytesToSend);
+                byte[] end = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes("US-ASCII");
+                contentLength += end.length;
+
+                exchange.getResponseHeaders().add("Content-Type", "multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, contentLength);
+                os = exchange.getResponseBody();
+                for (long[] r : ranges) {
+                    os.write(partHeader(fd.mime, r, length));
+                    transfer(exchange, upload, channel, r[0], r[1] - r[0] + 1);
                 }
+                os.write(end);
             }
 
         } catch (IOException e) {
@@ -140,7 +188,7 @@ class DownloadHandler extends AbstractHandler {
             throw e;
         } finally {
             close(os);
-            close(fis);
+            close(raf);
 
             try {
                 exchange.close();
@@ -154,6 +202,113 @@ class DownloadHandler extends AbstractHandler {
         }
     }
 
+    /**
+     * Sends the bytes in chunks, each chunk as big as the upload speed allows.
+     */
+    private void transfer(HttpExchange exchange, PeerHttpUpload upload, FileChannel channel, long position, long count) throws IOException {
+        long sent = 0;
+        while (sent < count) {
+            if (upload.isCanceled()) {
+                exchange.close();
+                throw new IOException("Upload cancelled");
+            }
+
+            int n = (int) upload.acquireBytesToSend(Math.min(CHUNK_SIZE, count - sent));
+            exchange.transferResponseBody(channel, position + sent, n);
+            upload.addBytesSent(n);
+            sent += n;
+        }
+    }
+
+    /**
+     * Returns the satisfiable ranges as {first, last} pairs, empty if none is
+     * satisfiable, or null if the header can't be understood and the whole
+     * file should be sent.
+     */
+    static List<long[]> parseRanges(String header, long length) {
+        if (!header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<long[]>(specs.length);
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if (dash == -1) {
+                    return null;
+                }
+                long first;
+                long last;
+                if (dash == 0) {
+                    // suffix range, the last n bytes
+                    long n = Long.parseLong(spec.substring(1));
+                    if (n <= 0) {
+                        continue;
+                    }
+                    first = Math.max(0, length - n);
+                    last = length - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                    if (last < first) {
+                        return null;
+                    }
+                    last = Math.min(last, length - 1);
+                }
+                if (first < length) {
+                    ranges.add(new long[] { first, last });
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return ranges;
+    }
+
+    /**
+     * The range is only honored if the file is still the same the client
+     * got the first part of.
+     */
+    private static boolean isIfRangeValid(String ifRange, String etag, long lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            return createDateFormat().parse(ifRange).getTime() / 1000 == lastModified / 1000;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    private static String contentRange(long[] r, long length) {
+        return "bytes " + r[0] + "-" + r[1] + "/" + length;
+    }
+
+    private static byte[] partHeader(String mime, long[] r, long length) throws IOException {
+        String header = "\r\n--" + MULTIPART_BOUNDARY + "\r\n" + "Content-Type: " + mime + "\r\n" + "Content-Range: " + contentRange(r, length) + "\r\n\r\n";
+        return header.getBytes("US-ASCII");
+    }
+
+    private static String formatDate(long time) {
+        return createDateFormat().format(new Date(time));
+    }
+
+    private static DateFormat createDateFormat() {
+        DateFormat df = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        df.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return df;
+    }
+
     private void close(Closeable c) {
         if (c != null) {
             try {
@@ -0,0 +1,1031 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.gui.library;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.limewire.concurrent.ExecutorsHelper;
+import org.limewire.util.CommonUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limegroup.gnutella.settings.LibrarySettings;
+import com.limegroup.gnutella.settings.SharingSettings;
+
+/**
+ * Persistent index of the files in the library directories.
+ *
+ * For every directory the index keeps its modification time and the names of
+ * its visible files and subdirectories. The index is saved to disk and
+ * reconciled at startup against the modification times of the directories,
+ * only the directories that changed are listed again. After that it's kept up
+ * to date with a WatchService.
+ *
+ * The names are split in words, runs of letters and digits in lower case. A
+ * query token matches a path if it's a substring of it, so every run of
+ * letters and digits of the token is inside one word of the path. A search
+ * looks up the words containing those runs in the vocabulary, goes to the
+ * directories and the files that have them, and checks only those files
+ * against the tokens. It doesn't touch the disk.
+ *
+ * All the changes to the index are done in a single background thread.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class LibraryFileIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LibraryFileIndex.class);
+
+    private static final int VERSION = 2;
+
+    private static final long EVENTS_DELAY = 1000;
+    private static final long SAVE_INTERVAL = 60 * 1000;
+    // only used when some directories can't be watched
+    private static final long RECONCILE_INTERVAL = 10 * 60 * 1000;
+
+    private static final int MAX_PIECE_WORDS = 256;
+
+    private static final String[] EMPTY_STRINGS = new String[0];
+
+    private static final LibraryFileIndex instance = new LibraryFileIndex();
+
+    public static LibraryFileIndex instance() {
+        return instance;
+    }
+
+    private final File file;
+    private final ConcurrentMap<String, Dir> dirs;
+    // word -> directories with it in the path or a name, a Dir or a set of them,
+    // most words are in a single directory
+    private final ConcurrentMap<String, Object> words;
+    private volatile Vocabulary vocabulary; // null after the words change
+    private final Set<String> roots;
+    private final Set<String> readyRoots;
+    private final ConcurrentMap<WatchKey, String> keys;
+    private final ExecutorService queue;
+
+    private WatchService watcher;
+    private boolean started;
+
+    private volatile boolean dirty;
+    private volatile boolean unwatched;
+
+    private LibraryFileIndex() {
+        this.file = new File(CommonUtils.getUserSettingsDir(), "library_index.dat");
+        this.dirs = new ConcurrentHashMap<String, Dir>();
+        this.words = new ConcurrentHashMap<String, Object>();
+        this.roots = new LinkedHashSet<String>();
+        this.readyRoots = new HashSet<String>();
+        this.keys = new ConcurrentHashMap<WatchKey, String>();
+        this.queue = ExecutorsHelper.newProcessingQueue("LibraryFileIndex");
+    }
+
+    /**
+     * Loads the index from disk and starts the reconciliation of the library
+     * directories in the background.
+     */
+    public void start() {
+        final Set<File> libraryDirs = getLibraryDirectories();
+
+        synchronized (roots) {
+            if (started) {
+                return;
+            }
+            started = true;
+
+            for (File root : libraryDirs) {
+                roots.add(root.getAbsolutePath());
+            }
+        }
+
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+        } catch (Throwable e) {
+            LOG.warn("Unable to watch the library directories, changes are only reconciled from time to time", e);
+            unwatched = true;
+        }
+
+        queue.execute(new Runnable() {
+            public void run() {
+                load();
+
+                Set<String> visited = new HashSet<String>();
+                for (File root : libraryDirs) {
+                    reconcileRoot(root.getAbsolutePath(), visited);
+                }
+
+                // drop what's not in the library anymore
+                for (String path : new ArrayList<String>(dirs.keySet())) {
+                    if (!visited.contains(path)) {
+                        removeDir(path);
+                    }
+                }
+                save();
+            }
+        });
+
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "LibraryFileIndex-Watcher");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Returns the files under the directory whose path contains all the
+     * tokens, skipping the files in the excluded subdirectories. The tokens
+     * are expected in lower case.
+     *
+     * @return null if the directory is not indexed yet, its indexing is
+     *         started in the background
+     */
+    public List<File> search(File directory, Set<File> excludedDirs, String[] tokens) {
+        String root = directory.getAbsolutePath();
+
+        if (!isReady(root)) {
+            addRoot(root);
+            return null;
+        }
+
+        String rootPrefix = prefix(root);
+
+        List<String> excluded = new ArrayList<String>();
+        for (File f : excludedDirs) {
+            if (f != null) {
+                excluded.add(f.getAbsolutePath());
+            }
+        }
+
+        // the words of the vocabulary containing every piece, a piece in too
+        // many words doesn't narrow the search, it's left to the final check
+        List<String> pieces = new ArrayList<String>();
+        List<Set<String>> pieceWords = new ArrayList<Set<String>>();
+        Vocabulary vocabulary = getVocabulary();
+        for (String piece : pieces(tokens)) {
+            Set<String> set = vocabulary.find(piece, MAX_PIECE_WORDS);
+            if (set != null) {
+                pieces.add(piece);
+                pieceWords.add(set);
+            }
+        }
+
+        List<File> results = new ArrayList<File>();
+        boolean[] matched = new boolean[tokens.length];
+
+        for (Dir dir : candidateDirs(pieceWords)) {
+            if (!dir.path.equals(root) && !dir.path.startsWith(rootPrefix)) {
+                continue;
+            }
+
+            if (isExcluded(dir.path, root, excluded)) {
+                continue;
+            }
+
+            String[] names = dir.names;
+            if (names.length == 0) {
+                continue;
+            }
+
+            // tokens already in the directory path match all its files
+            int remaining = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                matched[i] = indexOfIgnoreCase(dir.prefix, tokens[i]);
+                if (!matched[i]) {
+                    remaining++;
+                }
+            }
+
+            if (remaining == 0) {
+                for (String name : names) {
+                    results.add(new File(dir.prefix + name));
+                }
+                continue;
+            }
+
+            BitSet candidates = candidateFiles(dir, pieces, pieceWords);
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                if (matches(dir.prefix, names[i], tokens, matched)) {
+                    results.add(new File(dir.prefix + names[i]));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private synchronized Vocabulary getVocabulary() {
+        Vocabulary v = vocabulary;
+        if (v == null) {
+            v = new Vocabulary(words.keySet());
+            vocabulary = v;
+        }
+        return v;
+    }
+
+    /**
+     * The directories with a word of every piece in the path or in a name,
+     * all of them if there are no pieces.
+     */
+    private Collection<Dir> candidateDirs(List<Set<String>> pieceWords) {
+        if (pieceWords.isEmpty()) {
+            return dirs.values();
+        }
+
+        Set<Dir> result = null;
+        for (Set<String> ws : pieceWords) {
+            Set<Dir> set = new HashSet<Dir>();
+            for (String word : ws) {
+                addDirs(set, words.get(word));
+            }
+            if (result == null) {
+                result = set;
+            } else {
+                result.retainAll(set);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The files of the directory with a word of every piece that's not
+     * already in the directory path.
+     */
+    private static BitSet candidateFiles(Dir dir, List<String> pieces, List<Set<String>> pieceWords) {
+        BitSet result = new BitSet(dir.names.length);
+        result.set(0, dir.names.length);
+
+        for (int i = 0; i < pieces.size() && !result.isEmpty(); i++) {
+            if (indexOfIgnoreCase(dir.prefix, pieces.get(i))) {
+                continue;
+            }
+
+            Set<String> ws = pieceWords.get(i);
+            BitSet set = new BitSet(dir.names.length);
+            if (ws.size() < dir.nameWords.length) {
+                for (String word : ws) {
+                    dir.addFiles(set, Arrays.binarySearch(dir.nameWords, word));
+                }
+            } else {
+                for (int w = 0; w < dir.nameWords.length; w++) {
+                    if (ws.contains(dir.nameWords[w])) {
+                        dir.addFiles(set, w);
+                    }
+                }
+            }
+            result.and(set);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addDirs(Set<Dir> set, Object value) {
+        if (value instanceof Dir) {
+            set.add((Dir) value);
+        } else if (value != null) {
+            set.addAll((Set<Dir>) value);
+        }
+    }
+
+    /**
+     * Number of files in the index.
+     */
+    public int size() {
+        int n = 0;
+        for (Dir dir : dirs.values()) {
+            n += dir.names.length;
+        }
+        return n;
+    }
+
+    private boolean isReady(String path) {
+        synchronized (roots) {
+            for (String root : readyRoots) {
+                if (path.equals(root) || path.startsWith(prefix(root))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void addRoot(final String root) {
+        synchronized (roots) {
+            if (!started || !roots.add(root)) {
+                return;
+            }
+        }
+
+        queue.execute(new Runnable() {
+            public void run() {
+                reconcileRoot(root, new HashSet<String>());
+            }
+        });
+    }
+
+    private void reconcileRoot(String root, Set<String> visited) {
+        synchronized (roots) {
+            roots.add(root);
+        }
+
+        try {
+            reconcile(root, visited);
+        } catch (Throwable e) {
+            LOG.warn("Error indexing library directory: " + root, e);
+        }
+
+        synchronized (roots) {
+            readyRoots.add(root);
+        }
+    }
+
+    /**
+     * Walks the tree under path, listing again only the directories that
+     * changed since they were indexed.
+     */
+    private void reconcile(String path, Set<String> visited) {
+        Deque<String> stack = new ArrayDeque<String>();
+        stack.push(path);
+
+        while (!stack.isEmpty()) {
+            String p = stack.pop();
+            if (!visited.add(p)) {
+                continue;
+            }
+
+            Dir dir = dirs.get(p);
+            long mtime = new File(p).lastModified();
+
+            if (dir == null || mtime == 0 || dir.mtime != mtime) {
+                dir = list(p);
+                if (dir == null) {
+                    removeTree(p);
+                    continue;
+                }
+                putDir(p, dir);
+            }
+
+            register(p);
+
+            for (String sub : dir.subdirs) {
+                stack.push(dir.prefix + sub);
+            }
+        }
+    }
+
+    /**
+     * Lists again a directory reported by the watcher.
+     */
+    private void refresh(String path) {
+        Dir old = dirs.get(path);
+        if (old == null) {
+            return;
+        }
+
+        Dir dir = list(path);
+        if (dir == null) {
+            removeTree(path);
+            return;
+        }
+
+        putDir(path, dir);
+
+        Set<String> oldSubdirs = new HashSet<String>();
+        for (String sub : old.subdirs) {
+            oldSubdirs.add(sub);
+        }
+
+        for (String sub : dir.subdirs) {
+            if (!oldSubdirs.remove(sub)) {
+                // created or moved in, with whatever it has inside
+                reconcile(dir.prefix + sub, new HashSet<String>());
+            }
+        }
+
+        for (String sub : oldSubdirs) {
+            removeTree(dir.prefix + sub);
+        }
+    }
+
+    private void putDir(String path, Dir dir) {
+        Dir old = dirs.put(path, dir);
+        if (old != null) {
+            unindex(old);
+        }
+        for (String word : dir.allWords()) {
+            Object value = words.get(word);
+            if (value == null) {
+                words.put(word, dir);
+                vocabulary = null;
+            } else if (value instanceof Dir) {
+                Set<Dir> set = Collections.newSetFromMap(new ConcurrentHashMap<Dir, Boolean>());
+                set.add((Dir) value);
+                set.add(dir);
+                words.put(word, set);
+            } else {
+                @SuppressWarnings("unchecked")
+                Set<Dir> set = (Set<Dir>) value;
+                set.add(dir);
+            }
+        }
+        dirty = true;
+    }
+
+    private void removeDir(String path) {
+        Dir old = dirs.remove(path);
+        if (old != null) {
+            unindex(old);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Only called from the index thread, like all the changes.
+     */
+    private void unindex(Dir dir) {
+        for (String word : dir.allWords()) {
+            Object value = words.get(word);
+            if (value == dir) {
+                words.remove(word);
+                vocabulary = null;
+            } else if (value instanceof Set) {
+                @SuppressWarnings("unchecked")
+                Set<Dir> set = (Set<Dir>) value;
+                set.remove(dir);
+                if (set.isEmpty()) {
+                    words.remove(word);
+                    vocabulary = null;
+                }
+            }
+        }
+    }
+
+    private void removeTree(String path) {
+        String prefix = prefix(path);
+
+        for (String p : new ArrayList<String>(dirs.keySet())) {
+            if (p.equals(path) || p.startsWith(prefix)) {
+                removeDir(p);
+            }
+        }
+
+        Iterator<Entry<WatchKey, String>> kit = keys.entrySet().iterator();
+        while (kit.hasNext()) {
+            Entry<WatchKey, String> e = kit.next();
+            String p = e.getValue();
+            if (p.equals(path) || p.startsWith(prefix)) {
+                e.getKey().cancel();
+                kit.remove();
+            }
+        }
+    }
+
+    /**
+     * @return null if the directory can't be listed
+     */
+    private Dir list(String path) {
+        File f = new File(path);
+        // taken before the listing, a change in the middle is seen the next time
+        long mtime = f.lastModified();
+
+        if (mtime == 0 || !f.isDirectory()) {
+            return null;
+        }
+
+        List<String> names = new ArrayList<String>();
+        List<String> subdirs = new ArrayList<String>();
+
+        DirectoryStream<Path> ds = null;
+        try {
+            ds = Files.newDirectoryStream(f.toPath());
+            for (Path child : ds) {
+                try {
+                    if (Files.isHidden(child)) {
+                        continue;
+                    }
+
+                    BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    String name = child.getFileName().toString();
+
+                    if (attrs.isDirectory()) {
+                        subdirs.add(name);
+                    } else if (attrs.isRegularFile()) {
+                        names.add(name);
+                    }
+                } catch (IOException e) {
+                    // deleted in the middle or not readable, ignore it
+                }
+            }
+        } catch (Throwable e) {
+            LOG.debug("Unable to list library directory: " + path + ", e=" + e.getMessage());
+            return null;
+        } finally {
+            if (ds != null) {
+                try {
+                    ds.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+
+        return new Dir(path, mtime, names.toArray(EMPTY_STRINGS), subdirs.toArray(EMPTY_STRINGS));
+    }
+
+    private void register(String path) {
+        if (watcher == null) {
+            return;
+        }
+
+        try {
+            WatchKey key = new File(path).toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            keys.put(key, path);
+        } catch (Throwable e) {
+            if (!unwatched) {
+                LOG.warn("Unable to watch library directory: " + path + ", changes are only reconciled from time to time, e=" + e.getMessage());
+                unwatched = true;
+            }
+        }
+    }
+
+    private void watch() {
+        Set<String> pending = new LinkedHashSet<String>();
+        long firstPending = 0;
+        long lastSave = System.currentTimeMillis();
+        long lastReconcile = lastSave;
+
+        while (true) {
+            try {
+                WatchKey key = null;
+                if (watcher != null) {
+                    key = watcher.poll(EVENTS_DELAY / 2, TimeUnit.MILLISECONDS);
+                } else {
+                    Thread.sleep(EVENTS_DELAY);
+                }
+
+                long now = System.currentTimeMillis();
+
+                if (key != null) {
+                    String path = keys.get(key);
+                    for (WatchEvent<?> e : key.pollEvents()) {
+                        if (path != null) {
+                            if (pending.isEmpty()) {
+                                firstPending = now;
+                            }
+                            pending.add(path);
+                        }
+                        if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            LOG.debug("Library watcher overflow, reconciling everything");
+                            lastReconcile = 0;
+                        }
+                    }
+                    if (!key.reset()) {
+                        keys.remove(key);
+                    }
+                }
+
+                if (!pending.isEmpty() && now - firstPending >= EVENTS_DELAY) {
+                    final List<String> paths = new ArrayList<String>(pending);
+                    pending.clear();
+                    queue.execute(new Runnable() {
+                        public void run() {
+                            for (String p : paths) {
+                                refresh(p);
+                            }
+                        }
+                    });
+                }
+
+                if ((unwatched && now - lastReconcile >= RECONCILE_INTERVAL) || lastReconcile == 0) {
+                    lastReconcile = now;
+                    queue.execute(new Runnable() {
+                        public void run() {
+                            reconcileAll();
+                        }
+                    });
+                }
+
+                if (dirty && now - lastSave >= SAVE_INTERVAL) {
+                    lastSave = now;
+                    queue.execute(new Runnable() {
+                        public void run() {
+                            save();
+                        }
+                    });
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                LOG.warn("Error watching library directories", e);
+            }
+        }
+    }
+
+    private void reconcileAll() {
+        List<String> list;
+        synchronized (roots) {
+            list = new ArrayList<String>(roots);
+        }
+
+        Set<String> visited = new HashSet<String>();
+        for (String root : list) {
+            reconcileRoot(root, visited);
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+
+            if (in.readInt() != VERSION) {
+                return;
+            }
+
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String path = in.readUTF();
+                long mtime = in.readLong();
+
+                int nfiles = in.readInt();
+                String[] names = new String[nfiles];
+                for (int j = 0; j < nfiles; j++) {
+                    names[j] = in.readUTF();
+                }
+
+                int nsubdirs = in.readInt();
+                String[] subdirs = new String[nsubdirs];
+                for (int j = 0; j < nsubdirs; j++) {
+                    subdirs[j] = in.readUTF();
+                }
+
+                putDir(path, new Dir(path, mtime, names, subdirs));
+            }
+            dirty = false;
+        } catch (Throwable e) {
+            LOG.warn("Error loading library index, rebuilding it", e);
+            dirs.clear();
+            words.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void save() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+
+            List<Dir> list = new ArrayList<Dir>(dirs.values());
+
+            out.writeInt(VERSION);
+            out.writeInt(list.size());
+            for (Dir dir : list) {
+                out.writeUTF(dir.path);
+                out.writeLong(dir.mtime);
+
+                out.writeInt(dir.names.length);
+                for (String name : dir.names) {
+                    out.writeUTF(name);
+                }
+
+                out.writeInt(dir.subdirs.length);
+                for (String sub : dir.subdirs) {
+                    out.writeUTF(sub);
+                }
+            }
+
+            out.close();
+            out = null;
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (Throwable e) {
+            LOG.warn("Error saving library index", e);
+            dirty = true;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static Set<File> getLibraryDirectories() {
+        Set<File> set = new LinkedHashSet<File>();
+
+        set.add(SharingSettings.TORRENT_DATA_DIR_SETTING.getValue());
+        set.add(SharingSettings.TORRENTS_DIR_SETTING.getValue());
+        set.addAll(LibrarySettings.DIRECTORIES_TO_INCLUDE.getValue());
+        set.removeAll(LibrarySettings.DIRECTORIES_NOT_TO_INCLUDE.getValue());
+        set.remove(null);
+
+        return set;
+    }
+
+    private static String prefix(String path) {
+        return path.endsWith(File.separator) ? path : path + File.separator;
+    }
+
+    /**
+     * Same rule of the recursive walk, the excluded directories are only
+     * checked below the searched directory.
+     */
+    private static boolean isExcluded(String path, String root, List<String> excluded) {
+        if (path.equals(root)) {
+            return false;
+        }
+
+        for (String e : excluded) {
+            if ((path.equals(e) || path.startsWith(prefix(e))) && !root.startsWith(prefix(e)) && !root.equals(e)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The runs of letters and digits of the tokens.
+     */
+    private static List<String> pieces(String[] tokens) {
+        List<String> pieces = new ArrayList<String>();
+        for (String token : tokens) {
+            for (String piece : splitWords(token)) {
+                if (!pieces.contains(piece)) {
+                    pieces.add(piece);
+                }
+            }
+        }
+        return pieces;
+    }
+
+    /**
+     * The runs of letters and digits of the string, in lower case.
+     */
+    private static List<String> splitWords(String s) {
+        List<String> list = new ArrayList<String>();
+        int n = s.length();
+        int i = 0;
+        while (i < n) {
+            while (i < n && !Character.isLetterOrDigit(s.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < n && Character.isLetterOrDigit(s.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                char[] word = new char[i - start];
+                for (int j = 0; j < word.length; j++) {
+                    word[j] = Character.toLowerCase(s.charAt(start + j));
+                }
+                list.add(new String(word));
+            }
+        }
+        return list;
+    }
+
+    private static boolean matches(String prefix, String name, String[] tokens, boolean[] matched) {
+        for (int i = 0; i < tokens.length; i++) {
+            if (!matched[i] && !indexOfIgnoreCase(prefix, name, tokens[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean indexOfIgnoreCase(String s, String token) {
+        return indexOfIgnoreCase(s, "", token);
+    }
+
+    /**
+     * True if the lower case token is in a + b, without creating the
+     * concatenated string. The token is known not to be inside a alone,
+     * so the search starts where it could cross into b.
+     */
+    private static boolean indexOfIgnoreCase(String a, String b, String token) {
+        int na = a.length();
+        int n = na + b.length();
+        int m = token.length();
+
+        int start = b.length() > 0 ? Math.max(0, na - m + 1) : 0;
+
+        for (int i = start; i <= n - m; i++) {
+            int j = 0;
+            while (j < m) {
+                int k = i + j;
+                char c = k < na ? a.charAt(k) : b.charAt(k - na);
+                if (Character.toLowerCase(c) != token.charAt(j)) {
+                    break;
+                }
+                j++;
+            }
+            if (j == m) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * All the words in one string, a piece is looked up with indexOf instead
+     * of a contains for every word.
+     */
+    private static final class Vocabulary {
+
+        private final String text; // every word after a separator
+        private final int[] starts;
+
+        public Vocabulary(Collection<String> words) {
+            List<String> list = new ArrayList<String>(words);
+            StringBuilder sb = new StringBuilder();
+            starts = new int[list.size()];
+            for (int i = 0; i < starts.length; i++) {
+                sb.append('\n');
+                starts[i] = sb.length();
+                sb.append(list.get(i));
+            }
+            text = sb.toString();
+        }
+
+        /**
+         * @return the words containing the piece, null if there are more than max
+         */
+        public Set<String> find(String piece, int max) {
+            Set<String> set = new HashSet<String>();
+            int from = 0;
+            int i;
+            while ((i = text.indexOf(piece, from)) >= 0) {
+                int w = Arrays.binarySearch(starts, i);
+                if (w < 0) {
+                    w = -w - 2;
+                }
+                int end = w + 1 < starts.length ? starts[w + 1] - 1 : text.length();
+                if (set.size() == max) {
+                    return null;
+                }
+                set.add(text.substring(starts[w], end));
+                from = end;
+            }
+            return set;
+        }
+    }
+
+    private static final class Dir {
+
+        public final String path;
+        public final String prefix;
+        public final long mtime;
+
+        public final String[] names;
+        public final String[] subdirs;
+
+        public final String[] pathWords;
+
+        // the distinct words of the names, sorted, and the indexes of the names
+        // with nameWords[i] in files from offsets[i] to offsets[i + 1]
+        public final String[] nameWords;
+        private final int[] offsets;
+        private final int[] files;
+
+        public Dir(String path, long mtime, String[] names, String[] subdirs) {
+            this.path = path;
+            this.prefix = prefix(path);
+            this.mtime = mtime;
+            this.names = names;
+            this.subdirs = subdirs;
+
+            List<String> list = splitWords(path);
+            this.pathWords = list.toArray(new String[list.size()]);
+
+            Map<String, List<Integer>> map = new HashMap<String, List<Integer>>();
+            int n = 0;
+            for (int i = 0; i < names.length; i++) {
+                for (String word : splitWords(names[i])) {
+                    List<Integer> indexes = map.get(word);
+                    if (indexes == null) {
+                        indexes = new ArrayList<Integer>(1);
+                        map.put(word, indexes);
+                    }
+                    if (indexes.isEmpty() || indexes.get(indexes.size() - 1) != i) {
+                        indexes.add(i);
+                        n++;
+                    }
+                }
+            }
+
+            this.nameWords = map.keySet().toArray(new String[map.size()]);
+            Arrays.sort(nameWords);
+            this.offsets = new int[nameWords.length + 1];
+            this.files = new int[n];
+            int k = 0;
+            for (int w = 0; w < nameWords.length; w++) {
+                offsets[w] = k;
+                for (Integer i : map.get(nameWords[w])) {
+                    files[k++] = i;
+                }
+            }
+            offsets[nameWords.length] = k;
+        }
+
+        /**
+         * Sets the indexes of the names with the word w, if w is not negative.
+         */
+        public void addFiles(BitSet set, int w) {
+            if (w >= 0) {
+                for (int i = offsets[w]; i < offsets[w + 1]; i++) {
+                    set.set(files[i]);
+                }
+            }
+        }
+
+        /**
+         * The words of the path and of the names.
+         */
+        public Set<String> allWords() {
+            Set<String> set = new HashSet<String>(Arrays.asList(nameWords));
+            Collections.addAll(set, pathWords);
+            return set;
+        }
+    }
+}
@@ -61,7 +61,6 @@ import com.frostwire.gui.bittorrent.CreateTorrentDialog;
 import com.frostwire.gui.bittorrent.TorrentUtil;
 import com.frostwire.gui.player.MediaPlayer;
 import com.frostwire.gui.player.MediaSource;
-import com.frostwire.gui.upnp.UPnPManager;
 import com.limegroup.gnutella.MediaType;
 import com.limegroup.gnutella.gui.ButtonRow;
 import com.limegroup.gnutella.gui.CheckBoxList;
@@ -1242,6 +1241,7 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
         @Override
         public void actionPerformed(ActionEvent e) {
             int[] rows = TABLE.getSelectedRows();
+            List<String> filePaths = new ArrayList<String>(rows.length);
             for (int i = 0; i < rows.length; i++) {
                 int index = rows[i]; // current index to add
                 File file = DATA_MODEL.getFile(index);
@@ -1251,12 +1251,12 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
                     //we nest this logic for clarity.
                     if (share) {
                         if (!Librarian.instance().isFileShared(file.getAbsolutePath())) {
-                            actualShare(dataLine, file);
+                            actualShare(dataLine, file, filePaths);
                         }
                     } 
                     //this happens only when.
                     else {
-                        actualShare(dataLine,file);
+                        actualShare(dataLine, file, filePaths);
                     }
 
                 } catch (Exception ex) {
@@ -1264,12 +1264,13 @@ final class LibraryFilesTableMediator extends AbstractLibraryTableMediator<Libra
                 }
             }
 
-            UPnPManager.instance().refreshPing();
+            // all the files in a single batch, refreshing the ping once they are done
+            Librarian.instance().shareFiles(filePaths, share, true);
         }
         
-        private void actualShare(LibraryFilesTableDataLine dataLine, File file) {
+        private void actualShare(LibraryFilesTableDataLine dataLine, File file, List<String> filePaths) {
             dataLine.setShared(share);
-            Librarian.instance().shareFile(file.getAbsolutePath(), share, false);
+            filePaths.add(file.getAbsolutePath());
         }
     }
 }
@@ -142,6 +142,8 @@ public class LibraryMediator {
         ((DesktopUPnPManager) UPnPManager.instance()).start();
 
         clerk = new DeviceDiscoveryClerk();
+
+        LibraryFileIndex.instance().start();
     }
 
     public DeviceDiscoveryClerk getDeviceDiscoveryClerk() {
@@ -256,6 +256,8 @@ public class LibrarySearch extends JPanel {
 
     private final class SearchFilesRunnable extends SearchRunnable {
 
+        private static final int MAX_RESULTS_PER_UPDATE = 1000;
+
         private final String _query;
         private final DirectoryHolder directoryHolder;
 
@@ -341,7 +343,8 @@ public class LibrarySearch extends JPanel {
         }
 
         /**
-         * It searches _query in haystackDir.
+         * It searches _query in haystackDir, using the library file index
+         * if the directory is already indexed.
          * 
          * @param haystackDir
          * @param excludeFiles - Usually a list of incomplete files.
@@ -351,6 +354,77 @@ public class LibrarySearch extends JPanel {
                 return;
             }
 
+            if (haystackDir == null) {
+                return;
+            }
+
+            SearchFileFilter searchFilter = new SearchFileFilter(_query);
+
+            List<File> indexed = LibraryFileIndex.instance().search(haystackDir, exludedSubFolders, searchFilter.getTokens());
+            if (indexed == null) {
+                walk(haystackDir, excludeFiles, exludedSubFolders);
+                return;
+            }
+
+            List<File> results = new ArrayList<File>();
+
+            for (File file : indexed) {
+                if (canceled) {
+                    return;
+                }
+
+                if (excludeFiles.contains(file)) {
+                    continue;
+                }
+
+                // the index already matched the tokens
+                if (directoryHolder instanceof SavedFilesDirectoryHolder || directoryHolder.accept(file)) {
+                    results.add(file);
+                }
+
+                if (results.size() >= MAX_RESULTS_PER_UPDATE) {
+                    if (!addResults(results)) {
+                        return;
+                    }
+                    results = new ArrayList<File>();
+                }
+            }
+
+            addResults(results);
+        }
+
+        /**
+         * Hands the results to the library table.
+         * 
+         * @return false if the user selected another item in the library tree
+         */
+        private boolean addResults(final List<File> results) {
+            DirectoryHolder currentDirectoryHolder = LibraryMediator.instance().getLibraryExplorer().getSelectedDirectoryHolder();
+            if (!directoryHolder.equals(currentDirectoryHolder)) {
+                return false;
+            }
+
+            GUIMediator.safeInvokeLater(new Runnable() {
+                public void run() {
+                    LibraryMediator.instance().addFilesToLibraryTable(results);
+
+                    if (directoryHolder instanceof SavedFilesDirectoryHolder) {
+                        LibraryFilesTableMediator.instance().resetAudioPlayerFileView();
+                    }
+                }
+            });
+
+            return true;
+        }
+
+        /**
+         * Walks haystackDir recursively, used until the directory is indexed.
+         */
+        private void walk(File haystackDir, Set<File> excludeFiles, Set<File> exludedSubFolders) {
+            if (canceled) {
+                return;
+            }
+
             if (haystackDir == null || !haystackDir.isDirectory() || !haystackDir.exists()) {
                 return;
             }
@@ -405,7 +479,7 @@ public class LibrarySearch extends JPanel {
             GUIMediator.safeInvokeLater(r);
 
             for (File directory : directories) {
-                search(directory, excludeFiles, exludedSubFolders);
+                walk(directory, excludeFiles, exludedSubFolders);
             }
         }
 
@@ -456,6 +530,10 @@ public class LibrarySearch extends JPanel {
             _tokens = StringUtils.removeDoubleSpaces(query).toLowerCase(Locale.US).split(" ");
         }
 
+        public String[] getTokens() {
+            return _tokens;
+        }
+
         public boolean accept(File pathname) {
             return accept(pathname, true);
         }
@@ -18,12 +18,14 @@
 
 package com.frostwire.gui.transfers;
 
+import java.io.InterruptedIOException;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 import com.frostwire.core.FileDescriptor;
 import com.limegroup.gnutella.gui.I18n;
+import com.limegroup.gnutella.settings.LibrarySettings;
 
 /**
  * @author gubatron
@@ -38,22 +40,32 @@ public class PeerHttpUpload implements UploadTransfer {
 
     private static final int SPEED_AVERAGE_CALCULATION_INTERVAL_MILLISECONDS = 1000;
 
+    private static final int SHAPING_BURST_MILLISECONDS = 250;
+
     //private final TransferManager manager;
     private final FileDescriptor fd;
     private final Date dateCreated;
 
     private int status;
     public long bytesSent;
+    private long bytesToSend;
     public long averageSpeed; // in bytes
 
     // variables to keep the upload rate of this transfer
     private long speedMarkTimestamp;
     private long totalSentSinceLastSpeedStamp;
 
+    // token bucket to keep the upload under the max speed
+    private final long maxSpeed; // in bytes, 0 for no limit
+    private long shapingTimestamp;
+    private long shapingAllowance;
+
     public PeerHttpUpload(/*TransferManager manager,*/FileDescriptor fd) {
         //this.manager = manager;
         this.fd = fd;
         this.dateCreated = new Date();
+        this.maxSpeed = LibrarySettings.LIBRARY_WIFI_SHARING_MAX_UPLOAD_SPEED.getValue() * 1024L;
+        this.bytesToSend = fd.fileSize;
 
         status = STATUS_UPLOADING;
     }
@@ -71,7 +83,7 @@ public class PeerHttpUpload implements UploadTransfer {
     }
 
     public int getProgress() {
-        return isComplete() ? 100 : (int) ((bytesSent * 100) / fd.fileSize);
+        return isComplete() ? 100 : (int) ((bytesSent * 100) / bytesToSend);
     }
 
     public long getSize() {
@@ -100,11 +112,11 @@ public class PeerHttpUpload implements UploadTransfer {
 
     public long getETA() {
         long speed = getUploadSpeed();
-        return speed > 0 ? (fd.fileSize - getBytesSent()) / speed : Long.MAX_VALUE;
+        return speed > 0 ? (bytesToSend - getBytesSent()) / speed : Long.MAX_VALUE;
     }
 
     public boolean isComplete() {
-        return bytesSent == fd.fileSize;
+        return bytesSent >= bytesToSend;
     }
 
     public boolean isUploading() {
@@ -122,11 +134,55 @@ public class PeerHttpUpload implements UploadTransfer {
         //manager.remove(this);
     }
 
+    /**
+     * Sets the number of bytes of the requested ranges, the whole file by default.
+     */
+    public void setBytesToSend(long bytesToSend) {
+        this.bytesToSend = bytesToSend;
+    }
+
     public void addBytesSent(int n) {
         bytesSent += n;
         updateAverageUploadSpeed();
     }
 
+    /**
+     * Returns how many of the wanted bytes can be sent now without going over
+     * the max speed, waiting until some bytes are allowed.
+     */
+    public long acquireBytesToSend(long wanted) throws InterruptedIOException {
+        if (maxSpeed <= 0) {
+            return wanted;
+        }
+
+        long burst = Math.max(1024, maxSpeed * SHAPING_BURST_MILLISECONDS / 1000);
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (shapingTimestamp == 0) {
+                shapingTimestamp = now;
+                shapingAllowance = burst;
+            }
+            long refill = (now - shapingTimestamp) * maxSpeed / 1000;
+            if (refill > 0) {
+                shapingAllowance = Math.min(burst, shapingAllowance + refill);
+                shapingTimestamp = now;
+            }
+
+            if (shapingAllowance > 0) {
+                long n = Math.min(wanted, shapingAllowance);
+                shapingAllowance -= n;
+                return n;
+            }
+
+            try {
+                Thread.sleep(Math.max(10, SHAPING_BURST_MILLISECONDS / 4));
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Upload interrupted");
+            }
+        }
+    }
+
     public void complete() {
         status = STATUS_COMPLETE;
         cancel();
@@ -0,0 +1,340 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.frostwire.search.CrawledSearchResult;
+import com.frostwire.search.FileSearchResult;
+import com.frostwire.search.SearchResult;
+
+/**
+ * Checks if a search result contains all the tokens of the query.
+ *
+ * The query tokens are normalized once per search. The text of the results
+ * is cleaned up with the same rules of the old regex based sanitize (html
+ * tags and entities, web words and separator chars), folded to lower case
+ * without diacritics char by char, and matched against all the tokens in
+ * a single pass, without creating intermediate strings.
+ *
+ * Instances are immutable and can be used from any thread.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class QueryMatcher {
+
+    // fold table values, 0 means not computed yet
+    private static final char FOLD_NONE = '\uFFFF';
+    private static final char FOLD_MULTI = '\uFFFE';
+
+    private static final char[] FOLDS = new char[Character.MAX_VALUE + 1];
+    private static final ConcurrentMap<Character, String> MULTI_FOLDS = new ConcurrentHashMap<Character, String>();
+
+    private static final boolean[] SEPARATORS = new boolean[256];
+
+    static {
+        String separators = "\\/%_;-.()[]\n\rÐ&~{}*@^'=!,¡|#ÀÁ";
+        for (int i = 0; i < separators.length(); i++) {
+            SEPARATORS[separators.charAt(i)] = true;
+        }
+    }
+
+    private final char[][] tokens;
+    private final int[][] failures;
+
+    private QueryMatcher(List<String> tokens) {
+        this.tokens = new char[tokens.size()][];
+        this.failures = new int[tokens.size()][];
+
+        for (int i = 0; i < this.tokens.length; i++) {
+            char[] token = tokens.get(i).toCharArray();
+            this.tokens[i] = token;
+            this.failures[i] = failure(token);
+        }
+    }
+
+    /**
+     * Creates the matcher for the tokens of the given query.
+     */
+    public static QueryMatcher compile(String query) {
+        Folder folder = new Folder();
+        folder.feed(query);
+
+        return new QueryMatcher(folder.getTokens());
+    }
+
+    public int getNumTokens() {
+        return tokens.length;
+    }
+
+    /**
+     * True if the display name, parent display name and file name of the
+     * result contain all the tokens of the query.
+     */
+    public boolean matches(SearchResult sr) {
+        if (tokens.length == 0) {
+            return true;
+        }
+
+        Matching m = new Matching();
+
+        if (m.feed(sr.getDisplayName())) {
+            return true;
+        }
+
+        if (sr instanceof CrawledSearchResult && m.feed(((CrawledSearchResult) sr).getParent().getDisplayName())) {
+            return true;
+        }
+
+        if (sr instanceof FileSearchResult && m.feed(((FileSearchResult) sr).getFilename())) {
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Folds the char to lower case without diacritics, the same as the old
+     * NFKD normalization, combining marks removal and lower case conversion.
+     */
+    static char fold(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+        }
+
+        char f = FOLDS[c];
+        if (f == 0) {
+            String s = foldSlow(c);
+            if (s.length() == 0) {
+                f = FOLD_NONE;
+            } else if (s.length() == 1 && s.charAt(0) != FOLD_NONE && s.charAt(0) != FOLD_MULTI && s.charAt(0) != 0) {
+                f = s.charAt(0);
+            } else {
+                MULTI_FOLDS.put(c, s);
+                f = FOLD_MULTI;
+            }
+            // benign race, all threads compute the same value
+            FOLDS[c] = f;
+        }
+
+        return f;
+    }
+
+    private static String foldSlow(char c) {
+        String s = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFKD);
+
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char d = s.charAt(i);
+            if (d < '\u0300' || d > '\u036F') { // combining diacritical marks block
+                sb.append(d);
+            }
+        }
+
+        return sb.toString().toLowerCase(Locale.US);
+    }
+
+    private static int[] failure(char[] token) {
+        int[] f = new int[token.length];
+
+        int k = 0;
+        for (int i = 1; i < token.length; i++) {
+            while (k > 0 && token[k] != token[i]) {
+                k = f[k - 1];
+            }
+            if (token[k] == token[i]) {
+                k++;
+            }
+            f[i] = k;
+        }
+
+        return f;
+    }
+
+    /**
+     * Cleans up and folds a text, handing the resulting chars to {@link #accept(char)}.
+     */
+    private static abstract class Scanner {
+
+        /**
+         * @return true to stop the scan
+         */
+        protected abstract boolean accept(char c);
+
+        public final boolean feed(String s) {
+            if (s == null) {
+                return false;
+            }
+
+            int n = s.length();
+            for (int i = 0; i < n; i++) {
+                char c = s.charAt(i);
+
+                if (c == '<' || c == '&') {
+                    int end = lineIndexOf(s, c == '<' ? '>' : ';', i + 1);
+                    if (end != -1) { // html tag or entity, removed
+                        i = end;
+                        continue;
+                    }
+                } else if (c == '.') {
+                    if (s.startsWith(".torrent", i)) {
+                        i += 7;
+                    } else if (s.startsWith(".com", i) || s.startsWith(".net", i)) {
+                        i += 3;
+                    }
+                } else if (c == 'w' && s.startsWith("www.", i)) {
+                    i += 3;
+                    c = ' ';
+                }
+
+                if (c < 256 && SEPARATORS[c]) {
+                    c = ' ';
+                }
+
+                if (emit(c)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private boolean emit(char c) {
+            char f = fold(c);
+
+            if (f == FOLD_NONE) {
+                return false;
+            }
+
+            if (f == FOLD_MULTI) {
+                String s = MULTI_FOLDS.get(c);
+                if (s == null) { // table entry seen before the map entry
+                    s = foldSlow(c);
+                }
+                for (int i = 0; i < s.length(); i++) {
+                    if (accept(s.charAt(i))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            return accept(f);
+        }
+
+        private static int lineIndexOf(String s, char c, int from) {
+            int n = s.length();
+            for (int i = from; i < n; i++) {
+                char d = s.charAt(i);
+                if (d == c) {
+                    return i;
+                }
+                if (d == '\n' || d == '\r' || d == '\u0085' || d == '\u2028' || d == '\u2029') {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Splits the query in folded tokens.
+     */
+    private static final class Folder extends Scanner {
+
+        private final StringBuilder sb;
+        private final Set<String> tokens;
+
+        public Folder() {
+            this.sb = new StringBuilder();
+            this.tokens = new LinkedHashSet<String>();
+        }
+
+        @Override
+        protected boolean accept(char c) {
+            if (Character.isWhitespace(c)) {
+                flush();
+            } else {
+                sb.append(c);
+            }
+            return false;
+        }
+
+        public List<String> getTokens() {
+            flush();
+            return new ArrayList<String>(tokens);
+        }
+
+        private void flush() {
+            if (sb.length() > 0) {
+                tokens.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+    }
+
+    /**
+     * KMP state of all the tokens against the text of one result.
+     */
+    private final class Matching extends Scanner {
+
+        private final int[] states;
+        private int remaining;
+
+        public Matching() {
+            this.states = new int[tokens.length];
+            this.remaining = tokens.length;
+        }
+
+        @Override
+        protected boolean accept(char c) {
+            for (int i = 0; i < tokens.length; i++) {
+                char[] token = tokens[i];
+                int j = states[i];
+
+                if (j == token.length) { // already matched
+                    continue;
+                }
+
+                while (j > 0 && token[j] != c) {
+                    j = failures[i][j - 1];
+                }
+                if (token[j] == c) {
+                    j++;
+                }
+                states[i] = j;
+
+                if (j == token.length) {
+                    remaining--;
+                }
+            }
+
+            return remaining == 0;
+        }
+    }
+}
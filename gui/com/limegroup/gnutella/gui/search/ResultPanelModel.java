@@ -16,8 +16,13 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.frostwire.search.PerformersHelper;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.torrent.TorrentCrawledSearchResult;
+import com.frostwire.search.torrent.TorrentSearchResult;
 import com.limegroup.gnutella.gui.tables.AbstractTableMediator;
 import com.limegroup.gnutella.gui.tables.BasicDataLineModel;
 import com.limegroup.gnutella.gui.tables.LimeTableColumn;
@@ -44,11 +49,24 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
 
     /**
      * HashMap for quick access to indexes based on SHA1 info.
+     * Only the indexes below _indexedRows are valid, the rest are
+     * remapped lazily the next time a row is looked up.
      */
     private final Map<String, Integer> _indexes = new HashMap<String, Integer>();
 
+    /**
+     * The number of rows, from the top, whose indexes are up to date.
+     */
+    private int _indexedRows;
+
     private int _numResults;
 
+    /**
+     * The lines of this search by torrent info hash (and file path for the
+     * crawled files), the same torrent from other engines is merged into them.
+     */
+    private final Map<String, SearchResultDataLine> _merged = new HashMap<String, SearchResultDataLine>();
+
     /**
      * Constructs a new ResultPanelModel with the given MetadataModel.
      */
@@ -109,7 +127,7 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
             _indexes.remove(sha1);
         super.remove(row);
         _numResults -= 1;
-        remapIndexes(row);
+        invalidateIndexes(row);
     }
 
     /**
@@ -119,6 +137,42 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
         return add(o, getRowCount());
     }
 
+    /**
+     * Merges the result into the line of the same torrent, if any.
+     */
+    public int add(UISearchResult o, int row) {
+        String key = getMergeKey(o);
+        if (key != null && merge(key, o)) {
+            return -1;
+        }
+        SearchResultDataLine dl = getNewDataLine(o);
+        if (dl == null) {
+            return -1;
+        }
+        if (key != null) {
+            _merged.put(key, dl);
+        }
+        return add(dl, row);
+    }
+
+    /**
+     * Merges the result into the line of the same torrent, if any.
+     */
+    public int addSorted(UISearchResult o) {
+        String key = getMergeKey(o);
+        if (key != null && merge(key, o)) {
+            return -1;
+        }
+        SearchResultDataLine dl = getNewDataLine(o);
+        if (dl == null) {
+            return -1;
+        }
+        if (key != null) {
+            _merged.put(key, dl);
+        }
+        return add(dl, getSortedPosition(dl));
+    }
+
     /**
      * Override to fix compile error on OSX.
      */
@@ -139,14 +193,20 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      */
     public int add(SearchResultDataLine tl, int row) {
         _numResults += 1;
-        String sha1 = tl.getHash();
-        if (sha1 != null)
-            _indexes.put(sha1, new Integer(row));
         int addedAt = super.add(tl, row);
-        remapIndexes(addedAt + 1);
+        invalidateIndexes(addedAt);
         return addedAt;
     }
 
+    /**
+     * Maintains the indexes HashMap, the lines may end up anywhere if sorted.
+     */
+    public void addAll(List<SearchResultDataLine> lines) {
+        _numResults += lines.size();
+        invalidateIndexes(isSorted() ? 0 : getRowCount());
+        super.addAll(lines);
+    }
+
     /**
      * Gets the row this DataLine is at.
      */
@@ -165,7 +225,7 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     protected void doResort() {
         super.doResort();
         _indexes.clear(); // it's easier & quicker to just clear & re-input
-        remapIndexes(0);
+        _indexedRows = 0;
     }
 
     /**
@@ -174,6 +234,17 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     protected void cleanup() {
     }
 
+    /**
+     * Clears the merged lines and the cached SHA1 indexes too.
+     */
+    public void clear() {
+        _numResults = 0;
+        _merged.clear();
+        _indexes.clear();
+        _indexedRows = 0;
+        super.clear();
+    }
+
     /**
      * Simple clear -- clears the number of sources & cached SHA1 indexes.
      * Calls super.clear to erase the stored lines.
@@ -181,28 +252,61 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
     protected void simpleClear() {
         _numResults = 0;
         _indexes.clear();
+        _indexedRows = 0;
         super.clear();
     }
 
     /**
-     * Remaps the indexes, starting at 'start' and going to the end of
-     * the list.  This is needed for when rows are added to the middle of
-     * the list to maintain the correct rows per objects.
+     * Adds the result to the line already in this search for the key.
+     * The line can be hidden by the filters.
+     */
+    private boolean merge(String key, UISearchResult sr) {
+        SearchResultDataLine line = _merged.get(key);
+        if (line == null) {
+            return false;
+        }
+        line.addMergedResult(sr);
+        fireRowsUpdated();
+        return true;
+    }
+
+    /**
+     * The info hash of a torrent result, plus the path for the crawled files.
      */
-    private void remapIndexes(int start) {
-        remapIndexes(start, getRowCount());
+    private static String getMergeKey(UISearchResult ui) {
+        SearchResult sr = ui.getSearchResult();
+        if (sr instanceof TorrentSearchResult) {
+            String hash = PerformersHelper.getInfoHash((TorrentSearchResult) sr);
+            if (hash != null) {
+                if (sr instanceof TorrentCrawledSearchResult) {
+                    return hash + "/" + ((TorrentCrawledSearchResult) sr).getRelativePath();
+                }
+                return hash;
+            }
+        }
+        return null;
     }
 
     /**
-     * Remaps the indexes, starting at 'start' and going to 'end'.
-     * This is useful for when we move a row from end to start or vice versa.
+     * Marks the indexes from 'start' to the end of the list as stale, the
+     * rows there moved when a row was added or removed at 'start'.
      */
-    private void remapIndexes(int start, int end) {
-        for (int i = start; i < end; i++) {
+    private void invalidateIndexes(int start) {
+        if (start < _indexedRows)
+            _indexedRows = start;
+    }
+
+    /**
+     * Remaps the stale indexes, from the first stale row to the end of the list.
+     */
+    private void remapIndexes() {
+        int end = getRowCount();
+        for (int i = _indexedRows; i < end; i++) {
             String sha1 = getHash(i);
             if (sha1 != null)
-                _indexes.put(sha1, new Integer(i));
+                _indexes.put(sha1, Integer.valueOf(i));
         }
+        _indexedRows = end;
     }
 
     /**
@@ -250,6 +354,12 @@ class ResultPanelModel extends BasicDataLineModel<SearchResultDataLine, UISearch
      */
     private int fastMatch(String sha1) {
         Integer idx = _indexes.get(sha1);
+        if (idx == null || idx.intValue() >= _indexedRows) {
+            if (_indexedRows == getRowCount())
+                return -1;
+            remapIndexes();
+            idx = _indexes.get(sha1);
+        }
         if (idx == null)
             return -1;
         else
@@ -16,16 +16,10 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.io.File;
-import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
-import java.util.Set;
 
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
@@ -41,12 +35,12 @@ import com.frostwire.gui.filters.SearchFilterFactoryImpl;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
 import com.frostwire.search.CrawledSearchResult;
 import com.frostwire.search.DatabaseCrawlCache;
-import com.frostwire.search.FileSearchResult;
 import com.frostwire.search.SearchManager;
 import com.frostwire.search.SearchManagerImpl;
 import com.frostwire.search.SearchManagerListener;
 import com.frostwire.search.SearchPerformer;
 import com.frostwire.search.SearchResult;
+import com.frostwire.search.TieredCrawlCache;
 import com.frostwire.search.VuzeMagnetDownloader;
 import com.frostwire.search.archiveorg.ArchiveorgCrawledSearchResult;
 import com.frostwire.search.torrent.TorrentSearchResult;
@@ -106,6 +100,8 @@ public final class SearchMediator {
 
     private final SearchManager manager;
 
+    private final SearchResultDispatcher dispatcher;
+
     /**
      * Variable for the component that handles all search input from the user.
      */
@@ -146,9 +142,11 @@ public final class SearchMediator {
             }
         });
         
-        CrawlPagedWebSearchPerformer.setCache(new DatabaseCrawlCache());
+        CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(new DatabaseCrawlCache(), SearchSettings.CRAWL_CACHE_MEMORY_SIZE.getValue()));
         CrawlPagedWebSearchPerformer.setMagnetDownloader(new VuzeMagnetDownloader());
         
+        this.dispatcher = new SearchResultDispatcher(new DispatcherListener());
+
         this.manager = new SearchManagerImpl(SEARCH_MANAGER_NUM_THREADS);
         this.manager.registerListener(new ManagerListener());
     }
@@ -257,19 +255,19 @@ public final class SearchMediator {
         }
     }
 
-    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, List<String> searchTokens) {
+    private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results, QueryMatcher matcher) {
         List<SearchResult> list;
 
-        if (searchTokens == null || searchTokens.isEmpty()) {
+        if (matcher == null) {
             list = Collections.emptyList();
         } else {
-            list = filter(results, searchTokens);
+            list = filter(results, matcher);
         }
 
         return list;
     }
 
-    private List<SearchResult> filter(List<? extends SearchResult> results, List<String> searchTokens) {
+    private List<SearchResult> filter(List<? extends SearchResult> results, QueryMatcher matcher) {
         List<SearchResult> list = new LinkedList<SearchResult>();
 
         try {
@@ -278,7 +276,7 @@ public final class SearchMediator {
                     // special case for youtube
                     if (sr instanceof YouTubeCrawledSearchResult) {
                         list.add(sr);
-                    } else if (filter(new LinkedList<String>(searchTokens), sr)) {
+                    } else if (matcher.matches(sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -293,73 +291,6 @@ public final class SearchMediator {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(sr.getDisplayName());
-        if (sr instanceof CrawledSearchResult) {
-            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
-        }
-
-        if (sr instanceof FileSearchResult) {
-            sb.append(((FileSearchResult) sr).getFilename());
-        }
-
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
-
-        return tokens.isEmpty();
-    }
-
-    private static String stripHtml(String str) {
-        str = str.replaceAll("\\<.*?>", "");
-        str = str.replaceAll("\\&.*?\\;", "");
-        return str;
-    }
-
-    private String sanitize(String str) {
-        str = stripHtml(str);
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
-
-        return str.trim();
-    }
-
-    private List<String> tokenize(String keywords) {
-        keywords = sanitize(keywords);
-
-        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
-
-        return new ArrayList<String>(normalizeTokens(tokens));
-    }
-
-    private Set<String> normalizeTokens(Set<String> tokens) {
-        Set<String> normalizedTokens = new HashSet<String>();
-
-        for (String token : tokens) {
-            String norm = normalize(token);
-            normalizedTokens.add(norm);
-        }
-
-        return normalizedTokens;
-    }
-
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
-
-        return norm;
-    }
-
     private static void updateSearchIcon(final long token, final boolean active) {
         GUIMediator.safeInvokeAndWait(new Runnable() {
             public void run() {
@@ -402,8 +333,8 @@ public final class SearchMediator {
      * standard query string, and XML query string.
      */
     private static SearchResultMediator addResultTab(long token, SearchInformation info) {
-        List<String> searchTokens = instance().tokenize(info.getQuery());
-        return getSearchResultDisplayer().addResultTab(token, searchTokens, info);
+        QueryMatcher matcher = QueryMatcher.compile(info.getQuery());
+        return getSearchResultDisplayer().addResultTab(token, matcher, info);
     }
 
     /**
@@ -545,7 +476,9 @@ public final class SearchMediator {
     private void onFinished(long token) {
         SearchResultMediator rp = getResultPanelForGUID(token);
         updateSearchIcon(token, false);
-        rp.setToken(0); // to identify that the search is stopped (needs refactor)
+        if (rp != null) {
+            rp.setToken(0); // to identify that the search is stopped (needs refactor)
+        }
     }
 
     private final class ManagerListener implements SearchManagerListener {
@@ -555,36 +488,27 @@ public final class SearchMediator {
             if (!performer.isStopped()) {
                 //System.out.println("Received results: " + performer.getToken() + " \t- " + results.size());
 
-                final long token = performer.getToken();
-                final SearchResultMediator rp = getResultPanelForGUID(token);
+                long token = performer.getToken();
+                SearchResultMediator rp = getResultPanelForGUID(token);
+
+                if (rp == null || rp.isStopped()) {
+                    return;
+                }
 
                 @SuppressWarnings("unchecked")
-                List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getSearchTokens());
+                List<SearchResult> filtered = filter(performer, (List<SearchResult>) results, rp.getQueryMatcher());
 
-                if (rp != null && !rp.isStopped() && filtered != null && !filtered.isEmpty()) {
+                if (filtered != null && !filtered.isEmpty()) {
 
                     SearchEngine se = SearchEngine.getSearchEngineByName(filtered.get(0).getSource());
                     if (se == null) {
                         return;
                     }
 
-                    final List<UISearchResult> uiResults = convertResults(filtered, se, rp.getQuery());
-
-                    GUIMediator.safeInvokeAndWait(new Runnable() {
-                        public void run() {
-                            try {
-                                SearchFilter filter = getSearchFilterFactory().createFilter();
-                                for (UISearchResult sr : uiResults) {
-                                    if (filter.allow(sr)) {
-                                        getSearchResultDisplayer().addQueryResult(token, sr, rp);
-                                    }
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                        }
-
-                    });
+                    List<UISearchResult> uiResults = convertResults(filtered, se, rp.getQuery());
+
+                    // never wait for the Swing thread here
+                    dispatcher.add(token, uiResults);
                 }
             }
         }
@@ -592,10 +516,62 @@ public final class SearchMediator {
         @Override
         public void onFinished(long token) {
             //System.out.println("Finished: " + token);
+            dispatcher.finish(token);
+        }
+    }
+
+    private final class DispatcherListener implements SearchResultDispatcher.Listener {
+
+        @Override
+        public boolean onResults(long token, List<UISearchResult> results) {
+            SearchResultMediator rp = getResultPanelForGUID(token);
+            if (rp == null) {
+                return false;
+            }
+
+            SearchFilter filter = getSearchFilterFactory().createFilter();
+            List<UISearchResult> allowed = new ArrayList<UISearchResult>(results.size());
+            for (UISearchResult sr : results) {
+                if (filter.allow(sr)) {
+                    allowed.add(sr);
+                }
+            }
+
+            getSearchResultDisplayer().addQueryResults(token, allowed, rp);
+
+            return true;
+        }
+
+        @Override
+        public void onFinished(long token) {
             SearchMediator.this.onFinished(token);
         }
     }
 
+    /**
+     * Number of search results waiting to be added to the tables.
+     */
+    public int getPendingResults() {
+        return dispatcher.getQueueDepth();
+    }
+
+    /**
+     * Average time in milliseconds the Swing thread spends adding a batch
+     * of search results to the tables.
+     */
+    public long getAverageResultsInsertTime() {
+        long n = dispatcher.getNumDeliveries();
+        return n > 0 ? dispatcher.getDeliveryTime() / n : 0;
+    }
+
+    /**
+     * Longest time in milliseconds the Swing thread spent adding a batch
+     * of search results to the tables.
+     */
+    public long getMaxResultsInsertTime() {
+        return dispatcher.getMaxDeliveryTime();
+    }
+
     public void clearCache() {
         CrawlPagedWebSearchPerformer.getCache().clear();
     }
@@ -17,6 +17,7 @@ package com.limegroup.gnutella.gui.search;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -66,6 +67,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
 
     private SearchResultNameHolder name;
     private String seeds;
+    private int maxSeeds;
     private Icon icon;
     private SizeHolder size;
     private ActionIconAndNameHolder source;
@@ -89,6 +91,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
         };
         addedOn = sr.getCreationTime() > 0 ? new Date(sr.getCreationTime()) : null;
         name = new SearchResultNameHolder(sr);
+        maxSeeds = RESULT.getSeeds();
         seeds = RESULT.getSeeds() <= 0 || !(RESULT instanceof TorrentUISearchResult) ? "" : String.valueOf(RESULT.getSeeds());
         icon = getIcon();
         size = new SizeHolder(getSize());
@@ -132,6 +135,34 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
         }
     }
 
+    /**
+     * Merges the same torrent found by another search engine into this line.
+     * The engines see the same swarm, so the line shows the best seeds count
+     * instead of the sum, and lists all the sources.
+     */
+    void addMergedResult(UISearchResult sr) {
+        if (_otherResults == null) {
+            _otherResults = new ArrayList<UISearchResult>(2);
+        }
+        _otherResults.add(sr);
+
+        if (sr.getSeeds() > maxSeeds) {
+            maxSeeds = sr.getSeeds();
+            seeds = String.valueOf(maxSeeds);
+        }
+
+        StringBuilder sources = new StringBuilder(RESULT.getSource());
+        List<String> seen = new ArrayList<String>(_otherResults.size() + 1);
+        seen.add(RESULT.getSource());
+        for (UISearchResult other : _otherResults) {
+            if (!seen.contains(other.getSource())) {
+                seen.add(other.getSource());
+                sources.append(", ").append(other.getSource());
+            }
+        }
+        source = new ActionIconAndNameHolder(null, _torrentDetailsAction, "<html><a href=\"#\">" + sources + "</a></html>");
+    }
+
     /**
      * Determines if this line is launchable.
      */
@@ -288,7 +319,7 @@ public final class SearchResultDataLine extends AbstractDataLine<UISearchResult>
     }
 
     public int getSeeds() {
-        return RESULT.getSeeds();
+        return maxSeeds;
     }
 
     public String getHash() {
@@ -0,0 +1,247 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011, 2012, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.limegroup.gnutella.gui.search;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limegroup.gnutella.gui.GUIMediator;
+
+/**
+ * Hands the search results from the search threads to the Swing thread.
+ *
+ * The search threads only add the results to a lock free queue per search
+ * and never wait for the Swing thread. The queues are drained in the Swing
+ * thread at most once per frame interval, all the pending results of a
+ * search are delivered together so they can be added to the table with a
+ * single model event.
+ *
+ * The end of a search is delivered after all its results.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class SearchResultDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SearchResultDispatcher.class);
+
+    private static final int FRAME_INTERVAL = 100; // milliseconds
+    private static final int MAX_RESULTS_PER_FRAME = 2000;
+
+    private final Listener listener;
+
+    private final ConcurrentMap<Long, Results> pending;
+    private final AtomicBoolean scheduled;
+    private final AtomicInteger queueDepth;
+    private final Timer timer;
+
+    // only touched in the Swing thread
+    private long lastDrain;
+
+    private volatile long numDeliveries;
+    private volatile long deliveryTime;
+    private volatile long maxDeliveryTime;
+
+    public SearchResultDispatcher(Listener listener) {
+        this.listener = listener;
+
+        this.pending = new ConcurrentHashMap<Long, Results>();
+        this.scheduled = new AtomicBoolean();
+        this.queueDepth = new AtomicInteger();
+
+        this.timer = new Timer(FRAME_INTERVAL, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                drain();
+            }
+        });
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Queues the results of a search, can be called from any thread.
+     */
+    public void add(long token, List<UISearchResult> results) {
+        Queue<UISearchResult> queue = results(token).queue;
+        for (UISearchResult sr : results) {
+            queue.add(sr);
+        }
+        queueDepth.addAndGet(results.size());
+
+        schedule();
+    }
+
+    /**
+     * Queues the end of a search, can be called from any thread.
+     */
+    public void finish(long token) {
+        results(token).finished = true;
+
+        schedule();
+    }
+
+    /**
+     * Number of results waiting to be delivered to the Swing thread.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getNumDeliveries() {
+        return numDeliveries;
+    }
+
+    /**
+     * Total time in milliseconds spent delivering results in the Swing thread.
+     */
+    public long getDeliveryTime() {
+        return deliveryTime;
+    }
+
+    /**
+     * Longest time in milliseconds spent in a single delivery in the Swing thread.
+     */
+    public long getMaxDeliveryTime() {
+        return maxDeliveryTime;
+    }
+
+    private Results results(long token) {
+        Results results = pending.get(token);
+        if (results == null) {
+            results = new Results();
+            Results old = pending.putIfAbsent(token, results);
+            if (old != null) {
+                results = old;
+            }
+        }
+        return results;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            GUIMediator.safeInvokeLater(new Runnable() {
+                public void run() {
+                    long delay = lastDrain + FRAME_INTERVAL - System.currentTimeMillis();
+                    timer.setInitialDelay((int) Math.max(0, Math.min(delay, FRAME_INTERVAL)));
+                    timer.start();
+                }
+            });
+        }
+    }
+
+    private void drain() {
+        scheduled.set(false);
+        lastDrain = System.currentTimeMillis();
+
+        int budget = MAX_RESULTS_PER_FRAME;
+
+        Iterator<Entry<Long, Results>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry<Long, Results> e = it.next();
+            long token = e.getKey();
+            Results results = e.getValue();
+
+            List<UISearchResult> list = new ArrayList<UISearchResult>();
+            UISearchResult sr;
+            while (budget > 0 && (sr = results.queue.poll()) != null) {
+                list.add(sr);
+                budget--;
+            }
+            queueDepth.addAndGet(-list.size());
+
+            boolean alive = true;
+            if (!list.isEmpty()) {
+                alive = deliver(token, list);
+            }
+
+            if (!alive) {
+                // nobody is showing this search anymore
+                it.remove();
+                queueDepth.addAndGet(-results.queue.size());
+                results.queue.clear();
+            } else if (results.finished && results.queue.isEmpty()) {
+                it.remove();
+                try {
+                    listener.onFinished(token);
+                } catch (Throwable t) {
+                    LOG.warn("Error finishing search: " + token, t);
+                }
+            }
+        }
+
+        if (queueDepth.get() > 0) {
+            schedule();
+        }
+    }
+
+    private boolean deliver(long token, List<UISearchResult> list) {
+        long start = System.currentTimeMillis();
+
+        boolean alive = true;
+        try {
+            alive = listener.onResults(token, list);
+        } catch (Throwable t) {
+            LOG.warn("Error delivering search results: " + token, t);
+        }
+
+        long time = System.currentTimeMillis() - start;
+        numDeliveries++;
+        deliveryTime += time;
+        if (time > maxDeliveryTime) {
+            maxDeliveryTime = time;
+        }
+
+        return alive;
+    }
+
+    /**
+     * Receives the results in the Swing thread.
+     */
+    public interface Listener {
+
+        /**
+         * @return false if there is nothing showing the search anymore
+         */
+        public boolean onResults(long token, List<UISearchResult> results);
+
+        public void onFinished(long token);
+    }
+
+    private static final class Results {
+
+        public final Queue<UISearchResult> queue = new ConcurrentLinkedQueue<UISearchResult>();
+
+        public volatile boolean finished;
+    }
+}
@@ -201,8 +201,8 @@ public final class SearchResultDisplayer implements ThemeObserver, RefreshListen
      *  to the tabbed pane.  This is used both for normal searching 
      *  and browsing.  Returns the ResultPanel added.
      */
-    SearchResultMediator addResultTab(long token, List<String> searchTokens, SearchInformation info) {
-        SearchResultMediator panel = new SearchResultMediator(token, searchTokens, info);
+    SearchResultMediator addResultTab(long token, QueryMatcher matcher, SearchInformation info) {
+        SearchResultMediator panel = new SearchResultMediator(token, matcher, info);
         return addResultPanelInternal(panel, info.getTitle());
     }
 
@@ -363,6 +363,31 @@ public final class SearchResultDisplayer implements ThemeObserver, RefreshListen
         tabbedPane.setTitleAt(resultPanelIndex, titleOf(rp));
     }
 
+    /**
+     * Same as addQueryResult for a list of lines, the lines are added to
+     * rp with a single table event.
+     * 
+     * @requires this is called from Swing thread
+     */
+    void addQueryResults(long token, List<UISearchResult> lines, SearchResultMediator rp) {
+        if (rp.isStopped()) {
+            return;
+        }
+
+        if (!rp.matches(token))//GUID of rp!=replyGuid
+            throw new IllegalArgumentException("guids don't match");
+
+        rp.addAll(lines);
+
+        int resultPanelIndex = entries.indexOf(rp);
+
+        // If we couldn't find it, silently exit.
+        if (resultPanelIndex == -1)
+            return;
+
+        tabbedPane.setTitleAt(resultPanelIndex, titleOf(rp));
+    }
+
     void updateSearchIcon(SearchResultMediator rp, boolean active) {
         int resultPanelIndex = -1;
         // Search for the ResultPanel to verify it exists.
@@ -89,7 +89,7 @@ public class SearchResultMediator extends AbstractTableMediator<TableRowFiltered
      */
     private long token;
 
-    private final List<String> searchTokens;
+    private final QueryMatcher matcher;
 
     /**
      * The CompositeFilter for this ResultPanel.
@@ -132,7 +132,7 @@ public class SearchResultMediator extends AbstractTableMediator<TableRowFiltered
         SEARCH_INFO = SearchInformation.createKeywordSearch("", null, MediaType.getAnyTypeMediaType());
         FILTER = null;
         this.token = 0;
-        this.searchTokens = null;
+        this.matcher = null;
         setButtonEnabled(SearchButtons.TORRENT_DETAILS_BUTTON_INDEX, false);
         // disable dnd for overlay panel
         TABLE.setDragEnabled(false);
@@ -147,11 +147,11 @@ public class SearchResultMediator extends AbstractTableMediator<TableRowFiltered
      * @param guid the guid of the query.  Used to match results.
      * @param info the info of the search
      */
-    SearchResultMediator(long token, List<String> searchTokens, SearchInformation info) {
+    SearchResultMediator(long token, QueryMatcher matcher, SearchInformation info) {
         super(SEARCH_TABLE);
         SEARCH_INFO = info;
         this.token = token;
-        this.searchTokens = searchTokens;
+        this.matcher = matcher;
         setupRealTable();
         resetFilters();
     }
@@ -774,7 +774,7 @@ public class SearchResultMediator extends AbstractTableMediator<TableRowFiltered
         setButtonEnabled(SearchButtons.STOP_SEARCH_BUTTON_INDEX, active);
     }
 
-    List<String> getSearchTokens() {
-        return searchTokens;
+    QueryMatcher getQueryMatcher() {
+        return matcher;
     }
 }
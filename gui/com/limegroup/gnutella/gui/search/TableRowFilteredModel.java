@@ -16,9 +16,7 @@
 package com.limegroup.gnutella.gui.search;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import com.frostwire.gui.filters.TableLineFilter;
 import com.limegroup.gnutella.settings.SearchSettings;
@@ -80,12 +78,38 @@ public class TableRowFilteredModel extends ResultPanelModel {
      * Determines whether or not this line should be added.
      */
     public int add(SearchResultDataLine tl, int row) {
+        if (accept(tl)) {
+            return super.add(tl, row);
+        }
+        return -1;
+    }
+
+    /**
+     * Determines whether or not each line should be added, adding all
+     * the visible ones at once.
+     */
+    public void addAll(List<SearchResultDataLine> lines) {
+        List<SearchResultDataLine> visible = new ArrayList<SearchResultDataLine>(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            SearchResultDataLine tl = lines.get(i);
+            if (accept(tl)) {
+                visible.add(tl);
+            }
+        }
+        super.addAll(visible);
+    }
+
+    /**
+     * Returns true if the line should be shown, otherwise counts it
+     * and keeps it in HIDDEN if only the filter rejects it.
+     */
+    private boolean accept(SearchResultDataLine tl) {
         boolean isNotJunk = junkFilter.allow(tl);
         boolean allow = allow(tl);
 
         if (isNotJunk || !SearchSettings.hideJunk()) {
             if (allow) {
-                return super.add(tl, row);
+                return true;
             } else {
                 HIDDEN.add(tl);
                 _numResults += 1;
@@ -93,7 +117,7 @@ public class TableRowFilteredModel extends ResultPanelModel {
         } else {
             _numResults += 1;
         }
-        return -1;
+        return false;
     }
 
     /**
@@ -142,50 +166,13 @@ public class TableRowFilteredModel extends ResultPanelModel {
      * Rebuilds the internal map to denote a new filter.
      */
     private void rebuild() {
-        List<SearchResultDataLine> existing = new ArrayList<SearchResultDataLine>(_list);
-        List<SearchResultDataLine> hidden = new ArrayList<SearchResultDataLine>(HIDDEN);
+        List<SearchResultDataLine> lines = new ArrayList<SearchResultDataLine>(_list.size() + HIDDEN.size());
+        lines.addAll(_list);
+        lines.addAll(HIDDEN);
         simpleClear();
 
-        // For stuff in _list, we can just re-add the DataLines as-is.
-        if (isSorted()) {
-            for (int i = 0; i < existing.size(); i++) {
-                addSorted(existing.get(i));
-            }
-        } else {
-            for (int i = 0; i < existing.size(); i++) {
-                add(existing.get(i));
-            }
-        }
-
-        // Merge the hidden TableLines
-        Map<String, SearchResultDataLine> mergeMap = new HashMap<String, SearchResultDataLine>();
-        for (int i = 0; i < hidden.size(); i++) {
-            SearchResultDataLine tl = hidden.get(i);
-            //SearchResult sr = tl.getInitializeObject();
-            //String urn = sr.getHash();
-
-            if (isSorted()) {
-                addSorted(tl);
-            } else {
-                add(tl);
-            }
-
-            //            TableLine tableLine = mergeMap.get(urn);
-            //            if (tableLine == null) {
-            //                mergeMap.put(urn, tl); // re-use TableLines
-            //            } else {
-            //                tableLine.addNewResult(sr, METADATA);
-            //            }
-        }
-
-        // And add them
-        if (isSorted()) {
-            for (SearchResultDataLine line : mergeMap.values())
-                addSorted(line);
-        } else {
-            for (SearchResultDataLine line : mergeMap.values())
-                add(line);
-        }
+        // re-add the DataLines as-is, sorting once instead of inserting one by one.
+        addAll(lines);
     }
 
     public int getFilteredResults() {
@@ -26,6 +26,7 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -520,6 +521,64 @@ public abstract class AbstractTableMediator<T extends DataLineModel<E, I>, E ext
         fixSelection(addedAt, inView);
     }
 
+    /**
+     * Adds all the objects firing a single table event, the same as
+     * calling add(Object) for each one. The selection in the TABLE
+     * is maintained.
+     */
+    @SuppressWarnings("unchecked")
+    public void addAll(List<? extends I> list) {
+        if (list.isEmpty()) {
+            return;
+        }
+
+        if (TABLE.isEditing()) {
+            CellEditor editor = TABLE.getCellEditor();
+            editor.cancelCellEditing();
+        }
+
+        // store the currently selected rows
+        int[] rows = TABLE.getSelectedRows();
+        DataLine<?>[] dls = new DataLine[rows.length];
+        Object inView = null;
+        for (int i = 0; i < rows.length; i++) {
+            dls[i] = DATA_MODEL.get(rows[i]);
+            if (inView == null && TABLE.isRowVisible(rows[i]))
+                inView = dls[i];
+        }
+
+        boolean sorted = SETTINGS.REAL_TIME_SORT.getValue() && DATA_MODEL.isSorted();
+        boolean changed;
+
+        DATA_MODEL.beginBatch();
+        try {
+            for (I o : list) {
+                if (sorted)
+                    DATA_MODEL.addSorted(o);
+                else
+                    DATA_MODEL.add(o);
+            }
+        } finally {
+            changed = DATA_MODEL.endBatch();
+        }
+
+        // rows appended at the end keep the selection
+        if (!changed)
+            return;
+
+        // reselect the rows.
+        for (int i = 0; i < rows.length; i++) {
+            int sel = DATA_MODEL.getRow((E) dls[i]);
+            if (sel >= 0 && sel < DATA_MODEL.getRowCount()) {
+                TABLE.addRowSelectionInterval(sel, sel);
+                if (inView == dls[i]) {
+                    TABLE.ensureRowVisible(sel);
+                    inView = null;
+                }
+            }
+        }
+    }
+
     /**
      * Forces the object to be added unsorted.
      */
@@ -75,6 +75,15 @@ public class BasicDataLineModel<T extends DataLine<E>, E> extends AbstractTableM
      */
     protected boolean _isSorted = false;
 
+    /**
+     * Whether or not the adds are being batched, and the state of the batch.
+     */
+    private boolean _batching = false;
+    private int _batchFirst;
+    private int _batchAdded;
+    private boolean _batchAppended;
+    private boolean _batchUpdated;
+
     /*
      * Constructor -- creates the model, tying it to
      * a specific DataLine class.
@@ -310,10 +319,83 @@ public class BasicDataLineModel<T extends DataLine<E>, E> extends AbstractTableM
      */
     public int add(T dl, int row) {
         _list.add(row, dl);
-        fireTableRowsInserted(row, row);
+        if (_batching) {
+            _batchAdded++;
+            _batchAppended &= row == _list.size() - 1;
+        } else {
+            fireTableRowsInserted(row, row);
+        }
         return row;
     }
 
+    /**
+     * Adds many DataLines at once, to the end of the list or, if sorted,
+     * merged into their sorted positions with a single sort.
+     *
+     * Extending classes that override add(DataLine, int) to maintain
+     * a HashMap should override this too.
+     */
+    public void addAll(List<T> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        int first = _list.size();
+        _list.addAll(lines);
+        if (isSorted()) {
+            Collections.sort(_list, this);
+        }
+        if (_batching) {
+            _batchAdded += lines.size();
+            _batchAppended &= !isSorted();
+        } else if (isSorted()) {
+            fireTableDataChanged();
+        } else {
+            fireTableRowsInserted(first, _list.size() - 1);
+        }
+    }
+
+    /**
+     * Notifies that the values of existing rows changed, once at the
+     * end of the batch if adds are being batched.
+     */
+    protected void fireRowsUpdated() {
+        if (_batching) {
+            _batchUpdated = true;
+        } else if (_list.size() > 0) {
+            fireTableRowsUpdated(0, _list.size() - 1);
+        }
+    }
+
+    //Implements DataLineModel interface.
+    public void beginBatch() {
+        _batching = true;
+        _batchFirst = _list.size();
+        _batchAdded = 0;
+        _batchAppended = true;
+        _batchUpdated = false;
+    }
+
+    //Implements DataLineModel interface.
+    public boolean endBatch() {
+        _batching = false;
+        if (_batchAdded == 0) {
+            if (_batchUpdated) {
+                fireRowsUpdated();
+            }
+            return false;
+        }
+        if (_batchAppended) {
+            if (_batchUpdated && _batchFirst > 0) {
+                fireTableRowsUpdated(0, _batchFirst - 1);
+            }
+            fireTableRowsInserted(_batchFirst, _list.size() - 1);
+            return false;
+        } else {
+            fireTableDataChanged();
+            return true;
+        }
+    }
+
     /**
      * Helper function.
      *
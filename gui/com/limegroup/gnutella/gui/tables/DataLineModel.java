@@ -101,6 +101,18 @@ public interface DataLineModel<T extends DataLine<E>, E> extends Comparator<T>,
      */
     public int add(T dl, int row);
 
+    /**
+     * Starts a batch of adds, no table events are fired for the rows
+     * added until {@link #endBatch()}.
+     */
+    public void beginBatch();
+
+    /**
+     * Ends a batch of adds, firing a single table event for all the rows
+     * added. Returns true if the event invalidated the whole table.
+     */
+    public boolean endBatch();
+
     /**
      * Get the DataLine associated with the row.
      */